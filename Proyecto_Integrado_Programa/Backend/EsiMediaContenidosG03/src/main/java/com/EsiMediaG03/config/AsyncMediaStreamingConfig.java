@@ -0,0 +1,63 @@
+package com.EsiMediaG03.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import com.EsiMediaG03.http.AsyncMediaReturnValueHandler;
+import com.EsiMediaG03.services.LocalMediaWriter;
+import com.EsiMediaG03.services.MediaTransferExecutor;
+
+/**
+ * Envuelve con AsyncMediaReturnValueHandler al handler que procesa ResponseEntity
+ * (HttpEntityMethodProcessor o su envoltorio según la versión de Spring), para que
+ * las respuestas de media se escriban fuera de los hilos de Tomcat.
+ */
+@Configuration
+public class AsyncMediaStreamingConfig implements SmartInitializingSingleton {
+
+    private static final MethodParameter RESPONSE_ENTITY_RETURN = new MethodParameter(
+            ReflectionUtils.findMethod(AsyncMediaStreamingConfig.class, "responseEntitySignature"), -1);
+
+    private final ObjectProvider<RequestMappingHandlerAdapter> adapters;
+    private final MediaTransferExecutor transfers;
+    private final LocalMediaWriter writer;
+
+    public AsyncMediaStreamingConfig(ObjectProvider<RequestMappingHandlerAdapter> adapters,
+                                     MediaTransferExecutor transfers, LocalMediaWriter writer) {
+        this.adapters = adapters;
+        this.transfers = transfers;
+        this.writer = writer;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!transfers.isEnabled()) return;
+        adapters.forEach(adapter -> {
+            List<HandlerMethodReturnValueHandler> current = adapter.getReturnValueHandlers();
+            if (current == null) return;
+            List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(current);
+            for (int i = 0; i < handlers.size(); i++) {
+                HandlerMethodReturnValueHandler h = handlers.get(i);
+                if (h.supportsReturnType(RESPONSE_ENTITY_RETURN)) {
+                    handlers.set(i, new AsyncMediaReturnValueHandler(h, transfers, writer));
+                    break;
+                }
+            }
+            adapter.setReturnValueHandlers(handlers);
+        });
+    }
+
+    @SuppressWarnings("unused")
+    private static ResponseEntity<Object> responseEntitySignature() {
+        return null;
+    }
+}
@@ -28,6 +28,7 @@ public class CorsConfig implements WebMvcConfigurer {
             .allowedOrigins(origins)
             .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
             .allowedHeaders("*")
+            .exposedHeaders("X-Playback-Grant", "Upload-Offset", "Retry-After")
             .allowCredentials(true);
     }
 }
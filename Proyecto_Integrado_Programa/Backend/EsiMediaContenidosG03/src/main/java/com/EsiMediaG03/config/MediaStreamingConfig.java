@@ -0,0 +1,40 @@
+package com.EsiMediaG03.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+import com.EsiMediaG03.http.MultipartFileRegionsHttpMessageConverter;
+import com.EsiMediaG03.http.ProxiedMediaHttpMessageConverter;
+import com.EsiMediaG03.http.StreamAdmissionInterceptor;
+import com.EsiMediaG03.services.LocalMediaWriter;
+import com.EsiMediaG03.services.StreamAdmission;
+
+@Configuration
+public class MediaStreamingConfig implements WebMvcConfigurer {
+
+    private final LocalMediaWriter localMediaWriter;
+    private final StreamAdmission streamAdmission;
+
+    public MediaStreamingConfig(LocalMediaWriter localMediaWriter, StreamAdmission streamAdmission) {
+        this.localMediaWriter = localMediaWriter;
+        this.streamAdmission = streamAdmission;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new FileRegionHttpMessageConverter(localMediaWriter));
+        converters.add(1, new MultipartFileRegionsHttpMessageConverter(localMediaWriter));
+        converters.add(2, new ProxiedMediaHttpMessageConverter());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new StreamAdmissionInterceptor(streamAdmission))
+                .addPathPatterns("/Contenidos/ReproducirContenido/**", "/Contenidos/Empaquetado/**");
+    }
+}
@@ -0,0 +1,83 @@
+package com.EsiMediaG03.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+
+/**
+ * Crea al arrancar los índices que necesitan las consultas del servicio
+ * (auto-index-creation está desactivado). Es idempotente; si Mongo no está
+ * disponible o un índice choca con uno existente se registra y se sigue.
+ */
+@Configuration
+public class MongoIndexConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoIndexConfig.class);
+
+    /** Filtros de igualdad del catálogo (ContenidoService.catalogo). */
+    private static final String[] FILTROS_CATALOGO = {"visible", "tipo", "vip"};
+
+    private final MongoTemplate mongoTemplate;
+
+    public MongoIndexConfig(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void crearIndices() {
+        IndexOperations contenidos = mongoTemplate.indexOps(Contenido.class);
+        // Catálogo paginado por _id descendente. Los filtros de igualdad (visible, tipo,
+        // vip) llegan en cualquier combinación y el índice sólo da el orden por _id si
+        // la combinación es exactamente su prefijo: un índice por cada una (son pocos
+        // documentos y campos de baja cardinalidad, la escritura apenas lo nota).
+        for (int m = 1; m < 1 << FILTROS_CATALOGO.length; m++) {
+            Index index = new Index();
+            StringBuilder nombre = new StringBuilder("catalogo");
+            for (int i = 0; i < FILTROS_CATALOGO.length; i++) {
+                if ((m & 1 << i) == 0) continue;
+                index.on(FILTROS_CATALOGO[i], Sort.Direction.ASC);
+                nombre.append('_').append(FILTROS_CATALOGO[i]);
+            }
+            crear(contenidos, index.on("_id", Sort.Direction.DESC).named(nombre.toString()));
+        }
+        // Con tags manda el índice multiclave; el resto de filtros se aplica sobre él
+        crear(contenidos, new Index().on("tags", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.DESC).named("catalogo_tags"));
+        // Top por valoración: ordena por la puntuación bayesiana sin ordenar en memoria
+        crear(contenidos, new Index().on("ratingBayes", Sort.Direction.DESC)
+                .on("ratingCount", Sort.Direction.DESC).named("valoraciones_bayes"));
+
+        // Interacciones: el _id ya es (contenidoId, email); faltan los accesos por contenido y por usuario
+        crear(mongoTemplate.indexOps(Reproductor.class),
+                new Index().on("contenidoId", Sort.Direction.ASC).named("reproductores_contenido"));
+        IndexOperations valoraciones = mongoTemplate.indexOps(Valoracion.class);
+        crear(valoraciones, new Index().on("contenidoId", Sort.Direction.ASC).named("valoraciones_contenido"));
+        // Sólo las valoraciones aún no sumadas al agregado llevan "pendiente"
+        crear(valoraciones, new Index().on("pendiente", Sort.Direction.ASC).on("reclamadaHasta", Sort.Direction.ASC)
+                .sparse().named("valoraciones_pendientes"));
+        IndexOperations favoritos = mongoTemplate.indexOps(Favorito.class);
+        crear(favoritos, new Index().on("contenidoId", Sort.Direction.ASC).named("favoritos_contenido"));
+        crear(favoritos, new Index().on("userEmail", Sort.Direction.ASC)
+                .on("fecha", Sort.Direction.DESC).named("favoritos_usuario_fecha"));
+    }
+
+    private static void crear(IndexOperations ops, IndexDefinition index) {
+        try {
+            ops.createIndex(index);
+        } catch (RuntimeException e) {
+            LOG.warn("No se pudo crear el índice {}: {}", index.getIndexOptions().get("name"), e.getMessage());
+        }
+    }
+}
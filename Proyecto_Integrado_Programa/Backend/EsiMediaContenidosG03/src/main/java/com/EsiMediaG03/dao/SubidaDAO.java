@@ -0,0 +1,15 @@
+package com.EsiMediaG03.dao;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.EsiMediaG03.model.Subida;
+
+@Repository
+public interface SubidaDAO extends MongoRepository<Subida, String> {
+
+    List<Subida> findByEstadoAndActualizadaBefore(Subida.Estado estado, LocalDateTime limite);
+}
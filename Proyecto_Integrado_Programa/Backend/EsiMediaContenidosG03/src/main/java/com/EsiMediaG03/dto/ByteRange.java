@@ -0,0 +1,8 @@
+package com.EsiMediaG03.dto;
+
+public record ByteRange(long start, long end) {
+
+    public long length() {
+        return end - start + 1;
+    }
+}
@@ -0,0 +1,25 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.EsiMediaG03.model.Contenido;
+
+/** Vista ligera de un contenido para listados: sin reproductores, ratings ni favoritos. */
+public record ContenidoResumen(String id, String titulo, Contenido.Tipo tipo, List<String> tags, String imagen,
+                               boolean vip, boolean visible, int duracionMinutos, String resolucion,
+                               int restringidoEdad, LocalDateTime disponibleHasta, long reproducciones,
+                               double ratingAvg, int ratingCount) {
+
+    /** Campos de Mongo que necesita la proyección. */
+    public static final String[] CAMPOS = {
+            "titulo", "tipo", "tags", "imagen", "vip", "visible", "duracionMinutos", "resolucion",
+            "restringidoEdad", "disponibleHasta", "reproducciones", "ratingAvg", "ratingCount"
+    };
+
+    public static ContenidoResumen of(Contenido c) {
+        return new ContenidoResumen(c.getId(), c.getTitulo(), c.getTipo(), c.getTags(), c.getImagen(),
+                c.isVip(), c.isVisible(), c.getDuracionMinutos(), c.getResolucion(), c.getRestringidoEdad(),
+                c.getDisponibleHasta(), c.getNumReproducciones(), c.getRatingAvg(), c.getRatingCount());
+    }
+}
@@ -0,0 +1,11 @@
+package com.EsiMediaG03.dto;
+
+import com.EsiMediaG03.model.Contenido;
+
+public class CrearSubidaRequest {
+    public String nombreFichero;
+    public Long tamanoBytes;
+    public String mimeType;
+    public String sha256;
+    public Contenido contenido;
+}
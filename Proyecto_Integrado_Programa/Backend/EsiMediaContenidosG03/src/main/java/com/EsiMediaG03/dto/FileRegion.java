@@ -0,0 +1,20 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.file.Path;
+
+import com.EsiMediaG03.services.TransferListener;
+
+public record FileRegion(Path path, long position, long count, TransferListener listener) {
+
+    public FileRegion(Path path, long position, long count) {
+        this(path, position, count, TransferListener.NONE);
+    }
+
+    public static FileRegion whole(Path path, long length) {
+        return new FileRegion(path, 0, length);
+    }
+
+    public FileRegion withListener(TransferListener l) {
+        return new FileRegion(path, position, count, l != null ? l : TransferListener.NONE);
+    }
+}
@@ -0,0 +1,8 @@
+package com.EsiMediaG03.dto;
+
+public record MediaFileMetadata(boolean readable, long size, long lastModified, String probedMime) {
+
+    public static MediaFileMetadata unreadable() {
+        return new MediaFileMetadata(false, -1, -1, null);
+    }
+}
@@ -0,0 +1,10 @@
+package com.EsiMediaG03.dto;
+
+/** Resultado del sondeo de un fichero multimedia. Los campos que el contenedor no declara quedan a null. */
+public record MediaProbe(String mimeType, Long duracionMs, Integer ancho, Integer alto,
+                         Integer bitrateKbps, String codec) {
+
+    public boolean hasVideo() {
+        return ancho != null && alto != null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.EsiMediaG03.services.TransferListener;
+
+/**
+ * Cuerpo multipart/byteranges (RFC 7233 §4.1) cuyas partes se leen directamente
+ * del fichero al escribir la respuesta; nada se bufferiza en memoria.
+ */
+public record MultipartFileRegions(Path path, List<ByteRange> parts, long fileSize,
+                                   String partContentType, String boundary, TransferListener listener) {
+
+    public byte[] partHeader(ByteRange part) {
+        String h = "--" + boundary + "\r\n"
+                + "Content-Type: " + partContentType + "\r\n"
+                + "Content-Range: bytes " + part.start() + "-" + part.end() + "/" + fileSize + "\r\n"
+                + "\r\n";
+        return h.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public byte[] partTrailer() {
+        return "\r\n".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public byte[] closeDelimiter() {
+        return ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public long contentLength() {
+        long total = closeDelimiter().length;
+        for (ByteRange p : parts) {
+            total += partHeader(p).length + p.length() + partTrailer().length;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,7 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+/** Página del catálogo; siguiente es el cursor para pedir la próxima, o null si no hay más. */
+public record PaginaContenidos(List<ContenidoResumen> items, String siguiente) {
+}
@@ -0,0 +1,16 @@
+package com.EsiMediaG03.dto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.HttpHeaders;
+
+/** Respuesta de un origen externo reenviada tal cual (status, cabeceras de media y cuerpo). */
+public record ProxiedMedia(int status, HttpHeaders headers, InputStream body) implements Closeable {
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
@@ -0,0 +1,60 @@
+package com.EsiMediaG03.dto;
+
+import java.util.Arrays;
+
+/**
+ * Índice tiempo -> byte de un fichero multimedia.
+ *
+ * En modo tabla, cada entrada es un punto de acceso (keyframe en MP4, inicio de
+ * frame en MP3) y se devuelve la entrada anterior o igual al instante pedido.
+ * En modo lineal (PCM) el offset se calcula con bytesPorSegundo y se alinea al
+ * bloque; offsets[0] es el inicio de los datos y finDatos su final.
+ */
+public record SeekIndex(long[] tiemposMs, long[] offsets, long bytesPorSegundo, int alineacion, long finDatos) {
+
+    public static SeekIndex tabla(long[] tiemposMs, long[] offsets) {
+        return new SeekIndex(tiemposMs, offsets, 0, 1, -1);
+    }
+
+    public static SeekIndex lineal(long inicioDatos, long finDatos, long bytesPorSegundo, int alineacion) {
+        return new SeekIndex(new long[] {0}, new long[] {inicioDatos}, bytesPorSegundo, Math.max(1, alineacion), finDatos);
+    }
+
+    public boolean isLineal() {
+        return bytesPorSegundo > 0;
+    }
+
+    public int entradas() {
+        return tiemposMs.length;
+    }
+
+    /** Offset alineado desde el que empezar a leer para reproducir a partir de ms. */
+    public long offsetFor(long ms) {
+        long t = Math.max(0, ms);
+        if (isLineal()) {
+            long rel = t * bytesPorSegundo / 1000;
+            rel -= rel % alineacion;
+            long ultimo = Math.max(offsets[0], finDatos - alineacion);
+            return Math.min(offsets[0] + rel, ultimo);
+        }
+        int i = Arrays.binarySearch(tiemposMs, t);
+        if (i < 0) i = -i - 2;
+        return offsets[Math.max(0, i)];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SeekIndex s && Arrays.equals(tiemposMs, s.tiemposMs) && Arrays.equals(offsets, s.offsets)
+                && bytesPorSegundo == s.bytesPorSegundo && alineacion == s.alineacion && finDatos == s.finDatos;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(tiemposMs) + Arrays.hashCode(offsets);
+    }
+
+    @Override
+    public String toString() {
+        return "SeekIndex[entradas=" + entradas() + ", lineal=" + isLineal() + "]";
+    }
+}
@@ -3,14 +3,25 @@ package com.EsiMediaG03.dto;
 import java.nio.file.Path;
 
 public record StreamingTarget(Path path, long length, String mimeType,
-                              boolean externalRedirect, String externalUrl) {
+                              boolean externalRedirect, String externalUrl,
+                              long lastModified, String etag) {
+
+    public StreamingTarget(Path path, long length, String mimeType,
+                           boolean externalRedirect, String externalUrl) {
+        this(path, length, mimeType, externalRedirect, externalUrl, -1, null);
+    }
 
     public static StreamingTarget local(Path path, long length, String mimeType) {
         return new StreamingTarget(path, length, mimeType, false, null);
     }
+    public static StreamingTarget local(Path path, long length, String mimeType, long lastModified, String etag) {
+        return new StreamingTarget(path, length, mimeType, false, null, lastModified, etag);
+    }
     public static StreamingTarget external(String url, String mimeType) {
         return new StreamingTarget(null, -1, mimeType, true, url);
     }
 
     public boolean isExternalRedirect() { return externalRedirect; }
+
+    public boolean hasValidators() { return etag != null; }
 }
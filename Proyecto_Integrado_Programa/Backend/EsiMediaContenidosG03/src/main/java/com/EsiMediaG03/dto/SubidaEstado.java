@@ -0,0 +1,10 @@
+package com.EsiMediaG03.dto;
+
+import com.EsiMediaG03.model.Subida;
+
+public record SubidaEstado(String id, long offset, long tamanoBytes, String estado, long maxFragmentoBytes) {
+
+    public static SubidaEstado of(Subida s, long maxFragmentoBytes) {
+        return new SubidaEstado(s.getId(), s.getRecibidos(), s.getTamanoBytes(), s.getEstado().name(), maxFragmentoBytes);
+    }
+}
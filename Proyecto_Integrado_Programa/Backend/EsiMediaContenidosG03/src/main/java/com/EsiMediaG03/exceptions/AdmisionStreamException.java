@@ -0,0 +1,25 @@
+package com.EsiMediaG03.exceptions;
+
+public class AdmisionStreamException extends RuntimeException {
+
+    private final boolean porUsuario;
+    private final long retryAfterSegundos;
+
+    /**
+     * @param porUsuario true si el cliente ha agotado su cuota (429); false si
+     *                   el nodo está saturado (503).
+     */
+    public AdmisionStreamException(String message, boolean porUsuario, long retryAfterSegundos) {
+        super(message);
+        this.porUsuario = porUsuario;
+        this.retryAfterSegundos = retryAfterSegundos;
+    }
+
+    public boolean isPorUsuario() {
+        return porUsuario;
+    }
+
+    public long getRetryAfterSegundos() {
+        return retryAfterSegundos;
+    }
+}
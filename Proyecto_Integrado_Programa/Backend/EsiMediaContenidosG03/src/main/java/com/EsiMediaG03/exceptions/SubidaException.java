@@ -0,0 +1,28 @@
+package com.EsiMediaG03.exceptions;
+
+public class SubidaException extends RuntimeException {
+
+    private final boolean conflicto;
+    private final long offsetActual;
+
+    public SubidaException(String message) {
+        super(message);
+        this.conflicto = false;
+        this.offsetActual = -1;
+    }
+
+    /** Fragmento fuera de orden o concurrente: el cliente debe reanudar desde offsetActual. */
+    public SubidaException(String message, long offsetActual) {
+        super(message);
+        this.conflicto = true;
+        this.offsetActual = offsetActual;
+    }
+
+    public boolean isConflicto() {
+        return conflicto;
+    }
+
+    public long getOffsetActual() {
+        return offsetActual;
+    }
+}
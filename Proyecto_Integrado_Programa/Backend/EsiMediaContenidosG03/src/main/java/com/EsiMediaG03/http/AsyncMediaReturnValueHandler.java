@@ -0,0 +1,113 @@
+package com.EsiMediaG03.http;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.dto.ProxiedMedia;
+import com.EsiMediaG03.services.LocalMediaWriter;
+import com.EsiMediaG03.services.MediaTransferExecutor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Envuelve al procesador de ResponseEntity: cuando el cuerpo es media (FileRegion,
+ * MultipartFileRegions o ProxiedMedia) la petición pasa a modo asíncrono y la
+ * copia se hace en el pool de MediaTransferExecutor, liberando el hilo de Tomcat.
+ * Cualquier otro valor se delega sin cambios, igual que un FileRegion que Tomcat
+ * puede enviar con sendfile: el conector no ocupa ningún hilo de la aplicación.
+ * Si el pool está saturado se responde 503 con Retry-After.
+ */
+public class AsyncMediaReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    static final String RETRY_AFTER_SECONDS = "2";
+
+    /** Resultado del redispatch asíncrono: la respuesta ya está escrita, no queda nada por hacer. */
+    private static final ResponseEntity<Object> ALREADY_WRITTEN = ResponseEntity.ok().build();
+
+    private final HandlerMethodReturnValueHandler delegate;
+    private final MediaTransferExecutor transfers;
+    private final LocalMediaWriter writer;
+
+    public AsyncMediaReturnValueHandler(HandlerMethodReturnValueHandler delegate,
+                                        MediaTransferExecutor transfers, LocalMediaWriter writer) {
+        this.delegate = delegate;
+        this.transfers = transfers;
+        this.writer = writer;
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return delegate.supportsReturnType(returnType);
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+        if (returnValue == ALREADY_WRITTEN) {
+            mavContainer.setRequestHandled(true);
+            return;
+        }
+        HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+        HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+        if (!transfers.isEnabled()
+                || !(returnValue instanceof ResponseEntity<?> entity)
+                || !isMediaBody(entity.getBody())
+                || request == null || response == null || !request.isAsyncSupported()
+                || (entity.getBody() instanceof FileRegion region && TomcatSendfile.disponible(request, region))) {
+            delegate.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+            return;
+        }
+
+        ShallowEtagHeaderFilter.disableContentCaching(request);
+        DeferredResult<Object> deferred = new DeferredResult<>(transfers.requestTimeoutMs());
+        WebAsyncUtils.getAsyncManager(webRequest).startDeferredResultProcessing(deferred, mavContainer);
+
+        Object body = entity.getBody();
+        MediaTransferExecutor.Transfer transfer = transfers.submit(
+                () -> {
+                    response.setStatus(entity.getStatusCode().value());
+                    entity.getHeaders().forEach((name, values) -> values.forEach(v -> response.addHeader(name, v)));
+                    return response.getOutputStream();
+                },
+                out -> {
+                    if (body instanceof FileRegion region) {
+                        writer.write(region, out);
+                    } else if (body instanceof MultipartFileRegions parts) {
+                        writer.write(parts, out);
+                    } else {
+                        try (ProxiedMedia proxied = (ProxiedMedia) body) {
+                            proxied.body().transferTo(out);
+                        }
+                    }
+                },
+                resultado -> deferred.setResult(ALREADY_WRITTEN));
+
+        if (transfer == null) {
+            if (body instanceof ProxiedMedia proxied) proxied.close();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            deferred.setResult(ALREADY_WRITTEN);
+            return;
+        }
+        deferred.onTimeout(() -> {
+            transfer.abort();
+            deferred.setResult(ALREADY_WRITTEN);
+        });
+        deferred.onError(t -> transfer.abort());
+    }
+
+    private static boolean isMediaBody(Object body) {
+        return body instanceof FileRegion || body instanceof MultipartFileRegions || body instanceof ProxiedMedia;
+    }
+}
@@ -0,0 +1,35 @@
+package com.EsiMediaG03.http;
+
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+final class ClientKeys {
+
+    private ClientKeys() { }
+
+    /** Identifica la conexión TCP actual (ip:puerto remoto) para un contenido dado. */
+    static String connection(String contenidoId) {
+        HttpServletRequest req = currentRequest();
+        if (req == null) return null;
+        return contenidoId + "|" + req.getRemoteAddr() + ":" + req.getRemotePort();
+    }
+
+    /**
+     * Identifica al cliente para las sesiones de reproducción: el email si viene,
+     * si no la IP remota más el User-Agent. Fuera de una petición devuelve null.
+     */
+    static String playbackClient(String userEmail) {
+        if (userEmail != null && !userEmail.isBlank()) return "u:" + userEmail.trim().toLowerCase();
+        HttpServletRequest req = currentRequest();
+        if (req == null) return null;
+        String ua = req.getHeader("User-Agent");
+        return "a:" + req.getRemoteAddr() + "|" + (ua == null ? "" : ua);
+    }
+
+    static HttpServletRequest currentRequest() {
+        var attrs = RequestContextHolder.getRequestAttributes();
+        return (attrs instanceof ServletRequestAttributes sra) ? sra.getRequest() : null;
+    }
+}
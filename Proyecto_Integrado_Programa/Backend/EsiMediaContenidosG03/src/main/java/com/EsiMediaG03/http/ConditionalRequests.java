@@ -0,0 +1,69 @@
+package com.EsiMediaG03.http;
+
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Evaluación de peticiones condicionales (RFC 7232) e If-Range (RFC 7233 §3.2)
+ * a partir del ETag fuerte y la fecha de modificación del fichero servido.
+ */
+final class ConditionalRequests {
+
+    private ConditionalRequests() { }
+
+    static void addValidators(HttpHeaders h, String etag, long lastModified) {
+        if (etag != null) h.setETag(etag);
+        if (lastModified > 0) h.setLastModified(lastModified);
+    }
+
+    /** true si la petición es un GET/HEAD condicional que debe responderse con 304. */
+    static boolean isNotModified(HttpHeaders request, String etag, long lastModified) {
+        List<String> ifNoneMatch = safeIfNoneMatch(request);
+        if (!ifNoneMatch.isEmpty()) {
+            if (etag == null) return false;
+            for (String candidate : ifNoneMatch) {
+                if ("*".equals(candidate) || opaque(candidate).equals(opaque(etag))) return true;
+            }
+            return false;
+        }
+        long ims = safeDate(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ims >= 0 && lastModified > 0 && lastModified / 1000 <= ims / 1000;
+    }
+
+    /** true si el Range puede aplicarse; false si If-Range no coincide y hay que servir el recurso completo. */
+    static boolean ifRangeMatches(HttpHeaders request, String etag, long lastModified) {
+        String ifRange = request.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.isBlank()) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range exige comparación fuerte: un ETag débil nunca coincide
+            return etag != null && !ifRange.startsWith("W/") && ifRange.equals(etag);
+        }
+        long date = safeDate(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && lastModified > 0 && lastModified / 1000 == date / 1000;
+    }
+
+    private static String opaque(String tag) {
+        String t = tag.trim();
+        if (t.startsWith("W/")) t = t.substring(2);
+        if (t.length() >= 2 && t.startsWith("\"") && t.endsWith("\"")) t = t.substring(1, t.length() - 1);
+        return t;
+    }
+
+    private static List<String> safeIfNoneMatch(HttpHeaders request) {
+        try {
+            return request.getIfNoneMatch();
+        } catch (IllegalArgumentException ex) {
+            return List.of();
+        }
+    }
+
+    private static long safeDate(HttpHeaders request, String name) {
+        try {
+            return request.getFirstDate(name);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+}
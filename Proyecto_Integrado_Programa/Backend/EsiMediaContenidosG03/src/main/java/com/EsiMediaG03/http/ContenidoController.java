@@ -1,18 +1,21 @@
 package com.EsiMediaG03.http;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -24,12 +27,25 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 
+import com.EsiMediaG03.dto.ByteRange;
+import com.EsiMediaG03.dto.FileRegion;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.dto.PaginaContenidos;
+import com.EsiMediaG03.dto.ProxiedMedia;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.CatalogoExporter;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.Fmp4Packager;
+import com.EsiMediaG03.services.RangePolicy;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("Contenidos")
@@ -39,11 +55,16 @@ import com.EsiMediaG03.services.ContenidoService;
 })
 public class ContenidoController {
 
-    private static final long DEFAULT_CHUNK_SIZE = 1024L * 1024L;
     private final ContenidoService contenidoService;
+    private final RangePolicy rangePolicy;
+
+    /** Permiso firmado de reproducción: lo emite la primera petición y lo reenvían las de rango siguientes. */
+    static final String PLAYBACK_GRANT_HEADER = "X-Playback-Grant";
+    static final String LISTA_HEADER = "X-Lista-Id";
 
-    public ContenidoController(ContenidoService contenidoService) {
+    public ContenidoController(ContenidoService contenidoService, RangePolicy rangePolicy) {
         this.contenidoService = contenidoService;
+        this.rangePolicy = rangePolicy;
     }
 
     @PostMapping("/AnadirContenido")
@@ -58,6 +79,43 @@ public class ContenidoController {
         return ResponseEntity.ok(lista);
     }
 
+    /**
+     * Exportación completa del catálogo en NDJSON, escrita según se lee del
+     * cursor. ?campos=a,b limita la proyección y ?desde=<id> reanuda tras el
+     * último id recibido.
+     */
+    @GetMapping("/Exportar")
+    public void exportarCatalogo(
+            @RequestParam(value = "campos", required = false) List<String> campos,
+            @RequestParam(value = "desde", required = false) String desde,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        ShallowEtagHeaderFilter.disableContentCaching(request);
+        response.setContentType(CatalogoExporter.NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        try {
+            contenidoService.exportarCatalogo(campos, desde, response.getOutputStream());
+        } catch (IllegalArgumentException e) {
+            response.reset();
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+        }
+    }
+
+    @GetMapping("/Catalogo")
+    public ResponseEntity<PaginaContenidos> catalogo(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", required = false) Integer limite,
+            @RequestParam(value = "tipo", required = false) Contenido.Tipo tipo,
+            @RequestParam(value = "tags", required = false) List<String> tags,
+            @RequestParam(value = "vip", required = false) Boolean vip,
+            @RequestParam(value = "visible", required = false) Boolean visible) {
+        try {
+            return ResponseEntity.ok(contenidoService.catalogo(cursor, limite, tipo, tags, vip, visible));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/ReproducirContenido/{id}")
     public ResponseEntity<Object> stream(
             @PathVariable String id,
@@ -67,85 +125,135 @@ public class ContenidoController {
             @RequestHeader(value="X-User-Vip", required=false) Boolean userVip,
             @RequestHeader(value="X-User-Birthdate", required=false) String userBirthdateIso,
             @RequestHeader(value="X-User-Age", required=false) Integer userAge,
-            @org.springframework.web.bind.annotation.RequestParam(value = "meta", required = false) Boolean meta // <— NUEVO
+            @org.springframework.web.bind.annotation.RequestParam(value = "meta", required = false) Boolean meta, // <— NUEVO
+            @org.springframework.web.bind.annotation.RequestParam(value = "t", required = false) Double t
     ) throws Exception {
         Integer age = resolveAge(userBirthdateIso, userAge);
 
-        StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
+        String cliente = ClientKeys.playbackClient(userEmail);
+
+        StreamingTarget target = contenidoService.targetFromGrant(id, headers.getFirst(PLAYBACK_GRANT_HEADER),
+                cliente, userVip, age);
+        String grant = null;
+        if (target == null) {
+            target = contenidoService.resolveStreamingTarget(id, userVip, age);
+            grant = contenidoService.emitirGrant(id, target, cliente, userVip, age);
+        }
+
+        // meta=true lleva el grant y la URL firmada, que caducan: no se revalida ni se cachea
+        boolean esMeta = Boolean.TRUE.equals(meta);
+        if (!esMeta && target.hasValidators()
+                && ConditionalRequests.isNotModified(headers, target.etag(), target.lastModified())) {
+            HttpHeaders h = new HttpHeaders();
+            ConditionalRequests.addValidators(h, target.etag(), target.lastModified());
+            addGrant(h, grant);
+            return new ResponseEntity<>(h, HttpStatus.NOT_MODIFIED);
+        }
 
-        contenidoService.registrarReproduccionSiUsuario(id, userRole);
-        contenidoService.registrarReproductor(id, userEmail);
+        contenidoService.registrarInicioReproduccion(id, userRole, userEmail, cliente);
 
-        if (Boolean.TRUE.equals(meta)) {
+        if (esMeta) {
+            java.util.Map<String, Object> body = new java.util.LinkedHashMap<>();
+            HttpHeaders h = new HttpHeaders();
+            h.setCacheControl(CacheControl.noStore());
             if (target.isExternalRedirect()) {
-                return ResponseEntity.ok(java.util.Map.of(
-                        "kind", "external",
-                        "url", target.externalUrl(),
-                        "mime", target.mimeType() != null ? target.mimeType() : "text/html"
-                ));
+                body.put("kind", "external");
+                body.put("url", target.externalUrl());
+                body.put("mime", target.mimeType() != null ? target.mimeType() : "text/html");
             } else {
-                return ResponseEntity.ok(java.util.Map.of(
-                        "kind", "local",
-                        "mime", target.mimeType(),
-                        "length", target.length()
-                ));
+                body.put("kind", "local");
+                body.put("mime", target.mimeType());
+                body.put("length", target.length());
+                String directa = contenidoService.urlDirecta(id, target, cliente, userVip);
+                if (directa != null) body.put("directa", directa);
+                if (contenidoService.versionEmpaquetada(id, target) != null) {
+                    body.put("hls", "/Contenidos/Empaquetado/" + id + "/" + Fmp4Packager.PLAYLIST);
+                    body.put("dash", "/Contenidos/Empaquetado/" + id + "/" + Fmp4Packager.MPD);
+                }
             }
+            if (grant != null) {
+                body.put("grant", grant);
+                h.set(PLAYBACK_GRANT_HEADER, grant);
+            }
+            return ResponseEntity.ok().headers(h).body(body);
         }
-    
 
         if (target.isExternalRedirect()) {
-            return ResponseEntity.status(HttpStatus.FOUND)
-                    .header(HttpHeaders.LOCATION, target.externalUrl())
-                    .build();
+            ProxiedMedia proxied = contenidoService.proxyExternal(target, headers.getFirst(HttpHeaders.RANGE));
+            if (proxied != null) {
+                HttpHeaders h = new HttpHeaders();
+                h.putAll(proxied.headers());
+                addGrant(h, grant);
+                return new ResponseEntity<>(proxied, h, HttpStatus.valueOf(proxied.status()));
+            }
+            ResponseEntity.BodyBuilder redirect = ResponseEntity.status(HttpStatus.FOUND)
+                    .header(HttpHeaders.LOCATION, target.externalUrl());
+            if (grant != null) redirect.header(PLAYBACK_GRANT_HEADER, grant);
+            return redirect.build();
         }
 
         Path file = target.path();
         long fileSize = target.length();
         MediaType mediaType = resolveMediaType(target.mimeType(), file);
 
-        List<HttpRange> ranges = headers.getRange();
+        List<HttpRange> ranges = ConditionalRequests.ifRangeMatches(headers, target.etag(), target.lastModified())
+                ? headers.getRange()
+                : List.of();
+        boolean openEnded = ranges.size() == 1 && isOpenEnded(headers.getFirst(HttpHeaders.RANGE));
+        if (ranges.isEmpty() && t != null) {
+            // ?t=<segundos>: se traduce a un rango abierto alineado con el índice de búsqueda
+            Long offset = contenidoService.offsetParaTiempo(id, target, t);
+            if (offset != null) {
+                ranges = List.of(HttpRange.createByteRange(offset));
+                openEnded = true;
+            }
+        }
         if (ranges.isEmpty()) {
-            HttpHeaders h = commonHeaders(mediaType);
+            HttpHeaders h = mediaHeaders(mediaType, target);
             h.setContentLength(fileSize);
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(file));
-            return new ResponseEntity<>(body, h, HttpStatus.OK);
+            addGrant(h, grant);
+            contenidoService.progresoReproduccion(headers.getFirst(LISTA_HEADER), id, target, 0, fileSize);
+            return new ResponseEntity<>(FileRegion.whole(file, fileSize), h, HttpStatus.OK);
         }
 
-        HttpRange range = ranges.get(0);
-        long start = range.getRangeStart(fileSize);
-        long end = range.getRangeEnd(fileSize);
-
-        if (start >= fileSize || end >= fileSize || start > end) {
-            HttpHeaders h = commonHeaders(mediaType);
+        List<ByteRange> parts = rangePolicy.merge(ranges, fileSize);
+        if (parts.isEmpty()) {
+            HttpHeaders h = mediaHeaders(mediaType, target);
             h.add(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
             return new ResponseEntity<>(null, h, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
         }
 
-        long rangeLength = end - start + 1;
-        long chunk = Math.min(rangeLength, DEFAULT_CHUNK_SIZE);
+        String connection = ClientKeys.connection(id);
+        if (parts.size() > 1) {
+            String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+            MultipartFileRegions body = new MultipartFileRegions(file, parts, fileSize, mediaType.toString(),
+                    boundary, rangePolicy.listenerFor(connection));
+            HttpHeaders h = new HttpHeaders();
+            h.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+            h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            ConditionalRequests.addValidators(h, target.etag(), target.lastModified());
+            h.setContentLength(body.contentLength());
+            addGrant(h, grant);
+            return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
+        }
 
-        try (InputStream is = Files.newInputStream(file)) {
-            long skipped = is.skip(start);
-            while (skipped < start) {
-                long remaining = start - skipped;
-                long additionalSkipped = is.skip(remaining);
-                if (additionalSkipped <= 0) {
-                    throw new java.io.IOException("Unable to skip to the desired position in the stream.");
-                }
-                skipped += additionalSkipped;
-            }
-            InputStreamResource body = new InputStreamResource(new LimitedInputStream(is, chunk));
+        ByteRange part = parts.get(0);
+        long start = part.start();
+        long chunk = rangePolicy.responseLength(connection, part.length(), openEnded);
 
-            HttpHeaders h = commonHeaders(mediaType);
-            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
-            h.setContentLength(chunk);
+        HttpHeaders h = mediaHeaders(mediaType, target);
+        h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
+        h.setContentLength(chunk);
+        addGrant(h, grant);
+        contenidoService.progresoReproduccion(headers.getFirst(LISTA_HEADER), id, target, start, start + chunk);
 
-            return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
-        }
+        FileRegion region = new FileRegion(file, start, chunk, rangePolicy.listenerFor(connection));
+        return new ResponseEntity<>(region, h, HttpStatus.PARTIAL_CONTENT);
     }
 
     @RequestMapping(value = "/ReproducirContenido/{id}", method = RequestMethod.HEAD)
     public ResponseEntity<Void> head(@PathVariable String id,
+                                 @RequestHeader HttpHeaders headers,
                                  @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
                                  @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
                                  @RequestHeader(value = "X-User-Age", required = false) Integer userAge) throws Exception {
@@ -156,12 +264,111 @@ public class ContenidoController {
             h.setContentType(resolveMediaType(target.mimeType(), null));
             return new ResponseEntity<>(h, HttpStatus.OK);
         }
+        // mismas reglas que el GET: un HEAD condicional sobre una copia vigente responde 304
+        if (target.hasValidators()
+                && ConditionalRequests.isNotModified(headers, target.etag(), target.lastModified())) {
+            ConditionalRequests.addValidators(h, target.etag(), target.lastModified());
+            return new ResponseEntity<>(h, HttpStatus.NOT_MODIFIED);
+        }
         h.setContentType(resolveMediaType(target.mimeType(), target.path()));
         h.setContentLength(target.length());
         h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        ConditionalRequests.addValidators(h, target.etag(), target.lastModified());
         return new ResponseEntity<>(h, HttpStatus.OK);
     }
 
+    /** Entrada HLS/DASH: redirige (sin caché) al manifiesto de la versión empaquetada vigente. */
+    @GetMapping("/Empaquetado/{id}/{manifiesto:index\\.m3u8|manifest\\.mpd}")
+    public ResponseEntity<Void> manifiestoEmpaquetado(
+            @PathVariable String id,
+            @PathVariable String manifiesto,
+            @RequestHeader HttpHeaders headers,
+            @RequestHeader(value = "X-User-Email", required = false) String userEmail,
+            @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
+            @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
+            @RequestHeader(value = "X-User-Age", required = false) Integer userAge) throws Exception {
+        StreamingTarget target = targetConAcceso(id, headers, userEmail, userVip, resolveAge(userBirthdateIso, userAge));
+        String version = contenidoService.versionEmpaquetada(id, target);
+        if (version == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .header(HttpHeaders.LOCATION, version + "/" + manifiesto)
+                .cacheControl(CacheControl.noCache())
+                .build();
+    }
+
+    /**
+     * Init, segmentos y manifiestos de una versión empaquetada. Son inmutables, pero
+     * la caché es privada: cada petición pasa por las mismas comprobaciones VIP/edad.
+     * Se sirve cualquier versión que siga en disco, no sólo la actual: tras
+     * reempaquetar, quien ya reproducía la anterior la termina durante la gracia.
+     */
+    @GetMapping("/Empaquetado/{id}/{version}/{fichero:.+}")
+    public ResponseEntity<Object> ficheroEmpaquetado(
+            @PathVariable String id,
+            @PathVariable String version,
+            @PathVariable String fichero,
+            @RequestHeader HttpHeaders headers,
+            @RequestHeader(value = "X-User-Email", required = false) String userEmail,
+            @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
+            @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
+            @RequestHeader(value = "X-User-Age", required = false) Integer userAge) throws Exception {
+        StreamingTarget target = targetConAcceso(id, headers, userEmail, userVip, resolveAge(userBirthdateIso, userAge));
+        Path file = target != null && !target.isExternalRedirect()
+                ? contenidoService.ficheroEmpaquetado(id, version, fichero)
+                : null;
+        if (file == null) return ResponseEntity.notFound().build();
+
+        String etag = "\"" + version + "-" + fichero + "\"";
+        HttpHeaders h = new HttpHeaders();
+        h.setETag(etag);
+        h.setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable());
+        if (ConditionalRequests.isNotModified(headers, etag, -1)) {
+            return new ResponseEntity<>(h, HttpStatus.NOT_MODIFIED);
+        }
+        long size = Files.size(file);
+        h.setContentType(tipoEmpaquetado(fichero));
+        h.setContentLength(size);
+        return new ResponseEntity<>(FileRegion.whole(file, size), h, HttpStatus.OK);
+    }
+
+    private StreamingTarget targetConAcceso(String id, HttpHeaders headers, String userEmail,
+                                            Boolean userVip, Integer age) throws Exception {
+        StreamingTarget target = contenidoService.targetFromGrant(id, headers.getFirst(PLAYBACK_GRANT_HEADER),
+                ClientKeys.playbackClient(userEmail), userVip, age);
+        return target != null ? target : contenidoService.resolveStreamingTarget(id, userVip, age);
+    }
+
+    private static MediaType tipoEmpaquetado(String fichero) {
+        if (fichero.endsWith(".m3u8")) return MediaType.parseMediaType("application/vnd.apple.mpegurl");
+        if (fichero.endsWith(".mpd")) return MediaType.parseMediaType("application/dash+xml");
+        if (fichero.endsWith(".m4s")) return MediaType.parseMediaType("video/iso.segment");
+        return MediaType.parseMediaType("video/mp4");
+    }
+
+    /**
+     * Rango único sin last-byte-pos ("bytes=N-"), leído de la cabecera tal cual llega:
+     * el sufijo "bytes=-N" no es abierto aunque también termine en el final del fichero.
+     */
+    private static boolean isOpenEnded(String rangeHeader) {
+        if (rangeHeader == null) return false;
+        String spec = rangeHeader.trim();
+        if (!spec.regionMatches(true, 0, "bytes=", 0, 6)) return false;
+        spec = spec.substring(6).trim();
+        if (spec.indexOf(',') >= 0) return false;
+        int dash = spec.indexOf('-');
+        return dash > 0 && spec.substring(dash + 1).trim().isEmpty();
+    }
+
+    private static void addGrant(HttpHeaders h, String grant) {
+        if (grant != null) h.set(PLAYBACK_GRANT_HEADER, grant);
+    }
+
+    private HttpHeaders mediaHeaders(MediaType mediaType, StreamingTarget target) {
+        HttpHeaders h = commonHeaders(mediaType);
+        ConditionalRequests.addValidators(h, target.etag(), target.lastModified());
+        return h;
+    }
+
     public HttpHeaders commonHeaders(MediaType mediaType) {
         HttpHeaders h = new HttpHeaders();
         h.setContentType(mediaType);
@@ -208,27 +415,6 @@ public class ContenidoController {
         return MediaType.APPLICATION_OCTET_STREAM;
     }
 
-    static class LimitedInputStream extends java.io.FilterInputStream {
-        private long remaining;
-        protected LimitedInputStream(InputStream in, long limit) {
-            super(in);
-            this.remaining = limit;
-        }
-        @Override public int read() throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            int b = super.read();
-            if (b != -1) remaining--;
-            return b;
-        }
-        @Override public int read(byte[] b, int off, int len) throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            len = (int)Math.min(len, remaining);
-            int read = super.read(b, off, len);
-            if (read > 0) remaining -= read;
-            return read;
-        }
-    }
-
     public Integer resolveAge(String birthIso, Integer ageDirect) {
         if (ageDirect != null && ageDirect > 0) return ageDirect;
         if (birthIso == null || birthIso.isBlank()) return null;
@@ -0,0 +1,48 @@
+package com.EsiMediaG03.http;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.EsiMediaG03.services.MetricsSource;
+
+@RestController
+@RequestMapping("Contenidos/Estadisticas")
+@CrossOrigin(origins = {
+    "http://localhost:4200",
+    "https://front-prueba-rvjq.onrender.com"
+})
+public class EstadisticasStreamingController {
+
+    private final List<MetricsSource> fuentes;
+
+    public EstadisticasStreamingController(List<MetricsSource> fuentes) {
+        this.fuentes = fuentes;
+    }
+
+    @GetMapping("/Streaming")
+    public ResponseEntity<Object> estadisticasStreaming(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (userRole == null ||
+            !(userRole.equalsIgnoreCase("ADMINISTRADOR") ||
+              userRole.equalsIgnoreCase("GESTOR_CONTENIDO"))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+
+        Map<String, Object> res = new TreeMap<>();
+        for (MetricsSource f : fuentes) {
+            res.put(f.nombreMetricas(), f.estadisticas());
+        }
+        return ResponseEntity.ok(res);
+    }
+}
@@ -0,0 +1,58 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.services.LocalMediaWriter;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Escribe un FileRegion: con sendfile de Tomcat disponible sólo deja el rango en
+ * la petición (ver {@link TomcatSendfile}); si no, lo copia con LocalMediaWriter.
+ */
+public class FileRegionHttpMessageConverter extends AbstractHttpMessageConverter<FileRegion> {
+
+    private final LocalMediaWriter writer;
+
+    public FileRegionHttpMessageConverter(LocalMediaWriter writer) {
+        super(MediaType.ALL);
+        this.writer = writer;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return FileRegion.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected FileRegion readInternal(Class<? extends FileRegion> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("FileRegion solo se usa para escribir respuestas", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(FileRegion region, MediaType contentType) {
+        return region.count();
+    }
+
+    @Override
+    protected void writeInternal(FileRegion region, HttpOutputMessage outputMessage) throws IOException {
+        HttpServletRequest request = ClientKeys.currentRequest();
+        if (TomcatSendfile.disponible(request, region)) {
+            TomcatSendfile.preparar(request, region);
+            return;
+        }
+        writer.write(region, outputMessage.getBody());
+    }
+}
@@ -0,0 +1,47 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.services.LocalMediaWriter;
+
+public class MultipartFileRegionsHttpMessageConverter extends AbstractHttpMessageConverter<MultipartFileRegions> {
+
+    private final LocalMediaWriter writer;
+
+    public MultipartFileRegionsHttpMessageConverter(LocalMediaWriter writer) {
+        super(MediaType.ALL);
+        this.writer = writer;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return MultipartFileRegions.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected MultipartFileRegions readInternal(Class<? extends MultipartFileRegions> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("MultipartFileRegions solo se usa para escribir respuestas", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(MultipartFileRegions body, MediaType contentType) {
+        return body.contentLength();
+    }
+
+    @Override
+    protected void writeInternal(MultipartFileRegions body, HttpOutputMessage outputMessage) throws IOException {
+        writer.write(body, outputMessage.getBody());
+    }
+}
@@ -0,0 +1,46 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.EsiMediaG03.dto.ProxiedMedia;
+
+public class ProxiedMediaHttpMessageConverter extends AbstractHttpMessageConverter<ProxiedMedia> {
+
+    public ProxiedMediaHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return ProxiedMedia.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected ProxiedMedia readInternal(Class<? extends ProxiedMedia> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("ProxiedMedia solo se usa para escribir respuestas", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(ProxiedMedia media, MediaType contentType) {
+        long length = media.headers().getContentLength();
+        return length >= 0 ? length : null;
+    }
+
+    @Override
+    protected void writeInternal(ProxiedMedia media, HttpOutputMessage outputMessage) throws IOException {
+        try (media) {
+            media.body().transferTo(outputMessage.getBody());
+        }
+    }
+}
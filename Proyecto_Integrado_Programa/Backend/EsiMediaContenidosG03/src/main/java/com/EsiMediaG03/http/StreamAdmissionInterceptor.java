@@ -0,0 +1,60 @@
+package com.EsiMediaG03.http;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import com.EsiMediaG03.exceptions.AdmisionStreamException;
+import com.EsiMediaG03.services.StreamAdmission;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Aplica StreamAdmission delante de ReproducirContenido y de los ficheros
+ * empaquetados (HLS/DASH), que son la otra vía de bytes. La concesión se toma
+ * en el primer dispatch y se guarda como atributo de la petición; con la copia
+ * asíncrona de media afterCompletion sólo llega tras el redispatch final, es
+ * decir, cuando la transferencia ha terminado (o ha fallado o caducado).
+ *
+ * Las peticiones ?meta=true y HEAD no transfieren media y no consumen cuota.
+ * El servidor de medios embebido aplica las mismas cuotas por su cuenta, con la
+ * clave de admisión que viaja firmada en su URL.
+ */
+public class StreamAdmissionInterceptor implements AsyncHandlerInterceptor {
+
+    static final String TICKET_ATTR = StreamAdmissionInterceptor.class.getName() + ".ticket";
+
+    private final StreamAdmission admission;
+
+    public StreamAdmissionInterceptor(StreamAdmission admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!admission.isEnabled() || request.getAttribute(TICKET_ATTR) != null) return true;
+        if (!"GET".equals(request.getMethod()) || "true".equalsIgnoreCase(request.getParameter("meta"))) return true;
+
+        String cliente = ClientKeys.playbackClient(request.getHeader("X-User-Email"));
+        boolean vip = Boolean.parseBoolean(request.getHeader("X-User-Vip"));
+        try {
+            request.setAttribute(TICKET_ATTR, admission.adquirir(cliente, vip));
+            return true;
+        } catch (AdmisionStreamException e) {
+            HttpStatus status = e.isPorUsuario() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            response.setStatus(status.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSegundos()));
+            return false;
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object ticket = request.getAttribute(TICKET_ATTR);
+        if (ticket instanceof StreamAdmission.Ticket t) {
+            request.removeAttribute(TICKET_ATTR);
+            t.liberar();
+        }
+    }
+}
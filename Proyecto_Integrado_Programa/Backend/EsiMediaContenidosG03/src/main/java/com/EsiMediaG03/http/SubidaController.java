@@ -0,0 +1,132 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.EsiMediaG03.dto.CrearSubidaRequest;
+import com.EsiMediaG03.dto.ErrorResponse;
+import com.EsiMediaG03.dto.SubidaEstado;
+import com.EsiMediaG03.exceptions.ContenidoAddException;
+import com.EsiMediaG03.exceptions.ContenidoException;
+import com.EsiMediaG03.exceptions.ContenidoValidationException;
+import com.EsiMediaG03.exceptions.SubidaException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Subida;
+import com.EsiMediaG03.services.SubidaService;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Subida reanudable: POST crea la sesión, PUT envía fragmentos con
+ * Content-Range: bytes inicio-fin/total, GET devuelve el offset para reanudar
+ * y POST .../Finalizar crea el Contenido con el fichero ya en disco.
+ */
+@RestController
+@RequestMapping("Contenidos/Subidas")
+@CrossOrigin(origins = {
+    "http://localhost:4200",
+    "https://front-prueba-rvjq.onrender.com"
+})
+public class SubidaController {
+
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+|\\*)$");
+
+    private final SubidaService subidaService;
+
+    public SubidaController(SubidaService subidaService) {
+        this.subidaService = subidaService;
+    }
+
+    @PostMapping
+    public ResponseEntity<SubidaEstado> crear(@RequestBody CrearSubidaRequest req,
+                                              @RequestHeader(value = "X-User-Email", required = false) String userEmail,
+                                              @RequestHeader("X-Creator-Tipo") String creatorTipo) throws IOException {
+        Contenido.Tipo tipo = Contenido.Tipo.valueOf(creatorTipo.toUpperCase());
+        Subida s = subidaService.crear(req, userEmail, tipo);
+        return ResponseEntity.status(HttpStatus.CREATED).body(estado(s));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<SubidaEstado> estado(@PathVariable String id,
+                                               @RequestHeader(value = "X-User-Email", required = false) String userEmail) {
+        Subida s = subidaService.estado(id, userEmail);
+        return ResponseEntity.ok().header(UPLOAD_OFFSET, String.valueOf(s.getRecibidos())).body(estado(s));
+    }
+
+    @PutMapping("/{id}")
+    public ResponseEntity<SubidaEstado> fragmento(@PathVariable String id,
+                                                  @RequestHeader(HttpHeaders.CONTENT_RANGE) String contentRange,
+                                                  @RequestHeader(value = "X-User-Email", required = false) String userEmail,
+                                                  HttpServletRequest request) throws IOException {
+        Matcher m = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!m.matches()) {
+            throw new SubidaException("Content-Range no válido; se espera 'bytes inicio-fin/total'.");
+        }
+        long start = Long.parseLong(m.group(1));
+        long end = Long.parseLong(m.group(2));
+        if (end < start) {
+            throw new SubidaException("Content-Range no válido: fin anterior al inicio.");
+        }
+        Long total = m.group(3).equals("*") ? null : Long.valueOf(m.group(3));
+        Subida s = subidaService.escribirFragmento(id, userEmail, start, end - start + 1, total,
+                Channels.newChannel(request.getInputStream()));
+        return ResponseEntity.ok().header(UPLOAD_OFFSET, String.valueOf(s.getRecibidos())).body(estado(s));
+    }
+
+    @PostMapping("/{id}/Finalizar")
+    public ResponseEntity<Contenido> finalizar(@PathVariable String id,
+                                               @RequestHeader(value = "X-User-Email", required = false) String userEmail)
+            throws IOException, ContenidoAddException {
+        return ResponseEntity.status(HttpStatus.CREATED).body(subidaService.finalizar(id, userEmail));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancelar(@PathVariable String id,
+                                         @RequestHeader(value = "X-User-Email", required = false) String userEmail)
+            throws IOException {
+        subidaService.cancelar(id, userEmail);
+        return ResponseEntity.noContent().build();
+    }
+
+    private SubidaEstado estado(Subida s) {
+        return SubidaEstado.of(s, subidaService.getMaxFragmentoBytes());
+    }
+
+    @ExceptionHandler(SubidaException.class)
+    public ResponseEntity<ErrorResponse> onSubida(SubidaException e) {
+        HttpStatus status = e.isConflicto() ? HttpStatus.CONFLICT : HttpStatus.BAD_REQUEST;
+        ResponseEntity.BodyBuilder b = ResponseEntity.status(status);
+        if (e.getOffsetActual() >= 0) b.header(UPLOAD_OFFSET, String.valueOf(e.getOffsetActual()));
+        return b.body(new ErrorResponse(status.value(), status.getReasonPhrase(), e.getMessage()));
+    }
+
+    @ExceptionHandler({ ContenidoValidationException.class, ContenidoAddException.class, IllegalArgumentException.class })
+    public ResponseEntity<ErrorResponse> onValidacion(Exception e) {
+        return ResponseEntity.badRequest()
+                .body(new ErrorResponse(400, HttpStatus.BAD_REQUEST.getReasonPhrase(), e.getMessage()));
+    }
+
+    @ExceptionHandler(ContenidoException.class)
+    public ResponseEntity<ErrorResponse> onPermiso(ContenidoException e) {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(new ErrorResponse(403, HttpStatus.FORBIDDEN.getReasonPhrase(), e.getMessage()));
+    }
+}
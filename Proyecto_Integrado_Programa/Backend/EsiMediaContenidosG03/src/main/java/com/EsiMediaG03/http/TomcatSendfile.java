@@ -0,0 +1,39 @@
+package com.EsiMediaG03.http;
+
+import com.EsiMediaG03.dto.FileRegion;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Envío de un FileRegion con el sendfile del conector de Tomcat: si el conector
+ * lo anuncia (atributo org.apache.tomcat.sendfile.support), basta con dejar en
+ * la petición el fichero y el rango [start, end) y no escribir cuerpo; Tomcat
+ * lo envía con sendfile desde su poller al terminar la petición, sin copias en
+ * el heap ni hilo de la aplicación ocupado.
+ *
+ * Como no hay aviso de fin, el TransferListener del rango no se notifica y
+ * RangePolicy no obtiene muestra de throughput para esa conexión.
+ */
+final class TomcatSendfile {
+
+    static final String SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String START = "org.apache.tomcat.sendfile.start";
+    static final String END = "org.apache.tomcat.sendfile.end";
+
+    /** Mismo umbral que el DefaultServlet de Tomcat: por debajo es más barato copiar. */
+    static final long MIN_BYTES = 48 * 1024;
+
+    private TomcatSendfile() { }
+
+    static boolean disponible(HttpServletRequest request, FileRegion region) {
+        return request != null && Boolean.TRUE.equals(request.getAttribute(SUPPORT))
+                && region.count() >= MIN_BYTES;
+    }
+
+    static void preparar(HttpServletRequest request, FileRegion region) {
+        request.setAttribute(FILENAME, region.path().toAbsolutePath().normalize().toString());
+        request.setAttribute(START, region.position());
+        request.setAttribute(END, region.position() + region.count());
+    }
+}
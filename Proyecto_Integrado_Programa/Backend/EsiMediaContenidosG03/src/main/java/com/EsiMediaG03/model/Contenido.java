@@ -2,11 +2,8 @@ package com.EsiMediaG03.model;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -42,14 +39,22 @@ public class Contenido {
     @Field("reproducciones")               
     @JsonProperty("reproducciones") 
     private long numReproducciones;
-    private Set <String> favoritosDeUsuarios;
-    public Set<String> getFavoritosDeUsuarios() { return favoritosDeUsuarios; }
-    public void setFavoritosDeUsuarios(Set<String> favs) { this.favoritosDeUsuarios = favs; }
-
-    private Set<String> reproductores = new HashSet<>();
-    private Map<String, Double> ratings = new HashMap<>();
+    private long reproductoresCount;
+    private long favoritosCount;
     private int ratingCount;
     private double ratingAvg;
+    private Double ratingSum;
+    private Map<String, Long> ratingHistograma;
+    private double ratingBayes;
+    private long tamanoBytes;
+    private String mimeType;
+    private String checksumSha256;
+    private Long duracionMs;
+    private Integer anchoPx;
+    private Integer altoPx;
+    private Integer bitrateKbps;
+    private String codec;
+    private LocalDateTime sondeado;
 
     public String getId() {
         return id;
@@ -184,11 +189,11 @@ public class Contenido {
         this.numReproducciones = numReproducciones;
     }
 
-    public Set<String> getReproductores() { return reproductores; }
-    public void setReproductores(Set<String> reproductores) { this.reproductores = reproductores; }
+    public long getReproductoresCount() { return reproductoresCount; }
+    public void setReproductoresCount(long reproductoresCount) { this.reproductoresCount = reproductoresCount; }
 
-    public Map<String, Double> getRatings() { return ratings; }
-    public void setRatings(Map<String, Double> ratings) { this.ratings = ratings; }
+    public long getFavoritosCount() { return favoritosCount; }
+    public void setFavoritosCount(long favoritosCount) { this.favoritosCount = favoritosCount; }
 
     public int getRatingCount() { return ratingCount; }
     public void setRatingCount(int ratingCount) { this.ratingCount = ratingCount; }
@@ -196,6 +201,15 @@ public class Contenido {
     public double getRatingAvg() { return ratingAvg; }
     public void setRatingAvg(double ratingAvg) { this.ratingAvg = ratingAvg; }
 
+    public Double getRatingSum() { return ratingSum; }
+    public void setRatingSum(Double ratingSum) { this.ratingSum = ratingSum; }
+
+    public Map<String, Long> getRatingHistograma() { return ratingHistograma; }
+    public void setRatingHistograma(Map<String, Long> ratingHistograma) { this.ratingHistograma = ratingHistograma; }
+
+    public double getRatingBayes() { return ratingBayes; }
+    public void setRatingBayes(double ratingBayes) { this.ratingBayes = ratingBayes; }
+
     public LocalDate getDisponibilidadContenido() {
         return disponibilidadContenido;
     }
@@ -203,4 +217,31 @@ public class Contenido {
     public void setDisponibilidadContenido(LocalDate disponibilidadContenido) {
         this.disponibilidadContenido = disponibilidadContenido;
     }
+
+    public long getTamanoBytes() { return tamanoBytes; }
+    public void setTamanoBytes(long tamanoBytes) { this.tamanoBytes = tamanoBytes; }
+
+    public String getMimeType() { return mimeType; }
+    public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+
+    public String getChecksumSha256() { return checksumSha256; }
+    public void setChecksumSha256(String checksumSha256) { this.checksumSha256 = checksumSha256; }
+
+    public Long getDuracionMs() { return duracionMs; }
+    public void setDuracionMs(Long duracionMs) { this.duracionMs = duracionMs; }
+
+    public Integer getAnchoPx() { return anchoPx; }
+    public void setAnchoPx(Integer anchoPx) { this.anchoPx = anchoPx; }
+
+    public Integer getAltoPx() { return altoPx; }
+    public void setAltoPx(Integer altoPx) { this.altoPx = altoPx; }
+
+    public Integer getBitrateKbps() { return bitrateKbps; }
+    public void setBitrateKbps(Integer bitrateKbps) { this.bitrateKbps = bitrateKbps; }
+
+    public String getCodec() { return codec; }
+    public void setCodec(String codec) { this.codec = codec; }
+
+    public LocalDateTime getSondeado() { return sondeado; }
+    public void setSondeado(LocalDateTime sondeado) { this.sondeado = sondeado; }
 }
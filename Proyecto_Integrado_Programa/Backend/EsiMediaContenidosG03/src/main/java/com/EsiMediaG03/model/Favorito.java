@@ -0,0 +1,38 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Contenido marcado como favorito por un usuario (una entrada por pareja contenido-usuario). */
+@Document(collection = "favoritos")
+public class Favorito {
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private String userEmail;
+    private LocalDateTime fecha = LocalDateTime.now();
+
+    public Favorito() {
+    }
+
+    public Favorito(String contenidoId, String userEmail) {
+        this.id = Interacciones.clave(contenidoId, userEmail);
+        this.contenidoId = contenidoId;
+        this.userEmail = Interacciones.normalizar(userEmail);
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public String getUserEmail() { return userEmail; }
+    public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public LocalDateTime getFecha() { return fecha; }
+    public void setFecha(LocalDateTime fecha) { this.fecha = fecha; }
+}
@@ -0,0 +1,22 @@
+package com.EsiMediaG03.model;
+
+import java.util.Locale;
+
+/**
+ * Claves de las colecciones de interacciones (reproductores, valoraciones y
+ * favoritos). El _id es "contenidoId:email" para que cada pareja exista una
+ * sola vez sin índice adicional y los upserts sean idempotentes.
+ */
+public final class Interacciones {
+
+    private Interacciones() {
+    }
+
+    public static String normalizar(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static String clave(String contenidoId, String email) {
+        return contenidoId + ":" + normalizar(email);
+    }
+}
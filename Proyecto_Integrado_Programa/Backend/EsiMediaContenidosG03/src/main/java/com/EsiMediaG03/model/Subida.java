@@ -0,0 +1,65 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Sesión de subida reanudable: el fichero parcial vive en disco y aquí sólo se guarda el progreso. */
+@Document(collection = "subidas")
+public class Subida {
+
+    public enum Estado {
+        ABIERTA, COMPLETADA
+    }
+
+    @Id
+    private String id;
+    private String userEmail;
+    private String nombreFichero;
+    private long tamanoBytes;
+    private long recibidos;
+    private String mimeType;
+    private String sha256Esperado;
+    private Estado estado = Estado.ABIERTA;
+    private Contenido contenido;
+    private String contenidoId;
+    private LocalDateTime creada = LocalDateTime.now();
+    private LocalDateTime actualizada = LocalDateTime.now();
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getUserEmail() { return userEmail; }
+    public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public String getNombreFichero() { return nombreFichero; }
+    public void setNombreFichero(String nombreFichero) { this.nombreFichero = nombreFichero; }
+
+    public long getTamanoBytes() { return tamanoBytes; }
+    public void setTamanoBytes(long tamanoBytes) { this.tamanoBytes = tamanoBytes; }
+
+    public long getRecibidos() { return recibidos; }
+    public void setRecibidos(long recibidos) { this.recibidos = recibidos; }
+
+    public String getMimeType() { return mimeType; }
+    public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+
+    public String getSha256Esperado() { return sha256Esperado; }
+    public void setSha256Esperado(String sha256Esperado) { this.sha256Esperado = sha256Esperado; }
+
+    public Estado getEstado() { return estado; }
+    public void setEstado(Estado estado) { this.estado = estado; }
+
+    public Contenido getContenido() { return contenido; }
+    public void setContenido(Contenido contenido) { this.contenido = contenido; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public LocalDateTime getCreada() { return creada; }
+    public void setCreada(LocalDateTime creada) { this.creada = creada; }
+
+    public LocalDateTime getActualizada() { return actualizada; }
+    public void setActualizada(LocalDateTime actualizada) { this.actualizada = actualizada; }
+}
@@ -0,0 +1,57 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Valoración de un usuario sobre un contenido; la primera es definitiva.
+ * Se inserta con pendiente=true y se desmarca cuando ya está sumada al
+ * agregado del contenido, de modo que un reintento sabe si falta aplicarla;
+ * reclamadaHasta impide que dos peticiones la completen a la vez.
+ */
+@Document(collection = "valoraciones")
+public class Valoracion {
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private String userEmail;
+    private double score;
+    private LocalDateTime fecha = LocalDateTime.now();
+    private Boolean pendiente;
+    private LocalDateTime reclamadaHasta;
+
+    public Valoracion() {
+    }
+
+    public Valoracion(String contenidoId, String userEmail, double score) {
+        this.id = Interacciones.clave(contenidoId, userEmail);
+        this.contenidoId = contenidoId;
+        this.userEmail = Interacciones.normalizar(userEmail);
+        this.score = score;
+        this.pendiente = Boolean.TRUE;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public String getUserEmail() { return userEmail; }
+    public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public double getScore() { return score; }
+    public void setScore(double score) { this.score = score; }
+
+    public LocalDateTime getFecha() { return fecha; }
+    public void setFecha(LocalDateTime fecha) { this.fecha = fecha; }
+
+    public Boolean getPendiente() { return pendiente; }
+    public void setPendiente(Boolean pendiente) { this.pendiente = pendiente; }
+
+    public LocalDateTime getReclamadaHasta() { return reclamadaHasta; }
+    public void setReclamadaHasta(LocalDateTime reclamadaHasta) { this.reclamadaHasta = reclamadaHasta; }
+}
@@ -0,0 +1,137 @@
+package com.EsiMediaG03.services;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.ContenidoResumen;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Exportación del catálogo en NDJSON (un objeto JSON por línea) recorriendo un
+ * cursor de Mongo: cada documento se escribe y se descarta, de modo que la
+ * memoria usada no depende del tamaño de la colección.
+ *
+ * Los documentos salen en orden de _id ascendente y cada línea lleva su "id";
+ * para reanudar una exportación interrumpida basta con pedir desde el último
+ * id recibido completo. Sólo se exportan campos escalares de la lista
+ * permitida; reproductores, ratings y favoritos nunca salen.
+ */
+@Component
+public class CatalogoExporter implements MetricsSource {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int BATCH = 500;
+    private static final Set<String> PERMITIDOS = new LinkedHashSet<>(List.of(ContenidoResumen.CAMPOS));
+    static {
+        PERMITIDOS.addAll(List.of("descripcion", "userEmail", "fechaEstado", "tamanoBytes", "mimeType",
+                "duracionMs", "anchoPx", "altoPx", "bitrateKbps", "codec"));
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final LongAdder exportaciones = new LongAdder();
+    private final LongAdder documentos = new LongAdder();
+    private final LongAdder interrumpidas = new LongAdder();
+
+    public CatalogoExporter(MongoTemplate mongoTemplate, ObjectMapper objectMapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Valida y normaliza la proyección pedida; sin campos se usan los del resumen.
+     * Lanza IllegalArgumentException si el cursor o algún campo no son válidos.
+     */
+    public Query consulta(List<String> campos, String desde) {
+        Set<String> proyeccion = new LinkedHashSet<>();
+        if (campos == null || campos.isEmpty()) {
+            proyeccion.addAll(List.of(ContenidoResumen.CAMPOS));
+        } else {
+            for (String c : campos) {
+                String campo = c.trim();
+                if (campo.isEmpty()) continue;
+                if (!PERMITIDOS.contains(campo)) throw new IllegalArgumentException("Campo no exportable: " + campo);
+                proyeccion.add(campo);
+            }
+        }
+        Query q = new Query();
+        if (desde != null && !desde.isBlank()) {
+            if (!ObjectId.isValid(desde)) throw new IllegalArgumentException("Token de reanudación no válido.");
+            q.addCriteria(Criteria.where("_id").gt(new ObjectId(desde)));
+        }
+        q.with(Sort.by(Sort.Direction.ASC, "_id")).cursorBatchSize(BATCH);
+        proyeccion.forEach(q.fields()::include);
+        return q;
+    }
+
+    /** Escribe la exportación en out; devuelve el número de documentos escritos. */
+    public long exportar(Query q, OutputStream out) throws IOException {
+        exportaciones.increment();
+        long n = 0;
+        BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_BYTES);
+        try (Stream<Document> cursor = mongoTemplate.stream(q, Document.class, "contenidos");
+             JsonGenerator gen = objectMapper.getFactory().createGenerator(buffered)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            for (Document d : (Iterable<Document>) cursor::iterator) {
+                gen.writeObject(plano(d));
+                gen.writeRaw('\n');
+                n++;
+                if (n % BATCH == 0) gen.flush();
+            }
+            gen.flush();
+        } catch (IOException e) {
+            interrumpidas.increment();
+            throw e;
+        } finally {
+            documentos.add(n);
+        }
+        return n;
+    }
+
+    private static Map<String, Object> plano(Document d) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : d.entrySet()) {
+            String k = "_id".equals(e.getKey()) ? "id" : e.getKey();
+            Object v = e.getValue();
+            if (v instanceof ObjectId oid) v = oid.toHexString();
+            else if (v instanceof Date date) v = date.toInstant().toString();
+            m.put(k, v);
+        }
+        return m;
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "exportacionCatalogo";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("exportaciones", exportaciones.sum());
+        m.put("documentos", documentos.sum());
+        m.put("interrumpidas", interrumpidas.sum());
+        return m;
+    }
+}
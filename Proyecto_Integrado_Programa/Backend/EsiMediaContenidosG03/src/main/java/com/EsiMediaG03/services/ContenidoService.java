@@ -1,18 +1,24 @@
 package com.EsiMediaG03.services;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Period;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -27,7 +33,12 @@ import org.springframework.stereotype.Service;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
 import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.dto.ContenidoResumen;
+import com.EsiMediaG03.dto.MediaFileMetadata;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.PaginaContenidos;
+import com.EsiMediaG03.dto.ProxiedMedia;
+import com.EsiMediaG03.dto.SeekIndex;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.exceptions.ContenidoException;
@@ -37,18 +48,33 @@ import com.EsiMediaG03.exceptions.StreamingTargetException;
 import com.EsiMediaG03.exceptions.StreamingTargetResolutionException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.model.ListaPublica;
+import com.mongodb.client.result.UpdateResult;
+
 @Service
 public class ContenidoService {
 
     private final ContenidoDAO contenidoDAO;
     private final MongoTemplate mongoTemplate;
     private final ListaPublicaDAO listaPublicaDAO;
+    private final MediaMetadataCache metadataCache;
+    private final HotSegmentCache hotSegmentCache;
+    private final ReproduccionesWriteBehind reproduccionesWriteBehind;
+    private final PlaybackSessionTracker playbackSessions;
+    private final PlaybackGrantService playbackGrants;
+    private final ExternalMediaCache externalMediaCache;
+    private final MediaProbeService mediaProbe;
+    private final SeekIndexService seekIndex;
+    private final MediaPackagingService packaging;
+    private final PlaylistPrefetcher prefetcher;
+    private final EmbeddedMediaServer mediaServer;
+    private final CatalogoExporter catalogoExporter;
+    private final InteraccionesService interacciones;
+    private final List<Consumer<Path>> oyentesHuerfanos = new CopyOnWriteArrayList<>();
 
     private static final String VIDEO_MP4 = "video/mp4";
     private static final String CONTENIDO_NO_ENCONTRADO = "Contenido no encontrado: ";
     private static final String USUARIO_NO_AUTENTICADO = "Usuario no autenticado";
     private static final String ROLE_USUARIO = "USUARIO";
-    public static final String FAVORITOS_DE_USUARIOS = "favoritosDeUsuarios";
 
     private static final String FIELD_EMAIL = "email";
     private static final String FIELD_ESPECIALIDAD = "especialidad";
@@ -58,14 +84,42 @@ public class ContenidoService {
     private static final String SIN_ESPECIALIDAD = "Sin especialidad";
     private static final String FIELD_AVG   = "avg";
     private static final String FIELD_COUNT = "count";
+    private static final String FIELD_BAYES = "bayes";
     private static final String MSG_YA_VALORADO = "Ya has valorado este contenido. La primera valoración es definitiva.";
     private static final String MSG_ERROR_ANADIR = "Error al añadir contenido: ";
-
-
-    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO) {
+    public static final int CATALOGO_LIMITE_DEFECTO = 20;
+    public static final int CATALOGO_LIMITE_MAX = 100;
+
+
+    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO,
+                            MediaMetadataCache metadataCache, HotSegmentCache hotSegmentCache,
+                            ReproduccionesWriteBehind reproduccionesWriteBehind,
+                            PlaybackSessionTracker playbackSessions,
+                            PlaybackGrantService playbackGrants,
+                            ExternalMediaCache externalMediaCache,
+                            MediaProbeService mediaProbe,
+                            SeekIndexService seekIndex,
+                            MediaPackagingService packaging,
+                            PlaylistPrefetcher prefetcher,
+                            EmbeddedMediaServer mediaServer,
+                            CatalogoExporter catalogoExporter,
+                            InteraccionesService interacciones) {
         this.contenidoDAO = contenidoDAO;
         this.mongoTemplate = mongoTemplate;
         this.listaPublicaDAO = listaPublicaDAO;
+        this.metadataCache = metadataCache;
+        this.hotSegmentCache = hotSegmentCache;
+        this.reproduccionesWriteBehind = reproduccionesWriteBehind;
+        this.playbackSessions = playbackSessions;
+        this.playbackGrants = playbackGrants;
+        this.externalMediaCache = externalMediaCache;
+        this.mediaProbe = mediaProbe;
+        this.seekIndex = seekIndex;
+        this.packaging = packaging;
+        this.prefetcher = prefetcher;
+        this.mediaServer = mediaServer;
+        this.catalogoExporter = catalogoExporter;
+        this.interacciones = interacciones;
     }
 
     public Contenido anadirContenido(Contenido contenido) throws ContenidoAddException {
@@ -74,7 +128,9 @@ public class ContenidoService {
     } catch (ContenidoValidationException | IllegalArgumentException ex) {
         throw new ContenidoAddException(MSG_ERROR_ANADIR + ex.getMessage());
     }
-    return contenidoDAO.save(contenido);
+    Contenido guardado = contenidoDAO.save(contenido);
+    mediaProbe.encolar(guardado);
+    return guardado;
 }
 
 
@@ -82,6 +138,45 @@ public class ContenidoService {
         return contenidoDAO.findAll();
     }
 
+    /**
+     * Catálogo paginado por cursor sobre _id descendente (los más recientes
+     * primero) con proyección ligera. El cursor es el _id del último elemento
+     * de la página anterior; cada página es una consulta por índice acotada por
+     * el límite, independientemente de lo grande que sea la colección.
+     */
+    public PaginaContenidos catalogo(String cursor, Integer limite, Contenido.Tipo tipo, List<String> tags,
+                                     Boolean vip, Boolean visible) {
+        int n = limite == null ? CATALOGO_LIMITE_DEFECTO : Math.max(1, Math.min(limite, CATALOGO_LIMITE_MAX));
+        Criteria c = new Criteria();
+        if (cursor != null && !cursor.isBlank()) {
+            if (!ObjectId.isValid(cursor)) throw new IllegalArgumentException("Cursor no válido.");
+            c = c.and("_id").lt(new ObjectId(cursor));
+        }
+        if (tipo != null) c = c.and("tipo").is(tipo);
+        if (tags != null && !tags.isEmpty()) c = c.and("tags").in(tags);
+        if (vip != null) c = c.and("vip").is(vip);
+        if (visible != null) c = c.and("visible").is(visible);
+
+        Query q = new Query(c).with(Sort.by(Sort.Direction.DESC, "_id")).limit(n + 1);
+        q.fields().include(ContenidoResumen.CAMPOS);
+        List<Contenido> encontrados = mongoTemplate.find(q, Contenido.class);
+
+        boolean hayMas = encontrados.size() > n;
+        List<ContenidoResumen> items = encontrados.stream().limit(n).map(ContenidoResumen::of).toList();
+        String siguiente = hayMas ? items.get(items.size() - 1).id() : null;
+        return new PaginaContenidos(items, siguiente);
+    }
+
+    /**
+     * Exporta el catálogo en NDJSON a out desde un cursor de Mongo. La proyección
+     * y el token de reanudación se validan antes de escribir nada
+     * (IllegalArgumentException si no son válidos).
+     */
+    public long exportarCatalogo(List<String> campos, String desde, OutputStream out) throws IOException {
+        Query q = catalogoExporter.consulta(campos, desde);
+        return catalogoExporter.exportar(q, out);
+    }
+
     public Contenido modificarContenido(String id,
                                         ModificarContenidoRequest cambios,
                                         Contenido.Tipo requesterTipo) throws ContenidoModificationException {
@@ -89,12 +184,76 @@ public class ContenidoService {
                 .orElseThrow(() -> new ContenidoModificationException(CONTENIDO_NO_ENCONTRADO + " " + id));
 
         checkPermisosPorTipo(actual, requesterTipo, "modificar");
+        String rutaAnterior = MediaProbeService.rutaLocal(actual);
 
         applyCommonPatch(actual, cambios);
         opsFor(actual.getTipo()).patch(actual, cambios);
 
         validarcontenido(actual);
-        return contenidoDAO.save(actual);
+        String ruta = MediaProbeService.rutaLocal(actual);
+        boolean ficheroCambiado = !Objects.equals(rutaAnterior, ruta);
+        if (ficheroCambiado) limpiarSondeo(actual);
+        // $set sólo de lo editable: un save() reemplazaría el documento entero y borraría los
+        // datos embebidos que la migración de interacciones aún no ha copiado, además de pisar
+        // con una foto vieja los contadores y agregados que se mantienen con $inc.
+        UpdateResult r = mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)),
+                camposEditables(actual, ficheroCambiado), Contenido.class);
+        if (r != null && r.getMatchedCount() == 0) {
+            throw new ContenidoModificationException(CONTENIDO_NO_ENCONTRADO + " " + id);
+        }
+        playbackGrants.revocar(id);
+        if (ficheroCambiado) mediaProbe.encolar(actual);
+        return actual;
+    }
+
+    /** Campos que puede cambiar una edición (más los del sondeo si cambia el fichero). */
+    private static Update camposEditables(Contenido c, boolean ficheroCambiado) {
+        Update u = new Update();
+        poner(u, "titulo", c.getTitulo());
+        poner(u, "descripcion", c.getDescripcion());
+        poner(u, "tags", c.getTags());
+        poner(u, "duracionMinutos", c.getDuracionMinutos());
+        poner(u, "resolucion", c.getResolucion());
+        poner(u, "vip", c.isVip());
+        poner(u, "visible", c.isVisible());
+        poner(u, "fechaEstado", c.getFechaEstado());
+        poner(u, "disponibleHasta", c.getDisponibleHasta());
+        poner(u, "disponibilidadContenido", c.getDisponibilidadContenido());
+        poner(u, "restringidoEdad", c.getRestringidoEdad());
+        poner(u, "imagen", c.getImagen());
+        poner(u, "ficheroAudio", c.getFicheroAudio());
+        poner(u, "urlAudio", c.getUrlAudio());
+        poner(u, "urlVideo", c.getUrlVideo());
+        if (ficheroCambiado) {
+            poner(u, "mimeType", c.getMimeType());
+            poner(u, "tamanoBytes", c.getTamanoBytes());
+            poner(u, "checksumSha256", c.getChecksumSha256());
+            poner(u, "duracionMs", c.getDuracionMs());
+            poner(u, "anchoPx", c.getAnchoPx());
+            poner(u, "altoPx", c.getAltoPx());
+            poner(u, "bitrateKbps", c.getBitrateKbps());
+            poner(u, "codec", c.getCodec());
+            poner(u, "sondeado", c.getSondeado());
+        }
+        return u;
+    }
+
+    private static void poner(Update u, String campo, Object valor) {
+        if (valor == null) u.unset(campo);
+        else u.set(campo, valor);
+    }
+
+    /** Los metadatos sondeados describen el fichero anterior: se descartan hasta el nuevo sondeo. */
+    private static void limpiarSondeo(Contenido c) {
+        c.setMimeType(null);
+        c.setTamanoBytes(0);
+        c.setChecksumSha256(null);
+        c.setDuracionMs(null);
+        c.setAnchoPx(null);
+        c.setAltoPx(null);
+        c.setBitrateKbps(null);
+        c.setCodec(null);
+        c.setSondeado(null);
     }
 
     public void eliminarContenido(String id, Contenido.Tipo requesterTipo) {
@@ -103,6 +262,20 @@ public class ContenidoService {
 
         checkPermisosPorTipo(actual, requesterTipo, "eliminar");
         contenidoDAO.deleteById(id);
+        interacciones.borrarContenido(id);
+        playbackGrants.revocar(id);
+        seekIndex.borrar(id);
+        packaging.borrar(id);
+        String ruta = MediaProbeService.rutaLocal(actual);
+        if (ruta != null && !oyentesHuerfanos.isEmpty() && !mediaProbe.referenciado(ruta)) {
+            Path fichero = Path.of(ruta);
+            oyentesHuerfanos.forEach(o -> o.accept(fichero));
+        }
+    }
+
+    /** Avisa con el fichero local de cada contenido eliminado que ya no referencia ningún otro. */
+    public void onFicheroHuerfano(Consumer<Path> oyente) {
+        oyentesHuerfanos.add(oyente);
     }
 
     private void applyCommonPatch(Contenido actual, ModificarContenidoRequest c) {
@@ -126,7 +299,102 @@ public class ContenidoService {
                 .orElseThrow(() -> new StreamingTargetResolutionException(CONTENIDO_NO_ENCONTRADO + " " + id));
 
         validarAccesoAContenido(c, isVip, ageYears, LocalDateTime.now());
-        return opsFor(c.getTipo()).buildTarget(c);
+        StreamingTarget target = opsFor(c.getTipo()).buildTarget(c);
+        if (target.isExternalRedirect()) {
+            StreamingTarget cached = cachedExternalTarget(id, target);
+            if (cached != null) target = cached;
+        }
+        hotSegmentCache.notePopularity(target, c.getNumReproducciones());
+        playbackGrants.limitarVigencia(id, c.getDisponibleHasta() == null ? -1
+                : c.getDisponibleHasta().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        return target;
+    }
+
+    private StreamingTarget cachedExternalTarget(String id, StreamingTarget external) {
+        ExternalMediaCache.Entry e = externalMediaCache.lookup(external.externalUrl());
+        if (e == null) return null;
+        return StreamingTarget.local(e.file(), e.size(), e.mimeType() != null ? e.mimeType() : external.mimeType(),
+                e.lastModified(), strongEtag(id, e.size(), e.lastModified()));
+    }
+
+    /**
+     * En modo proxy reenvía la petición al origen externo (con su Range) y deja la
+     * descarga completa en marcha. Devuelve null si hay que redirigir como siempre.
+     */
+    public ProxiedMedia proxyExternal(StreamingTarget target, String rangeHeader) {
+        if (target == null || !target.isExternalRedirect()) return null;
+        return externalMediaCache.passThrough(target.externalUrl(), rangeHeader);
+    }
+
+    /**
+     * Resuelve el target a partir de un permiso de reproducción sin tocar Mongo.
+     * Devuelve null si el permiso no es válido para este contenido y sujeto, o si
+     * el fichero local ha cambiado desde que se emitió. Un target externo pasa por
+     * la caché de medios externos igual que al resolverlo, para no volver al
+     * origen mientras el permiso siga vigente si la copia ya está descargada.
+     */
+    public StreamingTarget targetFromGrant(String id, String grant, String cliente, Boolean isVip, Integer ageYears) {
+        StreamingTarget target = playbackGrants.verificar(grant, id, grantSubject(cliente, isVip, ageYears));
+        if (target == null) return null;
+        if (target.isExternalRedirect()) {
+            StreamingTarget cached = cachedExternalTarget(id, target);
+            return cached != null ? cached : target;
+        }
+        MediaFileMetadata meta = metadataCache.lookup(target.path());
+        if (!meta.readable() || meta.size() != target.length() || meta.lastModified() != target.lastModified()) {
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * Offset alineado (keyframe, frame o bloque) desde el que servir el instante
+     * pedido, según el índice de búsqueda del fichero. Null si no hay índice
+     * vigente para este fichero o el target es externo.
+     */
+    public Long offsetParaTiempo(String id, StreamingTarget target, double segundos) {
+        if (target == null || target.isExternalRedirect() || !(segundos >= 0)) return null;
+        SeekIndex idx = seekIndex.buscar(id, target.length(), target.lastModified());
+        if (idx == null) return null;
+        long offset = idx.offsetFor((long) (segundos * 1000));
+        return offset < target.length() ? offset : null;
+    }
+
+    /** Versión empaquetada (HLS/DASH) vigente para el fichero del target, o null si no la hay. */
+    public String versionEmpaquetada(String id, StreamingTarget target) {
+        if (target == null || target.isExternalRedirect()) return null;
+        return packaging.versionDisponible(id, target.length(), target.lastModified());
+    }
+
+    public Path ficheroEmpaquetado(String id, String version, String nombre) {
+        return packaging.fichero(id, version, nombre);
+    }
+
+    /**
+     * URL firmada y con caducidad del servidor de medios embebido para el target
+     * local ya autorizado, con la clave de admisión del cliente; null si el
+     * servidor no está activo o el target es externo.
+     */
+    public String urlDirecta(String id, StreamingTarget target, String cliente, Boolean isVip) {
+        return mediaServer.urlFirmada(id, target, cliente, Boolean.TRUE.equals(isVip));
+    }
+
+    /**
+     * Progreso de reproducción de un fichero local: mide los aciertos del
+     * prefetch y, si se reproduce desde una lista, precalienta el siguiente elemento.
+     */
+    public void progresoReproduccion(String listaId, String id, StreamingTarget target, long inicio, long fin) {
+        if (target == null || target.isExternalRedirect()) return;
+        prefetcher.progreso(listaId, id, target.path(), inicio, fin, target.length());
+    }
+
+    /** Emite un permiso para un target recién resuelto con resolveStreamingTarget. */
+    public String emitirGrant(String id, StreamingTarget target, String cliente, Boolean isVip, Integer ageYears) {
+        return playbackGrants.emitir(id, target, grantSubject(cliente, isVip, ageYears));
+    }
+
+    private static String grantSubject(String cliente, Boolean isVip, Integer ageYears) {
+        return (cliente == null ? "" : cliente) + "|" + Boolean.TRUE.equals(isVip) + "|" + (ageYears == null ? "" : ageYears);
     }
 
     private interface TipoOps {
@@ -169,16 +437,7 @@ public class ContenidoService {
             }
 
         
-            java.nio.file.Path path = java.nio.file.Path.of(source);
-            ensureReadableFile(path, "Fichero de audio no accesible");
-            long length;
-            try {
-                length = java.nio.file.Files.size(path);
-            } catch (java.io.IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(source, AUDIO_DEFAULT);
-            return StreamingTarget.local(path, length, mime);
+            return localTarget(c, Path.of(source), "Fichero de audio no accesible", AUDIO_DEFAULT);
         }
     };
 
@@ -199,16 +458,7 @@ public class ContenidoService {
             if (isHttp(urlOrPath)) {
                 return StreamingTarget.external(urlOrPath, VIDEO_MP4);
             }
-            Path path = Path.of(urlOrPath);
-            ensureReadableFile(path, "Fichero de vídeo no accesible");
-            long length;
-            try {
-                length = Files.size(path);
-            } catch (IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(urlOrPath, VIDEO_MP4);
-            return StreamingTarget.local(path, length, mime);
+            return localTarget(c, Path.of(urlOrPath), "Fichero de vídeo no accesible", VIDEO_MP4);
         }
     };
 
@@ -217,10 +467,19 @@ public class ContenidoService {
         return (t == Contenido.Tipo.AUDIO) ? audioOps : videoOps;
     }
 
-    private void ensureReadableFile(Path path, String msgPrefix) {
-        if (!Files.exists(path) || !Files.isReadable(path)) {
+    private StreamingTarget localTarget(Contenido c, Path path, String msgPrefix, String defaultMime) {
+        MediaFileMetadata meta = metadataCache.lookup(path);
+        if (!meta.readable()) {
             throw new IllegalStateException(msgPrefix + ": " + path);
         }
+        String mime = c.getMimeType() != null ? c.getMimeType()
+                : guessMimeFromExt(path.toString(), meta.probedMime() != null ? meta.probedMime() : defaultMime);
+        return StreamingTarget.local(path, meta.size(), mime, meta.lastModified(),
+                strongEtag(c.getId(), meta.size(), meta.lastModified()));
+    }
+
+    static String strongEtag(String contenidoId, long length, long lastModified) {
+        return "\"" + contenidoId + "-" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
     }
 
     private void setIfText(java.util.function.Consumer<String> setter, String value) {
@@ -272,13 +531,39 @@ public class ContenidoService {
         return Period.between(birthdate, LocalDate.now()).getYears();
     }
 
+    /**
+     * Cuenta una reproducción una sola vez por sesión de reproducción del cliente;
+     * las peticiones de rango siguientes dentro de la misma sesión no escriben nada.
+     */
+    public void registrarInicioReproduccion(String contenidoId, String userRole, String userEmail, String cliente) {
+        if (playbackSessions.yaContada(contenidoId, cliente)) return;
+        registrarReproduccionSiUsuario(contenidoId, userRole);
+        registrarReproductor(contenidoId, userEmail);
+    }
+
     public void registrarReproduccionSiUsuario(String contenidoId, String userRole) {
         if (userRole == null || !userRole.equalsIgnoreCase(ROLE_USUARIO)) return;
+        if (reproduccionesWriteBehind.isEnabled()) {
+            reproduccionesWriteBehind.registrarReproduccion(contenidoId);
+            return;
+        }
         Query q = new Query(where("_id").is(contenidoId));
         Update u = new Update().inc(FIELD_REPRODUCCIONES, 1L);
         mongoTemplate.updateFirst(q, u, Contenido.class);
     }
 
+    /** Valida lo que se puede comprobar antes de tener el fichero (tipo, título, tags, duración, resolución). */
+    public void validarMetadatosSubida(Contenido contenido) throws ContenidoValidationException {
+        if (contenido.getTipo() == null) {
+            throw new ContenidoValidationException("El tipo de contenido debe ser AUDIO o VIDEO.");
+        }
+        if (contenido.getResolucion() != null && !contenido.getResolucion().matches("(?i)^(720p|1080p|4k)$")) {
+            throw new ContenidoValidationException("Resolución de vídeo no válida (solo 720p, 1080p, 4K).");
+        }
+        validarTituloYTags(contenido);
+        validarDuracion(contenido);
+    }
+
     private void validarcontenido(Contenido contenido) throws ContenidoValidationException {
         validarTipoContenido(contenido);
         validarTituloYTags(contenido);
@@ -346,16 +631,11 @@ public class ContenidoService {
 
     public void registrarReproductor(String contenidoId, String userEmail) {
         if (userEmail == null || userEmail.isBlank()) return;
-        var q = new Query(Criteria.where("_id").is(contenidoId));
-        var u = new Update().addToSet("reproductores", userEmail);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
-    }
-
-    private String mapKeyForEmail(String email) {
-        if (email == null) return null;
-        return email.toLowerCase()
-                .replace(".", "%2E")
-                .replace("$", "%24");
+        if (reproduccionesWriteBehind.isEnabled()) {
+            reproduccionesWriteBehind.registrarReproductor(contenidoId, userEmail);
+            return;
+        }
+        interacciones.registrarReproductor(contenidoId, userEmail);
     }
 
     public Map<String,Object> rateContenido(String id, String userEmail, double score) {
@@ -368,33 +648,29 @@ public class ContenidoService {
     if (Math.abs(twoX - Math.rint(twoX)) > 1e-9)
         throw new ContenidoValidationException("La puntuación debe ser entera o media estrella (incrementos de 0.5).");
 
-    Contenido c = contenidoDAO.findById(id)
-        .orElseThrow(() -> new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id));
-
-    Set<String> repr = c.getReproductores();
-    if (repr == null || !repr.contains(userEmail)) {
+    // Sin lectura previa del contenido: las reglas se comprueban en Mongo (reproductor
+    // registrado, _id único de la valoración) y el agregado se actualiza con una sola
+    // operación atómica, así que valoraciones simultáneas no pierden actualizaciones.
+    // El buffer write-behind va primero: un reproductor aún sin volcar también cuenta.
+    if (!reproduccionesWriteBehind.reproductorPendiente(id, userEmail)
+            && !interacciones.haReproducido(id, userEmail)) {
+        if (!mongoTemplate.exists(Query.query(Criteria.where("_id").is(id)), Contenido.class)) {
+            throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
+        }
         throw new ContenidoException("Solo puedes valorar tras reproducir el contenido.");
     }
-
-    Map<String, Double> ratings = c.getRatings();
-    if (ratings == null) {
-        ratings = new HashMap<>();
-        c.setRatings(ratings);
+    if (!interacciones.valorar(id, userEmail, score)) {
+        // Si un intento anterior guardó la valoración pero no llegó a sumarla, se
+        // completa ahora con la puntuación guardada (la primera es la definitiva)
+        Double pendiente = interacciones.reclamarPendiente(id, userEmail);
+        if (pendiente == null) throw new ContenidoException(MSG_YA_VALORADO);
+        score = pendiente;
     }
-
-    String key = mapKeyForEmail(userEmail);
-    if (ratings.containsKey(key)) {
-        throw new ContenidoException(MSG_YA_VALORADO);
+    Contenido c = interacciones.acumularValoracion(id, userEmail, score);
+    if (c == null) {
+        throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
     }
 
-    double total = c.getRatingAvg() * c.getRatingCount();
-    total += score;
-    c.setRatingCount(c.getRatingCount() + 1);
-    c.setRatingAvg(total / c.getRatingCount());
-    ratings.put(key, score);
-
-    contenidoDAO.save(c);
-
     Map<String,Object> res = new HashMap<>();
     res.put(FIELD_AVG, c.getRatingAvg());
     res.put(FIELD_COUNT, c.getRatingCount());
@@ -408,9 +684,22 @@ public class ContenidoService {
     Map<String,Object> res = new HashMap<>();
     res.put(FIELD_AVG, c.getRatingAvg());
     res.put(FIELD_COUNT, c.getRatingCount());
+    res.put(FIELD_BAYES, c.getRatingBayes());
+    res.put("histograma", histograma(c.getRatingHistograma()));
     return res;
 }
 
+    /** Histograma de medias estrellas "0.5".."5.0", con las casillas vacías a 0. */
+    private static Map<String, Long> histograma(Map<String, Long> guardado) {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (int medias = 1; medias <= 10; medias++) {
+            double score = medias / 2.0;
+            Long n = guardado == null ? null : guardado.get(InteraccionesService.claveHistograma(score));
+            res.put(String.valueOf(score), n == null ? 0L : n);
+        }
+        return res;
+    }
+
 
     public void addFavorito(String contenidoId, String userEmail, String roleHeader) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
@@ -422,28 +711,21 @@ public class ContenidoService {
             throw new AccessDeniedException("No se permite marcar como favorito");
         }
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().addToSet(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        interacciones.addFavorito(contenidoId, email);
     }
 
     public void removeFavorito(String contenidoId, String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().pull(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        interacciones.removeFavorito(contenidoId, email);
     }
 
     public List<String> listFavoritosIds(String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where(FAVORITOS_DE_USUARIOS).is(email))
-                .with(Sort.by(Sort.Direction.DESC, "fechaEstado"));
-        return mongoTemplate.find(q, Contenido.class)
-                .stream().map(Contenido::getId).toList();
+        return interacciones.favoritosDe(email);
     }
 
     private String currentUserEmailOrNull() {
@@ -497,10 +779,13 @@ public class ContenidoService {
     }
 
     private List<Map<String, Object>> top5PorValoraciones() {
-        Query q = new Query(Criteria.where("ratingCount").gt(0))
-                .with(Sort.by(Sort.Direction.DESC, "ratingAvg")
-                        .and(Sort.by(Sort.Direction.DESC, "ratingCount")))
+        // Orden por la puntuación bayesiana precalculada, servido por el índice valoraciones_bayes
+        Query q = new Query(Criteria.where(InteraccionesService.FIELD_RATING_BAYES).gt(0))
+                .with(Sort.by(Sort.Direction.DESC, InteraccionesService.FIELD_RATING_BAYES)
+                        .and(Sort.by(Sort.Direction.DESC, InteraccionesService.FIELD_RATING_COUNT)))
                 .limit(5);
+        q.fields().include("titulo").include("tipo").include(InteraccionesService.FIELD_RATING_AVG)
+                .include(InteraccionesService.FIELD_RATING_COUNT).include(InteraccionesService.FIELD_RATING_BAYES);
         List<Contenido> top = mongoTemplate.find(q, Contenido.class);
         return top.stream().map(c -> {
             Map<String, Object> m = new HashMap<>();
@@ -508,7 +793,8 @@ public class ContenidoService {
             m.put("titulo", c.getTitulo());
             m.put("tipo", c.getTipo() != null ? c.getTipo().name() : null);
             m.put("avg", c.getRatingAvg());
-            m.put(FIELD_COUNT, c.getRatingCount()); 
+            m.put(FIELD_COUNT, c.getRatingCount());
+            m.put(FIELD_BAYES, c.getRatingBayes());
             return m;
         }).toList();
     }
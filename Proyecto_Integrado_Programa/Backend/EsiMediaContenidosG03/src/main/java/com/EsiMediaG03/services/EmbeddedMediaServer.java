@@ -0,0 +1,670 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.exceptions.AdmisionStreamException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Servidor HTTP/1.1 mínimo, con su propio puerto y un único hilo con Selector,
+ * que sólo sirve rangos de ficheros multimedia locales. Saca el tráfico de
+ * bytes del dispatcher de Spring MVC y del pool de Tomcat, que quedan para el API.
+ *
+ * Las URLs son /m/{id}?g={permiso}: el permiso es un PlaybackGrant emitido al
+ * resolver el contenido con un sujeto fijo, de modo que la URL funciona como
+ * credencial al portador, caduca con el ttl de los permisos y respeta las
+ * revocaciones. No se consulta Mongo; el fichero se valida contra la caché de
+ * metadatos y se envía con transferTo desde el pool de canales.
+ *
+ * El sujeto del permiso lleva la clave de admisión del cliente (cliente y VIP),
+ * así que cada GET que transfiere bytes toma una concesión de {@link StreamAdmission}
+ * con las mismas cuotas que Spring MVC. El bucle no puede esperar turno: si no
+ * hay hueco se responde al momento 429 (cuota del cliente) o 503 (nodo) con
+ * Retry-After. HEAD, 304 y 416 no consumen cuota.
+ *
+ * Sólo GET y HEAD, un único rango por petición (varios rangos se responden con
+ * el fichero completo) y keep-alive. Deshabilitado por defecto; al habilitarlo
+ * app.media-server.base-url es obligatorio, porque es la URL pública que se
+ * entrega a los navegadores.
+ *
+ * Cada petición completa se prepara en un pequeño pool de E/S (io-threads): la
+ * consulta a la caché de metadatos (un stat y el registro del directorio en el
+ * WatchService si falla) y la apertura del fichero en el pool de canales pueden
+ * bloquear, y en el hilo del selector detendrían todas las conexiones. Mientras
+ * se prepara, la conexión no tiene interés en el selector; al terminar vuelve
+ * por una cola y el bucle empieza a escribir. En el selector sólo queda el
+ * transferTo, que con socket no bloqueante copia lo que cabe en el buffer de
+ * envío leyendo del page cache; sobre un almacenamiento lento o de red sigue
+ * siendo mejor servir por Spring MVC.
+ */
+@Component
+public class EmbeddedMediaServer implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedMediaServer.class);
+
+    static final String SUJETO = "media-server";
+    private static final String PREFIJO = "/m/";
+    private static final int MAX_CABECERA = 8192;
+    private static final long CHUNK = 1L << 20;
+    private static final int MUESTRAS_LATENCIA = 1024;
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC).withLocale(Locale.US);
+
+    private final PlaybackGrantService grants;
+    private final MediaMetadataCache metadata;
+    private final FileChannelPool channels;
+    private final StreamAdmission admission;
+    private final boolean enabled;
+    private final String host;
+    private final int port;
+    private final String baseUrl;
+    private final int maxConexiones;
+    private final long idleMs;
+    private final int hilosIo;
+
+    private final Queue<Conexion> preparadas = new ConcurrentLinkedQueue<>();
+    private ExecutorService io;
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread loop;
+    private volatile boolean running;
+    private volatile int puertoEfectivo = -1;
+    private int conexiones;
+
+    private final LongAdder peticiones = new LongAdder();
+    private final LongAdder parciales = new LongAdder();
+    private final LongAdder prohibidas = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder sinAdmision = new LongAdder();
+    private final LongAdder bytesEnviados = new LongAdder();
+    private final long[] latenciasNanos = new long[MUESTRAS_LATENCIA];
+    private long muestras;
+
+    public EmbeddedMediaServer(PlaybackGrantService grants, MediaMetadataCache metadata, FileChannelPool channels,
+                               StreamAdmission admission,
+                               @Value("${app.media-server.enabled:false}") boolean enabled,
+                               @Value("${app.media-server.host:0.0.0.0}") String host,
+                               @Value("${app.media-server.port:8083}") int port,
+                               @Value("${app.media-server.base-url:}") String baseUrl,
+                               @Value("${app.media-server.max-connections:1024}") int maxConexiones,
+                               @Value("${app.media-server.idle-ms:30000}") long idleMs,
+                               @Value("${app.media-server.io-threads:4}") int hilosIo) {
+        this.grants = grants;
+        this.metadata = metadata;
+        this.channels = channels;
+        this.admission = admission;
+        this.enabled = enabled;
+        this.host = host;
+        this.port = port;
+        this.baseUrl = baseUrl == null ? "" : baseUrl.replaceAll("/+$", "");
+        this.maxConexiones = Math.max(1, maxConexiones);
+        this.idleMs = Math.max(1000, idleMs);
+        this.hilosIo = Math.max(1, hilosIo);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) return;
+        if (baseUrl.isEmpty()) {
+            throw new IllegalStateException("app.media-server.base-url es obligatorio con el servidor de medios habilitado.");
+        }
+        AtomicInteger seq = new AtomicInteger();
+        io = Executors.newFixedThreadPool(hilosIo, r -> {
+            Thread t = new Thread(r, "media-server-io-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(host, port), 512);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        puertoEfectivo = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        running = true;
+        loop = new Thread(this::eventLoop, "media-server-loop");
+        loop.setDaemon(true);
+        loop.start();
+        LOG.info("Servidor de medios escuchando en {}:{}", host, puertoEfectivo);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+        if (loop != null) {
+            try {
+                loop.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (io != null) io.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled && running;
+    }
+
+    public int puerto() {
+        return puertoEfectivo;
+    }
+
+    /**
+     * URL firmada y con caducidad para servir el target local desde este
+     * servidor, con la clave de admisión del cliente; null si no aplica.
+     */
+    public String urlFirmada(String contenidoId, StreamingTarget target, String cliente, boolean vip) {
+        if (!isEnabled()) return null;
+        if (target == null || target.isExternalRedirect() || contenidoId == null) return null;
+        return baseUrl + PREFIJO + contenidoId + "?g=" + grants.emitir(contenidoId, target, sujeto(cliente, vip));
+    }
+
+    /** Sujeto de los permisos de este servidor: SUJETO|vip|cliente (el cliente puede contener '|'). */
+    static String sujeto(String cliente, boolean vip) {
+        return SUJETO + "|" + vip + "|" + (cliente == null ? "" : cliente);
+    }
+
+    // ------------------------------------------------------------ bucle de eventos
+
+    private void eventLoop() {
+        long ultimoBarrido = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(1000);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    atender(key);
+                }
+                for (Conexion c; (c = preparadas.poll()) != null; ) reanudar(c);
+                long now = System.currentTimeMillis();
+                if (now - ultimoBarrido >= 1000) {
+                    cerrarInactivas(now);
+                    ultimoBarrido = now;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Error en el bucle del servidor de medios: {}", e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Conexion c) cerrar(c);
+        }
+        for (Conexion c; (c = preparadas.poll()) != null; ) c.liberar();
+        cerrarSilencioso(server);
+        cerrarSilencioso(selector);
+    }
+
+    private void atender(SelectionKey key) {
+        if (!key.isValid()) return;
+        if (key.isAcceptable()) {
+            aceptar();
+            return;
+        }
+        Conexion c = (Conexion) key.attachment();
+        try {
+            if (key.isReadable()) leer(c);
+            if (key.isValid() && key.isWritable()) escribir(c);
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Conexión de medios cerrada: {}", e.getMessage());
+            cerrar(c);
+        }
+    }
+
+    private void aceptar() {
+        SocketChannel ch;
+        try {
+            ch = server.accept();
+            if (ch == null) return;
+            if (conexiones >= maxConexiones) {
+                rechazadas.increment();
+                ch.close();
+                return;
+            }
+            ch.configureBlocking(false);
+            ch.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            Conexion c = new Conexion(ch);
+            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            conexiones++;
+        } catch (IOException e) {
+            LOG.debug("No se pudo aceptar conexión: {}", e.getMessage());
+        }
+    }
+
+    private void leer(Conexion c) throws IOException {
+        if (c.pendiente()) return;
+        int n = c.ch.read(c.in);
+        if (n < 0) {
+            cerrar(c);
+            return;
+        }
+        c.ultimaActividad = System.currentTimeMillis();
+        procesarPeticion(c);
+    }
+
+    /**
+     * Si hay una cabecera completa en el buffer, la pasa al pool de E/S para
+     * preparar la respuesta. Con el buffer lleno y sin cabecera completa responde
+     * 431 y cierra: el socket seguiría legible sin que read pudiera avanzar.
+     */
+    private void procesarPeticion(Conexion c) throws IOException {
+        int fin = finCabecera(c.in);
+        if (fin < 0) {
+            if (!c.in.hasRemaining()) {
+                c.in.clear();
+                c.keepAlive = false;
+                c.inicioNanos = System.nanoTime();
+                responderError(c, 431, "Request Header Fields Too Large");
+                c.key.interestOps(SelectionKey.OP_WRITE);
+                escribir(c);
+            }
+            return;
+        }
+        String texto = new String(c.in.array(), 0, fin, StandardCharsets.ISO_8859_1);
+        int resto = c.in.position() - (fin + 4);
+        System.arraycopy(c.in.array(), fin + 4, c.in.array(), 0, resto);
+        c.in.position(resto);
+
+        c.inicioNanos = System.nanoTime();
+        peticiones.increment();
+        c.preparando = true;
+        c.key.interestOps(0);
+        try {
+            io.execute(() -> preparar(c, texto));
+        } catch (RejectedExecutionException e) {
+            c.preparando = false;
+            cerrar(c);
+        }
+    }
+
+    /** En el pool de E/S; la cola hace visible al selector lo que se escribe en la conexión. */
+    private void preparar(Conexion c, String texto) {
+        try {
+            responder(c, texto);
+        } catch (IOException | RuntimeException e) {
+            c.fallo = e;
+        }
+        preparadas.add(c);
+        selector.wakeup();
+    }
+
+    /** En el selector, con la respuesta ya preparada. */
+    private void reanudar(Conexion c) {
+        c.preparando = false;
+        if (c.cerrada) {
+            c.liberar();
+            return;
+        }
+        try {
+            if (c.fallo != null) throw c.fallo;
+            c.key.interestOps(SelectionKey.OP_WRITE);
+            escribir(c);
+        } catch (Exception e) {
+            LOG.debug("Conexión de medios cerrada: {}", e.getMessage());
+            cerrar(c);
+        }
+    }
+
+    private static int finCabecera(ByteBuffer in) {
+        byte[] b = in.array();
+        for (int i = 3; i < in.position(); i++) {
+            if (b[i] == '\n' && b[i - 1] == '\r' && b[i - 2] == '\n' && b[i - 3] == '\r') return i - 3;
+        }
+        return -1;
+    }
+
+    /** Cada escritura que avanza cuenta como actividad: un cliente que lee despacio no es una conexión inactiva. */
+    private void escribir(Conexion c) throws IOException {
+        if (c.cabecera != null && c.cabecera.hasRemaining()) {
+            if (c.ch.write(c.cabecera) > 0) c.ultimaActividad = System.currentTimeMillis();
+            if (c.cabecera.hasRemaining()) return;
+        }
+        while (c.restante > 0) {
+            long n = c.lease.channel().transferTo(c.pos, Math.min(c.restante, CHUNK), c.ch);
+            if (n == 0) {
+                if (c.pos >= c.lease.channel().size()) throw new IOException("Fichero truncado durante el envío");
+                return;
+            }
+            c.pos += n;
+            c.restante -= n;
+            c.ultimaActividad = System.currentTimeMillis();
+            bytesEnviados.add(n);
+        }
+        terminarRespuesta(c);
+    }
+
+    private void terminarRespuesta(Conexion c) throws IOException {
+        registrarLatencia(System.nanoTime() - c.inicioNanos);
+        c.liberar();
+        c.cabecera = null;
+        if (!c.keepAlive) {
+            cerrar(c);
+            return;
+        }
+        c.key.interestOps(SelectionKey.OP_READ);
+        if (c.in.position() > 0) procesarPeticion(c);
+    }
+
+    /**
+     * Con una respuesta a medias, antes de dar la conexión por inactiva se
+     * intenta escribir: el socket sólo vuelve a ser escribible cuando se ha
+     * vaciado buena parte del buffer de envío, así que un cliente lento pero
+     * vivo puede pasar más de idle-ms sin que el selector lo avise.
+     */
+    private void cerrarInactivas(long now) {
+        for (SelectionKey key : List.copyOf(selector.keys())) {
+            if (!(key.attachment() instanceof Conexion c) || c.preparando || now - c.ultimaActividad <= idleMs) continue;
+            if (c.pendiente() && key.isValid()) {
+                try {
+                    escribir(c);
+                } catch (IOException | RuntimeException e) {
+                    cerrar(c);
+                    continue;
+                }
+            }
+            if (!c.cerrada && now - c.ultimaActividad > idleMs) cerrar(c);
+        }
+    }
+
+    private void cerrar(Conexion c) {
+        if (c.cerrada) return;
+        c.cerrada = true;
+        conexiones--;
+        // si el pool de E/S aún la está preparando, reanudar suelta lo que haya tomado
+        if (!c.preparando) c.liberar();
+        if (c.key != null) c.key.cancel();
+        cerrarSilencioso(c.ch);
+    }
+
+    private static void cerrarSilencioso(java.io.Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // cierre: nada que hacer
+        }
+    }
+
+    // ------------------------------------------------------------ HTTP
+
+    private void responder(Conexion c, String texto) throws IOException {
+        String[] lineas = texto.split("\r\n");
+        String[] peticion = lineas[0].split(" ");
+        if (peticion.length != 3 || !peticion[2].startsWith("HTTP/1.")) {
+            c.keepAlive = false;
+            responderError(c, 400, "Bad Request");
+            return;
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lineas.length; i++) {
+            int colon = lineas[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lineas[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lineas[i].substring(colon + 1).trim());
+            }
+        }
+        String conn = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+        c.keepAlive = peticion[2].equals("HTTP/1.1") ? !conn.contains("close") : conn.contains("keep-alive");
+
+        String metodo = peticion[0];
+        if (!metodo.equals("GET") && !metodo.equals("HEAD")) {
+            responderError(c, 405, "Method Not Allowed");
+            return;
+        }
+        String uri = peticion[1];
+        int q = uri.indexOf('?');
+        String path = q < 0 ? uri : uri.substring(0, q);
+        String token = q < 0 ? null : parametro(uri.substring(q + 1), "g");
+        String id = path.startsWith(PREFIJO) ? path.substring(PREFIJO.length()) : "";
+        if (id.isEmpty() || id.indexOf('/') >= 0) {
+            responderError(c, 404, "Not Found");
+            return;
+        }
+
+        PlaybackGrantService.Permiso permiso = grants.verificarPermiso(token, id, s -> s.startsWith(SUJETO + "|"));
+        if (permiso == null || permiso.target().isExternalRedirect()) {
+            prohibidas.increment();
+            responderError(c, 403, "Forbidden");
+            return;
+        }
+        StreamingTarget target = permiso.target();
+        String[] clave = permiso.sujeto().split("\\|", 3);
+        c.vip = Boolean.parseBoolean(clave[1]);
+        c.cliente = clave[2].isEmpty() ? null : clave[2];
+        MediaFileMetadata meta = metadata.lookup(target.path());
+        if (!meta.readable() || meta.size() != target.length() || meta.lastModified() != target.lastModified()) {
+            responderError(c, 404, "Not Found");
+            return;
+        }
+        servir(c, metodo.equals("HEAD"), target, headers);
+    }
+
+    private void servir(Conexion c, boolean head, StreamingTarget target, Map<String, String> headers) throws IOException {
+        long len = target.length();
+        String etag = target.etag();
+        if (etag != null && etag.equals(headers.get("if-none-match"))) {
+            enviar(c, 304, "Not Modified", validadores(target), null, 0, 0);
+            return;
+        }
+
+        String range = headers.get("range");
+        String ifRange = headers.get("if-range");
+        if (range != null && ifRange != null && !ifRange.equals(etag)) range = null;
+        List<HttpRange> ranges = List.of();
+        if (range != null) {
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+        }
+
+        StringBuilder h = validadores(target);
+        h.append("Content-Type: ").append(target.mimeType() != null ? target.mimeType() : "application/octet-stream").append("\r\n");
+        h.append("Accept-Ranges: bytes\r\n");
+        h.append("Cache-Control: private\r\n");
+        if (ranges.size() != 1) {
+            enviar(c, 200, "OK", h, head ? null : target.path(), 0, len);
+            return;
+        }
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(len);
+            end = ranges.get(0).getRangeEnd(len);
+        } catch (IllegalArgumentException e) {
+            start = len;
+            end = len - 1;
+        }
+        if (start >= len || start > end) {
+            h.append("Content-Range: bytes */").append(len).append("\r\n");
+            enviar(c, 416, "Range Not Satisfiable", h, null, 0, 0);
+            return;
+        }
+        h.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(len).append("\r\n");
+        parciales.increment();
+        enviar(c, 206, "Partial Content", h, head ? null : target.path(), start, end - start + 1);
+    }
+
+    private static StringBuilder validadores(StreamingTarget target) {
+        StringBuilder h = new StringBuilder();
+        if (target.etag() != null) h.append("ETag: ").append(target.etag()).append("\r\n");
+        if (target.lastModified() > 0) {
+            h.append("Last-Modified: ").append(HTTP_DATE.format(Instant.ofEpochMilli(target.lastModified()))).append("\r\n");
+        }
+        return h;
+    }
+
+    private void responderError(Conexion c, int status, String reason) throws IOException {
+        responderError(c, status, reason, new StringBuilder());
+    }
+
+    private void responderError(Conexion c, int status, String reason, StringBuilder h) throws IOException {
+        errores.increment();
+        h.append("Content-Type: text/plain; charset=utf-8\r\n");
+        byte[] cuerpo = (status + " " + reason + "\n").getBytes(StandardCharsets.UTF_8);
+        c.cabecera = cabecera(status, reason, h, cuerpo.length, c.keepAlive, cuerpo);
+        c.restante = 0;
+    }
+
+    private void enviar(Conexion c, int status, String reason, StringBuilder h, Path file, long pos, long count)
+            throws IOException {
+        if (file == null || count == 0) {
+            c.cabecera = cabecera(status, reason, h, count, c.keepAlive, null);
+            c.restante = 0;
+            return;
+        }
+        try {
+            c.ticket = admission.intentarAdquirir(c.cliente, c.vip);
+        } catch (AdmisionStreamException e) {
+            sinAdmision.increment();
+            StringBuilder r = new StringBuilder("Retry-After: ").append(e.getRetryAfterSegundos()).append("\r\n");
+            if (e.isPorUsuario()) {
+                responderError(c, 429, "Too Many Requests", r);
+            } else {
+                responderError(c, 503, "Service Unavailable", r);
+            }
+            return;
+        }
+        c.cabecera = cabecera(status, reason, h, count, c.keepAlive, null);
+        c.lease = channels.acquire(file);
+        c.pos = pos;
+        c.restante = count;
+    }
+
+    private static ByteBuffer cabecera(int status, String reason, StringBuilder h, long contentLength,
+                                       boolean keepAlive, byte[] cuerpo) {
+        StringBuilder s = new StringBuilder(256);
+        s.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        s.append(h);
+        if (status != 304) s.append("Content-Length: ").append(contentLength).append("\r\n");
+        s.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        byte[] cab = s.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (cuerpo == null) return ByteBuffer.wrap(cab);
+        byte[] todo = Arrays.copyOf(cab, cab.length + cuerpo.length);
+        System.arraycopy(cuerpo, 0, todo, cab.length, cuerpo.length);
+        return ByteBuffer.wrap(todo);
+    }
+
+    private static String parametro(String query, String nombre) {
+        for (String par : query.split("&")) {
+            int eq = par.indexOf('=');
+            if (eq > 0 && par.substring(0, eq).equals(nombre)) return par.substring(eq + 1);
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------ métricas
+
+    private void registrarLatencia(long nanos) {
+        synchronized (latenciasNanos) {
+            latenciasNanos[(int) (muestras++ % MUESTRAS_LATENCIA)] = nanos;
+        }
+    }
+
+    private double p99Ms() {
+        long[] copia;
+        synchronized (latenciasNanos) {
+            copia = Arrays.copyOf(latenciasNanos, (int) Math.min(muestras, MUESTRAS_LATENCIA));
+        }
+        if (copia.length == 0) return 0.0;
+        Arrays.sort(copia);
+        return copia[(int) Math.ceil(copia.length * 0.99) - 1] / 1_000_000.0;
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "servidorMedios";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", isEnabled());
+        m.put("puerto", puertoEfectivo);
+        m.put("peticiones", peticiones.sum());
+        m.put("parciales", parciales.sum());
+        m.put("prohibidas", prohibidas.sum());
+        m.put("errores", errores.sum());
+        m.put("conexionesRechazadas", rechazadas.sum());
+        m.put("rechazadasAdmision", sinAdmision.sum());
+        m.put("bytesEnviados", bytesEnviados.sum());
+        m.put("p99Ms", p99Ms());
+        return m;
+    }
+
+    private static final class Conexion {
+        final SocketChannel ch;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_CABECERA);
+        SelectionKey key;
+        ByteBuffer cabecera;
+        FileChannelPool.Lease lease;
+        StreamAdmission.Ticket ticket;
+        String cliente;
+        boolean vip;
+        long pos;
+        long restante;
+        boolean keepAlive;
+        boolean cerrada;
+        boolean preparando;
+        Exception fallo;
+        long inicioNanos;
+        long ultimaActividad = System.currentTimeMillis();
+
+        Conexion(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        boolean pendiente() {
+            return (cabecera != null && cabecera.hasRemaining()) || restante > 0;
+        }
+
+        void liberar() {
+            if (ticket != null) {
+                ticket.liberar();
+                ticket = null;
+            }
+            if (lease == null) return;
+            try {
+                lease.close();
+            } catch (IOException ignored) {
+                // el pool cierra el canal cuando corresponda
+            }
+            lease = null;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.ProxiedMedia;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Modo proxy para fuentes externas (urlAudio/urlVideo http/https).
+ *
+ * En un fallo la petición del cliente se reenvía al origen con su cabecera Range
+ * y, en segundo plano, se descarga el recurso completo a un directorio local
+ * acotado por app.streaming.proxy.max-bytes con expulsión LRU. Los aciertos se
+ * sirven como ficheros locales por el mismo camino de rangos que el resto de
+ * media. Sólo se cachean respuestas de tipo audio/*, video/* u octet-stream; si
+ * el origen devuelve otra cosa (p. ej. una página HTML) se mantiene la redirección.
+ *
+ * Cada entrada se guarda como &lt;sha256(url)&gt;.bin más un .properties con la URL
+ * y el tipo MIME, de modo que el índice se reconstruye al arrancar.
+ */
+@Component
+public class ExternalMediaCache implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalMediaCache.class);
+    private static final String DATA_EXT = ".bin";
+    private static final String META_EXT = ".properties";
+    private static final String PART_EXT = ".part";
+    private static final long NEGATIVE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final List<String> PASSTHROUGH_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_RANGE,
+            HttpHeaders.ACCEPT_RANGES, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
+
+    public record Entry(Path file, long size, String mimeType, long lastModified) { }
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxObjectBytes;
+    private final Duration requestTimeout;
+    private final MediaMetadataCache metadataCache;
+    private final HttpClient http;
+
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private final Map<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+    private final Map<String, Long> noCacheables = new ConcurrentHashMap<>();
+    private ExecutorService fetcher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder passThroughs = new LongAdder();
+    private final LongAdder descargas = new LongAdder();
+    private final LongAdder erroresDescarga = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExternalMediaCache(@Value("${app.streaming.proxy.enabled:false}") boolean enabled,
+                              @Value("${app.streaming.proxy.dir:${java.io.tmpdir}/esimedia-proxy}") String dir,
+                              @Value("${app.streaming.proxy.max-bytes:2147483648}") long maxBytes,
+                              @Value("${app.streaming.proxy.max-object-bytes:536870912}") long maxObjectBytes,
+                              @Value("${app.streaming.proxy.connect-timeout-ms:5000}") long connectTimeoutMs,
+                              @Value("${app.streaming.proxy.request-timeout-ms:15000}") long requestTimeoutMs,
+                              MediaMetadataCache metadataCache) {
+        if (maxBytes <= 0 || maxObjectBytes <= 0 || maxObjectBytes > maxBytes) {
+            throw new IllegalArgumentException("Límites de app.streaming.proxy inválidos.");
+        }
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.maxBytes = maxBytes;
+        this.maxObjectBytes = maxObjectBytes;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.metadataCache = metadataCache;
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+        AtomicInteger seq = new AtomicInteger();
+        fetcher = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "media-proxy-fetch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        loadIndex();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Entrada cacheada para la URL, o null. */
+    public Entry lookup(String url) {
+        if (!enabled || url == null) return null;
+        Entry e;
+        synchronized (index) {
+            e = index.get(url);
+        }
+        if (e == null || !Files.isRegularFile(e.file())) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e;
+    }
+
+    /**
+     * Reenvía la petición al origen conservando el Range del cliente y lanza la
+     * descarga completa en segundo plano. Devuelve null si el modo proxy está
+     * desactivado o el origen no responde con media (el llamante redirige).
+     */
+    public ProxiedMedia passThrough(String url, String rangeHeader) {
+        if (!enabled || url == null) return null;
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout).GET();
+        if (rangeHeader != null && !rangeHeader.isBlank()) req.header(HttpHeaders.RANGE, rangeHeader);
+        HttpResponse<InputStream> resp;
+        try {
+            resp = http.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            LOG.debug("Origen externo no accesible {}: {}", url, e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        String contentType = resp.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null);
+        if ((resp.statusCode() != 200 && resp.statusCode() != 206) || !isMedia(contentType)) {
+            closeQuietly(resp.body());
+            return null;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : PASSTHROUGH_HEADERS) {
+            resp.headers().allValues(name).forEach(v -> headers.add(name, v));
+        }
+        passThroughs.increment();
+        prefetch(url);
+        return new ProxiedMedia(resp.statusCode(), headers, resp.body());
+    }
+
+    /** Descarga la URL completa a la caché; una sola descarga concurrente por URL. */
+    public CompletableFuture<Entry> prefetch(String url) {
+        if (!enabled) return CompletableFuture.completedFuture(null);
+        Long vetoUntil = noCacheables.get(url);
+        if (vetoUntil != null && vetoUntil > System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (index) {
+            Entry e = index.get(url);
+            if (e != null) return CompletableFuture.completedFuture(e);
+        }
+        return inflight.computeIfAbsent(url, u -> CompletableFuture
+                .supplyAsync(() -> fetch(u), fetcher)
+                .whenComplete((e, ex) -> inflight.remove(u)));
+    }
+
+    private Entry fetch(String url) {
+        String key = keyFor(url);
+        Path part = dir.resolve(key + PART_EXT);
+        try {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(url)).timeout(requestTimeout).GET().build();
+            HttpResponse<InputStream> resp = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+            String mime = resp.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElse(null);
+            long declared = resp.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1);
+            if (resp.statusCode() != 200 || !isMedia(mime) || declared > maxObjectBytes) {
+                closeQuietly(resp.body());
+                noCacheables.put(url, System.currentTimeMillis() + NEGATIVE_TTL_MS);
+                return null;
+            }
+            long size = copyCapped(resp.body(), part);
+            if (size < 0) {
+                noCacheables.put(url, System.currentTimeMillis() + NEGATIVE_TTL_MS);
+                return null;
+            }
+            Path data = dir.resolve(key + DATA_EXT);
+            Files.move(part, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeMeta(dir.resolve(key + META_EXT), url, mime);
+            metadataCache.invalidate(data);
+            Entry e = new Entry(data, size, stripParams(mime), Files.getLastModifiedTime(data).toMillis());
+            put(url, e);
+            descargas.increment();
+            return e;
+        } catch (IOException e) {
+            erroresDescarga.increment();
+            LOG.warn("No se pudo cachear {}: {}", url, e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            deleteQuietly(part);
+        }
+    }
+
+    private long copyCapped(InputStream in, Path target) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        try (in; OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                total += n;
+                if (total > maxObjectBytes) return -1;
+                out.write(buf, 0, n);
+            }
+        }
+        return total;
+    }
+
+    private void put(String url, Entry e) {
+        List<Entry> expulsadas = new ArrayList<>();
+        synchronized (index) {
+            Entry old = index.put(url, e);
+            if (old != null) totalBytes -= old.size();
+            totalBytes += e.size();
+            Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getKey().equals(url)) continue;
+                it.remove();
+                totalBytes -= eldest.getValue().size();
+                expulsadas.add(eldest.getValue());
+            }
+        }
+        for (Entry victim : expulsadas) {
+            evictions.increment();
+            String name = victim.file().getFileName().toString();
+            deleteQuietly(victim.file());
+            deleteQuietly(dir.resolve(name.substring(0, name.length() - DATA_EXT.length()) + META_EXT));
+            metadataCache.invalidate(victim.file());
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        List<Map.Entry<String, Entry>> found = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(PART_EXT)) {
+                    deleteQuietly(p);
+                } else if (name.endsWith(META_EXT)) {
+                    Path data = dir.resolve(name.substring(0, name.length() - META_EXT.length()) + DATA_EXT);
+                    Properties meta = readMeta(p);
+                    if (meta == null || !Files.isRegularFile(data)) continue;
+                    found.add(Map.entry(meta.getProperty("url"), new Entry(data, Files.size(data),
+                            meta.getProperty("mime"), Files.getLastModifiedTime(data).toMillis())));
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(e -> e.getValue().lastModified()));
+        for (Map.Entry<String, Entry> e : found) put(e.getKey(), e.getValue());
+    }
+
+    private static Properties readMeta(Path p) {
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+            props.load(r);
+            return props.getProperty("url") != null ? props : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(Path p, String url, String mime) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("mime", stripParams(mime));
+        try (Writer w = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
+            props.store(w, null);
+        }
+    }
+
+    static boolean isMedia(String contentType) {
+        if (contentType == null) return false;
+        String ct = contentType.toLowerCase();
+        return ct.startsWith("audio/") || ct.startsWith("video/")
+                || ct.startsWith("application/octet-stream") || ct.startsWith("application/ogg");
+    }
+
+    private static String stripParams(String mime) {
+        int semi = mime.indexOf(';');
+        return (semi >= 0 ? mime.substring(0, semi) : mime).trim();
+    }
+
+    private static String keyFor(String url) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignored) {
+            // se reintentará al arrancar
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // nada que hacer
+        }
+    }
+
+    public long usedBytes() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (fetcher != null) fetcher.shutdownNow();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "proxyExterno";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        synchronized (index) {
+            m.put("entradas", index.size());
+            m.put("bytes", totalBytes);
+        }
+        m.put("maxBytes", maxBytes);
+        m.put("hits", hits.sum());
+        m.put("misses", misses.sum());
+        m.put("passThrough", passThroughs.sum());
+        m.put("descargas", descargas.sum());
+        m.put("erroresDescarga", erroresDescarga.sum());
+        m.put("evictions", evictions.sum());
+        m.put("descargando", inflight.size());
+        return m;
+    }
+}
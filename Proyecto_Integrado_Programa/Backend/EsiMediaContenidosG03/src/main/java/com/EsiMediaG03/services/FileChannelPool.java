@@ -0,0 +1,272 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool de FileChannel de solo lectura por ruta, con cuenta de referencias,
+ * para no abrir y cerrar el mismo fichero en cada petición de rango.
+ *
+ * Los lectores sólo usan lecturas posicionales (transferTo/read con offset),
+ * así que varias peticiones comparten el mismo canal sin tocar su posición.
+ * Un canal se retira del pool cuando el fichero cambia de tamaño o mtime
+ * (según la caché de metadatos, que vigila el directorio), cuando lleva más
+ * de idle-ms sin usarse o cuando se supera max-open; en cualquier caso sólo
+ * se cierra cuando lo suelta el último lector.
+ *
+ * Un canal compartido puede cerrarse por debajo (ClosedChannelException o
+ * AsynchronousCloseException en un lector, p. ej. si se interrumpe un hilo
+ * bloqueado en transferTo). Un canal cerrado no se vuelve a prestar: acquire
+ * lo descarta y el Lease que lo suelta cerrado retira la entrada.
+ */
+@Component
+public class FileChannelPool implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileChannelPool.class);
+
+    private final boolean enabled;
+    private final int maxOpen;
+    private final long idleNanos;
+    private final MediaMetadataCache metadata;
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder open = new LongAdder();
+
+    public FileChannelPool(MediaMetadataCache metadata,
+                           @Value("${app.streaming.channel-pool.enabled:true}") boolean enabled,
+                           @Value("${app.streaming.channel-pool.max-open:128}") int maxOpen,
+                           @Value("${app.streaming.channel-pool.idle-ms:30000}") long idleMs) {
+        this.metadata = metadata;
+        this.enabled = enabled && maxOpen > 0;
+        this.maxOpen = Math.max(1, maxOpen);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleMs));
+        if (this.enabled) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "file-channel-pool-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(100, Math.min(10_000, idleMs / 2));
+            this.sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    /**
+     * Devuelve un canal de lectura para la ruta. El llamante debe cerrar el
+     * Lease (try-with-resources); nunca debe cerrar el canal directamente ni
+     * depender de su posición.
+     */
+    public Lease acquire(Path path) throws IOException {
+        if (!enabled) return new Lease(null, FileChannel.open(path, StandardOpenOption.READ));
+        Path key = path.toAbsolutePath().normalize();
+        MediaFileMetadata meta = metadata.lookup(key);
+
+        Entry current = entries.get(key);
+        if (current != null) {
+            if (current.usable(meta) && current.retain()) {
+                hits.increment();
+                return new Lease(current, current.channel);
+            }
+            if (!current.usable(meta)) {
+                invalidations.increment();
+                retire(key, current);
+            }
+        }
+
+        misses.increment();
+        Entry fresh = new Entry(key, FileChannel.open(key, StandardOpenOption.READ), meta.size(), meta.lastModified());
+        fresh.retain();
+        if (!meta.readable() || entries.putIfAbsent(key, fresh) != null) {
+            // Otro hilo ganó la carrera (o no hay metadatos fiables): canal de un solo uso
+            fresh.retire();
+        } else if (entries.size() > maxOpen) {
+            evictLeastRecent();
+        }
+        return new Lease(fresh, fresh.channel);
+    }
+
+    /** Cierra (en cuanto no tenga lectores) el canal de una ruta que se sabe modificada o borrada. */
+    public void invalidate(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Entry e = entries.get(key);
+        if (e != null && retire(key, e)) invalidations.increment();
+    }
+
+    private boolean retire(Path key, Entry e) {
+        if (!entries.remove(key, e)) return false;
+        e.retire();
+        return true;
+    }
+
+    private void evictLeastRecent() {
+        List<Map.Entry<Path, Entry>> byUse = new ArrayList<>(entries.entrySet());
+        byUse.sort(Comparator.comparingLong(en -> en.getValue().lastUsed));
+        int excess = byUse.size() - maxOpen;
+        for (int i = 0; i < byUse.size() && excess > 0; i++) {
+            Map.Entry<Path, Entry> en = byUse.get(i);
+            if (retire(en.getKey(), en.getValue())) {
+                evictions.increment();
+                excess--;
+            }
+        }
+    }
+
+    /** Retira los canales sin lectores que llevan más de idle-ms sin usarse (lo invoca el barrido periódico). */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<Path, Entry> en : entries.entrySet()) {
+            Entry e = en.getValue();
+            if (e.idle(now, idleNanos) && retire(en.getKey(), e)) evictions.increment();
+        }
+    }
+
+    /** Número de canales abiertos: los del pool más los retirados que aún tienen lectores. */
+    public long openHandles() {
+        return open.sum();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (sweeper != null) sweeper.shutdownNow();
+        entries.forEach(this::retire);
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "fileChannelPool";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> s = new HashMap<>();
+        s.put("habilitado", enabled);
+        s.put("enPool", entries.size());
+        s.put("abiertos", openHandles());
+        s.put("hits", h);
+        s.put("misses", m);
+        s.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        s.put("invalidaciones", invalidations.sum());
+        s.put("evictions", evictions.sum());
+        s.put("cerrados", closed.sum());
+        return s;
+    }
+
+    /** Préstamo de un canal; al cerrarse suelta la referencia (y cierra el canal si ya estaba retirado). */
+    public final class Lease implements AutoCloseable {
+
+        private final Entry entry;
+        private final FileChannel channel;
+        private boolean released;
+
+        private Lease(Entry entry, FileChannel channel) {
+            this.entry = entry;
+            this.channel = channel;
+        }
+
+        public FileChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) return;
+            released = true;
+            if (entry == null) {
+                channel.close();
+                return;
+            }
+            if (!channel.isOpen() && retire(entry.key, entry)) {
+                invalidations.increment();
+                LOG.debug("Canal de {} cerrado durante una lectura; se retira del pool", entry.key);
+            }
+            entry.release();
+        }
+    }
+
+    private final class Entry {
+        final Path key;
+        final FileChannel channel;
+        final long size;
+        final long lastModified;
+        volatile long lastUsed = System.nanoTime();
+        private int refs;
+        private boolean retired;
+
+        Entry(Path key, FileChannel channel, long size, long lastModified) {
+            this.key = key;
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+            open.increment();
+        }
+
+        boolean usable(MediaFileMetadata m) {
+            return channel.isOpen() && m.readable() && size == m.size() && lastModified == m.lastModified();
+        }
+
+        synchronized boolean retain() {
+            if (retired) return false;
+            refs++;
+            lastUsed = System.nanoTime();
+            return true;
+        }
+
+        synchronized void release() {
+            refs--;
+            lastUsed = System.nanoTime();
+            if (retired && refs == 0) closeQuietly();
+        }
+
+        synchronized void retire() {
+            if (retired) return;
+            retired = true;
+            if (refs == 0) closeQuietly();
+        }
+
+        synchronized boolean idle(long now, long idleNanos) {
+            return refs == 0 && now - lastUsed > idleNanos;
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Error cerrando canal: {}", e.getMessage());
+            }
+            open.decrement();
+            closed.increment();
+        }
+    }
+}
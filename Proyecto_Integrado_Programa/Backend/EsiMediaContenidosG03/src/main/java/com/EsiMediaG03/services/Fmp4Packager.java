@@ -0,0 +1,645 @@
+package com.EsiMediaG03.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Empaquetado en Java puro de un MP4 progresivo a fMP4 (CMAF) con manifiestos
+ * HLS y DASH, sin transcodificar: se reutilizan las muestras tal cual.
+ *
+ * Cada pista se empaqueta por separado (una pista por fragmento, como pide
+ * CMAF), y N es su posición: primero las de vídeo y luego las de audio.
+ * Salida en el directorio indicado:
+ * - init-N.mp4: ftyp + moov con la descripción de muestra (stsd), la lista de
+ *   edición original (o una sintetizada si hay desfase de composición) y mvex.
+ * - seg-N-K.m4s: moof + mdat de la pista, cortado en keyframes de vídeo cada
+ *   segundosObjetivo como mínimo; todas las pistas comparten los cortes.
+ * - pista-N.m3u8: playlist HLS v7 de la pista (EXT-X-MAP).
+ * - index.m3u8: playlist maestra con CODECS, BANDWIDTH y RESOLUTION; el audio
+ *   va como EXT-X-MEDIA del grupo "audio".
+ * - manifest.mpd: un AdaptationSet por pista con codecs, bandwidth y
+ *   SegmentTemplate + SegmentTimeline en la escala de tiempo de la pista.
+ *
+ * El codec se deduce de la caja de configuración de la entrada de muestra
+ * (avcC, hvcC, av1C, esds); el bandwidth es el pico por segmento y
+ * AVERAGE-BANDWIDTH la media del fichero, ambos en bits/s.
+ */
+public final class Fmp4Packager {
+
+    public static final String PLAYLIST = "index.m3u8";
+    public static final String MPD = "manifest.mpd";
+
+    private static final int SAMPLE_SYNC = 0x02000000;
+    private static final int SAMPLE_NO_SYNC = 0x01010000;
+
+    /** Resumen del empaquetado: número de segmentos y duración total en ms. */
+    public record Resultado(int segmentos, long duracionMs) { }
+
+    private Fmp4Packager() { }
+
+    private static final class Pista {
+        int id;
+        String handler;
+        long timescale;
+        byte[] tkhd;
+        byte[] mdhd;
+        byte[] hdlr;
+        byte[] cabeceraMedia;
+        byte[] dinf;
+        byte[] stsd;
+        long[] offsets;
+        int[] tamanos;
+        long[] dts;
+        int[] duraciones;
+        int[] cto;
+        boolean[] sync;
+        boolean conCto;
+        byte[] edts;
+        String codec;
+        int ancho;
+        int alto;
+        int frecuencia;
+
+        int muestras() { return tamanos.length; }
+
+        long fin() {
+            int n = muestras();
+            return n == 0 ? 0 : dts[n - 1] + duraciones[n - 1];
+        }
+
+        /** Primera muestra con dts (en segundos) >= t. */
+        int primeraDesde(double t) {
+            int lo = 0;
+            int hi = muestras();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((double) dts[mid] / timescale < t) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /** Devuelve null si el fichero no es un MP4 progresivo con pistas de vídeo o audio utilizables. */
+    public static Resultado empaquetar(Path origen, Path destino, double segundosObjetivo) throws IOException {
+        try (FileChannel ch = FileChannel.open(origen, StandardOpenOption.READ)) {
+            Mp4Atoms.Atom moov = Mp4Atoms.findTopLevel(ch, "moov");
+            if (moov == null) return null;
+            byte[] mvhd = null;
+            List<Pista> pistas = new ArrayList<>();
+            for (Mp4Atoms.Atom a : MediaProber.children(ch, moov)) {
+                if (a.type().equals("mvhd")) mvhd = leer(ch, a);
+                else if (a.type().equals("mvex")) return null;
+                else if (a.type().equals("trak")) {
+                    Pista p = pista(ch, a);
+                    if (p != null) pistas.add(p);
+                }
+            }
+            if (mvhd == null || pistas.isEmpty()) return null;
+            pistas.sort((x, y) -> x.handler.equals(y.handler) ? Integer.compare(x.id, y.id) : x.handler.equals("vide") ? -1 : 1);
+            Pista ref = pistas.get(0);
+
+            List<Double> cortes = cortes(ref, segundosObjetivo);
+            double total = (double) ref.fin() / ref.timescale;
+
+            Files.createDirectories(destino);
+            List<Serie> series = new ArrayList<>();
+            for (int j = 0; j < pistas.size(); j++) {
+                Pista p = pistas.get(j);
+                Files.write(destino.resolve(init(j)), init(mvhd, p));
+                Serie serie = new Serie(p, cortes.size());
+                for (int k = 0; k < cortes.size(); k++) {
+                    int ini = k == 0 ? 0 : p.primeraDesde(cortes.get(k));
+                    int fin = k + 1 < cortes.size() ? p.primeraDesde(cortes.get(k + 1)) : p.muestras();
+                    serie.inicios[k] = ini < p.muestras() ? p.dts[ini] : p.fin();
+                    for (int i = ini; i < fin; i++) serie.duraciones[k] += Integer.toUnsignedLong(p.duraciones[i]);
+                    serie.bytes[k] = escribirSegmento(ch, p, k, ini, fin, destino.resolve(segmento(j, k)));
+                }
+                Files.writeString(destino.resolve(playlistPista(j)), playlist(j, serie), StandardCharsets.UTF_8);
+                series.add(serie);
+            }
+            Files.writeString(destino.resolve(PLAYLIST), maestra(series), StandardCharsets.UTF_8);
+            Files.writeString(destino.resolve(MPD), mpd(series, total), StandardCharsets.UTF_8);
+            return new Resultado(cortes.size(), Math.round(total * 1000));
+        }
+    }
+
+    public static String init(int pista) {
+        return "init-" + pista + ".mp4";
+    }
+
+    public static String segmento(int pista, int n) {
+        return "seg-" + pista + "-" + n + ".m4s";
+    }
+
+    public static String playlistPista(int pista) {
+        return "pista-" + pista + ".m3u8";
+    }
+
+    /** Segmentos ya escritos de una pista: inicio y duración en su escala de tiempo, y tamaño en bytes. */
+    private static final class Serie {
+        final Pista pista;
+        final long[] inicios;
+        final long[] duraciones;
+        final long[] bytes;
+
+        Serie(Pista pista, int segmentos) {
+            this.pista = pista;
+            this.inicios = new long[segmentos];
+            this.duraciones = new long[segmentos];
+            this.bytes = new long[segmentos];
+        }
+
+        boolean video() {
+            return pista.handler.equals("vide");
+        }
+
+        double segundos(int k) {
+            return (double) duraciones[k] / pista.timescale;
+        }
+
+        /** Pico de bits/s entre los segmentos con duración. */
+        long bandwidthPico() {
+            long pico = 0;
+            for (int k = 0; k < bytes.length; k++) {
+                if (duraciones[k] > 0) pico = Math.max(pico, (long) Math.ceil(bytes[k] * 8 / segundos(k)));
+            }
+            return Math.max(1, pico);
+        }
+
+        long bandwidthMedio() {
+            long b = 0;
+            long d = 0;
+            for (int k = 0; k < bytes.length; k++) {
+                b += bytes[k];
+                d += duraciones[k];
+            }
+            return d == 0 ? 1 : Math.max(1, (long) Math.ceil(b * 8 / ((double) d / pista.timescale)));
+        }
+    }
+
+    // --------------------------------------------------------- lectura
+
+    private static Pista pista(FileChannel ch, Mp4Atoms.Atom trak) throws IOException {
+        Pista p = new Pista();
+        Mp4Atoms.Atom stbl = null;
+        for (Mp4Atoms.Atom a : MediaProber.children(ch, trak)) {
+            if (a.type().equals("tkhd")) p.tkhd = leer(ch, a);
+            else if (a.type().equals("edts")) p.edts = leer(ch, a);
+            else if (a.type().equals("mdia")) {
+                for (Mp4Atoms.Atom m : MediaProber.children(ch, a)) {
+                    switch (m.type()) {
+                        case "mdhd" -> p.mdhd = leer(ch, m);
+                        case "hdlr" -> p.hdlr = leer(ch, m);
+                        case "minf" -> {
+                            for (Mp4Atoms.Atom i : MediaProber.children(ch, m)) {
+                                switch (i.type()) {
+                                    case "vmhd", "smhd" -> p.cabeceraMedia = leer(ch, i);
+                                    case "dinf" -> p.dinf = leer(ch, i);
+                                    case "stbl" -> stbl = i;
+                                    default -> { }
+                                }
+                            }
+                        }
+                        default -> { }
+                    }
+                }
+            }
+        }
+        if (p.tkhd == null || p.mdhd == null || p.hdlr == null || p.cabeceraMedia == null || p.dinf == null || stbl == null) {
+            return null;
+        }
+        p.handler = new String(p.hdlr, 16, 4, StandardCharsets.ISO_8859_1);
+        if (!p.handler.equals("vide") && !p.handler.equals("soun")) return null;
+        ByteBuffer tkhd = ByteBuffer.wrap(p.tkhd);
+        p.id = tkhd.getInt(8 + (p.tkhd[8] == 1 ? 20 : 12));
+        ByteBuffer mdhd = ByteBuffer.wrap(p.mdhd);
+        p.timescale = Integer.toUnsignedLong(mdhd.getInt(8 + (p.mdhd[8] == 1 ? 20 : 12)));
+        if (p.timescale <= 0) return null;
+
+        ByteBuffer stts = null, ctts = null, stss = null, stsc = null, stsz = null, stco = null;
+        boolean co64 = false;
+        for (Mp4Atoms.Atom a : MediaProber.children(ch, stbl)) {
+            switch (a.type()) {
+                case "stsd" -> p.stsd = leer(ch, a);
+                case "stts" -> stts = ByteBuffer.wrap(leer(ch, a));
+                case "ctts" -> ctts = ByteBuffer.wrap(leer(ch, a));
+                case "stss" -> stss = ByteBuffer.wrap(leer(ch, a));
+                case "stsc" -> stsc = ByteBuffer.wrap(leer(ch, a));
+                case "stsz" -> stsz = ByteBuffer.wrap(leer(ch, a));
+                case "stco" -> stco = ByteBuffer.wrap(leer(ch, a));
+                case "co64" -> { stco = ByteBuffer.wrap(leer(ch, a)); co64 = true; }
+                default -> { }
+            }
+        }
+        if (p.stsd == null || stts == null || stsc == null || stsz == null || stco == null) return null;
+
+        int n = stsz.getInt(16);
+        int fijo = stsz.getInt(12);
+        p.tamanos = new int[n];
+        for (int i = 0; i < n; i++) p.tamanos[i] = fijo != 0 ? fijo : stsz.getInt(20 + i * 4);
+
+        p.dts = new long[n];
+        p.duraciones = new int[n];
+        int s = 0;
+        long t = 0;
+        for (int e = 0, entradas = stts.getInt(12); e < entradas && s < n; e++) {
+            int cuenta = stts.getInt(16 + e * 8);
+            int delta = stts.getInt(20 + e * 8);
+            for (int k = 0; k < cuenta && s < n; k++, s++) {
+                p.dts[s] = t;
+                p.duraciones[s] = delta;
+                t += Integer.toUnsignedLong(delta);
+            }
+        }
+        if (s < n) return null;
+
+        p.cto = new int[n];
+        if (ctts != null) {
+            p.conCto = true;
+            s = 0;
+            for (int e = 0, entradas = ctts.getInt(12); e < entradas && s < n; e++) {
+                int cuenta = ctts.getInt(16 + e * 8);
+                int off = ctts.getInt(20 + e * 8);
+                for (int k = 0; k < cuenta && s < n; k++, s++) p.cto[s] = off;
+            }
+        }
+
+        p.sync = new boolean[n];
+        if (stss == null) {
+            Arrays.fill(p.sync, true);
+        } else {
+            for (int e = 0, entradas = stss.getInt(12); e < entradas; e++) {
+                int idx = stss.getInt(16 + e * 4) - 1;
+                if (idx >= 0 && idx < n) p.sync[idx] = true;
+            }
+        }
+
+        p.offsets = new long[n];
+        int chunks = stco.getInt(12);
+        int entradasStsc = stsc.getInt(12);
+        int e = 0;
+        s = 0;
+        for (int c = 1; c <= chunks && s < n; c++) {
+            while (e + 1 < entradasStsc && stsc.getInt(16 + (e + 1) * 12) <= c) e++;
+            int porChunk = stsc.getInt(16 + e * 12 + 4);
+            long off = co64 ? stco.getLong(16 + (c - 1) * 8) : Integer.toUnsignedLong(stco.getInt(16 + (c - 1) * 4));
+            for (int k = 0; k < porChunk && s < n; k++, s++) {
+                p.offsets[s] = off;
+                off += p.tamanos[s];
+            }
+        }
+        if (s != n || n == 0) return null;
+        describir(p);
+        return p;
+    }
+
+    /** Codec (RFC 6381) y dimensiones o frecuencia a partir de la primera entrada de stsd. */
+    private static void describir(Pista p) {
+        byte[] d = p.stsd;
+        ByteBuffer b = ByteBuffer.wrap(d);
+        int entrada = 16;
+        if (d.length < entrada + 8) {
+            p.codec = "";
+            return;
+        }
+        String tipo = new String(d, entrada + 4, 4, StandardCharsets.ISO_8859_1);
+        p.codec = switch (tipo) {
+            case "Opus" -> "opus";
+            case "fLaC" -> "flac";
+            default -> tipo;
+        };
+        int fin = (int) Math.min(d.length, entrada + Integer.toUnsignedLong(b.getInt(entrada)));
+        int hijos;
+        try {
+            if (p.handler.equals("vide")) {
+                p.ancho = b.getShort(entrada + 32) & 0xffff;
+                p.alto = b.getShort(entrada + 34) & 0xffff;
+                hijos = entrada + 86;
+            } else {
+                int version = b.getShort(entrada + 16) & 0xffff;
+                p.frecuencia = b.getInt(entrada + 32) >>> 16;
+                hijos = entrada + 36 + (version == 1 ? 16 : version == 2 ? 36 : 0);
+            }
+            for (int pos = hijos; pos + 8 <= fin; ) {
+                int tam = b.getInt(pos);
+                if (tam < 8 || pos + tam > fin) break;
+                String hijo = new String(d, pos + 4, 4, StandardCharsets.ISO_8859_1);
+                String c = codecDe(tipo, hijo, b, pos + 8, pos + tam);
+                if (c != null) {
+                    p.codec = c;
+                    break;
+                }
+                pos += tam;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Entrada de muestra truncada: se queda el fourcc
+        }
+    }
+
+    private static String codecDe(String tipo, String caja, ByteBuffer b, int ini, int fin) {
+        switch (caja) {
+            case "avcC":
+                return String.format(Locale.ROOT, "%s.%02X%02X%02X", tipo,
+                        b.get(ini + 1) & 0xff, b.get(ini + 2) & 0xff, b.get(ini + 3) & 0xff);
+            case "hvcC": {
+                int perfil = b.get(ini + 1) & 0xff;
+                StringBuilder sb = new StringBuilder(tipo).append('.')
+                        .append(new String[] {"", "A", "B", "C"}[perfil >>> 6]).append(perfil & 0x1f).append('.')
+                        .append(Integer.toHexString(Integer.reverse(b.getInt(ini + 2))).toUpperCase(Locale.ROOT)).append('.')
+                        .append((perfil & 0x20) != 0 ? 'H' : 'L').append(b.get(ini + 12) & 0xff);
+                int ultima = 5;
+                while (ultima >= 0 && b.get(ini + 6 + ultima) == 0) ultima--;
+                for (int i = 0; i <= ultima; i++) sb.append('.').append(Integer.toHexString(b.get(ini + 6 + i) & 0xff).toUpperCase(Locale.ROOT));
+                return sb.toString();
+            }
+            case "av1C": {
+                int perfil = b.get(ini + 1) & 0xff;
+                int flags = b.get(ini + 2) & 0xff;
+                int bits = (flags & 0x20) != 0 ? 12 : (flags & 0x40) != 0 ? 10 : 8;
+                return String.format(Locale.ROOT, "av01.%d.%02d%s.%02d", perfil >>> 5, perfil & 0x1f,
+                        (flags & 0x80) != 0 ? "H" : "M", bits);
+            }
+            case "esds":
+                return codecMp4a(b, ini + 4, fin);
+            default:
+                return null;
+        }
+    }
+
+    /** ES_Descriptor -> DecoderConfigDescriptor -> DecoderSpecificInfo: mp4a.40.&lt;audioObjectType&gt;. */
+    private static String codecMp4a(ByteBuffer b, int pos, int fin) {
+        if (pos >= fin || b.get(pos) != 0x03) return null;
+        pos = saltarLongitud(b, pos + 1);
+        int flags = b.get(pos + 2) & 0xff;
+        pos += 3;
+        if ((flags & 0x80) != 0) pos += 2;
+        if ((flags & 0x40) != 0) pos += 1 + (b.get(pos) & 0xff);
+        if ((flags & 0x20) != 0) pos += 2;
+        if (pos >= fin || b.get(pos) != 0x04) return null;
+        pos = saltarLongitud(b, pos + 1);
+        int oti = b.get(pos) & 0xff;
+        if (oti != 0x40) return String.format(Locale.ROOT, "mp4a.%02X", oti);
+        pos += 13;
+        if (pos >= fin || b.get(pos) != 0x05) return "mp4a.40";
+        pos = saltarLongitud(b, pos + 1);
+        int aot = (b.get(pos) & 0xff) >>> 3;
+        if (aot == 31) aot = 32 + (((b.get(pos) & 0x07) << 3) | ((b.get(pos + 1) & 0xff) >>> 5));
+        return "mp4a.40." + aot;
+    }
+
+    private static int saltarLongitud(ByteBuffer b, int pos) {
+        for (int i = 0; i < 4; i++) {
+            if ((b.get(pos++) & 0x80) == 0) break;
+        }
+        return pos;
+    }
+
+    private static byte[] leer(FileChannel ch, Mp4Atoms.Atom a) throws IOException {
+        if (a.size() > Integer.MAX_VALUE) throw new IOException("Atom " + a.type() + " demasiado grande");
+        ByteBuffer buf = ByteBuffer.allocate((int) a.size());
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, a.offset() + buf.position()) < 0) throw new IOException("Fin de fichero en " + a.type());
+        }
+        return buf.array();
+    }
+
+    /** Instantes (s) de inicio de segmento: keyframes de la pista de referencia separados al menos segundosObjetivo. */
+    private static List<Double> cortes(Pista ref, double segundosObjetivo) {
+        List<Double> cortes = new ArrayList<>();
+        long inicio = -1;
+        long objetivo = (long) (segundosObjetivo * ref.timescale);
+        for (int i = 0; i < ref.muestras(); i++) {
+            if (!ref.sync[i]) continue;
+            if (inicio < 0 || ref.dts[i] - inicio >= objetivo) {
+                inicio = ref.dts[i];
+                cortes.add(cortes.isEmpty() ? 0.0 : (double) ref.dts[i] / ref.timescale);
+            }
+        }
+        return cortes;
+    }
+
+    // -------------------------------------------------------- escritura
+
+    private static byte[] init(byte[] mvhd, Pista p) throws IOException {
+        Caja ftyp = new Caja("ftyp").ascii("iso6").u32(0).ascii("iso6").ascii("cmfc").ascii("mp41");
+        Caja stbl = new Caja("stbl").raw(p.stsd)
+                .hijo(new Caja("stts").u32(0).u32(0))
+                .hijo(new Caja("stsc").u32(0).u32(0))
+                .hijo(new Caja("stsz").u32(0).u32(0).u32(0))
+                .hijo(new Caja("stco").u32(0).u32(0));
+        Caja minf = new Caja("minf").raw(p.cabeceraMedia).raw(p.dinf).hijo(stbl);
+        Caja trak = new Caja("trak").raw(p.tkhd);
+        if (p.edts != null) {
+            trak.raw(p.edts);
+        } else if (p.conCto && p.cto[0] > 0) {
+            // Sin lista de edición, la primera muestra se presentaría en cto[0] y no en 0
+            trak.hijo(new Caja("edts").hijo(new Caja("elst").u32(0).u32(1).u32(0).u32(p.cto[0]).u32(0x00010000)));
+        }
+        trak.hijo(new Caja("mdia").raw(p.mdhd).raw(p.hdlr).hijo(minf));
+        Caja moov = new Caja("moov").raw(mvhd).hijo(trak)
+                .hijo(new Caja("mvex").hijo(new Caja("trex").u32(0).u32(p.id).u32(1).u32(0).u32(0).u32(0)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ftyp.bytes());
+        out.write(moov.bytes());
+        return out.toByteArray();
+    }
+
+    /** Escribe el fragmento [ini, fin) de la pista y devuelve su tamaño en bytes. */
+    private static long escribirSegmento(FileChannel ch, Pista p, int numero, int ini, int fin,
+                                         Path destino) throws IOException {
+        long total = 0;
+        for (int i = ini; i < fin; i++) total += p.tamanos[i];
+        if (8 + total > 0xFFFFFFFFL) throw new IOException("Segmento demasiado grande: " + total + " bytes");
+
+        int tamMoof = moof(p, numero, ini, fin, 0).length;
+        byte[] moof = moof(p, numero, ini, fin, tamMoof + 8L);
+
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer cabecera = ByteBuffer.allocate(moof.length + 8);
+            cabecera.put(moof).putInt((int) (8 + total)).put("mdat".getBytes(StandardCharsets.ISO_8859_1)).flip();
+            while (cabecera.hasRemaining()) out.write(cabecera);
+            int i = ini;
+            while (i < fin) {
+                long off = p.offsets[i];
+                long len = p.tamanos[i];
+                int k = i + 1;
+                while (k < fin && p.offsets[k] == off + len) len += p.tamanos[k++];
+                copiar(ch, off, len, out);
+                i = k;
+            }
+        }
+        Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING);
+        return moof.length + 8 + total;
+    }
+
+    private static byte[] moof(Pista p, int numero, int ini, int fin, long dataOffset) throws IOException {
+        int n = fin - ini;
+        long base = n > 0 ? p.dts[ini] : p.fin();
+        boolean signed = false;
+        for (int i = ini; i < fin && !signed; i++) signed = p.cto[i] < 0;
+        int flags = 0x001 | 0x100 | 0x200 | 0x400 | (p.conCto ? 0x800 : 0);
+        Caja trun = new Caja("trun").u32(((signed ? 1 : 0) << 24) | flags).u32(n).u32((int) dataOffset);
+        for (int i = ini; i < fin; i++) {
+            trun.u32(p.duraciones[i]).u32(p.tamanos[i]).u32(p.sync[i] ? SAMPLE_SYNC : SAMPLE_NO_SYNC);
+            if (p.conCto) trun.u32(p.cto[i]);
+        }
+        return new Caja("moof").hijo(new Caja("mfhd").u32(0).u32(numero + 1))
+                .hijo(new Caja("traf")
+                        .hijo(new Caja("tfhd").u32(0x020000).u32(p.id))
+                        .hijo(new Caja("tfdt").u32(1 << 24).u64(base))
+                        .hijo(trun))
+                .bytes();
+    }
+
+    private static void copiar(FileChannel in, long from, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(from + done, count - done, out);
+            if (n <= 0) throw new IOException("Copia interrumpida en el byte " + (from + done));
+            done += n;
+        }
+    }
+
+    // ------------------------------------------------------- manifiestos
+
+    private static String playlist(int j, Serie serie) {
+        double max = 0;
+        for (int k = 0; k < serie.duraciones.length; k++) max = Math.max(max, serie.segundos(k));
+        StringBuilder sb = new StringBuilder()
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:7\n")
+                .append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(max)).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-INDEPENDENT-SEGMENTS\n")
+                .append("#EXT-X-MAP:URI=\"").append(init(j)).append("\"\n");
+        for (int k = 0; k < serie.duraciones.length; k++) {
+            sb.append(String.format(Locale.ROOT, "#EXTINF:%.3f,", serie.segundos(k))).append('\n')
+              .append(segmento(j, k)).append('\n');
+        }
+        return sb.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    private static String maestra(List<Serie> series) {
+        StringBuilder sb = new StringBuilder()
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:7\n")
+                .append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        boolean hayVideo = series.stream().anyMatch(Serie::video);
+        Serie audio = null;
+        for (int j = 0; hayVideo && j < series.size(); j++) {
+            Serie s = series.get(j);
+            if (s.video()) continue;
+            if (audio == null) audio = s;
+            sb.append("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",NAME=\"audio-").append(j)
+              .append("\",DEFAULT=").append(audio == s ? "YES" : "NO")
+              .append(",AUTOSELECT=YES,URI=\"").append(playlistPista(j)).append("\"\n");
+        }
+        for (int j = 0; j < series.size(); j++) {
+            Serie s = series.get(j);
+            if (hayVideo != s.video()) continue;
+            boolean conAudio = s.video() && audio != null;
+            long pico = s.bandwidthPico() + (conAudio ? audio.bandwidthPico() : 0);
+            long medio = s.bandwidthMedio() + (conAudio ? audio.bandwidthMedio() : 0);
+            sb.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(pico)
+              .append(",AVERAGE-BANDWIDTH=").append(medio)
+              .append(",CODECS=\"").append(s.pista.codec).append(conAudio ? "," + audio.pista.codec : "").append('"');
+            if (s.pista.ancho > 0 && s.pista.alto > 0) {
+                sb.append(",RESOLUTION=").append(s.pista.ancho).append('x').append(s.pista.alto);
+            }
+            if (conAudio) sb.append(",AUDIO=\"audio\"");
+            sb.append('\n').append(playlistPista(j)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String mpd(List<Serie> series, double total) {
+        StringBuilder sb = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" ")
+                .append("profiles=\"urn:mpeg:dash:profile:isoff-live:2011\" minBufferTime=\"PT2S\" ")
+                .append(String.format(Locale.ROOT, "mediaPresentationDuration=\"PT%.3fS\">", total)).append('\n')
+                .append("  <Period start=\"PT0S\">\n");
+        for (int j = 0; j < series.size(); j++) {
+            Serie s = series.get(j);
+            Pista p = s.pista;
+            sb.append("    <AdaptationSet id=\"").append(j).append("\" contentType=\"").append(s.video() ? "video" : "audio")
+              .append("\" mimeType=\"").append(s.video() ? "video/mp4" : "audio/mp4")
+              .append("\" segmentAlignment=\"true\" startWithSAP=\"1\">\n")
+              .append("      <Representation id=\"").append(j).append("\" codecs=\"").append(p.codec)
+              .append("\" bandwidth=\"").append(s.bandwidthPico()).append('"');
+            if (s.video() && p.ancho > 0 && p.alto > 0) {
+                sb.append(" width=\"").append(p.ancho).append("\" height=\"").append(p.alto).append('"');
+            }
+            if (!s.video() && p.frecuencia > 0) sb.append(" audioSamplingRate=\"").append(p.frecuencia).append('"');
+            sb.append(">\n")
+              .append("        <SegmentTemplate timescale=\"").append(p.timescale).append("\" initialization=\"").append(init(j))
+              .append("\" media=\"seg-").append(j).append("-$Number$.m4s\" startNumber=\"0\">\n")
+              .append("          <SegmentTimeline>\n");
+            for (int k = 0; k < s.duraciones.length; k++) {
+                sb.append("            <S t=\"").append(s.inicios[k]).append("\" d=\"").append(s.duraciones[k]).append("\"/>\n");
+            }
+            sb.append("          </SegmentTimeline>\n")
+              .append("        </SegmentTemplate>\n")
+              .append("      </Representation>\n")
+              .append("    </AdaptationSet>\n");
+        }
+        return sb.append("  </Period>\n")
+                 .append("</MPD>\n").toString();
+    }
+
+    /** Constructor mínimo de cajas ISO-BMFF con tamaño calculado al serializar. */
+    private static final class Caja {
+        private final String tipo;
+        private final ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+
+        Caja(String tipo) {
+            this.tipo = tipo;
+        }
+
+        Caja u32(long v) {
+            cuerpo.write((int) (v >>> 24));
+            cuerpo.write((int) (v >>> 16));
+            cuerpo.write((int) (v >>> 8));
+            cuerpo.write((int) v);
+            return this;
+        }
+
+        Caja u64(long v) {
+            return u32(v >>> 32).u32(v);
+        }
+
+        Caja ascii(String s) {
+            cuerpo.writeBytes(s.getBytes(StandardCharsets.ISO_8859_1));
+            return this;
+        }
+
+        Caja raw(byte[] b) {
+            cuerpo.writeBytes(b);
+            return this;
+        }
+
+        Caja hijo(Caja c) {
+            return raw(c.bytes());
+        }
+
+        byte[] bytes() {
+            byte[] b = cuerpo.toByteArray();
+            return ByteBuffer.allocate(8 + b.length).putInt(8 + b.length)
+                    .put(tipo.getBytes(StandardCharsets.ISO_8859_1)).put(b).array();
+        }
+    }
+}
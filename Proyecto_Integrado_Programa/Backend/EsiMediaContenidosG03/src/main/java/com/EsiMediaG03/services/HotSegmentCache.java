@@ -0,0 +1,256 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.dto.StreamingTarget;
+
+/**
+ * Caché fuera del heap de segmentos mapeados en memoria (mmap) para los
+ * contenidos más reproducidos: la cabecera del fichero y, en MP4, el atom moov.
+ *
+ * El presupuesto total es fijo; cuando no cabe un contenido nuevo se expulsan
+ * los de menor peso (reproducciones + hits servidos desde la caché). Los
+ * buffers expulsados los libera el GC; no se desmapean explícitamente.
+ *
+ * Las entradas se identifican por (ruta, tamaño, mtime) y cada slice compara
+ * con la caché de metadatos, de modo que un fichero reemplazado nunca se sirve
+ * desde el mapeo antiguo. Además se retiran con los eventos del WatchService de
+ * esa caché: leer de un mapeo cuyo fichero se ha truncado provoca SIGBUS.
+ * La apertura y el mapeo se hacen fuera del monitor; éste sólo protege el
+ * reparto del presupuesto.
+ */
+@Component
+public class HotSegmentCache implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HotSegmentCache.class);
+
+    private final boolean enabled;
+    private final long budgetBytes;
+    private final long segmentBytes;
+    private final long minReproducciones;
+
+    private final MediaMetadataCache metadata;
+    private final Map<Clave, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Path> admitiendo = ConcurrentHashMap.newKeySet();
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public HotSegmentCache(MediaMetadataCache metadata,
+                           @Value("${app.streaming.hot-cache.enabled:true}") boolean enabled,
+                           @Value("${app.streaming.hot-cache.budget-bytes:268435456}") long budgetBytes,
+                           @Value("${app.streaming.hot-cache.segment-bytes:4194304}") long segmentBytes,
+                           @Value("${app.streaming.hot-cache.min-reproducciones:10}") long minReproducciones) {
+        this.enabled = enabled && budgetBytes > 0 && segmentBytes > 0;
+        this.budgetBytes = budgetBytes;
+        this.segmentBytes = Math.min(segmentBytes, Integer.MAX_VALUE);
+        this.minReproducciones = minReproducciones;
+        this.metadata = metadata;
+        if (this.enabled) metadata.onInvalidate(this::invalidar);
+    }
+
+    /** Registra la popularidad de un fichero local y lo admite en la caché si merece la pena. */
+    public void notePopularity(StreamingTarget target, long reproducciones) {
+        if (!enabled || target == null || target.isExternalRedirect() || target.path() == null) return;
+        Clave key = new Clave(target.path().toAbsolutePath().normalize(), target.length(), target.lastModified());
+        Entry current = entries.get(key);
+        if (current != null) {
+            current.reproducciones = Math.max(current.reproducciones, reproducciones);
+            return;
+        }
+        invalidar(key.path());
+        if (reproducciones < minReproducciones) return;
+        admit(key, reproducciones);
+    }
+
+    /**
+     * Devuelve una vista de solo lectura del rango pedido si está íntegramente
+     * dentro de un segmento cacheado del fichero tal como está ahora; null en
+     * caso contrario.
+     */
+    public ByteBuffer slice(Path path, long position, long count) {
+        if (!enabled || entries.isEmpty()) return null;
+        Path p = path.toAbsolutePath().normalize();
+        MediaFileMetadata meta = metadata.lookup(p);
+        Entry e = meta.readable() ? entries.get(new Clave(p, meta.size(), meta.lastModified())) : null;
+        if (e != null) {
+            for (Segment s : e.segments) {
+                if (position >= s.offset && position + count <= s.offset + s.buffer.capacity()) {
+                    hits.increment();
+                    e.hits.increment();
+                    ByteBuffer dup = s.buffer.duplicate();
+                    int from = (int) (position - s.offset);
+                    dup.position(from).limit(from + (int) count);
+                    return dup.slice();
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Retira las entradas de un fichero, o de todo un directorio si la caché de metadatos perdió eventos. */
+    public void invalidar(Path path) {
+        Path p = path.toAbsolutePath().normalize();
+        for (Clave k : List.copyOf(entries.keySet())) {
+            if ((k.path().equals(p) || p.equals(k.path().getParent())) && remove(k)) invalidations.increment();
+        }
+    }
+
+    private void admit(Clave key, long reproducciones) {
+        if (!admitiendo.add(key.path())) return;
+        try {
+            // el lookup también registra el directorio en el WatchService
+            MediaFileMetadata meta = metadata.lookup(key.path());
+            if (!meta.readable() || meta.size() != key.size() || meta.lastModified() != key.lastModified()) return;
+            List<long[]> ranges = segmentRanges(key.path(), key.size());
+            long needed = ranges.stream().mapToLong(r -> r[1]).sum();
+            if (needed == 0 || needed > budgetBytes) return;
+            synchronized (this) {
+                if (!hayHueco(needed, reproducciones)) return;
+            }
+
+            List<Segment> segments = new ArrayList<>();
+            try (FileChannel ch = FileChannel.open(key.path(), StandardOpenOption.READ)) {
+                for (long[] r : ranges) {
+                    MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, r[0], r[1]);
+                    segments.add(new Segment(r[0], mapped));
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                LOG.debug("No se pudo mapear {}: {}", key.path(), e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                if (entries.containsKey(key) || !makeRoom(needed, reproducciones)) return;
+                entries.put(key, new Entry(reproducciones, segments, needed));
+                usedBytes += needed;
+                admissions.increment();
+            }
+            // un evento entre el lookup y el put no habría encontrado la entrada
+            MediaFileMetadata after = metadata.lookup(key.path());
+            if (after.size() != key.size() || after.lastModified() != key.lastModified()) invalidar(key.path());
+        } finally {
+            admitiendo.remove(key.path());
+        }
+    }
+
+    private List<long[]> segmentRanges(Path path, long size) {
+        List<long[]> ranges = new ArrayList<>();
+        long head = Math.min(segmentBytes, size);
+        if (head > 0) ranges.add(new long[]{0, head});
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            Mp4Atoms.Atom moov = Mp4Atoms.findTopLevel(ch, "moov");
+            if (moov != null && moov.end() > head && moov.size() <= segmentBytes) {
+                long from = Math.max(moov.offset(), head);
+                ranges.add(new long[]{from, moov.end() - from});
+            }
+        } catch (IOException e) {
+            LOG.debug("No se pudo inspeccionar {}: {}", path, e.getMessage());
+        }
+        return ranges;
+    }
+
+    /** Comprobación previa al mapeo, sin expulsar a nadie todavía. */
+    private boolean hayHueco(long needed, long candidateWeight) {
+        return victims(needed, candidateWeight) != null;
+    }
+
+    private boolean makeRoom(long needed, long candidateWeight) {
+        List<Clave> victims = victims(needed, candidateWeight);
+        if (victims == null) return false;
+        victims.forEach(this::remove);
+        evictions.add(victims.size());
+        return true;
+    }
+
+    /** Entradas a expulsar para que quepa el candidato; null si no cabe sin expulsar a otras más pesadas. */
+    private List<Clave> victims(long needed, long candidateWeight) {
+        if (usedBytes + needed <= budgetBytes) return List.of();
+        List<Map.Entry<Clave, Entry>> byWeight = new ArrayList<>(entries.entrySet());
+        byWeight.sort(Comparator.comparingLong(en -> en.getValue().weight()));
+        long reclaimable = 0;
+        List<Clave> victims = new ArrayList<>();
+        for (Map.Entry<Clave, Entry> en : byWeight) {
+            if (usedBytes - reclaimable + needed <= budgetBytes) break;
+            if (en.getValue().weight() >= candidateWeight) return null;
+            victims.add(en.getKey());
+            reclaimable += en.getValue().bytes;
+        }
+        return usedBytes - reclaimable + needed > budgetBytes ? null : victims;
+    }
+
+    private synchronized boolean remove(Clave key) {
+        Entry e = entries.remove(key);
+        if (e == null) return false;
+        usedBytes -= e.bytes;
+        return true;
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "hotSegmentCache";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitada", enabled);
+        m.put("contenidos", entries.size());
+        m.put("bytesUsados", usedBytes());
+        m.put("presupuestoBytes", budgetBytes);
+        m.put("hits", hits.sum());
+        m.put("misses", misses.sum());
+        m.put("admisiones", admissions.sum());
+        m.put("evictions", evictions.sum());
+        m.put("invalidaciones", invalidations.sum());
+        return m;
+    }
+
+    private record Clave(Path path, long size, long lastModified) { }
+
+    private record Segment(long offset, MappedByteBuffer buffer) { }
+
+    private static final class Entry {
+        final List<Segment> segments;
+        final long bytes;
+        final LongAdder hits = new LongAdder();
+        volatile long reproducciones;
+
+        Entry(long reproducciones, List<Segment> segments, long bytes) {
+            this.reproducciones = reproducciones;
+            this.segments = segments;
+            this.bytes = bytes;
+        }
+
+        long weight() {
+            return reproducciones + hits.sum();
+        }
+    }
+}
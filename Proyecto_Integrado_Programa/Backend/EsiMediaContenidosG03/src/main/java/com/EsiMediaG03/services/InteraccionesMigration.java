@@ -0,0 +1,140 @@
+package com.EsiMediaG03.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Migración en caliente de reproductores, ratings y favoritosDeUsuarios desde
+ * el documento del contenido a sus colecciones.
+ *
+ * Corre en segundo plano al arrancar, recorriendo con un cursor sólo los
+ * contenidos que aún tienen algún campo antiguo (proyectando únicamente esos
+ * campos). Mientras dura, el servicio sigue atendiendo: las escrituras nuevas
+ * ya van a las colecciones y las lecturas consultan además los campos antiguos.
+ * Cuando una pasada termina sin errores se deja de consultar el legado. Si
+ * falla algún contenido se reintenta en el siguiente arranque.
+ *
+ * Después rellena los histogramas de valoración que no cuadran con
+ * ratingCount y recalcula ratingBayes (por si ha cambiado la prior).
+ */
+@Component
+public class InteraccionesMigration implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InteraccionesMigration.class);
+    private static final int BATCH = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final InteraccionesService interacciones;
+    private final boolean enabled;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private volatile boolean completada;
+    private final LongAdder migrados = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+
+    public InteraccionesMigration(MongoTemplate mongoTemplate, InteraccionesService interacciones,
+                                  @Value("${app.interacciones.migracion.enabled:true}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.interacciones = interacciones;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        if (!enabled) return;
+        Thread t = new Thread(() -> {
+            try {
+                migrar();
+            } catch (RuntimeException e) {
+                LOG.warn("Migración de interacciones interrumpida: {}", e.getMessage());
+            }
+        }, "migracion-interacciones");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Ejecuta una pasada completa; devuelve el número de contenidos migrados. */
+    public long migrar() {
+        if (!enCurso.compareAndSet(false, true)) return 0;
+        long n = 0;
+        boolean fallos = false;
+        try {
+            Query q = new Query(new Criteria().orOperator(
+                    Criteria.where(InteraccionesService.LEGADO_REPRODUCTORES).exists(true),
+                    Criteria.where(InteraccionesService.LEGADO_RATINGS).exists(true),
+                    Criteria.where(InteraccionesService.LEGADO_FAVORITOS).exists(true)));
+            q.fields().include(InteraccionesService.LEGADO_REPRODUCTORES)
+                    .include(InteraccionesService.LEGADO_RATINGS)
+                    .include(InteraccionesService.LEGADO_FAVORITOS);
+            q.cursorBatchSize(BATCH);
+            try (Stream<Document> docs = mongoTemplate.stream(q, Document.class, "contenidos")) {
+                for (Document d : (Iterable<Document>) docs::iterator) {
+                    try {
+                        interacciones.importar(d);
+                        migrados.increment();
+                        n++;
+                    } catch (RuntimeException e) {
+                        fallos = true;
+                        errores.increment();
+                        LOG.warn("No se pudo migrar el contenido {}: {}", d.get("_id"), e.getMessage());
+                    }
+                }
+            }
+            if (!fallos) {
+                interacciones.desactivarLegado();
+                completada = true;
+                LOG.info("Migración de interacciones completada: {} contenidos", n);
+            }
+            agregadosValoracion();
+            return n;
+        } finally {
+            enCurso.set(false);
+        }
+    }
+
+    private void agregadosValoracion() {
+        try {
+            int pendientes = interacciones.completarPendientes();
+            long sumas = interacciones.rellenarSumas();
+            if (pendientes > 0 || sumas > 0) {
+                LOG.info("Valoraciones pendientes completadas: {}; sumas rellenadas: {}", pendientes, sumas);
+            }
+            int histogramas = interacciones.reconstruirHistogramas();
+            long puntuaciones = interacciones.recalcularPuntuaciones();
+            LOG.info("Histogramas reconstruidos: {}; puntuaciones bayesianas recalculadas: {}", histogramas, puntuaciones);
+        } catch (RuntimeException e) {
+            errores.increment();
+            LOG.warn("No se pudieron recalcular los agregados de valoración: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "migracionInteracciones";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitada", enabled);
+        m.put("enCurso", enCurso.get());
+        m.put("completada", completada);
+        m.put("migrados", migrados.sum());
+        m.put("errores", errores.sum());
+        return m;
+    }
+}
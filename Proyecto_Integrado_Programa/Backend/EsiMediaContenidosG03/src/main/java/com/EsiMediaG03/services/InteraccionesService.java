@@ -0,0 +1,509 @@
+package com.EsiMediaG03.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.Interacciones;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Interacciones por usuario (reproductores, valoraciones y favoritos) en
+ * colecciones propias con clave (contenidoId, email). En el documento del
+ * contenido sólo quedan los contadores, así que leerlo ya no cuesta más
+ * cuanta más audiencia tiene.
+ *
+ * Mientras la migración de los datos embebidos no ha terminado (legado=true),
+ * las comprobaciones consultan también los campos antiguos del contenido; las
+ * escrituras nuevas van siempre a las colecciones.
+ */
+@Component
+public class InteraccionesService implements MetricsSource {
+
+    public static final String FIELD_REPRODUCTORES_COUNT = "reproductoresCount";
+    public static final String FIELD_FAVORITOS_COUNT = "favoritosCount";
+    public static final String FIELD_RATING_COUNT = "ratingCount";
+    public static final String FIELD_RATING_SUM = "ratingSum";
+    public static final String FIELD_RATING_AVG = "ratingAvg";
+    public static final String FIELD_RATING_HISTOGRAMA = "ratingHistograma";
+    public static final String FIELD_RATING_BAYES = "ratingBayes";
+    public static final String FIELD_RATING_APLICANDO = "ratingAplicando";
+
+    static final String LEGADO_REPRODUCTORES = "reproductores";
+    static final String LEGADO_RATINGS = "ratings";
+    static final String LEGADO_FAVORITOS = "favoritosDeUsuarios";
+
+    private static final String FIELD_CONTENIDO_ID = "contenidoId";
+    private static final String FIELD_USER_EMAIL = "userEmail";
+    private static final String FIELD_FECHA = "fecha";
+    private static final String FIELD_PENDIENTE = "pendiente";
+    private static final String FIELD_RECLAMADA_HASTA = "reclamadaHasta";
+    private static final int LOTE_HISTOGRAMAS = 200;
+
+    private static final Logger LOG = LoggerFactory.getLogger(InteraccionesService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final double priorMedia;
+    private final double priorPeso;
+    private final Duration reclamacion;
+    private volatile boolean legado;
+
+    private final LongAdder consultasLegado = new LongAdder();
+    private final LongAdder importados = new LongAdder();
+
+    public InteraccionesService(MongoTemplate mongoTemplate,
+                                @Value("${app.interacciones.consultar-legado:true}") boolean legado,
+                                @Value("${app.valoraciones.bayes.media:3.5}") double priorMedia,
+                                @Value("${app.valoraciones.bayes.peso:10}") double priorPeso,
+                                @Value("${app.valoraciones.reclamacion-ms:30000}") long reclamacionMs) {
+        if (priorPeso < 0 || priorMedia < 0.5 || priorMedia > 5.0) {
+            throw new IllegalArgumentException("Configuración de la puntuación bayesiana inválida.");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.legado = legado;
+        this.priorMedia = priorMedia;
+        this.priorPeso = priorPeso;
+        this.reclamacion = Duration.ofMillis(Math.max(0, reclamacionMs));
+    }
+
+    public boolean consultaLegado() {
+        return legado;
+    }
+
+    /** Lo llama la migración cuando ya no queda ningún contenido con datos embebidos. */
+    public void desactivarLegado() {
+        legado = false;
+    }
+
+    // ----------------------------------------------------------------- reproductores
+
+    /** Registra al usuario como reproductor; devuelve true si es la primera vez. */
+    public boolean registrarReproductor(String contenidoId, String email) {
+        UpdateResult r = mongoTemplate.upsert(porId(Interacciones.clave(contenidoId, email)),
+                alta(contenidoId, email), Reproductor.class);
+        boolean nuevo = r != null && r.getUpsertedId() != null;
+        if (nuevo) incrementar(contenidoId, FIELD_REPRODUCTORES_COUNT, 1);
+        return nuevo;
+    }
+
+    /** Vuelca en bloque reproductores por contenido; devuelve el número de operaciones enviadas. */
+    public int registrarReproductores(Map<String, Set<String>> porContenido) {
+        List<String> orden = new ArrayList<>();
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class);
+        porContenido.forEach((contenidoId, emails) -> {
+            for (String email : emails) {
+                ops.upsert(porId(Interacciones.clave(contenidoId, email)), alta(contenidoId, email));
+                orden.add(contenidoId);
+            }
+        });
+        if (orden.isEmpty()) return 0;
+        BulkWriteResult res = ops.execute();
+        if (res != null && !res.getUpserts().isEmpty()) {
+            Map<String, Long> nuevos = new HashMap<>();
+            for (BulkWriteUpsert up : res.getUpserts()) nuevos.merge(orden.get(up.getIndex()), 1L, Long::sum);
+            BulkOperations contadores = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+            nuevos.forEach((id, n) -> contadores.updateOne(porId(id), new Update().inc(FIELD_REPRODUCTORES_COUNT, n)));
+            contadores.execute();
+        }
+        return orden.size();
+    }
+
+    public boolean haReproducido(String contenidoId, String email) {
+        if (mongoTemplate.exists(porId(Interacciones.clave(contenidoId, email)), Reproductor.class)) return true;
+        if (!legado) return false;
+        consultasLegado.increment();
+        return mongoTemplate.exists(new Query(Criteria.where("_id").is(contenidoId)
+                .and(LEGADO_REPRODUCTORES).is(email)), Contenido.class);
+    }
+
+    // ----------------------------------------------------------------- valoraciones
+
+    /**
+     * Guarda la valoración marcada como pendiente de sumar al agregado y
+     * reclamada por esta petición; devuelve false si el usuario ya había
+     * valorado el contenido.
+     */
+    public boolean valorar(String contenidoId, String email, double score) {
+        if (legado) {
+            consultasLegado.increment();
+            if (mongoTemplate.exists(new Query(Criteria.where("_id").is(contenidoId)
+                    .and(LEGADO_RATINGS + "." + claveLegado(email)).exists(true)), Contenido.class)) {
+                return false;
+            }
+        }
+        try {
+            Valoracion v = new Valoracion(contenidoId, email, score);
+            v.setReclamadaHasta(LocalDateTime.now().plus(reclamacion));
+            mongoTemplate.insert(v);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reclama la valoración del usuario si está guardada pero aún no se ha
+     * sumado al agregado (el intento anterior falló entre las escrituras) y
+     * nadie la tiene reclamada; devuelve su puntuación, o null si no existe,
+     * ya está contabilizada o la está completando otra petición.
+     */
+    public Double reclamarPendiente(String contenidoId, String email) {
+        Valoracion v = reclamar(Interacciones.clave(contenidoId, email));
+        return v == null ? null : v.getScore();
+    }
+
+    /**
+     * Sólo quien reclama una valoración pendiente puede sumarla: así dos
+     * reintentos simultáneos no la suman los dos. La reclamación caduca a los
+     * app.valoraciones.reclamacion-ms para que otra petición complete la de
+     * un intento que murió por el camino.
+     */
+    private Valoracion reclamar(String voto) {
+        LocalDateTime ahora = LocalDateTime.now();
+        Query q = new Query(Criteria.where("_id").is(voto).and(FIELD_PENDIENTE).is(true)
+                .orOperator(Criteria.where(FIELD_RECLAMADA_HASTA).is(null), Criteria.where(FIELD_RECLAMADA_HASTA).lt(ahora)));
+        return mongoTemplate.findAndModify(q, new Update().set(FIELD_RECLAMADA_HASTA, ahora.plus(reclamacion)), Valoracion.class);
+    }
+
+    /**
+     * Suma una valoración al agregado del contenido en una única actualización
+     * atómica (pipeline): ratingSum += score, ratingCount += 1, la casilla de
+     * media estrella del histograma += 1, y ratingAvg y ratingBayes se
+     * recalculan en el servidor a partir de los anteriores, así que valoraciones
+     * simultáneas no se pisan. Si ratingSum falta, o vale 0 con valoraciones
+     * (documentos anteriores o pisados por un save completo), se reconstruye
+     * como ratingAvg * ratingCount.
+     *
+     * Lo llama quien tiene reclamada la valoración y la suma exactamente una
+     * vez: la misma actualización añade la clave de la valoración a
+     * ratingAplicando y sólo se ejecuta si no estaba ya (un intento anterior
+     * pudo sumarla y perder la respuesta), después se desmarca la valoración
+     * como pendiente, con lo que nadie más puede reclamarla, y por último se
+     * retira la clave. Devuelve sólo los campos del agregado, o null si el
+     * contenido no existe.
+     *
+     * ratingBayes = (peso * media + suma) / (peso + n): con pocas valoraciones
+     * queda cerca de la media a priori y sólo se acerca a ratingAvg cuando hay
+     * volumen, de modo que un único 5 no supera a miles de 4,5.
+     */
+    public Contenido acumularValoracion(String contenidoId, String email, double score) {
+        String voto = Interacciones.clave(contenidoId, email);
+        AggregationUpdate u = AggregationUpdate.update()
+                .set(FIELD_RATING_SUM).toValue(expr(new Document("$add", List.of(sumaActual(), score))))
+                .set(FIELD_RATING_HISTOGRAMA + "." + claveHistograma(score)).toValue(expr(new Document("$add", List.of(
+                        ifNull("$" + FIELD_RATING_HISTOGRAMA + "." + claveHistograma(score), 0L), 1L))))
+                .set(FIELD_RATING_COUNT).toValue(expr(new Document("$add", List.of(
+                        ifNull("$" + FIELD_RATING_COUNT, 0), 1))))
+                .set(FIELD_RATING_AVG).toValue(expr(new Document("$divide", List.of(
+                        "$" + FIELD_RATING_SUM, "$" + FIELD_RATING_COUNT))))
+                .set(FIELD_RATING_BAYES).toValue(expr(bayes("$" + FIELD_RATING_SUM)))
+                .set(FIELD_RATING_APLICANDO).toValue(expr(new Document("$concatArrays", List.of(
+                        ifNull("$" + FIELD_RATING_APLICANDO, List.of()), List.of(voto)))));
+        Query q = new Query(Criteria.where("_id").is(contenidoId).and(FIELD_RATING_APLICANDO).ne(voto));
+        camposAgregado(q);
+        Contenido c = mongoTemplate.findAndModify(q, u, FindAndModifyOptions.options().returnNew(true), Contenido.class);
+        if (c == null) {
+            // Ya la sumó un intento anterior (o el contenido no existe)
+            Query actual = porId(contenidoId);
+            camposAgregado(actual);
+            c = mongoTemplate.findOne(actual, Contenido.class);
+            if (c == null) return null;
+        }
+        // En este orden: una valoración ya no pendiente nunca se vuelve a sumar
+        mongoTemplate.updateFirst(porId(voto), new Update().unset(FIELD_PENDIENTE).unset(FIELD_RECLAMADA_HASTA),
+                Valoracion.class);
+        try {
+            mongoTemplate.updateFirst(porId(contenidoId), new Update().pull(FIELD_RATING_APLICANDO, voto), Contenido.class);
+        } catch (RuntimeException e) {
+            // La valoración ya cuenta; la marca sobrante sólo ocupa una clave en el documento
+            LOG.warn("No se pudo retirar la marca de la valoración {}: {}", voto, e.getMessage());
+        }
+        return c;
+    }
+
+    private static void camposAgregado(Query q) {
+        q.fields().include(FIELD_RATING_COUNT).include(FIELD_RATING_SUM).include(FIELD_RATING_AVG)
+                .include(FIELD_RATING_HISTOGRAMA).include(FIELD_RATING_BAYES);
+    }
+
+    /** ratingSum, o ratingAvg * ratingCount si falta o no es positivo (no hay suma válida de 0 con valoraciones). */
+    private static Document sumaActual() {
+        return new Document("$cond", List.of(
+                new Document("$gt", List.of(ifNull("$" + FIELD_RATING_SUM, 0), 0)),
+                "$" + FIELD_RATING_SUM,
+                new Document("$multiply", List.of(ifNull("$" + FIELD_RATING_AVG, 0), ifNull("$" + FIELD_RATING_COUNT, 0)))));
+    }
+
+    /**
+     * Suma al agregado las valoraciones que quedaron pendientes porque su
+     * petición falló tras insertarlas y el usuario no reintentó. Devuelve el
+     * número de valoraciones completadas.
+     */
+    public int completarPendientes() {
+        Query q = new Query(Criteria.where(FIELD_PENDIENTE).is(true)
+                .and(FIELD_RECLAMADA_HASTA).lt(LocalDateTime.now()));
+        q.fields().include("_id");
+        int n = 0;
+        for (Valoracion p : mongoTemplate.find(q, Valoracion.class)) {
+            Valoracion v = reclamar(p.getId());
+            if (v != null && acumularValoracion(v.getContenidoId(), v.getUserEmail(), v.getScore()) != null) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Rellena ratingSum = ratingAvg * ratingCount en los contenidos valorados
+     * que no lo tienen o lo tienen a 0; devuelve el número de contenidos corregidos.
+     */
+    public long rellenarSumas() {
+        AggregationUpdate u = AggregationUpdate.update().set(FIELD_RATING_SUM).toValue(expr(sumaActual()));
+        UpdateResult r = mongoTemplate.updateMulti(new Query(Criteria.where(FIELD_RATING_COUNT).gt(0)
+                .and(FIELD_RATING_SUM).not().gt(0)), u, Contenido.class);
+        return r == null ? 0 : r.getModifiedCount();
+    }
+
+    /** Clave de la casilla del histograma para una puntuación de media estrella: 4.5 -> "4_5". */
+    public static String claveHistograma(double score) {
+        long medias = Math.round(score * 2);
+        return (medias / 2) + (medias % 2 == 0 ? "_0" : "_5");
+    }
+
+    private Document bayes(Object suma) {
+        return new Document("$divide", List.of(
+                new Document("$add", List.of(priorPeso * priorMedia, suma)),
+                new Document("$add", List.of(priorPeso, "$" + FIELD_RATING_COUNT))));
+    }
+
+    /**
+     * Recalcula ratingBayes de todos los contenidos valorados en una sola
+     * actualización en el servidor; se usa al arrancar para rellenar documentos
+     * antiguos y para aplicar un cambio de la media o el peso a priori.
+     */
+    public long recalcularPuntuaciones() {
+        AggregationUpdate u = AggregationUpdate.update().set(FIELD_RATING_BAYES).toValue(expr(bayes(sumaActual())));
+        UpdateResult r = mongoTemplate.updateMulti(new Query(Criteria.where(FIELD_RATING_COUNT).gt(0)), u, Contenido.class);
+        return r == null ? 0 : r.getModifiedCount();
+    }
+
+    /**
+     * Reconstruye desde la colección de valoraciones el histograma de los
+     * contenidos cuyo histograma no suma ratingCount (anteriores al histograma).
+     * Sólo se escribe si ratingCount no ha cambiado desde el recuento; si entra
+     * una valoración entre medias, el contenido se corrige en el siguiente arranque.
+     * Devuelve el número de contenidos corregidos.
+     */
+    public int reconstruirHistogramas() {
+        Document sumaHistograma = new Document("$sum", new Document("$map", new Document("input",
+                new Document("$objectToArray", ifNull("$" + FIELD_RATING_HISTOGRAMA, new Document())))
+                .append("in", "$$this.v")));
+        BasicQuery pendientes = new BasicQuery(new Document(FIELD_RATING_COUNT, new Document("$gt", 0))
+                .append("$expr", new Document("$ne", List.of(sumaHistograma, "$" + FIELD_RATING_COUNT))),
+                new Document("_id", 1));
+        List<String> ids = new ArrayList<>();
+        for (Contenido c : mongoTemplate.find(pendientes, Contenido.class)) ids.add(c.getId());
+
+        int corregidos = 0;
+        for (int i = 0; i < ids.size(); i += LOTE_HISTOGRAMAS) {
+            List<String> lote = ids.subList(i, Math.min(ids.size(), i + LOTE_HISTOGRAMAS));
+            Aggregation agg = Aggregation.newAggregation(
+                    Aggregation.match(Criteria.where(FIELD_CONTENIDO_ID).in(lote)),
+                    Aggregation.group(FIELD_CONTENIDO_ID, "score").count().as("n"));
+            Map<String, Map<String, Long>> histogramas = new HashMap<>();
+            Map<String, Long> totales = new HashMap<>();
+            for (Document d : mongoTemplate.aggregate(agg, Valoracion.class, Document.class).getMappedResults()) {
+                Document grupo = d.get("_id", Document.class);
+                String id = grupo.getString(FIELD_CONTENIDO_ID);
+                long n = ((Number) d.get("n")).longValue();
+                histogramas.computeIfAbsent(id, k -> new HashMap<>())
+                        .merge(claveHistograma(((Number) grupo.get("score")).doubleValue()), n, Long::sum);
+                totales.merge(id, n, Long::sum);
+            }
+            for (Map.Entry<String, Map<String, Long>> e : histogramas.entrySet()) {
+                Query q = new Query(Criteria.where("_id").is(e.getKey())
+                        .and(FIELD_RATING_COUNT).is(totales.get(e.getKey())));
+                UpdateResult r = mongoTemplate.updateFirst(q, new Update().set(FIELD_RATING_HISTOGRAMA, e.getValue()),
+                        Contenido.class);
+                if (r != null && r.getModifiedCount() > 0) corregidos++;
+            }
+        }
+        return corregidos;
+    }
+
+    private static Document ifNull(Object valor, Object porDefecto) {
+        return new Document("$ifNull", List.of(valor, porDefecto));
+    }
+
+    private static AggregationExpression expr(Document d) {
+        return ctx -> d;
+    }
+
+    /** Clave con la que se guardaban los emails en el mapa embebido "ratings". */
+    static String claveLegado(String email) {
+        return email.toLowerCase().replace(".", "%2E").replace("$", "%24");
+    }
+
+    static String emailDeClaveLegado(String clave) {
+        return clave.replace("%2E", ".").replace("%24", "$");
+    }
+
+    // ----------------------------------------------------------------- favoritos
+
+    public void addFavorito(String contenidoId, String email) {
+        UpdateResult r = mongoTemplate.upsert(porId(Interacciones.clave(contenidoId, email)),
+                alta(contenidoId, email), Favorito.class);
+        if (r != null && r.getUpsertedId() != null) incrementar(contenidoId, FIELD_FAVORITOS_COUNT, 1);
+    }
+
+    public void removeFavorito(String contenidoId, String email) {
+        DeleteResult r = mongoTemplate.remove(porId(Interacciones.clave(contenidoId, email)), Favorito.class);
+        if (r != null && r.getDeletedCount() > 0) incrementar(contenidoId, FIELD_FAVORITOS_COUNT, -1);
+        if (legado) {
+            mongoTemplate.updateFirst(porId(contenidoId), new Update().pull(LEGADO_FAVORITOS, email), Contenido.class);
+        }
+    }
+
+    /**
+     * Ids de los favoritos del usuario que siguen existiendo, ordenados como
+     * antes de separar las colecciones: por fechaEstado del contenido, del más
+     * reciente al más antiguo.
+     */
+    public List<String> favoritosDe(String email) {
+        Query q = new Query(Criteria.where(FIELD_USER_EMAIL).is(Interacciones.normalizar(email)));
+        q.fields().include(FIELD_CONTENIDO_ID);
+        Set<String> ids = new LinkedHashSet<>();
+        for (Favorito f : mongoTemplate.find(q, Favorito.class)) ids.add(f.getContenidoId());
+        if (legado) {
+            consultasLegado.increment();
+            Query lq = new Query(Criteria.where(LEGADO_FAVORITOS).is(email));
+            lq.fields().include("_id");
+            for (Contenido c : mongoTemplate.find(lq, Contenido.class)) ids.add(c.getId());
+        }
+        if (ids.isEmpty()) return new ArrayList<>();
+        Query existentes = new Query(Criteria.where("_id").in(ids)).with(Sort.by(Sort.Direction.DESC, "fechaEstado"));
+        existentes.fields().include("_id");
+        List<String> res = new ArrayList<>();
+        for (Contenido c : mongoTemplate.find(existentes, Contenido.class)) res.add(c.getId());
+        return res;
+    }
+
+    /** Borra las interacciones de un contenido eliminado; devuelve cuántos documentos se borraron. */
+    public long borrarContenido(String contenidoId) {
+        Query q = new Query(Criteria.where(FIELD_CONTENIDO_ID).is(contenidoId));
+        long n = 0;
+        for (Class<?> tipo : List.of(Reproductor.class, Valoracion.class, Favorito.class)) {
+            DeleteResult r = mongoTemplate.remove(q, tipo);
+            if (r != null) n += r.getDeletedCount();
+        }
+        return n;
+    }
+
+    // ----------------------------------------------------------------- migración
+
+    /**
+     * Copia a las colecciones las interacciones embebidas de un contenido (en
+     * bruto, tal como las devuelve el cursor de la migración), recalcula los
+     * contadores y elimina los campos antiguos. Es idempotente: los upserts
+     * usan $setOnInsert, de modo que repetirlo no duplica ni pisa nada.
+     */
+    public void importar(Document legadoDoc) {
+        Object rawId = legadoDoc.get("_id");
+        String contenidoId = rawId instanceof ObjectId oid ? oid.toHexString() : String.valueOf(rawId);
+
+        Collection<?> reproductores = legadoDoc.get(LEGADO_REPRODUCTORES, Collection.class);
+        if (reproductores != null && !reproductores.isEmpty()) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class);
+            for (Object email : reproductores) {
+                ops.upsert(porId(Interacciones.clave(contenidoId, email.toString())), alta(contenidoId, email.toString()));
+            }
+            ops.execute();
+        }
+        Collection<?> favoritos = legadoDoc.get(LEGADO_FAVORITOS, Collection.class);
+        if (favoritos != null && !favoritos.isEmpty()) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Favorito.class);
+            for (Object email : favoritos) {
+                ops.upsert(porId(Interacciones.clave(contenidoId, email.toString())), alta(contenidoId, email.toString()));
+            }
+            ops.execute();
+        }
+        Document ratings = legadoDoc.get(LEGADO_RATINGS, Document.class);
+        if (ratings != null && !ratings.isEmpty()) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Valoracion.class);
+            for (Map.Entry<String, Object> e : ratings.entrySet()) {
+                String email = emailDeClaveLegado(e.getKey());
+                ops.upsert(porId(Interacciones.clave(contenidoId, email)), alta(contenidoId, email)
+                        .setOnInsert("score", ((Number) e.getValue()).doubleValue()));
+            }
+            ops.execute();
+        }
+
+        Query porContenido = new Query(Criteria.where(FIELD_CONTENIDO_ID).is(contenidoId));
+        Update u = new Update()
+                .set(FIELD_REPRODUCTORES_COUNT, mongoTemplate.count(porContenido, Reproductor.class))
+                .set(FIELD_FAVORITOS_COUNT, mongoTemplate.count(porContenido, Favorito.class))
+                .unset(LEGADO_REPRODUCTORES).unset(LEGADO_RATINGS).unset(LEGADO_FAVORITOS);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(rawId)), u, "contenidos");
+        importados.increment();
+    }
+
+    private static Update alta(String contenidoId, String email) {
+        return new Update()
+                .setOnInsert(FIELD_CONTENIDO_ID, contenidoId)
+                .setOnInsert(FIELD_USER_EMAIL, Interacciones.normalizar(email))
+                .setOnInsert(FIELD_FECHA, LocalDateTime.now());
+    }
+
+    private void incrementar(String contenidoId, String campo, long n) {
+        mongoTemplate.updateFirst(porId(contenidoId), new Update().inc(campo, n), Contenido.class);
+    }
+
+    private static Query porId(String id) {
+        return new Query(Criteria.where("_id").is(id));
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "interacciones";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("consultaLegado", legado);
+        m.put("consultasLegado", consultasLegado.sum());
+        m.put("contenidosImportados", importados.sum());
+        return m;
+    }
+}
@@ -0,0 +1,110 @@
+package com.EsiMediaG03.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.ByteRange;
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+
+/**
+ * Vuelca un rango de un fichero local a la respuesta usando FileChannel.transferTo,
+ * posicionándose directamente en el offset pedido sin saltar byte a byte. La
+ * respuesta del servlet es un OutputStream, así que el destino es un canal
+ * envoltorio (Channels.newChannel) y no un socket: el JDK no puede usar sendfile
+ * y los datos pasan por un buffer intermedio antes de llegar al contenedor. Es
+ * la ruta de respaldo: con un solo rango y el sendfile de Tomcat disponible, el
+ * conversor de FileRegion deja el envío al conector, y EmbeddedMediaServer
+ * escribe directamente en el SocketChannel. Si el rango está en la caché de segmentos mapeados se sirve
+ * desde memoria; si no, el canal se toma prestado del pool en lugar de abrir y
+ * cerrar el fichero por petición.
+ */
+@Component
+public class LocalMediaWriter {
+
+    private final HotSegmentCache hotSegments;
+    private final FileChannelPool channels;
+
+    public LocalMediaWriter(HotSegmentCache hotSegments, FileChannelPool channels) {
+        this.hotSegments = hotSegments;
+        this.channels = channels;
+    }
+
+    public long write(FileRegion region, OutputStream out) throws IOException {
+        long startNanos = System.nanoTime();
+        long[] written = {0};
+        boolean completed = false;
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            ByteBuffer cached = hotSegments.slice(region.path(), region.position(), region.count());
+            if (cached != null) {
+                writeBuffer(cached, target, written);
+            } else {
+                try (FileChannelPool.Lease lease = channels.acquire(region.path())) {
+                    transfer(lease.channel(), region.position(), region.count(), target, written);
+                }
+            }
+            completed = true;
+            return written[0];
+        } finally {
+            notifyListener(region.listener(), written[0], System.nanoTime() - startNanos, completed);
+        }
+    }
+
+    public long write(MultipartFileRegions body, OutputStream out) throws IOException {
+        long startNanos = System.nanoTime();
+        long[] written = {0};
+        boolean completed = false;
+        try (FileChannelPool.Lease lease = channels.acquire(body.path())) {
+            FileChannel channel = lease.channel();
+            WritableByteChannel target = Channels.newChannel(out);
+            for (ByteRange part : body.parts()) {
+                out.write(body.partHeader(part));
+                ByteBuffer cached = hotSegments.slice(body.path(), part.start(), part.length());
+                if (cached != null) {
+                    writeBuffer(cached, target, written);
+                } else {
+                    transfer(channel, part.start(), part.length(), target, written);
+                }
+                out.write(body.partTrailer());
+            }
+            out.write(body.closeDelimiter());
+            completed = true;
+            return written[0];
+        } finally {
+            notifyListener(body.listener(), written[0], System.nanoTime() - startNanos, completed);
+        }
+    }
+
+    private static void writeBuffer(ByteBuffer buffer, WritableByteChannel target, long[] written) throws IOException {
+        while (buffer.hasRemaining()) {
+            written[0] += target.write(buffer);
+        }
+    }
+
+    private static void transfer(FileChannel channel, long position, long count,
+                                 WritableByteChannel target, long[] written) throws IOException {
+        long pos = position;
+        long remaining = count;
+        while (remaining > 0) {
+            long n = channel.transferTo(pos, remaining, target);
+            if (n <= 0) {
+                throw new EOFException("El fichero terminó antes de completar el rango solicitado (pos " + pos + ")");
+            }
+            pos += n;
+            remaining -= n;
+            written[0] += n;
+        }
+    }
+
+    private static void notifyListener(TransferListener l, long bytes, long nanos, boolean completed) {
+        if (l != null) l.onTransferEnd(bytes, nanos, completed);
+    }
+}
@@ -0,0 +1,253 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Caché LRU acotada de metadatos de ficheros multimedia (tamaño, mtime, mime,
+ * legibilidad) para no repetir stat/probe en cada petición de rango.
+ *
+ * Las entradas se invalidan mediante un WatchService registrado sobre los
+ * directorios de los ficheros cacheados; si el directorio no puede vigilarse,
+ * la entrada no se cachea. El directorio se registra antes de hacer el stat,
+ * para que un cambio posterior siempre genere evento, y el resultado sólo se
+ * guarda si no ha habido ninguna invalidación mientras se calculaba (contador
+ * de generación); si la hubo, se devuelve sin cachear.
+ *
+ * Otras cachés ligadas al contenido de los ficheros (los segmentos mapeados)
+ * se suscriben con onInvalidate para enterarse de los mismos eventos.
+ */
+@Component
+public class MediaMetadataCache implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaMetadataCache.class);
+
+    private final int maxEntries;
+    private final boolean watchEnabled;
+
+    private final Map<Path, MediaFileMetadata> entries;
+    /** Se incrementa con cada invalidación; protegido por el cerrojo de entries. */
+    private long generacion;
+    private final Map<Path, WatchKey> watchedDirs = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> oyentes = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watchThread;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder noCacheados = new LongAdder();
+
+    public MediaMetadataCache(@Value("${app.streaming.metadata-cache.max-entries:1024}") int maxEntries,
+                              @Value("${app.streaming.metadata-cache.watch:true}") boolean watchEnabled) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.watchEnabled = watchEnabled;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, MediaFileMetadata> eldest) {
+                boolean evict = size() > MediaMetadataCache.this.maxEntries;
+                if (evict) evictions.increment();
+                return evict;
+            }
+        };
+    }
+
+    public MediaFileMetadata lookup(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (entries) {
+            MediaFileMetadata cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        boolean cacheable = !watchEnabled || watch(key.getParent());
+        long gen;
+        synchronized (entries) {
+            gen = generacion;
+        }
+        MediaFileMetadata fresh = stat(key);
+        if (cacheable) {
+            synchronized (entries) {
+                if (generacion == gen) {
+                    entries.put(key, fresh);
+                } else {
+                    noCacheados.increment();
+                }
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Registra un oyente de invalidaciones. Recibe la ruta invalidada: un
+     * fichero o, si se perdieron eventos, el directorio entero.
+     */
+    public void onInvalidate(Consumer<Path> oyente) {
+        oyentes.add(oyente);
+    }
+
+    public void invalidate(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (entries) {
+            generacion++;
+            if (entries.remove(key) != null) invalidations.increment();
+        }
+        avisar(key);
+    }
+
+    private void invalidateDir(Path dir) {
+        synchronized (entries) {
+            generacion++;
+            int before = entries.size();
+            entries.keySet().removeIf(p -> dir.equals(p.getParent()));
+            invalidations.add((long) before - entries.size());
+        }
+        avisar(dir);
+    }
+
+    private void avisar(Path path) {
+        for (Consumer<Path> oyente : oyentes) {
+            try {
+                oyente.accept(path);
+            } catch (RuntimeException e) {
+                LOG.warn("Fallo en un oyente de invalidación para {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private static MediaFileMetadata stat(Path path) {
+        try {
+            if (!Files.isReadable(path)) return MediaFileMetadata.unreadable();
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) return MediaFileMetadata.unreadable();
+            String mime = null;
+            try {
+                mime = Files.probeContentType(path);
+            } catch (IOException ignored) {
+                // Sin tipo detectado: se usará la extensión o el valor por defecto
+            }
+            return new MediaFileMetadata(true, attrs.size(), attrs.lastModifiedTime().toMillis(), mime);
+        } catch (IOException e) {
+            return MediaFileMetadata.unreadable();
+        }
+    }
+
+    private boolean watch(Path dir) {
+        if (dir == null) return false;
+        if (watchedDirs.containsKey(dir)) return true;
+        synchronized (watchedDirs) {
+            if (watchedDirs.containsKey(dir)) return true;
+            try {
+                ensureWatchThread();
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(dir, key);
+                return true;
+            } catch (IOException | ClosedWatchServiceException e) {
+                LOG.debug("No se puede vigilar el directorio {}: {}", dir, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private void ensureWatchThread() throws IOException {
+        if (watchService != null) return;
+        watchService = FileSystems.getDefault().newWatchService();
+        watchThread = new Thread(this::watchLoop, "media-metadata-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        WatchService ws = watchService;
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateDir(dir);
+                } else {
+                    invalidate(dir.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(dir);
+                invalidateDir(dir);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+            // cierre en apagado: nada que hacer
+        }
+        if (watchThread != null) watchThread.interrupt();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "metadataCache";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("entradas", size());
+        m.put("maxEntradas", maxEntries);
+        m.put("hits", hits.sum());
+        m.put("misses", misses.sum());
+        m.put("evictions", evictions.sum());
+        m.put("invalidaciones", invalidations.sum());
+        m.put("noCacheadosPorCarrera", noCacheados.sum());
+        m.put("directoriosVigilados", watchedDirs.size());
+        return m;
+    }
+}
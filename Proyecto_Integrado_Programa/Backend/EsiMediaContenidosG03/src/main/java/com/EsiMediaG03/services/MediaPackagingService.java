@@ -0,0 +1,267 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Versiones empaquetadas (fMP4 + HLS/DASH) de los vídeos MP4 locales.
+ *
+ * Cada contenido tiene un directorio &lt;dir&gt;/&lt;contenidoId&gt;/&lt;version&gt;, donde la
+ * versión se deriva del tamaño y mtime del MP4 de origen y del formato de
+ * salida del empaquetador. Así los ficheros de
+ * una versión no cambian nunca y se pueden cachear como inmutables; si el MP4
+ * cambia, se empaqueta una versión nueva. El directorio se construye aparte
+ * (&lt;version&gt;.tmp-*) y se publica con un rename atómico.
+ *
+ * Las versiones anteriores no se borran al publicar: un cliente puede estar
+ * reproduciendo una lista que apunta a ellas. Una limpieza periódica las borra
+ * cuando la versión más reciente lleva publicada más de app.media.hls.gracia-min
+ * minutos, y quita los directorios temporales abandonados por ejecuciones que
+ * no terminaron. Los temporales de una ejecución en curso no se tocan nunca.
+ */
+@Component
+public class MediaPackagingService implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaPackagingService.class);
+    private static final Pattern ID_VALIDO = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final Pattern VERSION_VALIDA = Pattern.compile("[0-9a-f]{1,16}-[0-9a-f]{1,16}-f\\d{1,3}");
+    private static final String TMP = ".tmp-";
+    private static final long LIMPIEZA_INTERVALO_MIN = 10;
+    private static final long TMP_ABANDONADO_MS = TimeUnit.HOURS.toMillis(24);
+    private static final Pattern FICHERO_VALIDO = Pattern.compile(
+            "init-\\d{1,2}\\.mp4|index\\.m3u8|pista-\\d{1,2}\\.m3u8|manifest\\.mpd|seg-\\d{1,2}-\\d{1,6}\\.m4s");
+    /** Formato de salida de Fmp4Packager, parte de la versión: si cambia, se reempaqueta. */
+    private static final int FORMATO = 2;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final double segundosSegmento;
+    private final long graciaMs;
+    private ScheduledExecutorService limpieza;
+
+    private final LongAdder empaquetados = new LongAdder();
+    private final LongAdder segmentos = new LongAdder();
+    private final LongAdder noEmpaquetables = new LongAdder();
+    private final LongAdder msTotal = new LongAdder();
+    private final LongAdder versionesBorradas = new LongAdder();
+
+    public MediaPackagingService(@Value("${app.media.hls.enabled:false}") boolean enabled,
+                                 @Value("${app.media.hls.dir:tmp/esimedia-hls}") String dir,
+                                 @Value("${app.media.hls.segment-seconds:6}") double segundosSegmento,
+                                 @Value("${app.media.hls.gracia-min:120}") long graciaMin) {
+        if (segundosSegmento <= 0) {
+            throw new IllegalArgumentException("app.media.hls.segment-seconds debe ser positivo.");
+        }
+        this.enabled = enabled;
+        this.dir = Path.of(dir).toAbsolutePath().normalize();
+        this.segundosSegmento = segundosSegmento;
+        this.graciaMs = TimeUnit.MINUTES.toMillis(Math.max(0, graciaMin));
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hls-limpieza");
+            t.setDaemon(true);
+            return t;
+        });
+        limpieza.scheduleWithFixedDelay(this::purgarVersionesQuietly, LIMPIEZA_INTERVALO_MIN, LIMPIEZA_INTERVALO_MIN,
+                TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (limpieza != null) limpieza.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String version(long tamano, long lastModified) {
+        return Long.toHexString(tamano) + "-" + Long.toHexString(lastModified) + "-f" + FORMATO;
+    }
+
+    /** Empaqueta el MP4 si aún no existe la versión correspondiente. Devuelve la versión publicada o null. */
+    public String empaquetar(String contenidoId, Path mp4) throws IOException {
+        if (!enabled || !ID_VALIDO.matcher(contenidoId).matches()) return null;
+        BasicFileAttributes attrs = Files.readAttributes(mp4, BasicFileAttributes.class);
+        String version = version(attrs.size(), attrs.lastModifiedTime().toMillis());
+        Path base = dir.resolve(contenidoId);
+        Path publicado = base.resolve(version);
+        if (Files.isDirectory(publicado)) return version;
+
+        Path tmp = base.resolve(version + TMP + Long.toHexString(System.nanoTime()));
+        long t0 = System.nanoTime();
+        Fmp4Packager.Resultado r;
+        try {
+            r = Fmp4Packager.empaquetar(mp4, tmp, segundosSegmento);
+        } catch (IOException | RuntimeException e) {
+            borrarArbol(tmp);
+            throw e;
+        }
+        if (r == null) {
+            borrarArbol(tmp);
+            noEmpaquetables.increment();
+            return null;
+        }
+        try {
+            Files.move(tmp, publicado, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            borrarArbol(tmp);
+            if (Files.isDirectory(publicado)) {
+                LOG.debug("La versión {} de {} ya la publicó otra ejecución", version, contenidoId);
+                return version;
+            }
+            throw e;
+        }
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        empaquetados.increment();
+        segmentos.add(r.segmentos());
+        msTotal.add(ms);
+        LOG.info("Empaquetado {} v{}: {} segmentos en {} ms", contenidoId, version, r.segmentos(), ms);
+        return version;
+    }
+
+    /** Versión publicada para el MP4 con ese tamaño y mtime, o null si no está empaquetado. */
+    public String versionDisponible(String contenidoId, long tamano, long lastModified) {
+        if (!enabled || contenidoId == null || !ID_VALIDO.matcher(contenidoId).matches()) return null;
+        String version = version(tamano, lastModified);
+        return Files.isDirectory(dir.resolve(contenidoId).resolve(version)) ? version : null;
+    }
+
+    /** Fichero de una versión publicada; null si el nombre no es válido o no existe. */
+    public Path fichero(String contenidoId, String version, String nombre) {
+        if (!enabled || contenidoId == null || version == null || nombre == null
+                || !ID_VALIDO.matcher(contenidoId).matches()
+                || !VERSION_VALIDA.matcher(version).matches()
+                || !FICHERO_VALIDO.matcher(nombre).matches()) {
+            return null;
+        }
+        Path f = dir.resolve(contenidoId).resolve(version).resolve(nombre);
+        return Files.isRegularFile(f) ? f : null;
+    }
+
+    public void borrar(String contenidoId) {
+        if (!enabled || contenidoId == null || !ID_VALIDO.matcher(contenidoId).matches()) return;
+        borrarArbol(dir.resolve(contenidoId));
+    }
+
+    /**
+     * Borra las versiones sustituidas hace más del periodo de gracia y los
+     * temporales abandonados. Devuelve el número de directorios borrados.
+     */
+    public int purgarVersiones() throws IOException {
+        if (!enabled || !Files.isDirectory(dir)) return 0;
+        long now = System.currentTimeMillis();
+        int n = 0;
+        try (DirectoryStream<Path> contenidos = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path base : contenidos) {
+                n += purgarVersiones(base, now);
+            }
+        }
+        versionesBorradas.add(n);
+        return n;
+    }
+
+    private int purgarVersiones(Path base, long now) {
+        List<Path> versiones = new ArrayList<>();
+        int n = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(base)) {
+            for (Path p : ds) {
+                if (!p.getFileName().toString().contains(TMP)) {
+                    versiones.add(p);
+                } else if (now - modificado(p) >= TMP_ABANDONADO_MS) {
+                    borrarArbol(p);
+                    n++;
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("No se pudieron limpiar versiones antiguas en {}: {}", base, e.getMessage());
+            return n;
+        }
+        if (versiones.size() < 2) return n;
+        versiones.sort(Comparator.comparingLong(MediaPackagingService::modificado));
+        Path actual = versiones.get(versiones.size() - 1);
+        if (now - modificado(actual) < graciaMs) return n;
+        for (Path p : versiones.subList(0, versiones.size() - 1)) {
+            borrarArbol(p);
+            n++;
+        }
+        return n;
+    }
+
+    private void purgarVersionesQuietly() {
+        try {
+            int n = purgarVersiones();
+            if (n > 0) LOG.info("Versiones empaquetadas antiguas borradas: {}", n);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("No se pudieron purgar las versiones empaquetadas: {}", e.getMessage());
+        }
+    }
+
+    private static long modificado(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static void borrarArbol(Path raiz) {
+        if (!Files.exists(raiz)) return;
+        try (Stream<Path> s = Files.walk(raiz)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    LOG.debug("No se pudo borrar {}: {}", p, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("No se pudo borrar {}: {}", raiz, e.getMessage());
+        }
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "empaquetado";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        m.put("empaquetados", empaquetados.sum());
+        m.put("segmentos", segmentos.sum());
+        m.put("noEmpaquetables", noEmpaquetables.sum());
+        m.put("msTotal", msTotal.sum());
+        m.put("versionesBorradas", versionesBorradas.sum());
+        return m;
+    }
+}
@@ -0,0 +1,372 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.MediaProbe;
+import com.EsiMediaG03.model.Contenido;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Sondeo en segundo plano de los ficheros locales de los contenidos.
+ *
+ * Cuando un contenido se crea o cambia de fichero se encola su ruta; un pool
+ * acotado la analiza con {@link MediaProber} y guarda duración, resolución,
+ * bitrate, códec y MIME reales en el documento. La escritura sólo se aplica si
+ * la ruta no ha cambiado entretanto, así que un sondeo lento nunca pisa el de
+ * un fichero más reciente. Si la cola está llena el sondeo se descarta y se
+ * recupera más tarde: al arrancar y cada app.media.probe.rescan-min minutos se
+ * reencolan los contenidos sin "sondeado".
+ *
+ * Con app.media.faststart.enabled los MP4 con el moov al final se reescriben
+ * antes de guardar ({@link Mp4Faststart}) en un temporal propio que se renombra
+ * a un hermano único "*.faststart-XXXXXXXX.mp4", y la ruta del contenido se
+ * cambia a él en la misma actualización condicional. El original sólo se borra
+ * si ya no lo referencia ningún contenido.
+ *
+ * Tras el sondeo se reconstruye el índice de búsqueda ({@link SeekIndexService})
+ * sobre el fichero definitivo y, si está habilitado, se empaquetan los vídeos
+ * MP4 a fMP4 + HLS/DASH ({@link MediaPackagingService}).
+ */
+@Component
+public class MediaProbeService implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaProbeService.class);
+    private static final String FIELD_SONDEADO = "sondeado";
+
+    private final MongoTemplate mongoTemplate;
+    private final SeekIndexService seekIndex;
+    private final MediaPackagingService packaging;
+    private final boolean enabled;
+    private final boolean faststart;
+    private final long maxMoovBytes;
+    private final int queueCapacity;
+    private final long rescanMin;
+    private final ThreadPoolExecutor pool;
+    private ScheduledExecutorService rescan;
+    private final Map<String, String> enCola = new ConcurrentHashMap<>();
+
+    private final LongAdder encolados = new LongAdder();
+    private final LongAdder completados = new LongAdder();
+    private final LongAdder noReconocidos = new LongAdder();
+    private final LongAdder fallidos = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder obsoletos = new LongAdder();
+    private final LongAdder faststartReescritos = new LongAdder();
+    private final LongAdder faststartMs = new LongAdder();
+
+    public MediaProbeService(MongoTemplate mongoTemplate, SeekIndexService seekIndex,
+                             MediaPackagingService packaging,
+                             @Value("${app.media.probe.enabled:true}") boolean enabled,
+                             @Value("${app.media.probe.threads:2}") int threads,
+                             @Value("${app.media.probe.queue-capacity:256}") int queueCapacity,
+                             @Value("${app.media.faststart.enabled:false}") boolean faststart,
+                             @Value("${app.media.faststart.max-moov-bytes:67108864}") long maxMoovBytes,
+                             @Value("${app.media.probe.rescan-min:10}") long rescanMin) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Configuración de app.media.probe inválida.");
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.seekIndex = seekIndex;
+        this.packaging = packaging;
+        this.enabled = enabled;
+        this.queueCapacity = queueCapacity;
+        this.faststart = faststart;
+        this.maxMoovBytes = maxMoovBytes;
+        this.rescanMin = rescanMin;
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "media-probe-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Reencolado periódico: lo descartado con la cola llena no espera al siguiente arranque. */
+    @PostConstruct
+    public void init() {
+        if (!enabled || rescanMin <= 0) return;
+        rescan = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "media-probe-rescan");
+            t.setDaemon(true);
+            return t;
+        });
+        rescan.scheduleWithFixedDelay(this::encolarPendientesQuietly, rescanMin, rescanMin, TimeUnit.MINUTES);
+    }
+
+    /** Campo del documento que contiene la ruta local a sondear, o null si el contenido se sirve desde una URL. */
+    public static String campoRutaLocal(Contenido c) {
+        if (c == null || c.getTipo() == null) return null;
+        if (c.getTipo() == Contenido.Tipo.VIDEO) {
+            return isLocal(c.getUrlVideo()) ? "urlVideo" : null;
+        }
+        if (hasText(c.getUrlAudio())) {
+            return isLocal(c.getUrlAudio()) ? "urlAudio" : null;
+        }
+        return isLocal(c.getFicheroAudio()) ? "ficheroAudio" : null;
+    }
+
+    public static String rutaLocal(Contenido c) {
+        String campo = campoRutaLocal(c);
+        if (campo == null) return null;
+        return switch (campo) {
+            case "urlVideo" -> c.getUrlVideo();
+            case "urlAudio" -> c.getUrlAudio();
+            default -> c.getFicheroAudio();
+        };
+    }
+
+    /** Encola el sondeo del fichero local del contenido; no bloquea nunca. */
+    public void encolar(Contenido c) {
+        String campo = campoRutaLocal(c);
+        if (!enabled || c.getId() == null || campo == null) return;
+        String ruta = rutaLocal(c);
+        if (ruta.equals(enCola.put(c.getId(), ruta))) return;
+        try {
+            pool.execute(() -> {
+                try {
+                    sondear(c.getId(), campo, ruta);
+                } finally {
+                    enCola.remove(c.getId(), ruta);
+                }
+            });
+            encolados.increment();
+        } catch (RejectedExecutionException e) {
+            enCola.remove(c.getId(), ruta);
+            descartados.increment();
+            LOG.debug("Cola de sondeo llena; {} se sondeará en el próximo arranque", c.getId());
+        }
+    }
+
+    /**
+     * Sondea el fichero y guarda el resultado si el contenido sigue apuntando a la
+     * misma ruta. Devuelve el resultado, o null si no se reconoce o no se pudo leer.
+     */
+    public MediaProbe sondear(String contenidoId, String campo, String ruta) {
+        MediaProbe probe;
+        long tamano;
+        Path original = Path.of(ruta);
+        Path reescrito = null;
+        try {
+            tamano = Files.size(original);
+            probe = MediaProber.probe(original);
+            if (faststart && probe != null && probe.mimeType().endsWith("/mp4")) {
+                reescrito = faststart(contenidoId, original);
+            }
+        } catch (IOException | RuntimeException e) {
+            fallidos.increment();
+            LOG.warn("No se pudo sondear {} ({}): {}", contenidoId, ruta, e.getMessage());
+            return null;
+        }
+        if (probe == null) {
+            noReconocidos.increment();
+            LOG.info("Formato no reconocido al sondear {} ({})", contenidoId, ruta);
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(contenidoId).and(campo).is(ruta)),
+                    new Update().set(FIELD_SONDEADO, LocalDateTime.now()), Contenido.class);
+            return null;
+        }
+
+        Update update = new Update();
+        if (reescrito != null) update.set(campo, reescrito.toString());
+        update.set("mimeType", probe.mimeType())
+                .set("tamanoBytes", tamano)
+                .set("duracionMs", probe.duracionMs())
+                .set("anchoPx", probe.ancho())
+                .set("altoPx", probe.alto())
+                .set("bitrateKbps", probe.bitrateKbps())
+                .set("codec", probe.codec())
+                .set(FIELD_SONDEADO, LocalDateTime.now());
+        if (probe.duracionMs() != null && probe.duracionMs() > 0) {
+            update.set("duracionMinutos", (int) Math.max(1, (probe.duracionMs() + 59_999) / 60_000));
+        }
+        String resolucion = resolucion(probe);
+        if (resolucion != null) update.set("resolucion", resolucion);
+
+        Query query = new Query(Criteria.where("_id").is(contenidoId).and(campo).is(ruta));
+        boolean aplicado = mongoTemplate.updateFirst(query, update, Contenido.class).getMatchedCount() > 0;
+        if (aplicado) {
+            completados.increment();
+            Path definitivo = reescrito != null ? reescrito : original;
+            indexar(contenidoId, definitivo);
+            if (probe.hasVideo() && probe.mimeType().equals("video/mp4")) empaquetar(contenidoId, definitivo);
+        } else {
+            obsoletos.increment();
+        }
+        if (reescrito != null) {
+            if (!aplicado) borrarSinFallar(reescrito);
+            else if (!referenciado(ruta)) borrarSinFallar(original);
+        }
+        return probe;
+    }
+
+    /** Reescribe el MP4 si tiene el moov al final; devuelve el fichero nuevo o null si no hacía falta. */
+    private Path faststart(String contenidoId, Path original) throws IOException {
+        try (FileChannel ch = FileChannel.open(original, StandardOpenOption.READ)) {
+            if (!Mp4Faststart.moovAlFinal(ch)) return null;
+        }
+        String nombre = original.getFileName().toString();
+        int punto = nombre.lastIndexOf('.');
+        String base = punto > 0 ? nombre.substring(0, punto) : nombre;
+        String ext = punto > 0 ? nombre.substring(punto) : ".mp4";
+        // Nombres únicos: dos sondeos del mismo original (o de contenidos que lo
+        // comparten) nunca escriben ni publican sobre el mismo fichero
+        String unico = UUID.randomUUID().toString().substring(0, 8);
+        Path tmp = original.resolveSibling("." + base + "." + unico + ".tmp");
+        Path destino = original.resolveSibling(base + ".faststart-" + unico + ext);
+
+        long t0 = System.nanoTime();
+        try {
+            if (!Mp4Faststart.reescribir(original, tmp, maxMoovBytes)) {
+                borrarSinFallar(tmp);
+                LOG.info("Faststart omitido para {}: el MP4 no se puede reescribir con seguridad", contenidoId);
+                return null;
+            }
+            Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            borrarSinFallar(tmp);
+            LOG.warn("Faststart fallido para {}: {}", contenidoId, e.getMessage());
+            return null;
+        }
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        faststartReescritos.increment();
+        faststartMs.add(ms);
+        LOG.info("Faststart de {}: {} -> {} en {} ms", contenidoId, original, destino, ms);
+        return destino;
+    }
+
+    /** Si algún contenido (incluido otro creado desde el mismo fichero) sigue apuntando a la ruta. */
+    public boolean referenciado(String ruta) {
+        return mongoTemplate.exists(new Query(new Criteria().orOperator(
+                Criteria.where("urlVideo").is(ruta), Criteria.where("urlAudio").is(ruta),
+                Criteria.where("ficheroAudio").is(ruta))), Contenido.class);
+    }
+
+    private void indexar(String contenidoId, Path media) {
+        try {
+            seekIndex.construir(contenidoId, media);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("No se pudo construir el índice de búsqueda de {}: {}", contenidoId, e.getMessage());
+        }
+    }
+
+    private void empaquetar(String contenidoId, Path media) {
+        if (!packaging.isEnabled()) return;
+        try {
+            packaging.empaquetar(contenidoId, media);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("No se pudo empaquetar {}: {}", contenidoId, e.getMessage());
+        }
+    }
+
+    private static void borrarSinFallar(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            LOG.warn("No se pudo borrar {}: {}", p, e.getMessage());
+        }
+    }
+
+    /** Etiqueta de resolución de la plataforma (720p, 1080p, 4K) según el lado corto del vídeo. */
+    static String resolucion(MediaProbe probe) {
+        if (!probe.hasVideo()) return null;
+        int lado = Math.min(probe.ancho(), probe.alto());
+        if (lado >= 2160) return "4K";
+        if (lado >= 1080) return "1080p";
+        if (lado >= 720) return "720p";
+        return null;
+    }
+
+    /** Reencola, hasta llenar la cola, los contenidos locales que nunca se llegaron a sondear. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void encolarPendientes() {
+        if (!enabled) return;
+        Query q = new Query(Criteria.where(FIELD_SONDEADO).exists(false)).limit(queueCapacity);
+        q.fields().include("tipo", "urlVideo", "urlAudio", "ficheroAudio");
+        List<Contenido> pendientes = mongoTemplate.find(q, Contenido.class);
+        pendientes.forEach(this::encolar);
+        if (!pendientes.isEmpty()) LOG.info("Reencolados {} contenidos sin sondear", pendientes.size());
+    }
+
+    private void encolarPendientesQuietly() {
+        try {
+            encolarPendientes();
+        } catch (RuntimeException e) {
+            LOG.warn("No se pudieron reencolar los contenidos sin sondear: {}", e.getMessage());
+        }
+    }
+
+    private static boolean isLocal(String s) {
+        if (!hasText(s)) return false;
+        String l = s.toLowerCase();
+        return !l.startsWith("http://") && !l.startsWith("https://");
+    }
+
+    private static boolean hasText(String s) {
+        return s != null && !s.isBlank();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rescan != null) rescan.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "sondeoMedia";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        m.put("enCola", pool.getQueue().size());
+        m.put("activos", pool.getActiveCount());
+        m.put("encolados", encolados.sum());
+        m.put("completados", completados.sum());
+        m.put("noReconocidos", noReconocidos.sum());
+        m.put("fallidos", fallidos.sum());
+        m.put("descartados", descartados.sum());
+        m.put("obsoletos", obsoletos.sum());
+        m.put("faststartHabilitado", faststart);
+        m.put("faststartReescritos", faststartReescritos.sum());
+        m.put("faststartMsTotal", faststartMs.sum());
+        return m;
+    }
+}
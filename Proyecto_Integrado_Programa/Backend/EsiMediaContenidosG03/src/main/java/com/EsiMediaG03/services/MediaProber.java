@@ -0,0 +1,497 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.EsiMediaG03.dto.MediaProbe;
+
+/**
+ * Lectura en Java puro de las cabeceras de los contenedores que sirve la plataforma
+ * (MP4/ISO-BMFF, WebM/Matroska, MP3, WAV y FLAC) para obtener duración, resolución,
+ * bitrate, códec y MIME sin leer el fichero entero.
+ */
+public final class MediaProber {
+
+    private static final int MP3_SCAN_BYTES = 64 * 1024;
+
+    private static final int[] MP3_KBPS_V1 = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] MP3_KBPS_V2 = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] MP3_RATES_V1 = {44100, 48000, 32000};
+
+    private static final int EBML = 0x1A45DFA3;
+    private static final int EBML_DOCTYPE = 0x4282;
+    private static final int MKV_SEGMENT = 0x18538067;
+    private static final int MKV_INFO = 0x1549A966;
+    private static final int MKV_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int MKV_DURATION = 0x4489;
+    private static final int MKV_TRACKS = 0x1654AE6B;
+    private static final int MKV_TRACK_ENTRY = 0xAE;
+    private static final int MKV_TRACK_TYPE = 0x83;
+    private static final int MKV_CODEC_ID = 0x86;
+    private static final int MKV_VIDEO = 0xE0;
+    private static final int MKV_PIXEL_WIDTH = 0xB0;
+    private static final int MKV_PIXEL_HEIGHT = 0xBA;
+    private static final int MKV_CLUSTER = 0x1F43B675;
+
+    private MediaProber() { }
+
+    /** Devuelve null si el formato no se reconoce o las cabeceras están dañadas. */
+    public static MediaProbe probe(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Source src = new Source(ch);
+            byte[] head = src.bytes(0, 12);
+            if (head.length < 12) return null;
+            if (ascii(head, 4, 4).equals("ftyp")) return probeMp4(ch);
+            if (src.u32(0) == EBML) return probeMatroska(src);
+            if (ascii(head, 0, 4).equals("fLaC")) return probeFlac(src);
+            if (ascii(head, 0, 4).equals("RIFF") && ascii(head, 8, 4).equals("WAVE")) return probeWav(src);
+            return probeMp3(src);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- MP4
+
+    private static MediaProbe probeMp4(FileChannel ch) throws IOException {
+        Mp4Atoms.Atom moov = Mp4Atoms.findTopLevel(ch, "moov");
+        if (moov == null) return null;
+        Source src = new Source(ch);
+        Long duracionMs = null;
+        Integer ancho = null;
+        Integer alto = null;
+        List<String> codecs = new ArrayList<>();
+        boolean video = false;
+
+        for (Mp4Atoms.Atom child : children(ch, moov)) {
+            if (child.type().equals("mvhd")) {
+                long p = child.payloadOffset();
+                boolean v1 = src.u8(p) == 1;
+                long timescale = src.u32(p + (v1 ? 20 : 12));
+                long duration = v1 ? src.u64(p + 24) : src.u32(p + 16);
+                if (timescale > 0) duracionMs = duration * 1000 / timescale;
+            } else if (child.type().equals("trak")) {
+                Mp4Track t = mp4Track(ch, src, child);
+                if (t.handler == null) continue;
+                if (t.handler.equals("vide") && t.ancho > 0 && t.alto > 0) {
+                    video = true;
+                    ancho = t.ancho;
+                    alto = t.alto;
+                    if (t.codec != null) codecs.add(0, t.codec);
+                } else if (t.handler.equals("soun") && t.codec != null) {
+                    codecs.add(t.codec);
+                }
+            }
+        }
+        return withBitrate(new MediaProbe(video ? "video/mp4" : "audio/mp4", duracionMs, ancho, alto, null,
+                codecs.isEmpty() ? null : String.join(",", codecs)), ch.size());
+    }
+
+    private static final class Mp4Track {
+        String handler;
+        String codec;
+        int ancho;
+        int alto;
+    }
+
+    private static Mp4Track mp4Track(FileChannel ch, Source src, Mp4Atoms.Atom trak) throws IOException {
+        Mp4Track t = new Mp4Track();
+        for (Mp4Atoms.Atom a : children(ch, trak)) {
+            if (a.type().equals("tkhd")) {
+                long p = a.payloadOffset();
+                long dims = p + (src.u8(p) == 1 ? 88 : 76);
+                t.ancho = (int) (src.u32(dims) >>> 16);
+                t.alto = (int) (src.u32(dims + 4) >>> 16);
+            } else if (a.type().equals("mdia")) {
+                for (Mp4Atoms.Atom m : children(ch, a)) {
+                    if (m.type().equals("hdlr")) {
+                        t.handler = ascii(src.bytes(m.payloadOffset() + 8, 4), 0, 4);
+                    } else if (m.type().equals("minf")) {
+                        Mp4Atoms.Atom stsd = descend(ch, m, "stbl", "stsd");
+                        if (stsd != null && src.u32(stsd.payloadOffset() + 4) > 0) {
+                            t.codec = ascii(src.bytes(stsd.payloadOffset() + 12, 4), 0, 4).trim();
+                        }
+                    }
+                }
+            }
+        }
+        return t;
+    }
+
+    static Mp4Atoms.Atom descend(FileChannel ch, Mp4Atoms.Atom parent, String... path) throws IOException {
+        Mp4Atoms.Atom current = parent;
+        for (String type : path) {
+            Mp4Atoms.Atom next = null;
+            for (Mp4Atoms.Atom c : children(ch, current)) {
+                if (c.type().equals(type)) {
+                    next = c;
+                    break;
+                }
+            }
+            if (next == null) return null;
+            current = next;
+        }
+        return current;
+    }
+
+    static List<Mp4Atoms.Atom> children(FileChannel ch, Mp4Atoms.Atom parent) throws IOException {
+        List<Mp4Atoms.Atom> out = new ArrayList<>();
+        long pos = parent.payloadOffset();
+        while (pos + 8 <= parent.end()) {
+            Mp4Atoms.Atom a = Mp4Atoms.readHeader(ch, pos, parent.end());
+            if (a == null) break;
+            out.add(a);
+            pos = a.end();
+        }
+        return out;
+    }
+
+    // ---------------------------------------------------------- Matroska
+
+    private static MediaProbe probeMatroska(Source src) throws IOException {
+        long size = src.size();
+        String docType = "matroska";
+        double timecodeScale = 1_000_000;
+        Double duration = null;
+        Integer ancho = null;
+        Integer alto = null;
+        List<String> codecs = new ArrayList<>();
+
+        long pos = 0;
+        while (pos < size) {
+            Ebml e = Ebml.read(src, pos, size);
+            if (e == null) break;
+            if (e.id == EBML) {
+                for (Ebml h : Ebml.children(src, e)) {
+                    if (h.id == EBML_DOCTYPE) docType = src.string(h.data, (int) h.size);
+                }
+            } else if (e.id == MKV_SEGMENT) {
+                boolean info = false;
+                boolean tracks = false;
+                for (long p = e.data; p < e.end(); ) {
+                    Ebml s = Ebml.read(src, p, e.end());
+                    if (s == null || (s.id == MKV_CLUSTER && ((info && tracks) || s.unknownSize))) break;
+                    if (s.id == MKV_INFO) {
+                        info = true;
+                        for (Ebml i : Ebml.children(src, s)) {
+                            if (i.id == MKV_TIMECODE_SCALE) timecodeScale = src.uint(i.data, (int) i.size);
+                            else if (i.id == MKV_DURATION) duration = src.ebmlFloat(i.data, (int) i.size);
+                        }
+                    } else if (s.id == MKV_TRACKS) {
+                        tracks = true;
+                        for (Ebml t : Ebml.children(src, s)) {
+                            if (t.id != MKV_TRACK_ENTRY) continue;
+                            long type = 0;
+                            String codec = null;
+                            int w = 0;
+                            int h = 0;
+                            for (Ebml f : Ebml.children(src, t)) {
+                                if (f.id == MKV_TRACK_TYPE) type = src.uint(f.data, (int) f.size);
+                                else if (f.id == MKV_CODEC_ID) codec = matroskaCodec(src.string(f.data, (int) f.size));
+                                else if (f.id == MKV_VIDEO) {
+                                    for (Ebml v : Ebml.children(src, f)) {
+                                        if (v.id == MKV_PIXEL_WIDTH) w = (int) src.uint(v.data, (int) v.size);
+                                        else if (v.id == MKV_PIXEL_HEIGHT) h = (int) src.uint(v.data, (int) v.size);
+                                    }
+                                }
+                            }
+                            if (type == 1 && ancho == null && w > 0 && h > 0) {
+                                ancho = w;
+                                alto = h;
+                                if (codec != null) codecs.add(0, codec);
+                            } else if (type == 2 && codec != null) {
+                                codecs.add(codec);
+                            }
+                        }
+                    }
+                    p = s.end();
+                }
+                break;
+            }
+            pos = e.end();
+        }
+
+        boolean webm = docType.equals("webm");
+        String mime = ancho != null ? (webm ? "video/webm" : "video/x-matroska")
+                                    : (webm ? "audio/webm" : "audio/x-matroska");
+        Long ms = duration == null ? null : (long) (duration * timecodeScale / 1_000_000d);
+        return withBitrate(new MediaProbe(mime, ms, ancho, alto, null,
+                codecs.isEmpty() ? null : String.join(",", codecs)), size);
+    }
+
+    private static String matroskaCodec(String id) {
+        return switch (id) {
+            case "V_MPEG4/ISO/AVC" -> "avc1";
+            case "V_MPEGH/ISO/HEVC" -> "hvc1";
+            case "V_VP8" -> "vp8";
+            case "V_VP9" -> "vp9";
+            case "V_AV1" -> "av1";
+            case "A_OPUS" -> "opus";
+            case "A_VORBIS" -> "vorbis";
+            case "A_AAC" -> "mp4a";
+            case "A_MPEG/L3" -> "mp3";
+            case "A_FLAC" -> "flac";
+            default -> id.toLowerCase(Locale.ROOT);
+        };
+    }
+
+    /** Elemento EBML: id con sus bits de longitud, inicio de datos y tamaño (o hasta el final del padre). */
+    private static final class Ebml {
+        int id;
+        long data;
+        long size;
+        boolean unknownSize;
+
+        long end() { return data + size; }
+
+        static Ebml read(Source src, long pos, long limit) throws IOException {
+            int first = src.u8(pos);
+            int idLen = Integer.numberOfLeadingZeros(first) - 23;
+            if (first == 0 || idLen > 4) return null;
+            int id = 0;
+            for (int i = 0; i < idLen; i++) id = (id << 8) | src.u8(pos + i);
+            long p = pos + idLen;
+            int s0 = src.u8(p);
+            int sizeLen = Integer.numberOfLeadingZeros(s0) - 23;
+            if (s0 == 0 || sizeLen > 8) return null;
+            long size = s0 & (0xFF >>> sizeLen);
+            boolean allOnes = size == (0xFF >>> sizeLen);
+            for (int i = 1; i < sizeLen; i++) {
+                int b = src.u8(p + i);
+                allOnes &= b == 0xFF;
+                size = (size << 8) | b;
+            }
+            Ebml e = new Ebml();
+            e.id = id;
+            e.data = p + sizeLen;
+            e.unknownSize = allOnes;
+            e.size = allOnes ? limit - e.data : size;
+            if (e.data > limit || e.end() > limit) return null;
+            return e;
+        }
+
+        static List<Ebml> children(Source src, Ebml parent) throws IOException {
+            List<Ebml> out = new ArrayList<>();
+            for (long p = parent.data; p < parent.end(); ) {
+                Ebml c = read(src, p, parent.end());
+                if (c == null) break;
+                out.add(c);
+                p = c.end();
+            }
+            return out;
+        }
+    }
+
+    // ---------------------------------------------------------------- FLAC
+
+    private static MediaProbe probeFlac(Source src) throws IOException {
+        if ((src.u8(4) & 0x7F) != 0) return null;
+        long v = src.u64(18);
+        long sampleRate = (v >>> 44) & 0xFFFFF;
+        long totalSamples = v & 0xFFFFFFFFFL;
+        Long ms = sampleRate > 0 && totalSamples > 0 ? totalSamples * 1000 / sampleRate : null;
+        return withBitrate(new MediaProbe("audio/flac", ms, null, null, null, "flac"), src.size());
+    }
+
+    // ---------------------------------------------------------------- WAV
+
+    private static MediaProbe probeWav(Source src) throws IOException {
+        long size = src.size();
+        int formato = -1;
+        long byteRate = 0;
+        long dataSize = -1;
+        long pos = 12;
+        while (pos + 8 <= size && (formato < 0 || dataSize < 0)) {
+            String id = ascii(src.bytes(pos, 4), 0, 4);
+            long len = src.u32le(pos + 4);
+            if (id.equals("fmt ")) {
+                formato = src.u16le(pos + 8);
+                byteRate = src.u32le(pos + 16);
+            } else if (id.equals("data")) {
+                dataSize = Math.min(len, size - pos - 8);
+            }
+            pos += 8 + len + (len & 1);
+        }
+        if (formato < 0 || byteRate <= 0) return null;
+        String codec = switch (formato) {
+            case 1, 0xFFFE -> "pcm";
+            case 3 -> "pcm_float";
+            case 6 -> "alaw";
+            case 7 -> "mulaw";
+            default -> "wav";
+        };
+        Long ms = dataSize >= 0 ? dataSize * 1000 / byteRate : null;
+        return new MediaProbe("audio/wav", ms, null, null, (int) (byteRate * 8 / 1000), codec);
+    }
+
+    // ----------------------------------------------------------------- MP3
+
+    private static MediaProbe probeMp3(Source src) throws IOException {
+        long pos = primerFrameMp3(src);
+        return pos < 0 ? null : mp3(src, pos, Mp3Frame.parse(src.u32(pos)), src.size());
+    }
+
+    /** Offset del primer frame MPEG válido (tras la etiqueta ID3v2 si la hay), o -1. */
+    static long primerFrameMp3(Source src) throws IOException {
+        long size = src.size();
+        long pos = 0;
+        byte[] id3 = src.bytes(0, 10);
+        if (id3.length == 10 && ascii(id3, 0, 3).equals("ID3")) {
+            long tag = ((id3[6] & 0x7FL) << 21) | ((id3[7] & 0x7FL) << 14) | ((id3[8] & 0x7FL) << 7) | (id3[9] & 0x7FL);
+            pos = 10 + tag + ((id3[5] & 0x10) != 0 ? 10 : 0);
+        }
+        long limit = Math.min(size - 4, pos + MP3_SCAN_BYTES);
+        for (; pos < limit; pos++) {
+            Mp3Frame f = Mp3Frame.parse(src.u32(pos));
+            if (f == null) continue;
+            long next = pos + f.length;
+            if (next + 4 <= size && Mp3Frame.parse(src.u32(next)) == null) continue;
+            return pos;
+        }
+        return -1;
+    }
+
+    private static MediaProbe mp3(Source src, long frameStart, Mp3Frame f, long size) throws IOException {
+        long audioBytes = size - frameStart;
+        if (size >= 128 && ascii(src.bytes(size - 128, 3), 0, 3).equals("TAG")) audioBytes -= 128;
+
+        long frames = -1;
+        long xing = frameStart + 4 + f.sideInfo;
+        String tag = ascii(src.bytes(xing, 4), 0, 4);
+        if ((tag.equals("Xing") || tag.equals("Info")) && (src.u32(xing + 4) & 1) != 0) {
+            frames = src.u32(xing + 8);
+        } else if (ascii(src.bytes(frameStart + 36, 4), 0, 4).equals("VBRI")) {
+            frames = src.u32(frameStart + 36 + 14);
+        }
+
+        long ms;
+        int kbps;
+        if (frames > 0) {
+            ms = frames * f.samplesPerFrame * 1000 / f.sampleRate;
+            kbps = ms > 0 ? (int) (audioBytes * 8 / ms) : f.kbps;
+        } else {
+            ms = audioBytes * 8 / f.kbps;
+            kbps = f.kbps;
+        }
+        return new MediaProbe("audio/mpeg", ms, null, null, kbps, "mp3");
+    }
+
+    static final class Mp3Frame {
+        int kbps;
+        int sampleRate;
+        int samplesPerFrame;
+        int sideInfo;
+        int length;
+
+        /** Sólo MPEG audio layer III; cualquier otra cabecera se considera no válida. */
+        static Mp3Frame parse(long h) {
+            if ((h & 0xFFE00000L) != 0xFFE00000L) return null;
+            int version = (int) ((h >>> 19) & 3);
+            int layer = (int) ((h >>> 17) & 3);
+            int bitrateIdx = (int) ((h >>> 12) & 0xF);
+            int rateIdx = (int) ((h >>> 10) & 3);
+            if (version == 1 || layer != 1 || bitrateIdx == 0 || bitrateIdx == 15 || rateIdx == 3) return null;
+            boolean v1 = version == 3;
+            boolean mono = ((h >>> 6) & 3) == 3;
+            Mp3Frame f = new Mp3Frame();
+            f.kbps = (v1 ? MP3_KBPS_V1 : MP3_KBPS_V2)[bitrateIdx];
+            f.sampleRate = MP3_RATES_V1[rateIdx] >> (v1 ? 0 : version == 2 ? 1 : 2);
+            f.samplesPerFrame = v1 ? 1152 : 576;
+            f.sideInfo = v1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+            int padding = (int) ((h >>> 9) & 1);
+            f.length = (f.samplesPerFrame / 8) * f.kbps * 1000 / f.sampleRate + padding;
+            return f;
+        }
+    }
+
+    // ------------------------------------------------------------- común
+
+    private static MediaProbe withBitrate(MediaProbe p, long fileSize) {
+        if (p.bitrateKbps() != null || p.duracionMs() == null || p.duracionMs() <= 0) return p;
+        int kbps = (int) (fileSize * 8 / p.duracionMs());
+        return new MediaProbe(p.mimeType(), p.duracionMs(), p.ancho(), p.alto(), kbps, p.codec());
+    }
+
+    static String ascii(byte[] b, int off, int len) {
+        if (b.length < off + len) return "";
+        return new String(b, off, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Lecturas posicionales con una ventana de 8 KiB para no hacer una syscall por byte. */
+    static final class Source {
+        private static final int WINDOW = 8192;
+        private final FileChannel ch;
+        private final long size;
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW);
+        private long windowStart = -1;
+
+        Source(FileChannel ch) throws IOException {
+            this.ch = ch;
+            this.size = ch.size();
+        }
+
+        long size() { return size; }
+
+        int u8(long pos) throws IOException {
+            if (pos < 0 || pos >= size) throw new IndexOutOfBoundsException("Fuera del fichero: " + pos);
+            if (windowStart < 0 || pos < windowStart || pos >= windowStart + window.limit()) {
+                window.clear();
+                windowStart = pos;
+                while (window.hasRemaining() && ch.read(window, windowStart + window.position()) > 0) {
+                    // sigue leyendo hasta llenar la ventana o llegar al final
+                }
+                window.flip();
+            }
+            return window.get((int) (pos - windowStart)) & 0xFF;
+        }
+
+        byte[] bytes(long pos, int n) throws IOException {
+            int len = (int) Math.max(0, Math.min(n, size - pos));
+            byte[] out = new byte[len];
+            for (int i = 0; i < len; i++) out[i] = (byte) u8(pos + i);
+            return out;
+        }
+
+        long u32(long pos) throws IOException {
+            return uint(pos, 4);
+        }
+
+        long u64(long pos) throws IOException {
+            return uint(pos, 8);
+        }
+
+        long u32le(long pos) throws IOException {
+            return u8(pos) | ((long) u8(pos + 1) << 8) | ((long) u8(pos + 2) << 16) | ((long) u8(pos + 3) << 24);
+        }
+
+        int u16le(long pos) throws IOException {
+            return u8(pos) | (u8(pos + 1) << 8);
+        }
+
+        long uint(long pos, int n) throws IOException {
+            if (n > 8) throw new IllegalArgumentException("Entero EBML demasiado largo: " + n);
+            long v = 0;
+            for (int i = 0; i < n; i++) v = (v << 8) | u8(pos + i);
+            return v;
+        }
+
+        double ebmlFloat(long pos, int n) throws IOException {
+            if (n == 4) return Float.intBitsToFloat((int) uint(pos, 4));
+            if (n == 8) return Double.longBitsToDouble(uint(pos, 8));
+            throw new IllegalArgumentException("Float EBML de " + n + " bytes");
+        }
+
+        String string(long pos, int n) throws IOException {
+            String s = new String(bytes(pos, n), StandardCharsets.ISO_8859_1);
+            int nul = s.indexOf('\0');
+            return nul >= 0 ? s.substring(0, nul) : s;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.EsiMediaG03.services;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pool acotado en el que se ejecutan las transferencias de media fuera de los
+ * hilos del contenedor. Cada transferencia escribe a través de un stream
+ * vigilado: un watchdog aborta las que llevan más de write-timeout-ms sin
+ * progresar (cliente lento o colgado) y los IOException de escritura se
+ * contabilizan como desconexiones del cliente.
+ *
+ * Abortar una transferencia cierra el stream de salida de la respuesta y deja
+ * que la copia falle en el lado del destino; nunca se interrumpe el hilo,
+ * porque una interrupción durante una operación NIO cierra el FileChannel
+ * compartido del pool para todos los lectores del fichero.
+ *
+ * Las escrituras siguen siendo bloqueantes: cada espectador ocupa un hilo del
+ * pool mientras dura su copia. El pool libera los hilos de Tomcat y acota
+ * cuántas copias hay a la vez (max-threads + queue-capacity, el resto recibe
+ * 503), pero no elimina el límite de un hilo por espectador; para eso está el
+ * servidor no bloqueante de EmbeddedMediaServer.
+ */
+@Component
+public class MediaTransferExecutor implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MediaTransferExecutor.class);
+
+    public enum Resultado { COMPLETADA, DESCONECTADA, TIMEOUT, ERROR }
+
+    @FunctionalInterface
+    public interface OutputOpener {
+        OutputStream open() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface MediaTransfer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final boolean enabled;
+    private final long writeTimeoutNanos;
+    private final long requestTimeoutMs;
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Transfer> activas = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completadas = new LongAdder();
+    private final LongAdder desconexiones = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+
+    public MediaTransferExecutor(@Value("${app.streaming.async.enabled:true}") boolean enabled,
+                                 @Value("${app.streaming.async.max-threads:64}") int maxThreads,
+                                 @Value("${app.streaming.async.queue-capacity:128}") int queueCapacity,
+                                 @Value("${app.streaming.async.write-timeout-ms:30000}") long writeTimeoutMs,
+                                 @Value("${app.streaming.async.request-timeout-ms:0}") long requestTimeoutMs) {
+        if (maxThreads <= 0 || queueCapacity < 0 || writeTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Configuración de app.streaming.async inválida.");
+        }
+        this.enabled = enabled;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+        this.requestTimeoutMs = Math.max(0, requestTimeoutMs);
+
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity),
+                r -> daemon(r, "media-transfer-" + seq.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "media-transfer-watchdog"));
+        long period = Math.max(10, Math.min(1000, writeTimeoutMs / 2));
+        this.watchdog.scheduleWithFixedDelay(this::abortStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Timeout de la petición asíncrona completa; 0 = sin límite (sólo aplica el de escritura). */
+    public long requestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    /**
+     * Encola la transferencia. Devuelve null si el pool y la cola están llenos;
+     * en otro caso onEnd se invoca siempre, una sola vez, al terminar.
+     */
+    public Transfer submit(OutputOpener opener, MediaTransfer body, Consumer<Resultado> onEnd) {
+        Transfer t = new Transfer();
+        try {
+            pool.execute(() -> run(t, opener, body, onEnd));
+            return t;
+        } catch (RejectedExecutionException e) {
+            rechazadas.increment();
+            return null;
+        }
+    }
+
+    private void run(Transfer t, OutputOpener opener, MediaTransfer body, Consumer<Resultado> onEnd) {
+        Resultado resultado;
+        if (!t.start()) {
+            resultado = Resultado.TIMEOUT;
+        } else {
+            activas.add(t);
+            try {
+                OutputStream out = t.guard(opener.open());
+                body.writeTo(out);
+                out.flush();
+                resultado = Resultado.COMPLETADA;
+            } catch (IOException e) {
+                resultado = t.aborted ? Resultado.TIMEOUT : Resultado.DESCONECTADA;
+                LOG.debug("Transferencia de media interrumpida ({}): {}", resultado, e.toString());
+            } catch (RuntimeException e) {
+                resultado = t.aborted ? Resultado.TIMEOUT : Resultado.ERROR;
+                LOG.warn("Error en transferencia de media", e);
+            } finally {
+                activas.remove(t);
+                t.finish();
+            }
+        }
+        count(resultado);
+        onEnd.accept(resultado);
+    }
+
+    private void count(Resultado r) {
+        switch (r) {
+            case COMPLETADA -> completadas.increment();
+            case DESCONECTADA -> desconexiones.increment();
+            case TIMEOUT -> timeouts.increment();
+            case ERROR -> errores.increment();
+        }
+    }
+
+    private void abortStalled() {
+        long now = System.nanoTime();
+        for (Transfer t : activas) {
+            if (now - t.lastProgress > writeTimeoutNanos) t.abort();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        pool.shutdown();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "transferenciasAsync";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        m.put("activas", activas.size());
+        m.put("enCola", pool.getQueue().size());
+        m.put("hilos", pool.getPoolSize());
+        m.put("completadas", completadas.sum());
+        m.put("desconexiones", desconexiones.sum());
+        m.put("timeouts", timeouts.sum());
+        m.put("errores", errores.sum());
+        m.put("rechazadas", rechazadas.sum());
+        return m;
+    }
+
+    /**
+     * Estado de una transferencia; abort() es seguro desde cualquier hilo. Abortar
+     * cierra el stream de destino, de modo que la escritura en curso (o la
+     * siguiente) falla con IOException y la copia termina sola.
+     */
+    public static final class Transfer {
+        private OutputStream sink;
+        private boolean running;
+        private volatile boolean aborted;
+        private volatile long lastProgress = System.nanoTime();
+
+        private synchronized boolean start() {
+            if (aborted) return false;
+            running = true;
+            lastProgress = System.nanoTime();
+            return true;
+        }
+
+        private synchronized void finish() {
+            running = false;
+            sink = null;
+        }
+
+        public void abort() {
+            OutputStream s;
+            synchronized (this) {
+                aborted = true;
+                s = running ? sink : null;
+            }
+            if (s == null) return;
+            try {
+                s.close();
+            } catch (IOException e) {
+                LOG.debug("Error cerrando la salida de una transferencia abortada: {}", e.getMessage());
+            }
+        }
+
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        private OutputStream guard(OutputStream out) throws IOException {
+            synchronized (this) {
+                sink = out;
+            }
+            check();
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    check();
+                    out.write(b);
+                    lastProgress = System.nanoTime();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    check();
+                    out.write(b, off, len);
+                    lastProgress = System.nanoTime();
+                }
+            };
+        }
+
+        private void check() throws IOException {
+            if (aborted) throw new InterruptedIOException("Transferencia abortada por timeout de escritura");
+        }
+    }
+}
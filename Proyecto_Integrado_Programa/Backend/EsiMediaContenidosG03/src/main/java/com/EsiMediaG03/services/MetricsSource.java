@@ -0,0 +1,11 @@
+package com.EsiMediaG03.services;
+
+import java.util.Map;
+
+/** Componente de la ruta de streaming que publica contadores en /Contenidos/Estadisticas/Streaming. */
+public interface MetricsSource {
+
+    String nombreMetricas();
+
+    Map<String, Object> estadisticas();
+}
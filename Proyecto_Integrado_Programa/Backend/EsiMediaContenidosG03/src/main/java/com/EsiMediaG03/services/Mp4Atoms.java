@@ -0,0 +1,54 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Lectura mínima de la estructura de cajas (atoms) de nivel superior de un MP4/ISO-BMFF. */
+public final class Mp4Atoms {
+
+    private Mp4Atoms() { }
+
+    public record Atom(String type, long offset, long size, int headerSize) {
+        public long end() { return offset + size; }
+        public long payloadOffset() { return offset + headerSize; }
+    }
+
+    /** Devuelve la primera caja de nivel superior del tipo dado, o null si no existe o el fichero no es ISO-BMFF. */
+    public static Atom findTopLevel(FileChannel channel, String type) throws IOException {
+        long fileSize = channel.size();
+        long pos = 0;
+        while (pos + 8 <= fileSize) {
+            Atom atom = readHeader(channel, pos, fileSize);
+            if (atom == null) return null;
+            if (atom.type().equals(type)) return atom;
+            pos = atom.end();
+        }
+        return null;
+    }
+
+    public static Atom readHeader(FileChannel channel, long pos, long limit) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.limit((int) Math.min(16, limit - pos));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) break;
+        }
+        if (buf.position() < 8) return null;
+        buf.flip();
+        long size = Integer.toUnsignedLong(buf.getInt());
+        byte[] t = new byte[4];
+        buf.get(t);
+        String type = new String(t, StandardCharsets.ISO_8859_1);
+        int header = 8;
+        if (size == 1) {
+            if (buf.remaining() < 8) return null;
+            size = buf.getLong();
+            header = 16;
+        } else if (size == 0) {
+            size = limit - pos;
+        }
+        if (size < header || pos + size > limit) return null;
+        return new Atom(type, pos, size, header);
+    }
+}
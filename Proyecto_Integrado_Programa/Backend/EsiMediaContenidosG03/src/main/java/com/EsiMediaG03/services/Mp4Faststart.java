@@ -0,0 +1,155 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reescritura "faststart" de MP4: mueve el atom moov delante del primer mdat y
+ * corrige los offsets de stco/co64 para que el navegador pueda empezar a
+ * reproducir con la primera petición, sin ir a buscar el moov al final.
+ *
+ * El mdat se copia con transferTo sin pasar por el heap; sólo el moov se carga
+ * en memoria para parchearlo.
+ */
+public final class Mp4Faststart {
+
+    private static final Set<String> CONTENEDORES = Set.of("trak", "mdia", "minf", "stbl");
+
+    private Mp4Faststart() { }
+
+    /** True si el fichero es ISO-BMFF y su moov está detrás del primer mdat. */
+    public static boolean moovAlFinal(FileChannel ch) throws IOException {
+        List<Mp4Atoms.Atom> atoms = topLevel(ch);
+        if (atoms == null) return false;
+        Mp4Atoms.Atom moov = find(atoms, "moov");
+        Mp4Atoms.Atom mdat = find(atoms, "mdat");
+        return moov != null && mdat != null && moov.offset() > mdat.offset();
+    }
+
+    /**
+     * Escribe en destino la versión faststart de origen. Devuelve false (sin
+     * tocar destino) si el fichero no lo necesita o no se puede reescribir con
+     * seguridad: moov comprimido, mayor que maxMoovBytes o un stco que
+     * desbordaría 32 bits.
+     */
+    public static boolean reescribir(Path origen, Path destino, long maxMoovBytes) throws IOException {
+        try (FileChannel in = FileChannel.open(origen, StandardOpenOption.READ)) {
+            List<Mp4Atoms.Atom> atoms = topLevel(in);
+            if (atoms == null) return false;
+            Mp4Atoms.Atom moov = find(atoms, "moov");
+            Mp4Atoms.Atom mdat = find(atoms, "mdat");
+            if (moov == null || mdat == null || moov.offset() < mdat.offset() || moov.size() > maxMoovBytes) {
+                return false;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) moov.size());
+            while (buf.hasRemaining()) {
+                if (in.read(buf, moov.offset() + buf.position()) < 0) return false;
+            }
+            long insercion = mdat.offset();
+            if (!parchear(buf, moov.headerSize(), buf.capacity(), insercion, moov)) return false;
+            buf.flip();
+
+            try (FileChannel out = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                copiar(in, 0, insercion, out);
+                while (buf.hasRemaining()) out.write(buf);
+                copiar(in, insercion, moov.offset() - insercion, out);
+                copiar(in, moov.end(), in.size() - moov.end(), out);
+                out.force(true);
+            }
+            return true;
+        }
+    }
+
+    /** Nuevo offset de un chunk tras insertar el moov en "insercion" y quitarlo de su sitio original. */
+    private static long desplazar(long offset, long insercion, Mp4Atoms.Atom moov) {
+        long nuevo = offset;
+        if (offset >= insercion) nuevo += moov.size();
+        if (offset >= moov.end()) nuevo -= moov.size();
+        return nuevo;
+    }
+
+    private static boolean parchear(ByteBuffer buf, int from, int to, long insercion, Mp4Atoms.Atom moov) {
+        int pos = from;
+        while (pos + 8 <= to) {
+            long size = Integer.toUnsignedLong(buf.getInt(pos));
+            String type = type(buf, pos + 4);
+            int header = 8;
+            if (size == 1) {
+                size = buf.getLong(pos + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = (long) to - pos;
+            }
+            if (size < header || pos + size > to) return false;
+            int end = (int) (pos + size);
+            int payload = pos + header;
+
+            if (type.equals("cmov")) return false;
+            if (CONTENEDORES.contains(type)) {
+                if (!parchear(buf, payload, end, insercion, moov)) return false;
+            } else if (type.equals("stco")) {
+                long n = Integer.toUnsignedLong(buf.getInt(payload + 4));
+                if (payload + 8 + n * 4 > end) return false;
+                for (int i = 0; i < n; i++) {
+                    int at = payload + 8 + i * 4;
+                    long nuevo = desplazar(Integer.toUnsignedLong(buf.getInt(at)), insercion, moov);
+                    if (nuevo > 0xFFFFFFFFL) return false;
+                    buf.putInt(at, (int) nuevo);
+                }
+            } else if (type.equals("co64")) {
+                long n = Integer.toUnsignedLong(buf.getInt(payload + 4));
+                if (payload + 8 + n * 8 > end) return false;
+                for (int i = 0; i < n; i++) {
+                    int at = payload + 8 + i * 8;
+                    buf.putLong(at, desplazar(buf.getLong(at), insercion, moov));
+                }
+            }
+            pos = end;
+        }
+        return true;
+    }
+
+    private static String type(ByteBuffer buf, int at) {
+        char[] c = new char[4];
+        for (int i = 0; i < 4; i++) c[i] = (char) (buf.get(at + i) & 0xFF);
+        return new String(c);
+    }
+
+    private static void copiar(FileChannel in, long from, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(from + done, count - done, out);
+            if (n <= 0) throw new IOException("Copia interrumpida en el byte " + (from + done));
+            done += n;
+        }
+    }
+
+    /** Atoms de nivel superior, o null si la estructura no cubre el fichero completo. */
+    private static List<Mp4Atoms.Atom> topLevel(FileChannel ch) throws IOException {
+        List<Mp4Atoms.Atom> atoms = new ArrayList<>();
+        long size = ch.size();
+        long pos = 0;
+        while (pos < size) {
+            Mp4Atoms.Atom a = Mp4Atoms.readHeader(ch, pos, size);
+            if (a == null) return null;
+            atoms.add(a);
+            pos = a.end();
+        }
+        return atoms.isEmpty() ? null : atoms;
+    }
+
+    private static Mp4Atoms.Atom find(List<Mp4Atoms.Atom> atoms, String type) {
+        for (Mp4Atoms.Atom a : atoms) {
+            if (a.type().equals(type)) return a;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package com.EsiMediaG03.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+
+/**
+ * Permisos de reproducción firmados (HMAC-SHA256) y de vida corta.
+ *
+ * Se emiten tras resolver el contenido y validar el acceso, y codifican el
+ * StreamingTarget resuelto junto con el sujeto (cliente + VIP + edad) para el
+ * que se tomó la decisión. Mientras el permiso sea válido, las peticiones de
+ * rango siguientes se sirven sin consultar Mongo.
+ *
+ * La revocación (contenido oculto, modificado o eliminado) se guarda en memoria
+ * por contenido y sólo afecta a este nodo; con varios nodos, la ventana de
+ * exposición está acotada por ttl-ms. Si no se configura secret, la clave se
+ * genera al arrancar y los permisos no sobreviven a un reinicio.
+ */
+@Component
+public class PlaybackGrantService implements MetricsSource {
+
+    private static final String HMAC = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder B64D = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMs;
+    private final LongSupplier clock;
+
+    private final Map<String, Long> revocados = new ConcurrentHashMap<>();
+    private final Map<String, Long> vigencias = new ConcurrentHashMap<>();
+    private final LongAdder emitidos = new LongAdder();
+    private final LongAdder aceptados = new LongAdder();
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder revocaciones = new LongAdder();
+
+    @Autowired
+    public PlaybackGrantService(@Value("${app.streaming.grant.secret:}") String secret,
+                                @Value("${app.streaming.grant.ttl-ms:300000}") long ttlMs) {
+        this(secret, ttlMs, System::currentTimeMillis);
+    }
+
+    public PlaybackGrantService(String secret, long ttlMs, LongSupplier clock) {
+        if (ttlMs <= 0) throw new IllegalArgumentException("app.streaming.grant.ttl-ms debe ser positivo.");
+        byte[] raw;
+        if (secret == null || secret.isBlank()) {
+            raw = new byte[32];
+            new SecureRandom().nextBytes(raw);
+        } else {
+            raw = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(raw, HMAC);
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /** Recuerda hasta cuándo está disponible el contenido para que ningún permiso lo sobrepase; -1 si no caduca. */
+    public void limitarVigencia(String contenidoId, long disponibleHastaMs) {
+        if (disponibleHastaMs > 0) {
+            vigencias.put(contenidoId, disponibleHastaMs);
+        } else {
+            vigencias.remove(contenidoId);
+        }
+    }
+
+    public String emitir(String contenidoId, StreamingTarget target, String sujeto) {
+        long now = clock.getAsLong();
+        long expira = now + ttlMs;
+        Long hasta = vigencias.get(contenidoId);
+        if (hasta != null) expira = Math.min(expira, hasta);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(VERSION);
+            out.writeUTF(contenidoId);
+            out.writeUTF(sujeto == null ? "" : sujeto);
+            out.writeLong(now);
+            out.writeLong(expira);
+            out.writeBoolean(target.externalRedirect());
+            out.writeUTF(target.externalRedirect() ? target.externalUrl() : target.path().toString());
+            out.writeLong(target.length());
+            out.writeUTF(target.mimeType() == null ? "" : target.mimeType());
+            out.writeLong(target.lastModified());
+            out.writeUTF(target.etag() == null ? "" : target.etag());
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo codificar el permiso de reproducción.", e);
+        }
+        byte[] payload = bos.toByteArray();
+        emitidos.increment();
+        return B64.encodeToString(payload) + "." + B64.encodeToString(sign(payload));
+    }
+
+    /**
+     * Devuelve el target codificado en el permiso, o null si la firma no es válida,
+     * ha caducado, se ha revocado o no corresponde a este contenido y sujeto.
+     */
+    public StreamingTarget verificar(String token, String contenidoId, String sujeto) {
+        String esperado = sujeto == null ? "" : sujeto;
+        Permiso p = verificarPermiso(token, contenidoId, s -> s.equals(esperado));
+        return p == null ? null : p.target();
+    }
+
+    /**
+     * Como verificar, pero acepta cualquier sujeto que cumpla el predicado y lo
+     * devuelve junto al target (el servidor de medios lleva en el sujeto la clave
+     * de admisión del cliente).
+     */
+    public Permiso verificarPermiso(String token, String contenidoId, Predicate<String> sujeto) {
+        if (token == null || token.isBlank() || contenidoId == null) return null;
+        Permiso p = decode(token, contenidoId, sujeto);
+        if (p == null) {
+            rechazados.increment();
+        } else {
+            aceptados.increment();
+        }
+        return p;
+    }
+
+    private Permiso decode(String token, String contenidoId, Predicate<String> sujeto) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) return null;
+        byte[] payload;
+        byte[] firma;
+        try {
+            payload = B64D.decode(token.substring(0, dot));
+            firma = B64D.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(sign(payload), firma)) return null;
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION) return null;
+            String id = in.readUTF();
+            String sub = in.readUTF();
+            long emitido = in.readLong();
+            long expira = in.readLong();
+            if (!id.equals(contenidoId) || !sujeto.test(sub)) return null;
+            if (clock.getAsLong() >= expira) return null;
+            Long revocado = revocados.get(id);
+            if (revocado != null && emitido <= revocado) return null;
+
+            boolean external = in.readBoolean();
+            String location = in.readUTF();
+            long length = in.readLong();
+            String mime = in.readUTF();
+            long lastModified = in.readLong();
+            String etag = in.readUTF();
+            StreamingTarget target = external
+                    ? StreamingTarget.external(location, mime.isEmpty() ? null : mime)
+                    : StreamingTarget.local(Path.of(location), length, mime.isEmpty() ? null : mime,
+                            lastModified, etag.isEmpty() ? null : etag);
+            return new Permiso(target, sub);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Invalida todos los permisos emitidos hasta ahora para el contenido. */
+    public void revocar(String contenidoId) {
+        if (contenidoId == null) return;
+        long now = clock.getAsLong();
+        revocados.put(contenidoId, now);
+        revocaciones.increment();
+        // pasada la vida máxima de un permiso la marca ya no protege nada
+        revocados.entrySet().removeIf(e -> e.getValue() + ttlMs < now);
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no disponible.", e);
+        }
+    }
+
+    /** Permiso verificado: el target y el sujeto para el que se emitió. */
+    public record Permiso(StreamingTarget target, String sujeto) { }
+
+    @Override
+    public String nombreMetricas() {
+        return "permisosReproduccion";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("emitidos", emitidos.sum());
+        m.put("aceptados", aceptados.sum());
+        m.put("rechazados", rechazados.sum());
+        m.put("revocaciones", revocaciones.sum());
+        m.put("ttlMs", ttlMs);
+        return m;
+    }
+}
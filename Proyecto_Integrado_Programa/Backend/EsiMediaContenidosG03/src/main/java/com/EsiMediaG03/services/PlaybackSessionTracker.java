@@ -0,0 +1,150 @@
+package com.EsiMediaG03.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sesiones de reproducción: (cliente, contenido) con una ventana deslizante
+ * de inactividad. La primera petición de una sesión cuenta como reproducción;
+ * las peticiones de rango posteriores sólo renuevan la caducidad y no escriben nada.
+ *
+ * Cada sesión ocupa una entrada long→long (hash FNV-1a de 64 bits de la clave
+ * y caducidad en ms). Una colisión de hash puede ocultar, como mucho, una
+ * reproducción; a cambio no se guardan cadenas por sesión.
+ *
+ * El barrido de caducadas se hace cada SWEEP_EVERY peticiones o al superar
+ * max-sesiones, y sólo lo ejecuta un hilo a la vez. Si tras quitar las
+ * caducadas sigue habiendo más del 90 % de max-sesiones, se desalojan las de
+ * caducidad más próxima (las menos recientes) hasta ese 90 %; así el mapa
+ * queda acotado y hacen falta al menos max-sesiones/10 sesiones nuevas antes
+ * del siguiente barrido por tamaño, en lugar de barrer en cada petición.
+ */
+@Component
+public class PlaybackSessionTracker implements MetricsSource {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int SWEEP_EVERY = 4096;
+
+    private final long ventanaMs;
+    private final int maxSesiones;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<Long, Long> sesiones = new ConcurrentHashMap<>();
+    private final AtomicLong opsSinceSweep = new AtomicLong();
+    private final AtomicBoolean barriendo = new AtomicBoolean();
+    private final LongAdder nuevas = new LongAdder();
+    private final LongAdder deduplicadas = new LongAdder();
+    private final LongAdder caducadas = new LongAdder();
+    private final LongAdder desalojadas = new LongAdder();
+
+    @Autowired
+    public PlaybackSessionTracker(@Value("${app.streaming.sesion.ventana-ms:1800000}") long ventanaMs,
+                                  @Value("${app.streaming.sesion.max-sesiones:200000}") int maxSesiones) {
+        this(ventanaMs, maxSesiones, System::currentTimeMillis);
+    }
+
+    public PlaybackSessionTracker(long ventanaMs, int maxSesiones, LongSupplier clock) {
+        if (ventanaMs <= 0 || maxSesiones <= 0) {
+            throw new IllegalArgumentException("Configuración de sesiones de reproducción inválida.");
+        }
+        this.ventanaMs = ventanaMs;
+        this.maxSesiones = maxSesiones;
+        this.clock = clock;
+    }
+
+    /**
+     * Devuelve true si (cliente, contenido) ya tiene una sesión abierta, en cuyo
+     * caso la petición no debe contarse. Sin cliente identificable no se deduplica.
+     */
+    public boolean yaContada(String contenidoId, String cliente) {
+        if (contenidoId == null || cliente == null || cliente.isBlank()) return false;
+        long now = clock.getAsLong();
+        long key = hash(cliente, contenidoId);
+        boolean[] abierta = new boolean[1];
+        sesiones.compute(key, (k, expira) -> {
+            abierta[0] = expira != null && expira > now;
+            return now + ventanaMs;
+        });
+        if (abierta[0]) {
+            deduplicadas.increment();
+        } else {
+            nuevas.increment();
+        }
+        maybeSweep(now);
+        return abierta[0];
+    }
+
+    public int size() {
+        return sesiones.size();
+    }
+
+    private void maybeSweep(long now) {
+        if (opsSinceSweep.incrementAndGet() < SWEEP_EVERY && sesiones.size() <= maxSesiones) return;
+        if (!barriendo.compareAndSet(false, true)) return;
+        try {
+            opsSinceSweep.set(0);
+            sesiones.entrySet().removeIf(e -> {
+                boolean expired = e.getValue() <= now;
+                if (expired) caducadas.increment();
+                return expired;
+            });
+            desalojar(maxSesiones - maxSesiones / 10);
+        } finally {
+            barriendo.set(false);
+        }
+    }
+
+    /** Quita las sesiones de caducidad más próxima hasta dejar como mucho objetivo. */
+    private void desalojar(int objetivo) {
+        int exceso = sesiones.size() - objetivo;
+        if (exceso <= 0) return;
+        long[] expiraciones = sesiones.values().stream().mapToLong(Long::longValue).toArray();
+        if (expiraciones.length <= objetivo) return;
+        Arrays.sort(expiraciones);
+        long corte = expiraciones[Math.min(exceso, expiraciones.length) - 1];
+        int antes = sesiones.size();
+        sesiones.values().removeIf(expira -> expira <= corte);
+        desalojadas.add(Math.max(0, antes - sesiones.size()));
+    }
+
+    static long hash(String cliente, String contenidoId) {
+        long h = FNV_OFFSET;
+        for (byte b : cliente.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        h = (h ^ 0x1f) * FNV_PRIME;
+        for (byte b : contenidoId.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "sesionesReproduccion";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("activas", sesiones.size());
+        m.put("nuevas", nuevas.sum());
+        m.put("deduplicadas", deduplicadas.sum());
+        m.put("caducadas", caducadas.sum());
+        m.put("desalojadas", desalojadas.sum());
+        m.put("ventanaMs", ventanaMs);
+        return m;
+    }
+}
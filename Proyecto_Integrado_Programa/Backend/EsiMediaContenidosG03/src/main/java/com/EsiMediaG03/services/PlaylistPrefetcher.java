@@ -0,0 +1,264 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ListaPublica;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Lectura anticipada del siguiente elemento de una lista pública.
+ *
+ * Cuando una petición de rango de un contenido reproducido desde una lista
+ * (cabecera X-Lista-Id) llega cerca del final del fichero, se encola en un
+ * hilo de prioridad mínima la lectura de la cabecera del siguiente contenido
+ * de contenidosIds. Los bytes se leen y se descartan: el objetivo es dejarlos
+ * en la caché de páginas del sistema operativo para que el arranque del
+ * siguiente elemento no vaya a disco en frío.
+ *
+ * Un acierto es la primera petición del contenido precalentado que empieza
+ * dentro de la zona leída antes de que caduque la marca (ttl-ms).
+ *
+ * La clave de las marcas de disparo incluye X-Lista-Id, que controla el
+ * cliente, así que ambos mapas se acotan a MAX_MARCAS: al superarlo un único
+ * hilo quita las caducadas y, si no basta, desaloja las que caducan antes
+ * hasta dejar el 90 %, de modo que el siguiente barrido no llega hasta
+ * MAX_MARCAS/10 marcas nuevas.
+ */
+@Component
+public class PlaylistPrefetcher implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlaylistPrefetcher.class);
+    private static final int READ_BUFFER = 256 * 1024;
+    private static final int MAX_MARCAS = 1024;
+
+    private final ListaPublicaDAO listaPublicaDAO;
+    private final ContenidoDAO contenidoDAO;
+    private final boolean enabled;
+    private final long headBytes;
+    private final double umbral;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final ThreadPoolExecutor executor;
+
+    /** Ruta precalentada -> caducidad de la marca (ms). */
+    private final Map<Path, Long> precalentados = new ConcurrentHashMap<>();
+    /** listaId|contenidoId ya disparados, para no repetir por cada rango del final. */
+    private final Map<String, Long> disparados = new ConcurrentHashMap<>();
+
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final AtomicBoolean purgando = new AtomicBoolean();
+    private final LongAdder encolados = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder caducados = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final LongAdder desalojados = new LongAdder();
+
+    @Autowired
+    public PlaylistPrefetcher(ListaPublicaDAO listaPublicaDAO, ContenidoDAO contenidoDAO,
+                              @Value("${app.streaming.prefetch.enabled:true}") boolean enabled,
+                              @Value("${app.streaming.prefetch.head-bytes:4194304}") long headBytes,
+                              @Value("${app.streaming.prefetch.umbral:0.9}") double umbral,
+                              @Value("${app.streaming.prefetch.ttl-ms:600000}") long ttlMs,
+                              @Value("${app.streaming.prefetch.queue-capacity:32}") int queueCapacity) {
+        this(listaPublicaDAO, contenidoDAO, enabled, headBytes, umbral, ttlMs, queueCapacity, System::currentTimeMillis);
+    }
+
+    public PlaylistPrefetcher(ListaPublicaDAO listaPublicaDAO, ContenidoDAO contenidoDAO, boolean enabled,
+                              long headBytes, double umbral, long ttlMs, int queueCapacity, LongSupplier clock) {
+        this.listaPublicaDAO = listaPublicaDAO;
+        this.contenidoDAO = contenidoDAO;
+        this.enabled = enabled && headBytes > 0;
+        this.headBytes = headBytes;
+        this.umbral = Math.min(1.0, Math.max(0.0, umbral));
+        this.ttlMs = Math.max(1, ttlMs);
+        this.clock = clock;
+        this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "playlist-prefetch");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Registra que se ha servido [inicio, fin) del fichero local de un contenido.
+     * Cuenta el acierto si el fichero estaba precalentado y, si la petición viene
+     * de una lista y supera el umbral del fichero, encola el siguiente elemento.
+     */
+    public void progreso(String listaId, String contenidoId, Path file, long inicio, long fin, long tamano) {
+        if (!enabled || file == null) return;
+        long now = clock.getAsLong();
+        if (!precalentados.isEmpty()) {
+            Long expira = precalentados.remove(file.toAbsolutePath().normalize());
+            if (expira != null) {
+                if (expira > now && inicio < headBytes) {
+                    hits.increment();
+                } else {
+                    caducados.increment();
+                }
+            }
+        }
+        if (listaId == null || listaId.isBlank() || contenidoId == null || tamano <= 0) return;
+        if (fin < (long) (tamano * umbral)) return;
+
+        String clave = listaId + "|" + contenidoId;
+        Long previo = disparados.putIfAbsent(clave, now + ttlMs);
+        if (previo != null) {
+            if (previo > now) return;
+            disparados.put(clave, now + ttlMs);
+        }
+        enCurso.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    precalentarSiguiente(listaId, contenidoId);
+                } finally {
+                    enCurso.decrementAndGet();
+                }
+            });
+            encolados.increment();
+        } catch (RejectedExecutionException e) {
+            enCurso.decrementAndGet();
+            disparados.remove(clave);
+            descartados.increment();
+        }
+        purgar(now);
+    }
+
+    private void precalentarSiguiente(String listaId, String contenidoId) {
+        try {
+            Path siguiente = siguiente(listaId, contenidoId);
+            if (siguiente == null) return;
+            Path key = siguiente.toAbsolutePath().normalize();
+            bytesLeidos.add(leerCabecera(key));
+            precalentados.put(key, clock.getAsLong() + ttlMs);
+        } catch (IOException | RuntimeException e) {
+            errores.increment();
+            LOG.debug("Prefetch de la lista {} tras {} fallido: {}", listaId, contenidoId, e.getMessage());
+        }
+    }
+
+    private Path siguiente(String listaId, String contenidoId) {
+        List<String> ids = listaPublicaDAO.findById(listaId).map(ListaPublica::getContenidosIds).orElse(null);
+        if (ids == null) return null;
+        int i = ids.indexOf(contenidoId);
+        if (i < 0 || i + 1 >= ids.size()) return null;
+        Contenido next = contenidoDAO.findById(ids.get(i + 1)).orElse(null);
+        String ruta = MediaProbeService.rutaLocal(next);
+        return ruta == null ? null : Path.of(ruta);
+    }
+
+    private long leerCabecera(Path file) throws IOException {
+        long leidos = 0;
+        ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long limite = Math.min(headBytes, ch.size());
+            while (leidos < limite) {
+                buf.clear().limit((int) Math.min(READ_BUFFER, limite - leidos));
+                int n = ch.read(buf, leidos);
+                if (n <= 0) break;
+                leidos += n;
+            }
+        }
+        return leidos;
+    }
+
+    private void purgar(long now) {
+        if (disparados.size() <= MAX_MARCAS && precalentados.size() <= MAX_MARCAS) return;
+        if (!purgando.compareAndSet(false, true)) return;
+        try {
+            disparados.values().removeIf(expira -> expira <= now);
+            int antes = precalentados.size();
+            precalentados.values().removeIf(expira -> expira <= now);
+            caducados.add(Math.max(0, antes - precalentados.size()));
+            desalojados.add(desalojar(disparados));
+            desalojados.add(desalojar(precalentados));
+        } finally {
+            purgando.set(false);
+        }
+    }
+
+    /** Quita las marcas que caducan antes hasta dejar como mucho el 90 % de MAX_MARCAS. */
+    private static long desalojar(Map<?, Long> marcas) {
+        int objetivo = MAX_MARCAS - MAX_MARCAS / 10;
+        int exceso = marcas.size() - objetivo;
+        if (exceso <= 0) return 0;
+        long[] expiraciones = marcas.values().stream().mapToLong(Long::longValue).toArray();
+        if (expiraciones.length <= objetivo) return 0;
+        Arrays.sort(expiraciones);
+        long corte = expiraciones[Math.min(exceso, expiraciones.length) - 1];
+        int antes = marcas.size();
+        marcas.values().removeIf(expira -> expira <= corte);
+        return Math.max(0, antes - marcas.size());
+    }
+
+    /** Espera a que termine el trabajo encolado; sólo para pruebas y apagado. */
+    public boolean esperar(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (enCurso.get() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "prefetchListas";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        long h = hits.sum();
+        long c = caducados.sum();
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        m.put("encolados", encolados.sum());
+        m.put("descartados", descartados.sum());
+        m.put("pendientes", precalentados.size());
+        m.put("marcas", disparados.size());
+        m.put("desalojados", desalojados.sum());
+        m.put("bytesLeidos", bytesLeidos.sum());
+        m.put("hits", h);
+        m.put("caducados", c);
+        m.put("hitRate", h + c == 0 ? 0.0 : (double) h / (h + c));
+        m.put("errores", errores.sum());
+        return m;
+    }
+}
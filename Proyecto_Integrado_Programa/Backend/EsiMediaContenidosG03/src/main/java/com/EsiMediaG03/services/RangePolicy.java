@@ -0,0 +1,135 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.ByteRange;
+
+/**
+ * Decide cuántos bytes servir en cada respuesta 206.
+ *
+ * Los rangos acotados (bytes=a-b) se sirven completos en un único stream. Los
+ * abiertos (bytes=a-) arrancan con un primer tramo corto para que la reproducción
+ * empiece rápido y luego crecen según el throughput observado en esa conexión,
+ * siempre dentro de los límites configurados para el despliegue.
+ *
+ * Para peticiones multi-rango, los rangos solapados o separados por huecos
+ * menores que el coste de una parte extra se fusionan; si aun así se supera el
+ * máximo de partes, se sirve un único rango que los cubre a todos.
+ */
+@Component
+public class RangePolicy {
+
+    private static final long MIN_SAMPLE_BYTES = 64L * 1024L;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final double EWMA_ALPHA = 0.3;
+    private static final long COALESCE_GAP_BYTES = 256;
+
+    private final long initialChunk;
+    private final long minChunk;
+    private final long maxChunk;
+    private final double targetSeconds;
+    private final int maxTrackedConnections;
+    private final int maxParts;
+
+    private final Map<String, Throughput> connections = new ConcurrentHashMap<>();
+
+    public RangePolicy(@Value("${app.streaming.range.initial-chunk-bytes:2097152}") long initialChunk,
+                       @Value("${app.streaming.range.min-chunk-bytes:524288}") long minChunk,
+                       @Value("${app.streaming.range.max-chunk-bytes:33554432}") long maxChunk,
+                       @Value("${app.streaming.range.target-seconds:4}") double targetSeconds,
+                       @Value("${app.streaming.range.max-tracked-connections:10000}") int maxTrackedConnections,
+                       @Value("${app.streaming.range.max-parts:16}") int maxParts) {
+        if (minChunk <= 0 || maxChunk < minChunk) {
+            throw new IllegalArgumentException("Límites de chunk no válidos: min=" + minChunk + ", max=" + maxChunk);
+        }
+        this.minChunk = minChunk;
+        this.maxChunk = maxChunk;
+        this.initialChunk = clamp(initialChunk);
+        this.targetSeconds = targetSeconds;
+        this.maxTrackedConnections = maxTrackedConnections;
+        this.maxParts = Math.max(1, maxParts);
+    }
+
+    /**
+     * Normaliza los rangos pedidos: descarta los no satisfacibles, ordena y fusiona.
+     * Devuelve lista vacía si ninguno es satisfacible (416).
+     */
+    public List<ByteRange> merge(List<HttpRange> ranges, long fileSize) {
+        List<ByteRange> valid = new ArrayList<>();
+        for (HttpRange r : ranges) {
+            long start;
+            long end;
+            try {
+                start = r.getRangeStart(fileSize);
+                end = r.getRangeEnd(fileSize);
+            } catch (IllegalArgumentException ex) {
+                continue;
+            }
+            if (start < fileSize && start <= end) valid.add(new ByteRange(start, Math.min(end, fileSize - 1)));
+        }
+        if (valid.size() <= 1) return valid;
+
+        valid.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange cur = valid.get(0);
+        for (int i = 1; i < valid.size(); i++) {
+            ByteRange next = valid.get(i);
+            if (next.start() <= cur.end() + 1 + COALESCE_GAP_BYTES) {
+                cur = new ByteRange(cur.start(), Math.max(cur.end(), next.end()));
+            } else {
+                merged.add(cur);
+                cur = next;
+            }
+        }
+        merged.add(cur);
+
+        if (merged.size() > maxParts) {
+            return List.of(new ByteRange(merged.get(0).start(), merged.get(merged.size() - 1).end()));
+        }
+        return merged;
+    }
+
+    public long responseLength(String connectionKey, long requestedLength, boolean openEnded) {
+        if (!openEnded) return requestedLength;
+        Throughput t = connectionKey != null ? connections.get(connectionKey) : null;
+        long chunk = (t == null) ? initialChunk : clamp((long) (t.bytesPerSecond * targetSeconds));
+        return Math.min(requestedLength, chunk);
+    }
+
+    public TransferListener listenerFor(String connectionKey) {
+        if (connectionKey == null) return TransferListener.NONE;
+        return (bytes, nanos, completed) -> recordTransfer(connectionKey, bytes, nanos);
+    }
+
+    public void recordTransfer(String connectionKey, long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) return;
+        double bps = bytes / (nanos / 1_000_000_000d);
+        long now = System.nanoTime();
+        if (connections.size() >= maxTrackedConnections && !connections.containsKey(connectionKey)) {
+            connections.values().removeIf(t -> now - t.lastSeenNanos > IDLE_NANOS);
+            if (connections.size() >= maxTrackedConnections) return;
+        }
+        connections.compute(connectionKey, (k, prev) -> prev == null
+                ? new Throughput(bps, now)
+                : new Throughput(prev.bytesPerSecond + EWMA_ALPHA * (bps - prev.bytesPerSecond), now));
+    }
+
+    public int trackedConnections() {
+        return connections.size();
+    }
+
+    private long clamp(long v) {
+        return Math.max(minChunk, Math.min(maxChunk, v));
+    }
+
+    private record Throughput(double bytesPerSecond, long lastSeenNanos) { }
+}
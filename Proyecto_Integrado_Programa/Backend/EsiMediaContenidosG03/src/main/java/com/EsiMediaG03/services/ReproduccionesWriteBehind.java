@@ -0,0 +1,278 @@
+package com.EsiMediaG03.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Buffer write-behind para los contadores de reproducción.
+ *
+ * Los $inc de "reproducciones" se agregan por contenido y los reproductores
+ * por (contenido, usuario); se vuelcan en bulkWrites desordenados (uno sobre
+ * los contenidos y otro sobre la colección de reproductores) cuando vence el
+ * intervalo o cuando el número de claves pendientes alcanza el máximo, y
+ * siempre al apagar el servicio.
+ *
+ * Semántica ante fallos:
+ * - Caída del proceso: se pierden las reproducciones acumuladas desde el
+ *   último volcado (como mucho flush-interval-ms). El apagado ordenado no pierde nada.
+ * - Error de Mongo con reintentar-en-fallo=true (por defecto): el lote vuelve al
+ *   buffer y se reintenta en el siguiente volcado. Si el bulkWrite llegó a
+ *   aplicarse parcialmente, algún $inc puede contarse dos veces (at-least-once);
+ *   los upserts de reproductores son idempotentes. Si sólo falla el segundo
+ *   bulkWrite, únicamente se reencolan los reproductores.
+ * - Con reintentar-en-fallo=false el lote fallido se descarta (at-most-once).
+ * - modo=sync desactiva el buffer y cada reproducción escribe en Mongo al momento.
+ *
+ * Un reproductor aún no volcado (pendiente o en un volcado en curso) se puede
+ * consultar con reproductorPendiente, para que valorar justo después de empezar
+ * a reproducir no dependa del intervalo de volcado. El buffer es de este nodo.
+ */
+@Component
+public class ReproduccionesWriteBehind implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReproduccionesWriteBehind.class);
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+
+    private final MongoTemplate mongoTemplate;
+    private final InteraccionesService interacciones;
+    private final boolean enabled;
+    private final long flushIntervalMs;
+    private final int maxPendientes;
+    private final boolean reintentarEnFallo;
+
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Pending pending = new Pending();
+    /** Lote que se está volcando; se suelta cuando está en Mongo o de vuelta en pending. */
+    private volatile Pending enVuelo;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+    private final LongAdder operacionesEscritas = new LongAdder();
+    private final LongAdder eventosRecibidos = new LongAdder();
+
+    public ReproduccionesWriteBehind(MongoTemplate mongoTemplate, InteraccionesService interacciones,
+                                     @Value("${app.streaming.contadores.modo:write-behind}") String modo,
+                                     @Value("${app.streaming.contadores.flush-interval-ms:2000}") long flushIntervalMs,
+                                     @Value("${app.streaming.contadores.max-pendientes:1000}") int maxPendientes,
+                                     @Value("${app.streaming.contadores.reintentar-en-fallo:true}") boolean reintentarEnFallo) {
+        this.mongoTemplate = mongoTemplate;
+        this.interacciones = interacciones;
+        this.enabled = "write-behind".equalsIgnoreCase(modo);
+        this.flushIntervalMs = Math.max(100, flushIntervalMs);
+        this.maxPendientes = Math.max(1, maxPendientes);
+        this.reintentarEnFallo = reintentarEnFallo;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reproducciones-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void registrarReproduccion(String contenidoId) {
+        swapLock.readLock().lock();
+        try {
+            pending.incrementos.computeIfAbsent(contenidoId, k -> new LongAdder()).increment();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        eventosRecibidos.increment();
+        maybeFlushBySize();
+    }
+
+    public void registrarReproductor(String contenidoId, String userEmail) {
+        swapLock.readLock().lock();
+        try {
+            pending.reproductores.computeIfAbsent(contenidoId, k -> ConcurrentHashMap.newKeySet()).add(userEmail);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        eventosRecibidos.increment();
+        maybeFlushBySize();
+    }
+
+    /**
+     * True si el reproductor está en el buffer o en el volcado en curso. Consultar
+     * antes que Mongo: lo que deja de estar aquí ya está escrito (o reencolado).
+     */
+    public boolean reproductorPendiente(String contenidoId, String userEmail) {
+        if (!enabled || userEmail == null) return false;
+        swapLock.readLock().lock();
+        try {
+            Pending vuelo = enVuelo;
+            return (vuelo != null && vuelo.tieneReproductor(contenidoId, userEmail))
+                    || pending.tieneReproductor(contenidoId, userEmail);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private void maybeFlushBySize() {
+        if (pending.size() < maxPendientes || scheduler == null) return;
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.warn("Error volcando contadores de reproducción: {}", e.getMessage());
+        }
+    }
+
+    /** Vuelca lo pendiente. Devuelve el número de operaciones enviadas. */
+    public synchronized int flush() {
+        Pending batch;
+        swapLock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) return 0;
+            batch = pending;
+            enVuelo = batch;
+            pending = new Pending();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        try {
+            return volcar(batch);
+        } finally {
+            enVuelo = null;
+        }
+    }
+
+    private int volcar(Pending batch) {
+        int count = 0;
+        if (!batch.incrementos.isEmpty()) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+            for (Map.Entry<String, LongAdder> e : batch.incrementos.entrySet()) {
+                ops.updateOne(byId(e.getKey()), new Update().inc(FIELD_REPRODUCCIONES, e.getValue().sum()));
+                count++;
+            }
+            try {
+                ops.execute();
+            } catch (RuntimeException e) {
+                fallo(batch);
+                throw e;
+            }
+        }
+        if (!batch.reproductores.isEmpty()) {
+            try {
+                count += interacciones.registrarReproductores(batch.reproductores);
+            } catch (RuntimeException e) {
+                batch.incrementos.clear();
+                fallo(batch);
+                throw e;
+            }
+        }
+        flushes.increment();
+        operacionesEscritas.add(count);
+        return count;
+    }
+
+    private void fallo(Pending batch) {
+        flushErrors.increment();
+        if (reintentarEnFallo) requeue(batch);
+    }
+
+    private void requeue(Pending batch) {
+        swapLock.readLock().lock();
+        try {
+            batch.incrementos.forEach((id, n) ->
+                    pending.incrementos.computeIfAbsent(id, k -> new LongAdder()).add(n.sum()));
+            batch.reproductores.forEach((id, emails) ->
+                    pending.reproductores.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).addAll(emails));
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private static Query byId(String id) {
+        return new Query(Criteria.where("_id").is(id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushQuietly();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "contadoresWriteBehind";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("habilitado", enabled);
+        m.put("pendientes", pending.size());
+        m.put("eventosRecibidos", eventosRecibidos.sum());
+        m.put("volcados", flushes.sum());
+        m.put("erroresVolcado", flushErrors.sum());
+        m.put("operacionesEscritas", operacionesEscritas.sum());
+        return m;
+    }
+
+    private static final class Pending {
+        final Map<String, LongAdder> incrementos = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> reproductores = new ConcurrentHashMap<>();
+
+        int size() {
+            return incrementos.size() + reproductores.size();
+        }
+
+        boolean isEmpty() {
+            return incrementos.isEmpty() && reproductores.isEmpty();
+        }
+
+        boolean tieneReproductor(String contenidoId, String email) {
+            Set<String> emails = reproductores.get(contenidoId);
+            return emails != null && emails.contains(email);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.EsiMediaG03.dto.SeekIndex;
+
+/**
+ * Construye el {@link SeekIndex} de un fichero a partir de su contenedor:
+ * keyframes de MP4 (stss + stts + stsc + stsz + stco/co64), cabeceras de frame
+ * de MP3 y aritmética de bloques en WAV.
+ */
+public final class SeekIndexBuilder {
+
+    /** Separación mínima entre entradas para acotar el tamaño del índice. */
+    static final long PASO_MIN_MS = 500;
+
+    private SeekIndexBuilder() { }
+
+    /** Devuelve null si el formato no admite índice o las tablas están dañadas. */
+    public static SeekIndex construir(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MediaProber.Source src = new MediaProber.Source(ch);
+            byte[] head = src.bytes(0, 12);
+            if (head.length < 12) return null;
+            if (MediaProber.ascii(head, 4, 4).equals("ftyp")) return mp4(ch, src);
+            if (MediaProber.ascii(head, 0, 4).equals("RIFF") && MediaProber.ascii(head, 8, 4).equals("WAVE")) {
+                return wav(src);
+            }
+            long primero = MediaProber.primerFrameMp3(src);
+            return primero < 0 ? null : mp3(src, primero);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- MP4
+
+    private static SeekIndex mp4(FileChannel ch, MediaProber.Source src) throws IOException {
+        Mp4Atoms.Atom moov = Mp4Atoms.findTopLevel(ch, "moov");
+        if (moov == null) return null;
+        Mp4Atoms.Atom elegido = null;
+        for (Mp4Atoms.Atom trak : MediaProber.children(ch, moov)) {
+            if (!trak.type().equals("trak")) continue;
+            Mp4Atoms.Atom hdlr = MediaProber.descend(ch, trak, "mdia", "hdlr");
+            String handler = hdlr == null ? "" : MediaProber.ascii(src.bytes(hdlr.payloadOffset() + 8, 4), 0, 4);
+            if (handler.equals("vide")) {
+                elegido = trak;
+                break;
+            }
+            if (handler.equals("soun") && elegido == null) elegido = trak;
+        }
+        if (elegido == null) return null;
+
+        Mp4Atoms.Atom mdhd = MediaProber.descend(ch, elegido, "mdia", "mdhd");
+        Mp4Atoms.Atom stbl = MediaProber.descend(ch, elegido, "mdia", "minf", "stbl");
+        if (mdhd == null || stbl == null) return null;
+        long p = mdhd.payloadOffset();
+        long timescale = src.u32(p + (src.u8(p) == 1 ? 20 : 12));
+        if (timescale <= 0) return null;
+
+        Mp4Atoms.Atom stts = null, stss = null, stsc = null, stsz = null, stco = null;
+        boolean co64 = false;
+        for (Mp4Atoms.Atom a : MediaProber.children(ch, stbl)) {
+            switch (a.type()) {
+                case "stts" -> stts = a;
+                case "stss" -> stss = a;
+                case "stsc" -> stsc = a;
+                case "stsz" -> stsz = a;
+                case "stco" -> stco = a;
+                case "co64" -> { stco = a; co64 = true; }
+                default -> { }
+            }
+        }
+        if (stts == null || stsc == null || stsz == null || stco == null) return null;
+
+        long fijo = src.u32(stsz.payloadOffset() + 4);
+        int muestras = (int) src.u32(stsz.payloadOffset() + 8);
+        long chunks = src.u32(stco.payloadOffset() + 4);
+        long stscN = src.u32(stsc.payloadOffset() + 4);
+        long sttsN = src.u32(stts.payloadOffset() + 4);
+        long stssN = stss == null ? 0 : src.u32(stss.payloadOffset() + 4);
+
+        Acumulador acc = new Acumulador();
+        int muestra = 0;                  // índice 0-based de la muestra actual
+        int sttsEntrada = 0;
+        long sttsRestantes = sttsN > 0 ? src.u32(stts.payloadOffset() + 8) : 0;
+        long delta = sttsN > 0 ? src.u32(stts.payloadOffset() + 12) : 0;
+        long dts = 0;
+        int stssPos = 0;
+        long siguienteSync = stss == null ? -1 : (stssN > 0 ? src.u32(stss.payloadOffset() + 8) - 1 : Long.MAX_VALUE);
+        int stscEntrada = 0;
+
+        for (long c = 1; c <= chunks && muestra < muestras; c++) {
+            while (stscEntrada + 1 < stscN && src.u32(stsc.payloadOffset() + 8 + (stscEntrada + 1) * 12L) <= c) {
+                stscEntrada++;
+            }
+            long porChunk = src.u32(stsc.payloadOffset() + 8 + stscEntrada * 12L + 4);
+            long offset = co64 ? src.u64(stco.payloadOffset() + 8 + (c - 1) * 8)
+                               : src.u32(stco.payloadOffset() + 8 + (c - 1) * 4);
+            for (long k = 0; k < porChunk && muestra < muestras; k++) {
+                boolean sync = stss == null || muestra == siguienteSync;
+                if (sync) {
+                    acc.add(dts * 1000 / timescale, offset);
+                    if (stss != null) {
+                        stssPos++;
+                        siguienteSync = stssPos < stssN ? src.u32(stss.payloadOffset() + 8 + stssPos * 4L) - 1 : Long.MAX_VALUE;
+                    }
+                }
+                offset += fijo != 0 ? fijo : src.u32(stsz.payloadOffset() + 12 + muestra * 4L);
+                muestra++;
+                dts += delta;
+                if (--sttsRestantes <= 0 && ++sttsEntrada < sttsN) {
+                    sttsRestantes = src.u32(stts.payloadOffset() + 8 + sttsEntrada * 8L);
+                    delta = src.u32(stts.payloadOffset() + 12 + sttsEntrada * 8L);
+                }
+            }
+        }
+        return acc.build();
+    }
+
+    // ---------------------------------------------------------------- MP3
+
+    private static SeekIndex mp3(MediaProber.Source src, long primero) throws IOException {
+        Acumulador acc = new Acumulador();
+        long size = src.size();
+        long pos = primero;
+        long muestras = 0;
+        while (pos + 4 <= size) {
+            MediaProber.Mp3Frame f = MediaProber.Mp3Frame.parse(src.u32(pos));
+            if (f == null) break;
+            acc.add(muestras * 1000 / f.sampleRate, pos);
+            muestras += f.samplesPerFrame;
+            pos += f.length;
+        }
+        return acc.build();
+    }
+
+    // ---------------------------------------------------------------- WAV
+
+    private static SeekIndex wav(MediaProber.Source src) throws IOException {
+        long size = src.size();
+        long byteRate = 0;
+        int blockAlign = 0;
+        long pos = 12;
+        while (pos + 8 <= size) {
+            String id = MediaProber.ascii(src.bytes(pos, 4), 0, 4);
+            long len = src.u32le(pos + 4);
+            if (id.equals("fmt ")) {
+                byteRate = src.u32le(pos + 16);
+                blockAlign = src.u16le(pos + 20);
+            } else if (id.equals("data")) {
+                if (byteRate <= 0) return null;
+                long inicio = pos + 8;
+                return SeekIndex.lineal(inicio, Math.min(size, inicio + len), byteRate, blockAlign);
+            }
+            pos += 8 + len + (len & 1);
+        }
+        return null;
+    }
+
+    /** Acumula entradas con separación mínima PASO_MIN_MS y tiempos crecientes. */
+    private static final class Acumulador {
+        private long[] tiempos = new long[64];
+        private long[] offsets = new long[64];
+        private int n;
+
+        void add(long ms, long offset) {
+            if (n > 0 && ms < tiempos[n - 1] + PASO_MIN_MS) return;
+            if (n == tiempos.length) {
+                tiempos = Arrays.copyOf(tiempos, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            tiempos[n] = ms;
+            offsets[n] = offset;
+            n++;
+        }
+
+        SeekIndex build() {
+            return n == 0 ? null : SeekIndex.tabla(Arrays.copyOf(tiempos, n), Arrays.copyOf(offsets, n));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.EsiMediaG03.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.SeekIndex;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Índices de búsqueda por contenido, guardados como fichero lateral
+ * &lt;contenidoId&gt;.seek junto con el tamaño y mtime del fichero indexado.
+ * Si el fichero multimedia cambia, el índice deja de ser válido y se ignora
+ * hasta que el sondeo lo reconstruye. Los índices usados recientemente se
+ * mantienen en una LRU acotada para no leer disco en cada búsqueda.
+ *
+ * Formato: magic, tamaño y mtime del medio, parámetros lineales, número de
+ * entradas y pares (Δtiempo, Δoffset) como varints zigzag.
+ */
+@Component
+public class SeekIndexService implements MetricsSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SeekIndexService.class);
+    private static final int MAGIC = 0x45534B31; // "ESK1"
+    private static final Pattern ID_VALIDO = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private record Cacheado(SeekIndex indice, long tamano, long lastModified) { }
+
+    private final Path dir;
+    private final int maxEntries;
+    private final Map<String, Cacheado> cache;
+
+    private final LongAdder construidos = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder lecturasDisco = new LongAdder();
+    private final LongAdder invalidos = new LongAdder();
+
+    public SeekIndexService(@Value("${app.media.seek-index.dir:tmp/esimedia-seek}") String dir,
+                            @Value("${app.media.seek-index.cache-entries:256}") int maxEntries) {
+        this.dir = Path.of(dir).toAbsolutePath().normalize();
+        this.maxEntries = Math.max(1, maxEntries);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cacheado> eldest) {
+                return size() > SeekIndexService.this.maxEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(dir);
+    }
+
+    /** Construye y guarda el índice del fichero; devuelve null si el formato no admite índice. */
+    public SeekIndex construir(String contenidoId, Path media) throws IOException {
+        if (!ID_VALIDO.matcher(contenidoId).matches()) return null;
+        BasicFileAttributes attrs = Files.readAttributes(media, BasicFileAttributes.class);
+        SeekIndex indice = SeekIndexBuilder.construir(media);
+        if (indice == null) {
+            borrar(contenidoId);
+            return null;
+        }
+        Cacheado c = new Cacheado(indice, attrs.size(), attrs.lastModifiedTime().toMillis());
+        Path tmp = dir.resolve(contenidoId + ".seek.tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            escribir(c, os);
+        }
+        Files.move(tmp, fichero(contenidoId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (cache) {
+            cache.put(contenidoId, c);
+        }
+        construidos.increment();
+        return indice;
+    }
+
+    /** Índice del contenido si corresponde al fichero con ese tamaño y mtime; null en otro caso. */
+    public SeekIndex buscar(String contenidoId, long tamano, long lastModified) {
+        if (contenidoId == null || !ID_VALIDO.matcher(contenidoId).matches()) return null;
+        Cacheado c;
+        synchronized (cache) {
+            c = cache.get(contenidoId);
+        }
+        if (c != null) {
+            hits.increment();
+        } else {
+            c = leer(contenidoId);
+            if (c == null) return null;
+            synchronized (cache) {
+                cache.put(contenidoId, c);
+            }
+        }
+        if (c.tamano() != tamano || c.lastModified() != lastModified) {
+            invalidos.increment();
+            return null;
+        }
+        return c.indice();
+    }
+
+    public void borrar(String contenidoId) {
+        if (contenidoId == null || !ID_VALIDO.matcher(contenidoId).matches()) return;
+        synchronized (cache) {
+            cache.remove(contenidoId);
+        }
+        try {
+            Files.deleteIfExists(fichero(contenidoId));
+        } catch (IOException e) {
+            LOG.warn("No se pudo borrar el índice de {}: {}", contenidoId, e.getMessage());
+        }
+    }
+
+    private Path fichero(String contenidoId) {
+        return dir.resolve(contenidoId + ".seek");
+    }
+
+    private Cacheado leer(String contenidoId) {
+        try (InputStream is = Files.newInputStream(fichero(contenidoId))) {
+            lecturasDisco.increment();
+            return leer(is);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Índice de búsqueda ilegible para {}: {}", contenidoId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void escribir(Cacheado c, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        SeekIndex idx = c.indice();
+        out.writeInt(MAGIC);
+        out.writeLong(c.tamano());
+        out.writeLong(c.lastModified());
+        out.writeLong(idx.bytesPorSegundo());
+        out.writeInt(idx.alineacion());
+        out.writeLong(idx.finDatos());
+        out.writeInt(idx.entradas());
+        long t = 0;
+        long o = 0;
+        for (int i = 0; i < idx.entradas(); i++) {
+            writeVarLong(out, idx.tiemposMs()[i] - t);
+            writeVarLong(out, idx.offsets()[i] - o);
+            t = idx.tiemposMs()[i];
+            o = idx.offsets()[i];
+        }
+        out.flush();
+    }
+
+    private static Cacheado leer(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != MAGIC) throw new IOException("Cabecera de índice desconocida");
+        long tamano = in.readLong();
+        long lastModified = in.readLong();
+        long bps = in.readLong();
+        int alineacion = in.readInt();
+        long finDatos = in.readLong();
+        int n = in.readInt();
+        if (n <= 0 || n > 10_000_000) throw new IOException("Número de entradas inválido: " + n);
+        long[] tiempos = new long[n];
+        long[] offsets = new long[n];
+        long t = 0;
+        long o = 0;
+        for (int i = 0; i < n; i++) {
+            t += readVarLong(in);
+            o += readVarLong(in);
+            tiempos[i] = t;
+            offsets[i] = o;
+        }
+        return new Cacheado(new SeekIndex(tiempos, offsets, bps, alineacion, finDatos), tamano, lastModified);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            out.writeByte((int) ((z & 0x7F) | 0x80));
+            z >>>= 7;
+        }
+        out.writeByte((int) z);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long z = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return (z >>> 1) ^ -(z & 1);
+        }
+        throw new IOException("Varint demasiado largo");
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "indiceBusqueda";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        synchronized (cache) {
+            m.put("enMemoria", cache.size());
+        }
+        m.put("construidos", construidos.sum());
+        m.put("hits", hits.sum());
+        m.put("lecturasDisco", lecturasDisco.sum());
+        m.put("invalidos", invalidos.sum());
+        return m;
+    }
+}
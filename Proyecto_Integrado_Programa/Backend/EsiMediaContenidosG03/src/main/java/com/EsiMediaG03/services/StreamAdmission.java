@@ -0,0 +1,234 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.exceptions.AdmisionStreamException;
+
+/**
+ * Control de admisión de streams concurrentes.
+ *
+ * Cada respuesta de media en curso ocupa una concesión (lease) del cliente y
+ * otra del nodo. Las cuotas por cliente son distintas para VIP y no VIP y, al
+ * agotarse, se rechaza de inmediato (429): esperar no sirve de nada porque es
+ * el propio cliente quien tiene las conexiones abiertas. Si lo que se agota es
+ * el cupo del nodo, la petición puede esperar un momento (max-wait-ms) en una
+ * cola acotada antes de rechazarse con 503.
+ *
+ * Las concesiones caducan a los lease-ms aunque nadie las libere, para que un
+ * fallo en la ruta de liberación no deje a un cliente bloqueado para siempre.
+ */
+@Component
+public class StreamAdmission implements MetricsSource {
+
+    private final boolean enabled;
+    private final int cuotaUsuario;
+    private final int cuotaVip;
+    private final int maxNodo;
+    private final long leaseMs;
+    private final long maxWaitMs;
+    private final int maxEnCola;
+    private final long retryAfterSegundos;
+    private final LongSupplier clock;
+
+    private final Map<String, List<Ticket>> porCliente = new HashMap<>();
+    private final List<Ticket> activos = new ArrayList<>();
+    private int enCola;
+
+    private final LongAdder admitidos = new LongAdder();
+    private final LongAdder encolados = new LongAdder();
+    private final LongAdder rechazadosUsuario = new LongAdder();
+    private final LongAdder rechazadosNodo = new LongAdder();
+    private final LongAdder caducados = new LongAdder();
+
+    @Autowired
+    public StreamAdmission(@Value("${app.streaming.admission.enabled:true}") boolean enabled,
+                           @Value("${app.streaming.admission.per-user:3}") int cuotaUsuario,
+                           @Value("${app.streaming.admission.per-user-vip:6}") int cuotaVip,
+                           @Value("${app.streaming.admission.node-max:512}") int maxNodo,
+                           @Value("${app.streaming.admission.lease-ms:300000}") long leaseMs,
+                           @Value("${app.streaming.admission.max-wait-ms:200}") long maxWaitMs,
+                           @Value("${app.streaming.admission.max-queued:64}") int maxEnCola,
+                           @Value("${app.streaming.admission.retry-after-seconds:2}") long retryAfterSegundos) {
+        this(enabled, cuotaUsuario, cuotaVip, maxNodo, leaseMs, maxWaitMs, maxEnCola, retryAfterSegundos,
+                System::currentTimeMillis);
+    }
+
+    public StreamAdmission(boolean enabled, int cuotaUsuario, int cuotaVip, int maxNodo, long leaseMs,
+                           long maxWaitMs, int maxEnCola, long retryAfterSegundos, LongSupplier clock) {
+        if (cuotaUsuario <= 0 || cuotaVip <= 0 || maxNodo <= 0 || leaseMs <= 0) {
+            throw new IllegalArgumentException("Configuración de admisión de streams inválida.");
+        }
+        this.enabled = enabled;
+        this.cuotaUsuario = cuotaUsuario;
+        this.cuotaVip = cuotaVip;
+        this.maxNodo = maxNodo;
+        this.leaseMs = leaseMs;
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.maxEnCola = Math.max(0, maxEnCola);
+        this.retryAfterSegundos = Math.max(1, retryAfterSegundos);
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Concede un stream al cliente o lanza AdmisionStreamException (429 si es su
+     * cuota, 503 si es el nodo). Sin cliente identificable sólo aplica el cupo del nodo.
+     */
+    public Ticket adquirir(String cliente, boolean vip) {
+        return conceder(cliente, vip, true);
+    }
+
+    /**
+     * Como adquirir pero sin esperar turno con el nodo lleno: para el bucle del
+     * servidor de medios embebido, que no puede bloquearse.
+     */
+    public Ticket intentarAdquirir(String cliente, boolean vip) {
+        return conceder(cliente, vip, false);
+    }
+
+    private Ticket conceder(String cliente, boolean vip, boolean esperar) {
+        if (!enabled) return Ticket.NINGUNO;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            List<Ticket> delCliente = cliente == null ? null : porCliente.get(cliente);
+            if (delCliente != null) purgar(delCliente, now);
+            int cuota = vip ? cuotaVip : cuotaUsuario;
+            if (delCliente != null && delCliente.size() >= cuota) {
+                rechazadosUsuario.increment();
+                throw new AdmisionStreamException("Demasiadas reproducciones simultáneas para este usuario.",
+                        true, retryAfterSegundos);
+            }
+            if (activos.size() >= maxNodo) purgar(activos, now);
+            if (activos.size() >= maxNodo) {
+                if (!esperar) {
+                    rechazadosNodo.increment();
+                    throw saturado();
+                }
+                esperarHueco();
+            }
+
+            Ticket t = new Ticket(this, cliente, now + leaseMs);
+            activos.add(t);
+            if (cliente != null) porCliente.computeIfAbsent(cliente, k -> new ArrayList<>()).add(t);
+            admitidos.increment();
+            return t;
+        }
+    }
+
+    /** Se llama con el monitor tomado y el nodo lleno; vuelve con hueco o lanza 503. */
+    private void esperarHueco() {
+        if (maxWaitMs == 0 || enCola >= maxEnCola) {
+            rechazadosNodo.increment();
+            throw saturado();
+        }
+        enCola++;
+        encolados.increment();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while (activos.size() >= maxNodo) {
+                long restante = deadline - System.nanoTime();
+                if (restante <= 0) {
+                    rechazadosNodo.increment();
+                    throw saturado();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, restante);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rechazadosNodo.increment();
+            throw saturado();
+        } finally {
+            enCola--;
+        }
+    }
+
+    private AdmisionStreamException saturado() {
+        return new AdmisionStreamException("Servidor de streaming saturado.", false, retryAfterSegundos);
+    }
+
+    private void purgar(List<Ticket> tickets, long now) {
+        List<Ticket> vencidos = new ArrayList<>();
+        for (Ticket t : tickets) {
+            if (t.expira <= now) vencidos.add(t);
+        }
+        for (Ticket t : vencidos) {
+            if (soltar(t)) caducados.increment();
+        }
+    }
+
+    private synchronized void liberar(Ticket t) {
+        if (soltar(t)) notifyAll();
+    }
+
+    private boolean soltar(Ticket t) {
+        if (!activos.remove(t)) return false;
+        if (t.cliente != null) {
+            List<Ticket> delCliente = porCliente.get(t.cliente);
+            if (delCliente != null) {
+                delCliente.remove(t);
+                if (delCliente.isEmpty()) porCliente.remove(t.cliente);
+            }
+        }
+        return true;
+    }
+
+    public synchronized int activos() {
+        return activos.size();
+    }
+
+    @Override
+    public String nombreMetricas() {
+        return "admisionStreams";
+    }
+
+    @Override
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> m = new HashMap<>();
+        synchronized (this) {
+            m.put("activos", activos.size());
+            m.put("clientes", porCliente.size());
+            m.put("enCola", enCola);
+        }
+        m.put("habilitado", enabled);
+        m.put("maxNodo", maxNodo);
+        m.put("admitidos", admitidos.sum());
+        m.put("encolados", encolados.sum());
+        m.put("rechazadosUsuario", rechazadosUsuario.sum());
+        m.put("rechazadosNodo", rechazadosNodo.sum());
+        m.put("caducados", caducados.sum());
+        return m;
+    }
+
+    /** Concesión de un stream; liberar() es idempotente. */
+    public static final class Ticket {
+
+        static final Ticket NINGUNO = new Ticket(null, null, Long.MAX_VALUE);
+
+        private final StreamAdmission owner;
+        private final String cliente;
+        private final long expira;
+
+        private Ticket(StreamAdmission owner, String cliente, long expira) {
+            this.owner = owner;
+            this.cliente = cliente;
+            this.expira = expira;
+        }
+
+        public void liberar() {
+            if (owner != null) owner.liberar(this);
+        }
+    }
+}
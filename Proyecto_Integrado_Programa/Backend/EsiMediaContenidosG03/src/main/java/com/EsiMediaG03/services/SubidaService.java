@@ -0,0 +1,489 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.EsiMediaG03.dao.SubidaDAO;
+import com.EsiMediaG03.dto.CrearSubidaRequest;
+import com.EsiMediaG03.exceptions.ContenidoAddException;
+import com.EsiMediaG03.exceptions.ContenidoException;
+import com.EsiMediaG03.exceptions.SubidaException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Subida;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Subidas reanudables por fragmentos.
+ *
+ * Los fragmentos deben llegar en orden (offset == bytes ya recibidos); se copian
+ * del cuerpo de la petición al fichero parcial con un buffer fijo de 64 KiB y el
+ * SHA-256 se actualiza sobre la marcha. Un fragmento sólo cuenta cuando se ha
+ * escrito entero y sincronizado a disco; si falla a medias se trunca y el
+ * cliente reanuda desde el offset que devuelve el estado de la sesión.
+ *
+ * El estado del digest vive en memoria; tras un reinicio se recalcula una vez
+ * leyendo lo ya recibido.
+ *
+ * Las sesiones abiertas sin actividad durante app.uploads.caducidad-horas se
+ * descartan junto con su fichero parcial en una limpieza periódica, igual que
+ * los ficheros parciales que ya no tienen sesión.
+ *
+ * El fichero publicado en app.uploads.media-dir se borra cuando se elimina el
+ * contenido y ningún otro lo referencia.
+ */
+@Service
+public class SubidaService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubidaService.class);
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String PART_EXT = ".part";
+    private static final long LIMPIEZA_INTERVALO_MIN = 60;
+
+    private final SubidaDAO subidaDAO;
+    private final ContenidoService contenidoService;
+    private final Path uploadDir;
+    private final Path mediaDir;
+    private final long maxBytes;
+    private final long maxFragmentoBytes;
+    private final Duration caducidad;
+    private ScheduledExecutorService limpieza;
+
+    private final Map<String, MessageDigest> digests = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public SubidaService(SubidaDAO subidaDAO, ContenidoService contenidoService,
+                         @Value("${app.uploads.dir:${java.io.tmpdir}/esimedia-uploads}") String uploadDir,
+                         @Value("${app.uploads.media-dir:${java.io.tmpdir}/esimedia-media}") String mediaDir,
+                         @Value("${app.uploads.max-bytes:4294967296}") long maxBytes,
+                         @Value("${app.uploads.max-chunk-bytes:16777216}") long maxFragmentoBytes,
+                         @Value("${app.uploads.caducidad-horas:24}") long caducidadHoras) {
+        this.subidaDAO = subidaDAO;
+        this.contenidoService = contenidoService;
+        this.uploadDir = Path.of(uploadDir);
+        this.mediaDir = Path.of(mediaDir);
+        this.maxBytes = maxBytes;
+        this.maxFragmentoBytes = maxFragmentoBytes;
+        this.caducidad = Duration.ofHours(Math.max(1, caducidadHoras));
+        contenidoService.onFicheroHuerfano(this::borrarPublicado);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(uploadDir);
+        Files.createDirectories(mediaDir);
+        limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "subidas-limpieza");
+            t.setDaemon(true);
+            return t;
+        });
+        limpieza.scheduleWithFixedDelay(this::purgarCaducadasQuietly, LIMPIEZA_INTERVALO_MIN, LIMPIEZA_INTERVALO_MIN,
+                TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (limpieza != null) limpieza.shutdownNow();
+    }
+
+    public long getMaxFragmentoBytes() {
+        return maxFragmentoBytes;
+    }
+
+    public Subida crear(CrearSubidaRequest req, String userEmail, Contenido.Tipo creatorTipo) throws IOException {
+        if (req == null || req.contenido == null) {
+            throw new SubidaException("Faltan los datos del contenido.");
+        }
+        if (req.tamanoBytes == null || req.tamanoBytes <= 0 || req.tamanoBytes > maxBytes) {
+            throw new SubidaException("Tamaño de fichero no válido (máximo " + maxBytes + " bytes).");
+        }
+        if (req.nombreFichero == null || req.nombreFichero.isBlank()) {
+            throw new SubidaException("Debe indicar el nombre del fichero.");
+        }
+        if (creatorTipo == null || req.contenido.getTipo() != creatorTipo) {
+            throw new ContenidoException("Un creador de " + creatorTipo + " no puede subir contenido de "
+                    + req.contenido.getTipo() + ".");
+        }
+        contenidoService.validarMetadatosSubida(req.contenido);
+
+        Subida s = new Subida();
+        s.setUserEmail(userEmail);
+        s.setNombreFichero(Path.of(req.nombreFichero).getFileName().toString());
+        s.setTamanoBytes(req.tamanoBytes);
+        s.setMimeType(req.mimeType);
+        s.setSha256Esperado(req.sha256 == null ? null : req.sha256.toLowerCase(Locale.ROOT));
+        s.setContenido(req.contenido);
+        Subida guardada = subidaDAO.save(s);
+        Files.deleteIfExists(partFile(guardada.getId()));
+        Files.createFile(partFile(guardada.getId()));
+        digests.put(guardada.getId(), sha256());
+        return guardada;
+    }
+
+    public Subida estado(String id, String userEmail) {
+        return cargar(id, userEmail);
+    }
+
+    /**
+     * Escribe un fragmento de {@code length} bytes en {@code offset}. {@code total} es el
+     * tamaño completo que anuncia el cliente (null si no lo indica) y debe coincidir con
+     * el declarado al crear la sesión. Devuelve la sesión con el nuevo offset.
+     */
+    public Subida escribirFragmento(String id, String userEmail, long offset, long length, Long total,
+                                    ReadableByteChannel body) throws IOException {
+        ReentrantLock lock = locks.computeIfAbsent(id, k -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new SubidaException("Ya hay un fragmento en curso para esta subida.", -1);
+        }
+        try {
+            Subida s = cargarAbierta(id, userEmail);
+            if (offset != s.getRecibidos()) {
+                throw new SubidaException("El fragmento debe empezar en el byte " + s.getRecibidos() + ".", s.getRecibidos());
+            }
+            if (total != null && total != s.getTamanoBytes()) {
+                throw new SubidaException("El tamaño total del fragmento (" + total
+                        + ") no coincide con el de la subida (" + s.getTamanoBytes() + " bytes).");
+            }
+            if (length <= 0 || length > maxFragmentoBytes || offset + length > s.getTamanoBytes()) {
+                throw new SubidaException("Tamaño de fragmento no válido.");
+            }
+
+            MessageDigest committed = digestFor(s);
+            MessageDigest working = cloneDigest(committed);
+            Path part = partFile(id);
+            try (FileChannel ch = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ch.truncate(offset);
+                long copied = copy(body, ch, offset, length, working);
+                if (copied != length) {
+                    ch.truncate(offset);
+                    throw new SubidaException("Fragmento incompleto: recibidos " + copied + " de " + length + " bytes.",
+                            offset);
+                }
+                if (quedanBytes(body)) {
+                    ch.truncate(offset);
+                    throw new SubidaException("Fragmento más largo de lo declarado: se esperaban " + length + " bytes.",
+                            offset);
+                }
+                ch.force(false);
+            }
+            digests.put(id, working);
+            s.setRecibidos(offset + length);
+            s.setActualizada(LocalDateTime.now());
+            return subidaDAO.save(s);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long copy(ReadableByteChannel src, FileChannel dst, long position, long length,
+                             MessageDigest digest) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_BYTES, length));
+        long copied = 0;
+        long pos = position;
+        while (copied < length) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length - copied));
+            int n = src.read(buf);
+            if (n < 0) break;
+            if (n == 0) continue;
+            buf.flip();
+            digest.update(buf.array(), 0, n);
+            while (buf.hasRemaining()) {
+                pos += dst.write(buf, pos);
+            }
+            copied += n;
+        }
+        return copied;
+    }
+
+    /** Bytes sobrantes en el cuerpo tras el fragmento completo. */
+    private static boolean quedanBytes(ReadableByteChannel src) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        int n;
+        do {
+            n = src.read(probe);
+        } while (n == 0);
+        return n > 0;
+    }
+
+    public Contenido finalizar(String id, String userEmail) throws IOException, ContenidoAddException {
+        ReentrantLock lock = locks.computeIfAbsent(id, k -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new SubidaException("Hay un fragmento en curso para esta subida.", -1);
+        }
+        try {
+            Subida s = cargarAbierta(id, userEmail);
+            if (s.getRecibidos() != s.getTamanoBytes()) {
+                throw new SubidaException("Subida incompleta: " + s.getRecibidos() + " de " + s.getTamanoBytes() + " bytes.",
+                        s.getRecibidos());
+            }
+            // digest() reinicia el MessageDigest: se calcula sobre una copia para que
+            // un reintento tras un fallo posterior siga teniendo el estado acumulado
+            String checksum = HexFormat.of().formatHex(cloneDigest(digestFor(s)).digest());
+            if (s.getSha256Esperado() != null && !s.getSha256Esperado().equals(checksum)) {
+                descartar(s);
+                throw new SubidaException("El checksum SHA-256 no coincide; la subida se ha descartado.");
+            }
+
+            Contenido c = s.getContenido();
+            Path part = partFile(id);
+            String mime = sniffMime(part, s.getNombreFichero(), s.getMimeType());
+            String esperado = c.getTipo() == Contenido.Tipo.AUDIO ? "audio/" : "video/";
+            if (mime == null || !mime.startsWith(esperado)) {
+                throw new SubidaException("El fichero subido no es de tipo " + c.getTipo() + " (" + mime + ").");
+            }
+
+            Path destino = mediaDir.resolve(id + extension(s.getNombreFichero()));
+            mover(part, destino);
+
+            c.setUserEmail(s.getUserEmail() != null ? s.getUserEmail() : c.getUserEmail());
+            if (c.getTipo() == Contenido.Tipo.AUDIO) {
+                c.setFicheroAudio(destino.toString());
+            } else {
+                c.setUrlVideo(destino.toString());
+            }
+            c.setTamanoBytes(s.getTamanoBytes());
+            c.setMimeType(mime);
+            c.setChecksumSha256(checksum);
+
+            Contenido creado;
+            try {
+                creado = contenidoService.anadirContenido(c);
+            } catch (ContenidoAddException | RuntimeException e) {
+                mover(destino, part);
+                throw e;
+            }
+            digests.remove(id);
+            s.setEstado(Subida.Estado.COMPLETADA);
+            s.setContenidoId(creado.getId());
+            s.setActualizada(LocalDateTime.now());
+            subidaDAO.save(s);
+            return creado;
+        } finally {
+            lock.unlock();
+            locks.remove(id, lock);
+        }
+    }
+
+    public void cancelar(String id, String userEmail) throws IOException {
+        ReentrantLock lock = locks.computeIfAbsent(id, k -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new SubidaException("Hay un fragmento en curso para esta subida.", -1);
+        }
+        try {
+            descartar(cargarAbierta(id, userEmail));
+        } finally {
+            lock.unlock();
+            locks.remove(id, lock);
+        }
+    }
+
+    /**
+     * Descarta las sesiones abiertas sin actividad desde hace más de la
+     * caducidad y borra los ficheros parciales huérfanos igual de antiguos.
+     * Las sesiones con un fragmento en curso se dejan para la siguiente
+     * pasada. Devuelve el número de sesiones descartadas.
+     */
+    public int purgarCaducadas() throws IOException {
+        LocalDateTime limite = LocalDateTime.now().minus(caducidad);
+        int n = 0;
+        for (Subida s : subidaDAO.findByEstadoAndActualizadaBefore(Subida.Estado.ABIERTA, limite)) {
+            ReentrantLock lock = locks.computeIfAbsent(s.getId(), k -> new ReentrantLock());
+            if (!lock.tryLock()) continue;
+            try {
+                descartar(s);
+                n++;
+            } finally {
+                lock.unlock();
+                locks.remove(s.getId(), lock);
+            }
+        }
+        FileTime antiguos = FileTime.from(limite.atZone(ZoneId.systemDefault()).toInstant());
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(uploadDir, "*" + PART_EXT)) {
+            for (Path part : parts) {
+                String nombre = part.getFileName().toString();
+                String id = nombre.substring(0, nombre.length() - PART_EXT.length());
+                if (Files.getLastModifiedTime(part).compareTo(antiguos) < 0 && !subidaDAO.existsById(id)) {
+                    Files.deleteIfExists(part);
+                }
+            }
+        }
+        return n;
+    }
+
+    private void purgarCaducadasQuietly() {
+        try {
+            int n = purgarCaducadas();
+            if (n > 0) LOG.info("Subidas caducadas descartadas: {}", n);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("No se pudieron purgar las subidas caducadas: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Renombrado atómico; si origen y destino están en sistemas de ficheros distintos
+     * (p. ej. uploads en un tmpfs y media en un volumen) se copia a un temporal junto
+     * al destino, se sincroniza y se renombra ahí, así nunca se ve un fichero a medias.
+     */
+    private static void mover(Path origen, Path destino) throws IOException {
+        try {
+            Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.debug("Sin renombrado atómico de {} a {}; se copia", origen, destino);
+        }
+        Path tmp = destino.resolveSibling("." + destino.getFileName() + ".tmp");
+        try {
+            Files.copy(origen, tmp, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.delete(origen);
+    }
+
+    /** Borra el fichero de un contenido eliminado si lo publicó una subida. */
+    private void borrarPublicado(Path fichero) {
+        Path f = fichero.toAbsolutePath().normalize();
+        if (!f.startsWith(mediaDir.toAbsolutePath().normalize())) return;
+        try {
+            if (Files.deleteIfExists(f)) LOG.info("Borrado el fichero subido {} del contenido eliminado", f);
+        } catch (IOException e) {
+            LOG.warn("No se pudo borrar el fichero subido {}: {}", f, e.getMessage());
+        }
+    }
+
+    private void descartar(Subida s) throws IOException {
+        digests.remove(s.getId());
+        Files.deleteIfExists(partFile(s.getId()));
+        subidaDAO.deleteById(s.getId());
+    }
+
+    private Subida cargar(String id, String userEmail) {
+        Subida s = subidaDAO.findById(id).orElseThrow(() -> new SubidaException("Subida no encontrada: " + id));
+        if (s.getUserEmail() != null && !s.getUserEmail().equalsIgnoreCase(userEmail)) {
+            throw new ContenidoException("La subida pertenece a otro usuario.");
+        }
+        return s;
+    }
+
+    private Subida cargarAbierta(String id, String userEmail) {
+        Subida s = cargar(id, userEmail);
+        if (s.getEstado() != Subida.Estado.ABIERTA) {
+            throw new SubidaException("La subida ya está finalizada.");
+        }
+        return s;
+    }
+
+    private MessageDigest digestFor(Subida s) throws IOException {
+        MessageDigest md = digests.get(s.getId());
+        if (md != null) return md;
+        // reinicio del servicio: se recalcula con lo ya recibido
+        md = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+        try (FileChannel ch = FileChannel.open(partFile(s.getId()), StandardOpenOption.READ)) {
+            if (ch.size() < s.getRecibidos()) {
+                throw new SubidaException("El fichero parcial está incompleto; hay que reiniciar la subida.");
+            }
+            long pos = 0;
+            while (pos < s.getRecibidos()) {
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), s.getRecibidos() - pos));
+                int n = ch.read(buf, pos);
+                if (n <= 0) break;
+                md.update(buf.array(), 0, n);
+                pos += n;
+            }
+        }
+        digests.put(s.getId(), md);
+        return md;
+    }
+
+    private Path partFile(String id) {
+        return uploadDir.resolve(id + PART_EXT);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 no admite clone()", e);
+        }
+    }
+
+    private static String extension(String nombre) {
+        int dot = nombre.lastIndexOf('.');
+        if (dot < 0 || dot == nombre.length() - 1) return "";
+        String ext = nombre.substring(dot).toLowerCase(Locale.ROOT);
+        return ext.matches("\\.[a-z0-9]{1,5}") ? ext : "";
+    }
+
+    /** Tipo MIME por firma de los primeros bytes; si no se reconoce se usa el declarado. */
+    static String sniffMime(Path file, String nombre, String declarado) throws IOException {
+        byte[] head = new byte[12];
+        int n;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            n = ch.read(ByteBuffer.wrap(head), 0);
+        }
+        if (n >= 3 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') return "audio/mpeg";
+        if (n >= 2 && (head[0] & 0xff) == 0xFF && (head[1] & 0xE0) == 0xE0) return "audio/mpeg";
+        if (n >= 4 && ascii(head, 0, 4).equals("fLaC")) return "audio/flac";
+        if (n >= 4 && ascii(head, 0, 4).equals("OggS")) return "audio/ogg";
+        if (n >= 12 && ascii(head, 0, 4).equals("RIFF") && ascii(head, 8, 4).equals("WAVE")) return "audio/wav";
+        if (n >= 12 && ascii(head, 4, 4).equals("ftyp")) {
+            String brand = ascii(head, 8, 4);
+            return brand.startsWith("M4A") ? "audio/mp4" : "video/mp4";
+        }
+        if (n >= 4 && (head[0] & 0xff) == 0x1A && (head[1] & 0xff) == 0x45
+                && (head[2] & 0xff) == 0xDF && (head[3] & 0xff) == 0xA3) {
+            return nombre.toLowerCase(Locale.ROOT).endsWith(".webm") ? "video/webm" : "video/x-matroska";
+        }
+        return declarado;
+    }
+
+    private static String ascii(byte[] b, int off, int len) {
+        return new String(b, off, len, StandardCharsets.ISO_8859_1);
+    }
+}
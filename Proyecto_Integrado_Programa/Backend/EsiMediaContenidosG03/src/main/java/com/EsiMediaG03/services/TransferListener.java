@@ -0,0 +1,21 @@
+package com.EsiMediaG03.services;
+
+@FunctionalInterface
+public interface TransferListener {
+
+    TransferListener NONE = (bytes, nanos, completed) -> { };
+
+    void onTransferEnd(long bytes, long nanos, boolean completed);
+
+    default TransferListener andThen(TransferListener next) {
+        if (next == null || next == NONE) return this;
+        if (this == NONE) return next;
+        return (bytes, nanos, completed) -> {
+            try {
+                onTransferEnd(bytes, nanos, completed);
+            } finally {
+                next.onTransferEnd(bytes, nanos, completed);
+            }
+        };
+    }
+}
@@ -0,0 +1,307 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.EsiMediaG03.config.AsyncMediaStreamingConfig;
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+import com.EsiMediaG03.services.FileChannelPool;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.LocalMediaWriter;
+import com.EsiMediaG03.services.MediaMetadataCache;
+import com.EsiMediaG03.services.MediaTransferExecutor;
+import com.EsiMediaG03.services.MediaTransferExecutor.Resultado;
+
+class AsyncMediaStreamingTest {
+
+    @TempDir
+    static Path dir;
+
+    static byte[] data;
+    static Path file;
+    static Path grande;
+    /** Retiene el fin de la transferencia para que la petición siga en modo asíncrono mientras se comprueba. */
+    static volatile CountDownLatch releaseListener = new CountDownLatch(0);
+
+    private AnnotationConfigWebApplicationContext ctx;
+    private MediaTransferExecutor executor;
+
+    @AfterEach
+    void close() {
+        if (ctx != null) ctx.close();
+        if (executor != null) executor.shutdown();
+    }
+
+    @RestController
+    static class MediaController {
+        @GetMapping("/media")
+        ResponseEntity<Object> media() {
+            HttpHeaders h = new HttpHeaders();
+            h.set(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + data.length);
+            h.setContentLength(10);
+            FileRegion region = new FileRegion(file, 10, 10,
+                    (bytes, nanos, completed) -> awaitQuietly(releaseListener));
+            return new ResponseEntity<>(region, h, HttpStatus.PARTIAL_CONTENT);
+        }
+
+        @GetMapping("/grande")
+        ResponseEntity<Object> grande() throws IOException {
+            return new ResponseEntity<>(new FileRegion(grande, 1000, Files.size(grande) - 1000), HttpStatus.PARTIAL_CONTENT);
+        }
+
+        @GetMapping("/json")
+        ResponseEntity<Object> json() {
+            return ResponseEntity.ok(java.util.Map.of("ok", true));
+        }
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @Import(AsyncMediaStreamingConfig.class)
+    static class WebConfig implements WebMvcConfigurer {
+        @Bean MediaController mediaController() { return new MediaController(); }
+        @Bean LocalMediaWriter localMediaWriter() { return new LocalMediaWriter(new HotSegmentCache(new MediaMetadataCache(16, false), false, 0, 16, 1), new FileChannelPool(new MediaMetadataCache(16, false), false, 0, 1000)); }
+
+        @Override
+        public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+            converters.add(0, new FileRegionHttpMessageConverter(localMediaWriter()));
+        }
+    }
+
+    private MockMvc mvc(MediaTransferExecutor transfers) throws IOException {
+        data = new byte[64];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        file = Files.write(dir.resolve("media.bin"), data);
+        executor = transfers;
+        ctx = new AnnotationConfigWebApplicationContext();
+        ctx.setServletContext(new MockServletContext());
+        ctx.addBeanFactoryPostProcessor(bf -> bf.registerSingleton("mediaTransferExecutor", transfers));
+        ctx.register(WebConfig.class);
+        ctx.refresh();
+        return MockMvcBuilders.webAppContextSetup(ctx).build();
+    }
+
+    @Test
+    @DisplayName("La respuesta de media se escribe en el pool asíncrono, no en el hilo del contenedor")
+    void mediaAsincrona() throws Exception {
+        MockMvc mvc = mvc(new MediaTransferExecutor(true, 2, 4, 5_000, 0));
+        releaseListener = new CountDownLatch(1);
+
+        MvcResult started = mvc.perform(get("/media")).andExpect(request().asyncStarted()).andReturn();
+        releaseListener.countDown();
+        started.getAsyncResult(5_000);
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/64"));
+
+        byte[] expected = java.util.Arrays.copyOfRange(data, 10, 20);
+        assertArrayEquals(expected, started.getResponse().getContentAsByteArray());
+        assertEquals(1L, executor.estadisticas().get("completadas"));
+    }
+
+    @Test
+    @DisplayName("Con sendfile de Tomcat disponible el rango se deja al conector: síncrono y sin cuerpo escrito")
+    void sendfileDeTomcat() throws Exception {
+        MockMvc mvc = mvc(new MediaTransferExecutor(true, 2, 4, 5_000, 0));
+        grande = Files.write(dir.resolve("grande.bin"), new byte[100_000]);
+
+        MvcResult r = mvc.perform(get("/grande").requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isPartialContent())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 99_000))
+                .andReturn();
+
+        assertEquals(grande.toAbsolutePath().toString(), r.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(1000L, r.getRequest().getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(100_000L, r.getRequest().getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(0, r.getResponse().getContentAsByteArray().length);
+
+        // sin soporte (u otro conector) se copia con LocalMediaWriter en el pool
+        mvc.perform(get("/grande")).andExpect(request().asyncStarted());
+    }
+
+    @Test
+    @DisplayName("Las respuestas que no son media siguen siendo síncronas")
+    void jsonSincrono() throws Exception {
+        MockMvc mvc = mvc(new MediaTransferExecutor(true, 2, 4, 5_000, 0));
+        mvc.perform(get("/json")).andExpect(request().asyncNotStarted()).andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Pool saturado -> 503 con Retry-After")
+    void poolSaturado() throws Exception {
+        MediaTransferExecutor transfers = new MediaTransferExecutor(true, 1, 0, 5_000, 0);
+        MockMvc mvc = mvc(transfers);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        transfers.submit(OutputStream::nullOutputStream, out -> {
+            busy.countDown();
+            await(release);
+        }, r -> { });
+        busy.await(5, TimeUnit.SECONDS);
+
+        // el resultado se fija antes de volver del handler, así que no hay redispatch que esperar
+        MvcResult r = mvc.perform(get("/media")).andReturn();
+        assertEquals(503, r.getResponse().getStatus());
+        assertNotNull(r.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(0, r.getResponse().getContentAsByteArray().length);
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Cliente que deja de leer -> el watchdog aborta cerrando la salida, sin interrumpir el hilo")
+    void watchdogTimeout() throws Exception {
+        executor = new MediaTransferExecutor(true, 1, 1, 50, 0);
+        CompletableFuture<Resultado> fin = new CompletableFuture<>();
+        CompletableFuture<Boolean> interrumpido = new CompletableFuture<>();
+        assertNotNull(executor.submit(() -> new SalidaBloqueante(1), out -> {
+            try {
+                out.write(1);
+                out.write(2);
+            } finally {
+                interrumpido.complete(Thread.currentThread().isInterrupted());
+            }
+        }, fin::complete));
+
+        assertEquals(Resultado.TIMEOUT, fin.get(5, TimeUnit.SECONDS));
+        assertFalse(interrumpido.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Abortar una copia desde el pool de canales no cierra el canal compartido")
+    void abortarNoCierraCanalDelPool() throws Exception {
+        executor = new MediaTransferExecutor(true, 1, 1, 50, 0);
+        byte[] contenido = new byte[1 << 20];
+        Path f = Files.write(dir.resolve("compartido.bin"), contenido);
+        FileChannelPool pool = new FileChannelPool(new MediaMetadataCache(16, false), true, 8, 60_000);
+        LocalMediaWriter writer = new LocalMediaWriter(new HotSegmentCache(new MediaMetadataCache(16, false), false, 0, 16, 1), pool);
+        try (FileChannelPool.Lease otroLector = pool.acquire(f)) {
+            CompletableFuture<Resultado> fin = new CompletableFuture<>();
+            executor.submit(() -> new SalidaBloqueante(4096),
+                    out -> writer.write(new FileRegion(f, 0, contenido.length), out), fin::complete);
+
+            assertEquals(Resultado.TIMEOUT, fin.get(5, TimeUnit.SECONDS));
+            assertTrue(otroLector.channel().isOpen());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    @DisplayName("IOException al escribir -> desconexión del cliente")
+    void desconexion() throws Exception {
+        executor = new MediaTransferExecutor(true, 1, 1, 5_000, 0);
+        CompletableFuture<Resultado> fin = new CompletableFuture<>();
+        executor.submit(() -> new OutputStream() {
+            @Override public void write(int b) throws IOException { throw new IOException("Broken pipe"); }
+        }, out -> out.write(new byte[8]), fin::complete);
+
+        assertEquals(Resultado.DESCONECTADA, fin.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, executor.estadisticas().get("desconexiones"));
+    }
+
+    @Test
+    @DisplayName("Modo deshabilitado: no se instala el handler asíncrono")
+    void deshabilitado() throws Exception {
+        MockMvc mvc = mvc(new MediaTransferExecutor(false, 1, 1, 5_000, 0));
+        MvcResult r = mvc.perform(get("/media")).andExpect(request().asyncNotStarted())
+                .andExpect(status().isPartialContent()).andReturn();
+        assertNull(r.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(10, r.getResponse().getContentAsByteArray().length);
+    }
+
+    /**
+     * Acepta limite bytes y luego bloquea hasta que se cierra, como un socket con
+     * el cliente parado. Igual que la escritura de Tomcat, una interrupción no
+     * la hace fallar: se conserva el flag y la escritura termina normalmente.
+     */
+    private static final class SalidaBloqueante extends OutputStream {
+        private final CountDownLatch cerrada = new CountDownLatch(1);
+        private int libres;
+
+        SalidaBloqueante(int limite) {
+            this.libres = limite;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (libres >= len) {
+                libres -= len;
+                return;
+            }
+            try {
+                cerrada.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            throw new IOException("Stream cerrado");
+        }
+
+        @Override
+        public void close() {
+            cerrada.countDown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrumpido");
+        }
+    }
+}
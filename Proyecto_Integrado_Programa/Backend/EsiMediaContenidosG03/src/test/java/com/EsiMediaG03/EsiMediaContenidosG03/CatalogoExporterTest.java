@@ -0,0 +1,100 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.EsiMediaG03.services.CatalogoExporter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogoExporterTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    @DisplayName("Una línea JSON por documento, con id plano y fechas ISO; el cursor se cierra")
+    void exportaNdjson() throws Exception {
+        ObjectId a = new ObjectId("65f000000000000000000001");
+        ObjectId b = new ObjectId("65f000000000000000000002");
+        AtomicBoolean cerrado = new AtomicBoolean();
+        Stream<Document> docs = Stream.of(
+                new Document("_id", a).append("titulo", "Uno").append("tags", List.of("rock")),
+                new Document("_id", b).append("titulo", "Dos").append("fechaEstado", new Date(0)))
+                .onClose(() -> cerrado.set(true));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(docs);
+
+        CatalogoExporter exporter = new CatalogoExporter(mongoTemplate, mapper);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long n = exporter.exportar(exporter.consulta(null, null), out);
+
+        String[] lineas = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, n);
+        assertEquals(2, lineas.length);
+        assertEquals("{\"id\":\"65f000000000000000000001\",\"titulo\":\"Uno\",\"tags\":[\"rock\"]}", lineas[0]);
+        assertEquals("1970-01-01T00:00:00Z", mapper.readTree(lineas[1]).get("fechaEstado").asText());
+        assertTrue(cerrado.get());
+    }
+
+    @Test
+    @DisplayName("Proyección por lista permitida, orden por _id y reanudación tras el último id")
+    void consultaConProyeccionYReanudacion() {
+        CatalogoExporter exporter = new CatalogoExporter(mongoTemplate, mapper);
+
+        Query q = exporter.consulta(List.of("titulo", " codec "), "65f000000000000000000002");
+
+        assertEquals(new Document("titulo", 1).append("codec", 1), q.getFieldsObject());
+        assertEquals(new Document("_id", 1), q.getSortObject());
+        assertEquals(new ObjectId("65f000000000000000000002"),
+                ((Document) q.getQueryObject().get("_id")).get("$gt"));
+        assertFalse(exporter.consulta(null, null).getFieldsObject().containsKey("ratings"));
+
+        assertThrows(IllegalArgumentException.class, () -> exporter.consulta(List.of("ratings"), null));
+        assertThrows(IllegalArgumentException.class, () -> exporter.consulta(null, "no-es-un-id"));
+    }
+
+    @Test
+    @DisplayName("Cliente desconectado a mitad: se propaga el error y el cursor se cierra igualmente")
+    void clienteDesconectado() {
+        AtomicBoolean cerrado = new AtomicBoolean();
+        Stream<Document> docs = Stream.generate(() -> new Document("_id", new ObjectId()).append("titulo", "x"))
+                .limit(100_000).onClose(() -> cerrado.set(true));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(docs);
+        OutputStream roto = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        CatalogoExporter exporter = new CatalogoExporter(mongoTemplate, mapper);
+        assertThrows(IOException.class, () -> exporter.exportar(exporter.consulta(null, null), roto));
+        assertTrue(cerrado.get());
+        assertEquals(1L, exporter.estadisticas().get("interrumpidas"));
+    }
+}
@@ -1,10 +1,15 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
+import com.EsiMediaG03.dto.FileRegion;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.dto.ProxiedMedia;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.http.ContenidoController;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.MediaPackagingService;
+import com.EsiMediaG03.services.RangePolicy;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
@@ -34,6 +39,9 @@ class ContenidoControllerTest {
     @Mock
     ContenidoService contenidoService;
 
+    @Spy
+    RangePolicy rangePolicy = new RangePolicy(8, 4, 16, 4, 100, 4);
+
     @InjectMocks
     ContenidoController controller;
 
@@ -162,11 +170,208 @@ class ContenidoControllerTest {
         when(target.externalUrl()).thenReturn("https://cdn.example.com/video.mp4");
         when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
 
-        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, null);
         assertEquals(302, resp.getStatusCodeValue());
         assertEquals("https://cdn.example.com/video.mp4", resp.getHeaders().getLocation().toString());
     }
 
+    @Test
+    void testStreamLocalRange() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=5-9");
+        ResponseEntity<Object> resp = controller.stream("id", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 5-9/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        FileRegion region = assertInstanceOf(FileRegion.class, resp.getBody());
+        assertEquals(5, region.position());
+        assertEquals(5, region.count());
+    }
+
+    @Test
+    void testStreamLocalOpenRangeUsesInitialChunk() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-");
+        ResponseEntity<Object> resp = controller.stream("id", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 0-7/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamRangosCerradosYSufijoNoSeRecortan() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders sufijo = new HttpHeaders();
+        sufijo.set(HttpHeaders.RANGE, "bytes=-20");
+        ResponseEntity<Object> ultimos = controller.stream("id", sufijo, null, null, null, null, null, null, null);
+
+        HttpHeaders hastaElFinal = new HttpHeaders();
+        hastaElFinal.set(HttpHeaders.RANGE, "bytes=0-25");
+        ResponseEntity<Object> cerrado = controller.stream("id", hastaElFinal, null, null, null, null, null, null, null);
+
+        assertEquals("bytes 6-25/26", ultimos.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals("bytes 0-25/26", cerrado.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamSeekPorTiempoSirveDesdeOffsetDelIndice() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        when(contenidoService.offsetParaTiempo("id", target, 42.5)).thenReturn(12L);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, 42.5);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 12-19/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamSeekSinIndiceSirveCompleto() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        when(contenidoService.offsetParaTiempo(any(), any(), anyDouble())).thenReturn(null);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null, 10.0);
+
+        assertEquals(200, resp.getStatusCodeValue());
+    }
+
+    @Test
+    void testStreamLocalMultiRange() throws Exception {
+        data = new byte[4096];
+        Files.write(tempFile, data);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-1,4000-4095");
+        ResponseEntity<Object> resp = controller.stream("id", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("multipart", resp.getHeaders().getContentType().getType());
+        assertEquals("byteranges", resp.getHeaders().getContentType().getSubtype());
+        MultipartFileRegions body = assertInstanceOf(MultipartFileRegions.class, resp.getBody());
+        assertEquals(2, body.parts().size());
+        assertEquals(body.contentLength(), resp.getHeaders().getContentLength());
+    }
+
+    private StreamingTarget realFileTarget() {
+        return StreamingTarget.local(tempFile, data.length, "video/mp4", 1_700_000_000_000L, "\"c1-1a-abc\"");
+    }
+
+    @Test
+    void testStreamIfNoneMatchDevuelve304SinContarReproduccion() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch("\"c1-1a-abc\"");
+        ResponseEntity<Object> resp = controller.stream("c1", headers, "USUARIO", "u@mail.com", null, null, null, null, null);
+
+        assertEquals(304, resp.getStatusCodeValue());
+        assertEquals("\"c1-1a-abc\"", resp.getHeaders().getETag());
+        verify(contenidoService, never()).registrarReproduccionSiUsuario(any(), any());
+    }
+
+    @Test
+    void testStreamIfModifiedSinceDevuelve304() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfModifiedSince(1_700_000_000_000L);
+        ResponseEntity<Object> resp = controller.stream("c1", headers, null, null, null, null, null, null, null);
+
+        assertEquals(304, resp.getStatusCodeValue());
+    }
+
+    @Test
+    void testStreamIfRangeNoCoincideSirveCompleto() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=5-9");
+        headers.set(HttpHeaders.IF_RANGE, "\"otro-etag\"");
+        ResponseEntity<Object> resp = controller.stream("c1", headers, null, null, null, null, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertEquals(26, resp.getHeaders().getContentLength());
+        assertEquals("\"c1-1a-abc\"", resp.getHeaders().getETag());
+    }
+
+    @Test
+    void testStreamIfRangeCoincideSirveRango() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=5-9");
+        headers.set(HttpHeaders.IF_RANGE, "\"c1-1a-abc\"");
+        ResponseEntity<Object> resp = controller.stream("c1", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+    }
+
+    @Test
+    void testStreamMetaNoCacheableNiRevalidable() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+        when(contenidoService.emitirGrant(eq("c1"), any(), any(), any(), any())).thenReturn("g1");
+
+        HttpHeaders revalida = new HttpHeaders();
+        revalida.setIfNoneMatch("\"c1-1a-abc\"");
+        ResponseEntity<Object> resp = controller.stream("c1", revalida, null, null, null, null, null, true, null);
+
+        // El cuerpo lleva un grant nuevo: nunca 304 ni validadores que lo reutilicen
+        assertEquals(200, resp.getStatusCodeValue());
+        assertNull(resp.getHeaders().getETag());
+        assertEquals("no-store", resp.getHeaders().getCacheControl());
+        assertEquals("g1", ((Map<?, ?>) resp.getBody()).get("grant"));
+        assertEquals("g1", resp.getHeaders().getFirst("X-Playback-Grant"));
+    }
+
+    @Test
+    void testStream304ConservaGrant() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+        when(contenidoService.emitirGrant(eq("c1"), any(), any(), any(), any())).thenReturn("g1");
+
+        HttpHeaders revalida = new HttpHeaders();
+        revalida.setIfNoneMatch("\"c1-1a-abc\"");
+        ResponseEntity<Object> resp = controller.stream("c1", revalida, null, null, null, null, null, null, null);
+
+        assertEquals(304, resp.getStatusCodeValue());
+        assertEquals("g1", resp.getHeaders().getFirst("X-Playback-Grant"));
+    }
+
+    @Test
+    @DisplayName("GET /Empaquetado/{id}/{version}: tras reempaquetar, la versión anterior se sigue sirviendo durante la gracia")
+    void testEmpaquetadoVersionAnteriorTrasReempaquetar() throws Exception {
+        Path hls = Files.createTempDirectory("hls-");
+        MediaPackagingService packaging = new MediaPackagingService(true, hls.toString(), 6, 120);
+        String v1 = MediaPackagingService.version(26, 1_000);
+        String v2 = MediaPackagingService.version(40, 2_000);
+        Files.createDirectories(hls.resolve("c1").resolve(v1));
+        Files.write(hls.resolve("c1").resolve(v1).resolve("seg-0-1.m4s"), data);
+        Files.createDirectories(hls.resolve("c1").resolve(v2));
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        when(contenidoService.versionEmpaquetada("c1", target)).thenReturn(v2);
+        when(contenidoService.ficheroEmpaquetado(any(), any(), any()))
+                .thenAnswer(inv -> packaging.fichero(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+
+        ResponseEntity<Object> viejo = controller.ficheroEmpaquetado("c1", v1, "seg-0-1.m4s", new HttpHeaders(), null, null, null, null);
+        ResponseEntity<Object> inexistente = controller.ficheroEmpaquetado("c1", v2, "seg-0-1.m4s", new HttpHeaders(), null, null, null, null);
+
+        assertEquals(200, viejo.getStatusCodeValue());
+        assertEquals(hls.resolve("c1").resolve(v1).resolve("seg-0-1.m4s").toAbsolutePath().normalize(),
+                ((FileRegion) viejo.getBody()).path());
+        assertEquals(404, inexistente.getStatusCodeValue());
+    }
+
     @Test
     void testHeadLocal() throws Exception {
         StreamingTarget target = mock(StreamingTarget.class);
@@ -176,9 +381,76 @@ class ContenidoControllerTest {
         when(target.mimeType()).thenReturn("video/mp4");
         when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
 
-        ResponseEntity<Void> resp = controller.head("id", null, null, null);
+        ResponseEntity<Void> resp = controller.head("id", new HttpHeaders(), null, null, null);
         assertEquals(200, resp.getStatusCodeValue());
         assertEquals("bytes", resp.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
     }
 
+    @Test
+    void testHeadCondicionalDevuelve304() throws Exception {
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(realFileTarget());
+
+        HttpHeaders etag = new HttpHeaders();
+        etag.setIfNoneMatch("\"c1-1a-abc\"");
+        ResponseEntity<Void> porEtag = controller.head("c1", etag, null, null, null);
+
+        HttpHeaders fecha = new HttpHeaders();
+        fecha.setIfModifiedSince(1_700_000_000_000L);
+        ResponseEntity<Void> porFecha = controller.head("c1", fecha, null, null, null);
+
+        HttpHeaders otra = new HttpHeaders();
+        otra.setIfNoneMatch("\"otro-etag\"");
+        ResponseEntity<Void> distinta = controller.head("c1", otra, null, null, null);
+
+        assertEquals(304, porEtag.getStatusCodeValue());
+        assertEquals("\"c1-1a-abc\"", porEtag.getHeaders().getETag());
+        assertEquals(304, porFecha.getStatusCodeValue());
+        assertEquals(200, distinta.getStatusCodeValue());
+    }
+
+
+    @Test
+    void testStreamConGrantValido_noResuelveContraMongo() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.targetFromGrant(eq("c1"), eq("tok"), any(), any(), any())).thenReturn(target);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-Playback-Grant", "tok");
+        headers.set(HttpHeaders.RANGE, "bytes=0-3");
+        ResponseEntity<Object> resp = controller.stream("c1", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        verify(contenidoService, never()).resolveStreamingTarget(any(), any(), any());
+        assertNull(resp.getHeaders().getFirst("X-Playback-Grant"));
+    }
+
+    @Test
+    void testStreamSinGrant_emitePermiso() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.resolveStreamingTarget("c1", null, null)).thenReturn(target);
+        when(contenidoService.emitirGrant(eq("c1"), eq(target), any(), any(), any())).thenReturn("nuevo");
+
+        ResponseEntity<Object> resp = controller.stream("c1", new HttpHeaders(), null, null, null, null, null, true, null);
+
+        assertEquals("nuevo", resp.getHeaders().getFirst("X-Playback-Grant"));
+        assertEquals("nuevo", ((Map<?, ?>) resp.getBody()).get("grant"));
+    }
+
+    @Test
+    void testStreamExternoEnModoProxy_reenviaRespuestaDelOrigen() throws Exception {
+        StreamingTarget ext = StreamingTarget.external("https://cdn.example/v.mp4", "video/mp4");
+        when(contenidoService.resolveStreamingTarget("c1", null, null)).thenReturn(ext);
+        HttpHeaders originHeaders = new HttpHeaders();
+        originHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes 0-3/10");
+        ProxiedMedia proxied = new ProxiedMedia(206, originHeaders, new java.io.ByteArrayInputStream(new byte[4]));
+        when(contenidoService.proxyExternal(ext, "bytes=0-3")).thenReturn(proxied);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-3");
+        ResponseEntity<Object> resp = controller.stream("c1", headers, null, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertSame(proxied, resp.getBody());
+        assertEquals("bytes 0-3/10", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
 }
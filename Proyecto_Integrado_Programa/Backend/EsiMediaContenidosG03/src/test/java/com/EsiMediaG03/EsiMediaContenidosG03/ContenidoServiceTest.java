@@ -4,6 +4,13 @@ import com.EsiMediaG03.dao.ContenidoDAO;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.CatalogoExporter;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.EmbeddedMediaServer;
+import com.EsiMediaG03.services.MediaPackagingService;
+import com.EsiMediaG03.services.MediaProbeService;
+import com.EsiMediaG03.services.PlaylistPrefetcher;
+import com.EsiMediaG03.services.SeekIndexService;
 import org.bson.Document;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,6 +38,27 @@ class ContenidoServiceTest {
     @Mock
     MongoTemplate mongoTemplate;
 
+    @Mock
+    MediaProbeService mediaProbe;
+
+    @Mock
+    SeekIndexService seekIndex;
+
+    @Mock
+    MediaPackagingService packaging;
+
+    @Mock
+    PlaylistPrefetcher prefetcher;
+
+    @Mock
+    EmbeddedMediaServer mediaServer;
+
+    @Mock
+    CatalogoExporter catalogoExporter;
+
+    @Mock
+    InteraccionesService interacciones;
+
     @InjectMocks
     ContenidoService service;
 
@@ -131,6 +159,72 @@ class ContenidoServiceTest {
     }
 
 
+    @Test
+    @DisplayName("catalogo: keyset por _id, filtros, proyección ligera y cursor de la siguiente página")
+    void catalogo_keysetYProyeccion() {
+        List<Contenido> filas = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Contenido c = new Contenido();
+            c.setId(String.format("65f0000000000000000000%02d", 30 - i));
+            c.setTitulo("T" + i);
+            filas.add(c);
+        }
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.find(q.capture(), eq(Contenido.class))).thenReturn(filas);
+
+        var pagina = service.catalogo("65f000000000000000000031", 2, Contenido.Tipo.VIDEO, List.of("rock"), null, true);
+
+        assertEquals(2, pagina.items().size());
+        assertEquals("65f000000000000000000029", pagina.siguiente());
+        Query enviada = q.getValue();
+        assertEquals(3, enviada.getLimit());
+        assertEquals(new Document("_id", -1), enviada.getSortObject());
+        Document filtro = enviada.getQueryObject();
+        assertEquals(new org.bson.types.ObjectId("65f000000000000000000031"), ((Document) filtro.get("_id")).get("$lt"));
+        assertEquals(Contenido.Tipo.VIDEO, filtro.get("tipo"));
+        assertEquals(true, filtro.get("visible"));
+        assertFalse(filtro.containsKey("vip"));
+        Document campos = enviada.getFieldsObject();
+        assertTrue(campos.containsKey("titulo"));
+        assertFalse(campos.containsKey("ratings"));
+        assertFalse(campos.containsKey("reproductores"));
+    }
+
+    @Test
+    @DisplayName("catalogo: última página sin cursor siguiente y cursor inválido rechazado")
+    void catalogo_ultimaPaginaYCursorInvalido() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(new Contenido()));
+
+        assertNull(service.catalogo(null, null, null, null, null, null).siguiente());
+        assertThrows(IllegalArgumentException.class, () -> service.catalogo("../x", 10, null, null, null, null));
+    }
+
+    @Test
+    @DisplayName("catalogo: cada combinación de tipo/vip/visible es prefijo exacto de un índice seguido de _id")
+    void catalogo_todasLasCombinacionesTienenIndice() {
+        org.springframework.data.mongodb.core.index.IndexOperations ops =
+                mock(org.springframework.data.mongodb.core.index.IndexOperations.class);
+        when(mongoTemplate.indexOps(any(Class.class))).thenReturn(ops);
+        ArgumentCaptor<org.springframework.data.mongodb.core.index.IndexDefinition> indices =
+                ArgumentCaptor.forClass(org.springframework.data.mongodb.core.index.IndexDefinition.class);
+        new com.EsiMediaG03.config.MongoIndexConfig(mongoTemplate).crearIndices();
+        verify(ops, atLeastOnce()).createIndex(indices.capture());
+        List<List<String>> claves = indices.getAllValues().stream()
+                .map(i -> List.copyOf(i.getIndexKeys().keySet())).toList();
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.find(q.capture(), eq(Contenido.class))).thenReturn(List.of());
+        for (int m = 0; m < 8; m++) {
+            service.catalogo(null, 10, (m & 1) != 0 ? Contenido.Tipo.VIDEO : null, null,
+                    (m & 2) != 0 ? Boolean.TRUE : null, (m & 4) != 0 ? Boolean.TRUE : null);
+            Set<String> filtro = q.getValue().getQueryObject().keySet();
+            int k = filtro.size();
+            boolean cubierto = k == 0 || claves.stream().anyMatch(c -> c.size() > k
+                    && Set.copyOf(c.subList(0, k)).equals(filtro) && c.get(k).equals("_id"));
+            assertTrue(cubierto, "Sin índice para el filtro " + filtro);
+        }
+    }
+
     @Test
     void top5PorValoraciones_filtra_ratingCount() {
         Contenido c1 = new Contenido();
@@ -150,6 +244,27 @@ class ContenidoServiceTest {
         assertEquals(4.0, top.get(0).get("avg"));
     }
 
+    @Test
+    @DisplayName("topValoraciones: ordena por la puntuación bayesiana indexada, no por la media bruta")
+    void top5PorValoraciones_ordenBayes() {
+        Contenido c1 = new Contenido();
+        c1.setId("v1");
+        c1.setRatingCount(1200);
+        c1.setRatingAvg(4.5);
+        c1.setRatingBayes(4.49);
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.find(q.capture(), eq(Contenido.class))).thenReturn(List.of(c1));
+
+        Map<String, Object> res = service.estadisticasGlobales();
+        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topValoraciones");
+
+        assertEquals(4.49, top.get(0).get("bayes"));
+        Query valoraciones = q.getAllValues().stream()
+                .filter(x -> x.getQueryObject().containsKey("ratingBayes")).findFirst().orElseThrow();
+        assertEquals(new Document("ratingBayes", -1).append("ratingCount", -1), valoraciones.getSortObject());
+        assertEquals(5, valoraciones.getLimit());
+    }
+
 @Test
 void top5CategoriasMasVistas_ok() {
     Contenido c1 = new Contenido();
@@ -4,7 +4,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+
+import org.bson.Document;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Nested;
@@ -12,20 +16,39 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyString;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.ModificarContenidoRequest;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.MediaPackagingService;
+import com.EsiMediaG03.services.MediaProbeService;
+import com.EsiMediaG03.services.PlaylistPrefetcher;
+import com.EsiMediaG03.services.SeekIndexService;
+import com.EsiMediaG03.services.CatalogoExporter;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.EmbeddedMediaServer;
+import com.EsiMediaG03.services.ExternalMediaCache;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.PlaybackGrantService;
+import com.EsiMediaG03.services.PlaybackSessionTracker;
+import com.EsiMediaG03.services.ReproduccionesWriteBehind;
+import com.EsiMediaG03.services.MediaMetadataCache;
 
 /**
  * Pruebas integrales (controller con MockMvc) y unitarias (service con Mockito)
@@ -43,6 +66,45 @@ import com.EsiMediaG03.services.ContenidoService;
         @Mock
         MongoTemplate mongoTemplate;
 
+        @Spy
+        MediaMetadataCache metadataCache = new MediaMetadataCache(16, false);
+
+        @Mock
+        HotSegmentCache hotSegmentCache;
+
+        @Mock
+        ReproduccionesWriteBehind reproduccionesWriteBehind;
+
+        @Spy
+        PlaybackSessionTracker playbackSessions = new PlaybackSessionTracker(60_000, 100, System::currentTimeMillis);
+
+        @Mock
+        ExternalMediaCache externalMediaCache;
+
+        @Mock
+        MediaProbeService mediaProbe;
+
+        @Mock
+        SeekIndexService seekIndex;
+
+        @Mock
+        MediaPackagingService packaging;
+
+        @Mock
+        PlaylistPrefetcher prefetcher;
+
+        @Mock
+        EmbeddedMediaServer mediaServer;
+
+        @Mock
+        CatalogoExporter catalogoExporter;
+
+        @Mock
+        InteraccionesService interacciones;
+
+        @Spy
+        PlaybackGrantService playbackGrants = new PlaybackGrantService("test-secret", 60_000, System::currentTimeMillis);
+
         @InjectMocks
         ContenidoService service;
 
@@ -53,6 +115,28 @@ import com.EsiMediaG03.services.ContenidoService;
                     .updateFirst(any(), any(), eq(Contenido.class));
         }
 
+        @Test
+        void registrarReproduccion_writeBehind_noEscribeEnMongo() {
+            when(reproduccionesWriteBehind.isEnabled()).thenReturn(true);
+
+            service.registrarReproduccionSiUsuario("IDX", "USUARIO");
+            service.registrarReproductor("IDX", "u@esi.com");
+
+            verify(reproduccionesWriteBehind).registrarReproduccion("IDX");
+            verify(reproduccionesWriteBehind).registrarReproductor("IDX", "u@esi.com");
+            verify(mongoTemplate, never()).updateFirst(any(), any(), eq(Contenido.class));
+        }
+
+        @Test
+        void registrarInicioReproduccion_cuentaUnaVezPorSesion() {
+            for (int i = 0; i < 5; i++) {
+                service.registrarInicioReproduccion("IDX", "USUARIO", "u@esi.com", "u:u@esi.com");
+            }
+            // un $inc y un alta de reproductor: el resto de rangos de la sesión no escriben
+            verify(mongoTemplate, times(1)).updateFirst(any(), any(), eq(Contenido.class));
+            verify(interacciones, times(1)).registrarReproductor("IDX", "u@esi.com");
+        }
+
         @Test
         void registrarReproduccion_noIncrementa_paraNoUsuario() {
             service.registrarReproduccionSiUsuario("IDX", "ADMIN");
@@ -113,6 +197,104 @@ import com.EsiMediaG03.services.ContenidoService;
             Assertions.assertEquals(Path.of(tmp.getAbsolutePath()), t.path());
             Assertions.assertTrue(t.length() >= 6);
             Assertions.assertTrue(t.mimeType().startsWith("video/"));
+            Assertions.assertTrue(t.hasValidators());
+            Assertions.assertEquals(tmp.lastModified(), t.lastModified());
+            Assertions.assertTrue(t.etag().startsWith("\"") && t.etag().endsWith("\""));
+        }
+
+        @Test
+        void targetFromGrant_sirveSinMongo_yRevocaAlEliminar() throws Exception {
+            File tmp = File.createTempFile("video-", ".mp4");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                fos.write(new byte[]{0,1,2,3,4,5});
+            }
+            tmp.deleteOnExit();
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo(tmp.getAbsolutePath()).build();
+            when(contenidoDAO.findById("IDG")).thenReturn(Optional.of(c));
+
+            StreamingTarget t = service.resolveStreamingTarget("IDG", false, 22);
+            String grant = service.emitirGrant("IDG", t, "u:a@esi.com", false, 22);
+
+            Assertions.assertEquals(t, service.targetFromGrant("IDG", grant, "u:a@esi.com", false, 22));
+            Assertions.assertNull(service.targetFromGrant("IDG", grant, "u:b@esi.com", false, 22));
+            Assertions.assertNull(service.targetFromGrant("IDG", grant, "u:a@esi.com", true, 22));
+            verify(contenidoDAO, times(1)).findById("IDG");
+
+            service.eliminarContenido("IDG", Contenido.Tipo.VIDEO);
+            Assertions.assertNull(service.targetFromGrant("IDG", grant, "u:a@esi.com", false, 22));
+            verify(interacciones).borrarContenido("IDG");
+        }
+
+        @Test
+        void eliminarContenido_avisaDelFicheroSoloSiNadieMasLoUsa() {
+            Contenido solo = new ContenidoBuilder().tipo(Contenido.Tipo.VIDEO).urlVideo("/media/solo.mp4").build();
+            Contenido compartido = new ContenidoBuilder().tipo(Contenido.Tipo.VIDEO).urlVideo("/media/comun.mp4").build();
+            when(contenidoDAO.findById("S")).thenReturn(Optional.of(solo));
+            when(contenidoDAO.findById("C")).thenReturn(Optional.of(compartido));
+            when(mediaProbe.referenciado(anyString())).thenAnswer(inv -> "/media/comun.mp4".equals(inv.getArgument(0)));
+            java.util.List<java.nio.file.Path> avisos = new java.util.ArrayList<>();
+            service.onFicheroHuerfano(avisos::add);
+
+            service.eliminarContenido("S", Contenido.Tipo.VIDEO);
+            service.eliminarContenido("C", Contenido.Tipo.VIDEO);
+
+            Assertions.assertEquals(java.util.List.of(java.nio.file.Path.of("/media/solo.mp4")), avisos);
+        }
+
+        @Test
+        void targetFromGrant_externo_usaLaCopiaCacheada() throws Exception {
+            File tmp = File.createTempFile("proxy-", ".bin");
+            tmp.deleteOnExit();
+            StreamingTarget externo = StreamingTarget.external("https://cdn.esi/v.mp4", "video/mp4");
+            String grant = service.emitirGrant("IDE", externo, "u:a@esi.com", false, 22);
+
+            Assertions.assertEquals(externo, service.targetFromGrant("IDE", grant, "u:a@esi.com", false, 22));
+
+            when(externalMediaCache.lookup("https://cdn.esi/v.mp4"))
+                    .thenReturn(new ExternalMediaCache.Entry(tmp.toPath(), 6, null, 1234L));
+            StreamingTarget t = service.targetFromGrant("IDE", grant, "u:a@esi.com", false, 22);
+            Assertions.assertFalse(t.isExternalRedirect());
+            Assertions.assertEquals(tmp.toPath(), t.path());
+            Assertions.assertEquals("video/mp4", t.mimeType());
+            Assertions.assertTrue(t.hasValidators());
+            verify(contenidoDAO, never()).findById("IDE");
+        }
+
+        @Test
+        void modificarContenido_conCamposLegado_noLosBorraNiPisaContadores() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://cdn.esi/v.mp4").build();
+            c.setTitulo("Viejo");
+            c.setTags(List.of("rock"));
+            c.setDuracionMinutos(3);
+            when(contenidoDAO.findById("IDL")).thenReturn(Optional.of(c));
+            // Documento tal como está en Mongo: aún sin migrar y con contadores mantenidos por $inc
+            Document enMongo = new Document("_id", "IDL").append("titulo", "Viejo")
+                    .append("reproductores", List.of("a@esi.com"))
+                    .append("ratings", new Document("a@esi%2Ecom", 4.0))
+                    .append("favoritosDeUsuarios", List.of("a@esi.com"))
+                    .append("reproductoresCount", 7L).append("ratingSum", 12.0);
+            ModificarContenidoRequest cambios = new ModificarContenidoRequest();
+            cambios.titulo = "Nuevo";
+
+            service.modificarContenido("IDL", cambios, Contenido.Tipo.VIDEO);
+
+            verify(contenidoDAO, never()).save(any());
+            ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateFirst(any(Query.class), u.capture(), eq(Contenido.class));
+            Document upd = u.getValue().getUpdateObject();
+            Assertions.assertEquals(Set.of("$set", "$unset"), upd.keySet());
+            enMongo.putAll((Document) upd.get("$set"));
+            ((Document) upd.get("$unset")).keySet().forEach(enMongo::remove);
+            Assertions.assertEquals("Nuevo", enMongo.get("titulo"));
+            Assertions.assertEquals(List.of("a@esi.com"), enMongo.get("reproductores"));
+            Assertions.assertNotNull(enMongo.get("ratings"));
+            Assertions.assertNotNull(enMongo.get("favoritosDeUsuarios"));
+            Assertions.assertEquals(7L, enMongo.get("reproductoresCount"));
+            Assertions.assertEquals(12.0, enMongo.get("ratingSum"));
         }
 
         private void callResolveWith(Contenido contenido, boolean vip, Integer age, boolean shouldPass) throws Exception {
@@ -132,7 +314,7 @@ import com.EsiMediaG03.services.ContenidoService;
             ContenidoBuilder disponibleHasta(LocalDateTime dt) { setObj(c, "disponibleHasta", dt); return this; }
             ContenidoBuilder tipo(Contenido.Tipo t) { setObj(c, "tipo", t); return this; }
             ContenidoBuilder urlVideo(String u) { setObj(c, "urlVideo", u); return this; }
-            Contenido build() { setObj(c, "titulo", "t"); setObj(c, "tags", java.util.List.of("x")); setInt(c, "duracionMinutos", 1); return c; }
+            Contenido build() { setObj(c, "titulo", "t"); setObj(c, "tags", List.of("x")); setInt(c, "duracionMinutos", 1); return c; }
 
             private void setBoolean(Object obj, String field, boolean v) { try { var f=obj.getClass().getDeclaredField(field); f.setAccessible(true); f.setBoolean(obj, v); } catch (Exception ignored) {} }
             private void setInt(Object obj, String field, int v) { try { var f=obj.getClass().getDeclaredField(field); f.setAccessible(true); f.setInt(obj, v); } catch (Exception ignored) {} }
@@ -0,0 +1,246 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.services.EmbeddedMediaServer;
+import com.EsiMediaG03.services.FileChannelPool;
+import com.EsiMediaG03.services.MediaMetadataCache;
+import com.EsiMediaG03.services.PlaybackGrantService;
+import com.EsiMediaG03.services.StreamAdmission;
+
+class EmbeddedMediaServerTest {
+
+    @TempDir
+    Path dir;
+
+    private final PlaybackGrantService grants = new PlaybackGrantService("secreto-de-pruebas", 60_000);
+    private final MediaMetadataCache metadata = new MediaMetadataCache(16, false);
+    private final FileChannelPool channels = new FileChannelPool(metadata, true, 8, 60_000);
+    private final StreamAdmission sinAdmision = new StreamAdmission(false, 1, 1, 1, 60_000, 0, 0, 1, System::currentTimeMillis);
+    private final HttpClient http = HttpClient.newHttpClient();
+    private EmbeddedMediaServer server;
+    private StreamingTarget target;
+    private byte[] datos;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        datos = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < datos.length; i++) datos[i] = (byte) (i * 31);
+        Path f = Files.write(dir.resolve("v.mp4"), datos);
+        target = StreamingTarget.local(f, datos.length, "video/mp4", Files.getLastModifiedTime(f).toMillis(), "\"c1-v\"");
+        server = arrancar(30_000);
+    }
+
+    private EmbeddedMediaServer arrancar(long idleMs) throws Exception {
+        return arrancar(idleMs, sinAdmision);
+    }
+
+    private EmbeddedMediaServer arrancar(long idleMs, StreamAdmission admision) throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        EmbeddedMediaServer s = new EmbeddedMediaServer(grants, metadata, channels, admision, true, "127.0.0.1", puerto,
+                "http://127.0.0.1:" + puerto + "/", 16, idleMs, 2);
+        s.start();
+        return s;
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop();
+        channels.close();
+    }
+
+    @Test
+    @DisplayName("URL firmada: 206 con el rango exacto y 200 con el fichero completo")
+    void sirveRangosConUrlFirmada() throws Exception {
+        String url = server.urlFirmada("c1", target, "u:ana", false);
+        assertNotNull(url);
+
+        HttpResponse<byte[]> parcial = http.send(HttpRequest.newBuilder(URI.create(url))
+                .header("Range", "bytes=1000-1999").build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, parcial.statusCode());
+        assertEquals("bytes 1000-1999/" + datos.length, parcial.headers().firstValue("Content-Range").orElseThrow());
+        assertArrayEquals(java.util.Arrays.copyOfRange(datos, 1000, 2000), parcial.body());
+
+        HttpResponse<byte[]> completo = http.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, completo.statusCode());
+        assertEquals("video/mp4", completo.headers().firstValue("Content-Type").orElseThrow());
+        assertArrayEquals(datos, completo.body());
+    }
+
+    @Test
+    @DisplayName("Permiso manipulado, revocado o de otro contenido -> 403 sin servir bytes")
+    void rechazaPermisosInvalidos() throws Exception {
+        String url = server.urlFirmada("c1", target, "u:ana", false);
+
+        assertEquals(403, status(url.replace("/m/c1", "/m/c2")));
+        assertEquals(403, status(url.substring(0, url.length() - 2) + "xx"));
+        assertEquals(403, status(url.substring(0, url.indexOf('?'))));
+        // un permiso de Spring MVC (sujeto de usuario) no vale como URL directa
+        assertEquals(403, status(url.substring(0, url.indexOf("?g=") + 3) + grants.emitir("c1", target, "u:ana|false|")));
+        grants.revocar("c1");
+        assertEquals(403, status(url));
+        assertEquals(5L, server.estadisticas().get("prohibidas"));
+    }
+
+    @Test
+    @DisplayName("Keep-alive: varias peticiones encadenadas en la misma conexión, HEAD sin cuerpo y 416")
+    void keepAliveEnLaMismaConexion() throws Exception {
+        String url = server.urlFirmada("c1", target, "u:ana", false);
+        String pathYQuery = url.substring(url.indexOf("/m/"));
+        try (Socket s = new Socket("127.0.0.1", server.puerto())) {
+            OutputStream out = s.getOutputStream();
+            out.write(("GET " + pathYQuery + " HTTP/1.1\r\nHost: x\r\nRange: bytes=0-9\r\n\r\n"
+                    + "HEAD " + pathYQuery + " HTTP/1.1\r\nHost: x\r\n\r\n"
+                    + "GET " + pathYQuery + " HTTP/1.1\r\nHost: x\r\nRange: bytes=" + datos.length + "-\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String respuesta = new String(leerTodo(s.getInputStream()), StandardCharsets.ISO_8859_1);
+
+            assertTrue(respuesta.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+            assertTrue(respuesta.contains("HTTP/1.1 200 OK\r\n"));
+            assertTrue(respuesta.contains("Content-Length: " + datos.length + "\r\n"));
+            assertTrue(respuesta.contains("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+            assertTrue(respuesta.endsWith("Connection: close\r\n\r\n"));
+        }
+    }
+
+    @Test
+    @DisplayName("Cabecera mayor que el buffer: 431 y cierre, sin dejar el bucle girando sobre el socket")
+    void cabeceraDemasiadoGrande() throws Exception {
+        try (Socket s = new Socket("127.0.0.1", server.puerto())) {
+            s.setSoTimeout(5_000);
+            StringBuilder peticion = new StringBuilder("GET /m/c1 HTTP/1.1\r\nHost: x\r\n");
+            while (peticion.length() < 8192) peticion.append("X-Relleno: ").append("a".repeat(100)).append("\r\n");
+            // exactamente el tamaño del buffer: con datos sin leer el cierre sería un RST
+            OutputStream out = s.getOutputStream();
+            out.write(peticion.substring(0, 8192).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String respuesta = new String(leerTodo(s.getInputStream()), StandardCharsets.ISO_8859_1);
+
+            assertTrue(respuesta.startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n"), respuesta);
+            assertTrue(respuesta.contains("Connection: close\r\n"));
+        }
+        // el bucle sigue atendiendo
+        assertEquals(206, http.send(HttpRequest.newBuilder(URI.create(server.urlFirmada("c1", target, "u:ana", false)))
+                .header("Range", "bytes=0-9").build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+    }
+
+    @Test
+    @DisplayName("Un cliente lento que sigue leyendo no se cierra por inactividad")
+    void clienteLentoNoEsInactivo() throws Exception {
+        server.stop();
+        server = arrancar(1000);
+        // Mayor que los buffers de socket de loopback, para que el envío dependa del ritmo del cliente
+        byte[] grande = new byte[24 * 1024 * 1024];
+        Path f = Files.write(dir.resolve("grande.mp4"), grande);
+        StreamingTarget t = StreamingTarget.local(f, grande.length, "video/mp4", Files.getLastModifiedTime(f).toMillis(), "\"c1-g\"");
+        String url = server.urlFirmada("c1", t, "u:ana", false);
+        try (Socket s = new Socket("127.0.0.1", server.puerto())) {
+            s.getOutputStream().write(("GET " + url.substring(url.indexOf("/m/")) + " HTTP/1.1\r\nHost: x\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            InputStream in = s.getInputStream();
+            byte[] buf = new byte[256 * 1024];
+            long total = 0;
+            long inicio = System.currentTimeMillis();
+            for (int n; (n = in.read(buf)) >= 0; ) {
+                total += n;
+                // Lectura con pausas: la descarga dura bastante más que idle-ms, pero siempre avanza
+                Thread.sleep(30);
+            }
+            assertTrue(System.currentTimeMillis() - inicio > 1500, "la descarga no llegó a ser lenta");
+            assertTrue(total > grande.length, "respuesta cortada tras " + total + " bytes");
+        }
+    }
+
+    @Test
+    @DisplayName("Habilitado sin base-url: no arranca (los navegadores recibirían una URL de localhost)")
+    void baseUrlObligatoria() {
+        EmbeddedMediaServer sinBase = new EmbeddedMediaServer(grants, metadata, channels, sinAdmision, true, "127.0.0.1", 0, "", 16, 30_000, 2);
+        assertThrows(IllegalStateException.class, sinBase::start);
+    }
+
+    @Test
+    @DisplayName("Con admisión: la URL lleva la clave del cliente y sin hueco se responde 429/503 con Retry-After sin esperar")
+    void admisionEnElBucle() throws Exception {
+        server.stop();
+        StreamAdmission admision = new StreamAdmission(true, 1, 1, 1, 60_000, 5_000, 8, 7, System::currentTimeMillis);
+        server = arrancar(30_000, admision);
+        byte[] grande = new byte[24 * 1024 * 1024];
+        Path f = Files.write(dir.resolve("grande.mp4"), grande);
+        StreamingTarget t = StreamingTarget.local(f, grande.length, "video/mp4", Files.getLastModifiedTime(f).toMillis(), "\"c1-g\"");
+        String ana = server.urlFirmada("c1", t, "u:ana", false);
+        String bea = server.urlFirmada("c1", target, "u:bea", false);
+        assertNotNull(ana);
+
+        try (Socket s = new Socket("127.0.0.1", server.puerto())) {
+            // descarga que no se lee: ocupa la cuota de ana y el único hueco del nodo
+            s.getOutputStream().write(("GET " + ana.substring(ana.indexOf("/m/")) + " HTTP/1.1\r\nHost: x\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(s.getInputStream().read() >= 0);
+            assertEquals(1, admision.activos());
+
+            long inicio = System.currentTimeMillis();
+            HttpResponse<Void> cuota = http.send(HttpRequest.newBuilder(URI.create(ana)).build(), HttpResponse.BodyHandlers.discarding());
+            HttpResponse<Void> nodo = http.send(HttpRequest.newBuilder(URI.create(bea)).build(), HttpResponse.BodyHandlers.discarding());
+            assertTrue(System.currentTimeMillis() - inicio < 2_000, "el bucle esperó turno");
+            assertEquals(429, cuota.statusCode());
+            assertEquals("7", cuota.headers().firstValue("Retry-After").orElseThrow());
+            assertEquals(503, nodo.statusCode());
+            assertEquals(200, http.send(HttpRequest.newBuilder(URI.create(bea)).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode());
+            assertEquals(2L, server.estadisticas().get("rechazadasAdmision"));
+        }
+
+        long limite = System.currentTimeMillis() + 5_000;
+        while (admision.activos() > 0 && System.currentTimeMillis() < limite) Thread.sleep(20);
+        assertEquals(0, admision.activos());
+        assertEquals(200, status(bea));
+    }
+
+    @Test
+    @DisplayName("Servidor deshabilitado o target externo: no se emite URL directa")
+    void sinUrlSiNoAplica() throws Exception {
+        assertNull(server.urlFirmada("c1", StreamingTarget.external("https://x/y.mp4", "video/mp4"), "u:ana", false));
+        EmbeddedMediaServer apagado = new EmbeddedMediaServer(grants, metadata, channels, sinAdmision, false, "127.0.0.1", 0, "", 16, 30_000, 2);
+        apagado.start();
+        assertNull(apagado.urlFirmada("c1", target, "u:ana", false));
+    }
+
+    private int status(String url) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static byte[] leerTodo(InputStream in) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        in.transferTo(bos);
+        return bos.toByteArray();
+    }
+}
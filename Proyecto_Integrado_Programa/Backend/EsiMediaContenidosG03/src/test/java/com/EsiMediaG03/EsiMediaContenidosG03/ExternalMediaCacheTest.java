@@ -0,0 +1,157 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.dto.ProxiedMedia;
+import com.EsiMediaG03.services.ExternalMediaCache;
+import com.EsiMediaG03.services.MediaMetadataCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class ExternalMediaCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer origin;
+    private final AtomicInteger fullGets = new AtomicInteger();
+    private final byte[] video = bytes(4096);
+    private final byte[] audio = bytes(3000);
+    private ExternalMediaCache cache;
+
+    @BeforeEach
+    void startOrigin() throws IOException {
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/video.mp4", ex -> serve(ex, video, "video/mp4"));
+        origin.createContext("/audio.mp3", ex -> serve(ex, audio, "audio/mpeg"));
+        origin.createContext("/pagina", ex -> serve(ex, "<html></html>".getBytes(), "text/html; charset=utf-8"));
+        origin.start();
+    }
+
+    @AfterEach
+    void stop() {
+        origin.stop(0);
+        if (cache != null) cache.shutdown();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + origin.getAddress().getPort() + path;
+    }
+
+    private ExternalMediaCache newCache(long maxBytes) throws IOException {
+        cache = new ExternalMediaCache(true, dir.toString(), maxBytes, maxBytes, 2000, 5000,
+                new MediaMetadataCache(16, false));
+        cache.start();
+        return cache;
+    }
+
+    @Test
+    @DisplayName("Fallo: reenvía el Range al origen y descarga el recurso completo en segundo plano")
+    void passThroughConRange() throws Exception {
+        newCache(1 << 20);
+        String u = url("/video.mp4");
+
+        ProxiedMedia p = cache.passThrough(u, "bytes=100-199");
+        assertNotNull(p);
+        assertEquals(206, p.status());
+        assertEquals("bytes 100-199/4096", p.headers().getFirst("Content-Range"));
+        try (p) {
+            assertArrayEquals(Arrays.copyOfRange(video, 100, 200), p.body().readAllBytes());
+        }
+
+        ExternalMediaCache.Entry e = cache.prefetch(u).get(5, TimeUnit.SECONDS);
+        assertNotNull(e);
+        assertEquals("video/mp4", e.mimeType());
+        assertArrayEquals(video, Files.readAllBytes(e.file()));
+        assertEquals(e, cache.lookup(u));
+        assertEquals(1, fullGets.get());
+    }
+
+    @Test
+    @DisplayName("Un origen que no sirve media no se proxifica (se mantiene la redirección)")
+    void noMedia() throws Exception {
+        newCache(1 << 20);
+        assertNull(cache.passThrough(url("/pagina"), null));
+        assertNull(cache.prefetch(url("/pagina")).get(5, TimeUnit.SECONDS));
+        assertNull(cache.lookup(url("/pagina")));
+    }
+
+    @Test
+    @DisplayName("Presupuesto de disco: expulsa la entrada menos usada")
+    void lruEviction() throws Exception {
+        newCache(8100);
+        String v = url("/video.mp4");
+        String a = url("/audio.mp3");
+        assertNotNull(cache.prefetch(v).get(5, TimeUnit.SECONDS));
+        assertNotNull(cache.prefetch(a).get(5, TimeUnit.SECONDS));
+        // 4096 + 3000 caben; al volver a pedir el vídeo lo marcamos como reciente
+        assertNotNull(cache.lookup(v));
+
+        origin.createContext("/grande.mp4", ex -> serve(ex, bytes(4000), "video/mp4"));
+        assertNotNull(cache.prefetch(url("/grande.mp4")).get(5, TimeUnit.SECONDS));
+
+        assertNull(cache.lookup(a));
+        assertNotNull(cache.lookup(v));
+        assertEquals(8096, cache.usedBytes());
+    }
+
+    @Test
+    @DisplayName("El índice se reconstruye desde disco al arrancar")
+    void indicePersistente() throws Exception {
+        newCache(1 << 20);
+        String u = url("/audio.mp3");
+        cache.prefetch(u).get(5, TimeUnit.SECONDS);
+        cache.shutdown();
+
+        ExternalMediaCache again = newCache(1 << 20);
+        ExternalMediaCache.Entry e = again.lookup(u);
+        assertNotNull(e);
+        assertEquals("audio/mpeg", e.mimeType());
+        assertEquals(audio.length, e.size());
+    }
+
+    private void serve(HttpExchange ex, byte[] body, String type) throws IOException {
+        String range = ex.getRequestHeaders().getFirst("Range");
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+        byte[] out = body;
+        int status = 200;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] se = range.substring(6).split("-");
+            int start = Integer.parseInt(se[0]);
+            int end = se.length > 1 ? Integer.parseInt(se[1]) : body.length - 1;
+            out = Arrays.copyOfRange(body, start, end + 1);
+            status = 206;
+            ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+        } else {
+            fullGets.incrementAndGet();
+        }
+        ex.sendResponseHeaders(status, out.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(out);
+        }
+    }
+
+    private static byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) b[i] = (byte) (i * 31);
+        return b;
+    }
+}
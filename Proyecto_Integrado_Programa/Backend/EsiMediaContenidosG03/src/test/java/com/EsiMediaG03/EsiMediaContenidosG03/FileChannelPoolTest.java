@@ -0,0 +1,151 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.services.FileChannelPool;
+import com.EsiMediaG03.services.MediaMetadataCache;
+
+class FileChannelPoolTest {
+
+    @TempDir
+    Path dir;
+
+    private final MediaMetadataCache metadata = new MediaMetadataCache(16, false);
+    private FileChannelPool pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    @DisplayName("Dos préstamos del mismo fichero comparten canal y cuentan como hit")
+    void acquire_reutilizaCanal() throws Exception {
+        pool = new FileChannelPool(metadata, true, 8, 60_000);
+        Path f = Files.write(dir.resolve("a.mp4"), "0123456789".getBytes());
+
+        FileChannel primero;
+        try (FileChannelPool.Lease a = pool.acquire(f); FileChannelPool.Lease b = pool.acquire(f)) {
+            primero = a.channel();
+            assertSame(primero, b.channel());
+            ByteBuffer buf = ByteBuffer.allocate(3);
+            b.channel().read(buf, 4);
+            assertEquals("456", new String(buf.array()));
+        }
+        assertTrue(primero.isOpen());
+        assertEquals(1L, pool.openHandles());
+        assertEquals(1L, pool.estadisticas().get("hits"));
+        assertEquals(0.5, pool.estadisticas().get("hitRate"));
+    }
+
+    @Test
+    @DisplayName("Fichero cambiado: el canal viejo se cierra al soltarlo el último lector")
+    void acquire_invalidaAlCambiarFichero() throws Exception {
+        pool = new FileChannelPool(metadata, true, 8, 60_000);
+        Path f = Files.write(dir.resolve("a.mp4"), new byte[4]);
+
+        FileChannelPool.Lease viejo = pool.acquire(f);
+        Files.write(f, new byte[40]);
+        metadata.invalidate(f);
+
+        try (FileChannelPool.Lease nuevo = pool.acquire(f)) {
+            assertNotSame(viejo.channel(), nuevo.channel());
+            assertEquals(40, nuevo.channel().size());
+            assertTrue(viejo.channel().isOpen());
+            assertEquals(2L, pool.openHandles());
+        }
+        viejo.close();
+        assertFalse(viejo.channel().isOpen());
+        assertEquals(1L, pool.openHandles());
+        assertEquals(1L, pool.estadisticas().get("invalidaciones"));
+    }
+
+    @Test
+    @DisplayName("Canal compartido cerrado por debajo: no se vuelve a prestar y su entrada se retira")
+    void canalCerrado_seDescarta() throws Exception {
+        pool = new FileChannelPool(metadata, true, 8, 60_000);
+        Path f = Files.write(dir.resolve("a.mp4"), "0123456789".getBytes());
+
+        FileChannelPool.Lease otroLector = pool.acquire(f);
+        FileChannelPool.Lease roto = pool.acquire(f);
+        roto.channel().close();
+
+        try (FileChannelPool.Lease nuevo = pool.acquire(f)) {
+            assertNotSame(roto.channel(), nuevo.channel());
+            ByteBuffer buf = ByteBuffer.allocate(3);
+            nuevo.channel().read(buf, 4);
+            assertEquals("456", new String(buf.array()));
+        }
+        roto.close();
+        otroLector.close();
+
+        try (FileChannelPool.Lease siguiente = pool.acquire(f)) {
+            assertTrue(siguiente.channel().isOpen());
+        }
+        assertEquals(1L, pool.openHandles());
+        assertEquals(1L, pool.estadisticas().get("invalidaciones"));
+    }
+
+    @Test
+    @DisplayName("El lector que suelta un canal cerrado retira la entrada del pool")
+    void leaseCerrado_retiraEntrada() throws Exception {
+        pool = new FileChannelPool(metadata, true, 8, 60_000);
+        Path f = Files.write(dir.resolve("a.mp4"), new byte[4]);
+
+        FileChannelPool.Lease roto = pool.acquire(f);
+        roto.channel().close();
+        roto.close();
+
+        assertEquals(0, pool.estadisticas().get("enPool"));
+        assertEquals(0L, pool.openHandles());
+        try (FileChannelPool.Lease nuevo = pool.acquire(f)) {
+            assertTrue(nuevo.channel().isOpen());
+        }
+    }
+
+    @Test
+    @DisplayName("max-open e inactividad: se cierran los canales menos usados y sin lectores")
+    void eviction_porTamanoEInactividad() throws Exception {
+        pool = new FileChannelPool(metadata, true, 2, 1);
+        Path a = Files.write(dir.resolve("a.mp4"), new byte[1]);
+        Path b = Files.write(dir.resolve("b.mp4"), new byte[2]);
+        Path c = Files.write(dir.resolve("c.mp4"), new byte[3]);
+
+        pool.acquire(a).close();
+        pool.acquire(b).close();
+        FileChannelPool.Lease enUso = pool.acquire(c);
+        assertEquals(2L, pool.openHandles());
+
+        Thread.sleep(5);
+        pool.evictIdle();
+        assertEquals(1L, pool.openHandles());
+        assertTrue(enUso.channel().isOpen());
+        enUso.close();
+    }
+
+    @Test
+    @DisplayName("Pool deshabilitado: cada préstamo abre y cierra su propio canal")
+    void deshabilitado_noCachea() throws Exception {
+        pool = new FileChannelPool(metadata, false, 8, 60_000);
+        Path f = Files.write(dir.resolve("a.mp4"), new byte[1]);
+
+        FileChannelPool.Lease l = pool.acquire(f);
+        l.close();
+
+        assertFalse(l.channel().isOpen());
+        assertEquals(0L, pool.openHandles());
+    }
+}
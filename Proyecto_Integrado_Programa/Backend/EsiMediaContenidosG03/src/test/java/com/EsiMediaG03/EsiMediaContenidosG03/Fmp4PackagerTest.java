@@ -0,0 +1,335 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.services.Fmp4Packager;
+import com.EsiMediaG03.services.MediaPackagingService;
+
+class Fmp4PackagerTest {
+
+    @TempDir
+    Path dir;
+
+    private static final int VIDEO_SAMPLES = 10;   // 1 s cada una, keyframes en 0, 3, 6 y 9 s
+    private static final int AUDIO_SAMPLES = 20;   // 0,5 s cada una
+
+    @Test
+    @DisplayName("Segmentos por pista cortados en keyframes con manifiestos HLS y DASH")
+    void empaquetaEnKeyframes() throws IOException {
+        Path mp4 = mp4();
+        Path out = dir.resolve("out");
+
+        Fmp4Packager.Resultado r = Fmp4Packager.empaquetar(mp4, out, 2.5);
+
+        assertEquals(4, r.segmentos());
+        assertEquals(10_000, r.duracionMs());
+        String m3u8 = Files.readString(out.resolve(Fmp4Packager.playlistPista(0)));
+        assertTrue(m3u8.contains("#EXT-X-MAP:URI=\"init-0.mp4\""));
+        assertTrue(m3u8.contains("#EXT-X-TARGETDURATION:3"));
+        assertTrue(m3u8.contains("#EXTINF:3.000,\nseg-0-0.m4s"));
+        assertTrue(m3u8.contains("#EXTINF:1.000,\nseg-0-3.m4s"));
+        assertTrue(m3u8.endsWith("#EXT-X-ENDLIST\n"));
+        assertTrue(Files.readString(out.resolve(Fmp4Packager.playlistPista(1))).contains("#EXTINF:3.000,\nseg-1-1.m4s"));
+
+        byte[] init = Files.readAllBytes(out.resolve(Fmp4Packager.init(0)));
+        assertTrue(indexOf(init, "trex") > 0);
+        assertTrue(indexOf(init, "avc1") > 0);
+        assertEquals(-1, indexOf(init, "mp4a"));
+        assertTrue(indexOf(Files.readAllBytes(out.resolve(Fmp4Packager.init(1))), "esds") > 0);
+    }
+
+    @Test
+    @DisplayName("Manifiestos con codecs, bandwidth pico por pista, resolución y grupo de audio")
+    void manifiestosConCodecsYBandwidth() throws IOException {
+        Path out = dir.resolve("out");
+        Fmp4Packager.empaquetar(mp4(), out, 2.5);
+        long picoVideo = pico(out, 0, 3, 3, 3, 1);
+        long picoAudio = pico(out, 1, 3, 3, 3, 1);
+
+        String maestra = Files.readString(out.resolve(Fmp4Packager.PLAYLIST));
+        assertTrue(maestra.contains("#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"audio\",NAME=\"audio-1\",DEFAULT=YES,AUTOSELECT=YES,URI=\"pista-1.m3u8\""));
+        assertTrue(maestra.contains("#EXT-X-STREAM-INF:BANDWIDTH=" + (picoVideo + picoAudio) + ","), maestra);
+        assertTrue(maestra.contains("CODECS=\"avc1.64001F,mp4a.40.2\",RESOLUTION=640x360,AUDIO=\"audio\"\npista-0.m3u8\n"), maestra);
+
+        String mpd = Files.readString(out.resolve(Fmp4Packager.MPD));
+        assertTrue(mpd.contains("<Representation id=\"0\" codecs=\"avc1.64001F\" bandwidth=\"" + picoVideo
+                + "\" width=\"640\" height=\"360\">"), mpd);
+        assertTrue(mpd.contains("<Representation id=\"1\" codecs=\"mp4a.40.2\" bandwidth=\"" + picoAudio
+                + "\" audioSamplingRate=\"48000\">"), mpd);
+        assertTrue(mpd.contains("media=\"seg-1-$Number$.m4s\""));
+        assertTrue(mpd.contains("<S t=\"3000\" d=\"3000\"/>"));
+        assertFalse(mpd.contains("bandwidth=\"0\""));
+    }
+
+    @Test
+    @DisplayName("La lista de edición del origen se conserva en el init de la pista")
+    void conservaListaDeEdicion() throws IOException {
+        Path out = dir.resolve("out");
+        Fmp4Packager.empaquetar(mp4(), out, 2.5);
+
+        byte[] init = Files.readAllBytes(out.resolve(Fmp4Packager.init(0)));
+        int elst = indexOf(init, "elst");
+        assertTrue(elst > indexOf(init, "tkhd") && elst < indexOf(init, "mdia"));
+        assertEquals(2000, ByteBuffer.wrap(init).getInt(elst + 4 + 4 + 4 + 4));
+        assertEquals(-1, indexOf(Files.readAllBytes(out.resolve(Fmp4Packager.init(1))), "elst"));
+    }
+
+    @Test
+    @DisplayName("Cada trun apunta, dentro del mdat, a los bytes originales de sus muestras")
+    void trunApuntaALasMuestras() throws IOException {
+        Path out = dir.resolve("out");
+        Fmp4Packager.empaquetar(mp4(), out, 2.5);
+
+        byte[] seg = Files.readAllBytes(out.resolve(Fmp4Packager.segmento(0, 1)));
+        ByteBuffer b = ByteBuffer.wrap(seg);
+        int moofSize = b.getInt(0);
+        assertEquals("moof", new String(seg, 4, 4, StandardCharsets.ISO_8859_1));
+        assertEquals("mdat", new String(seg, moofSize + 4, 4, StandardCharsets.ISO_8859_1));
+        assertEquals(1, count(seg, "trun"));
+
+        int trunVideo = indexOf(seg, "trun") + 4;
+        assertEquals(3, b.getInt(trunVideo + 4));
+        int dataOffset = b.getInt(trunVideo + 8);
+        assertArrayEquals(muestra('v', 3), Arrays.copyOfRange(seg, dataOffset, dataOffset + 100));
+        assertEquals(seg.length, dataOffset + 3 * 100);
+
+        int tfdtVideo = indexOf(seg, "tfdt") + 4;
+        assertEquals(3000, b.getLong(tfdtVideo + 4));
+
+        byte[] segAudio = Files.readAllBytes(out.resolve(Fmp4Packager.segmento(1, 1)));
+        ByteBuffer a = ByteBuffer.wrap(segAudio);
+        int trunAudio = indexOf(segAudio, "trun") + 4;
+        assertEquals(6, a.getInt(trunAudio + 4));
+        int audioOffset = a.getInt(trunAudio + 8);
+        assertArrayEquals(muestra('a', 6), Arrays.copyOfRange(segAudio, audioOffset, audioOffset + 40));
+        assertEquals(segAudio.length, audioOffset + 6 * 40);
+    }
+
+    @Test
+    @DisplayName("El servicio publica una versión inmutable por tamaño+mtime y valida los nombres")
+    void servicioPublicaVersion() throws IOException {
+        MediaPackagingService svc = new MediaPackagingService(true, dir.resolve("hls").toString(), 2.5, 120);
+        svc.init();
+        Path mp4 = mp4();
+
+        String version = svc.empaquetar("c1", mp4);
+
+        assertNotNull(version);
+        assertEquals(version, svc.versionDisponible("c1", Files.size(mp4), Files.getLastModifiedTime(mp4).toMillis()));
+        assertNotNull(svc.fichero("c1", version, "seg-0-2.m4s"));
+        assertNotNull(svc.fichero("c1", version, "pista-1.m3u8"));
+        assertNull(svc.fichero("c1", version, "../../secreto"));
+        assertNull(svc.fichero("c1", version, "seg-0-9.m4s"));
+        assertNull(svc.versionDisponible("c1", Files.size(mp4) + 1, 0));
+
+        svc.borrar("c1");
+        assertNull(svc.fichero("c1", version, "init-0.mp4"));
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("La versión anterior se conserva durante la gracia y el temporal de otra ejecución no se toca")
+    void versionAnterior_seBorraTrasLaGracia() throws IOException {
+        MediaPackagingService svc = new MediaPackagingService(true, dir.resolve("hls").toString(), 2.5, 120);
+        svc.init();
+        Path mp4 = mp4();
+        String v1 = svc.empaquetar("c1", mp4);
+        Path enCurso = Files.createDirectories(dir.resolve("hls/c1/ffff-ffff.tmp-1"));
+        Files.setLastModifiedTime(mp4, FileTime.fromMillis(Files.getLastModifiedTime(mp4).toMillis() + 60_000));
+
+        String v2 = svc.empaquetar("c1", mp4);
+
+        assertNotNull(svc.fichero("c1", v1, "seg-0-1.m4s"));
+        assertEquals(0, svc.purgarVersiones());
+
+        long haceTresHoras = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(3);
+        Files.setLastModifiedTime(dir.resolve("hls/c1").resolve(v1), FileTime.fromMillis(haceTresHoras - 1000));
+        Files.setLastModifiedTime(dir.resolve("hls/c1").resolve(v2), FileTime.fromMillis(haceTresHoras));
+        assertEquals(1, svc.purgarVersiones());
+
+        assertNull(svc.fichero("c1", v1, "seg-0-1.m4s"));
+        assertNotNull(svc.fichero("c1", v2, "seg-0-1.m4s"));
+        assertTrue(Files.isDirectory(enCurso));
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("Si la publicación falla el directorio temporal no se queda en disco")
+    void publicacionFallida_borraTemporal() throws IOException {
+        MediaPackagingService svc = new MediaPackagingService(true, dir.resolve("hls").toString(), 2.5, 120);
+        svc.init();
+        Path mp4 = mp4();
+        String version = MediaPackagingService.version(Files.size(mp4), Files.getLastModifiedTime(mp4).toMillis());
+        Files.createDirectories(dir.resolve("hls/c1"));
+        Files.write(dir.resolve("hls/c1").resolve(version), new byte[1]);
+
+        assertThrows(IOException.class, () -> svc.empaquetar("c1", mp4));
+
+        try (Stream<Path> s = Files.list(dir.resolve("hls/c1"))) {
+            assertFalse(s.anyMatch(p -> p.getFileName().toString().contains(".tmp-")));
+        }
+        svc.shutdown();
+    }
+
+    // ------------------------------------------------------------ helpers
+
+    private static byte[] muestra(char pista, int n) {
+        byte[] b = new byte[pista == 'v' ? 100 : 40];
+        Arrays.fill(b, (byte) (pista == 'v' ? n : 100 + n));
+        return b;
+    }
+
+    /** MP4 progresivo: ftyp + mdat (vídeo y audio intercalados por segundo) + moov al final. */
+    private Path mp4() throws IOException {
+        byte[] ftyp = box("ftyp", ascii("isom"), new byte[4]);
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        long base = ftyp.length + 8L;
+        long[] vOff = new long[VIDEO_SAMPLES];
+        long[] aOff = new long[VIDEO_SAMPLES];
+        for (int s = 0; s < VIDEO_SAMPLES; s++) {
+            vOff[s] = base + mdat.size();
+            mdat.write(muestra('v', s));
+            aOff[s] = base + mdat.size();
+            mdat.write(muestra('a', 2 * s));
+            mdat.write(muestra('a', 2 * s + 1));
+        }
+        byte[] video = trak(1, "vide", box("vmhd", new byte[12]), entradaAvc(),
+                tabla(VIDEO_SAMPLES, 1000), box("stss", ints(0, 4, 1, 4, 7, 10)),
+                ints(0, 1, 1, 1, 1), ints(0, 100, VIDEO_SAMPLES), vOff);
+        byte[] audio = trak(2, "soun", box("smhd", new byte[8]), entradaAac(),
+                tabla(AUDIO_SAMPLES, 500), null,
+                ints(0, 1, 1, 2, 1), ints(0, 40, AUDIO_SAMPLES), aOff);
+        ByteBuffer mvhd = ByteBuffer.allocate(100);
+        mvhd.position(12);
+        mvhd.putInt(1000).putInt(10_000);
+        byte[] moov = box("moov", box("mvhd", mvhd.array()), video, audio);
+
+        Path f = dir.resolve("in.mp4");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ftyp);
+        out.write(box("mdat", mdat.toByteArray()));
+        out.write(moov);
+        Files.write(f, out.toByteArray());
+        return f;
+    }
+
+    /** avc1 640x360 con avcC High 3.1. */
+    private static byte[] entradaAvc() throws IOException {
+        ByteBuffer v = ByteBuffer.allocate(78);
+        v.putShort(6, (short) 1);
+        v.putShort(24, (short) 640).putShort(26, (short) 360);
+        v.putInt(28, 0x00480000).putInt(32, 0x00480000).putShort(40, (short) 1);
+        v.putShort(74, (short) 0x18).putShort(76, (short) -1);
+        return box("avc1", v.array(), box("avcC", new byte[] {1, 0x64, 0, 0x1F, (byte) 0xFF, (byte) 0xE0, 0}));
+    }
+
+    /** mp4a 48 kHz estéreo con esds AAC-LC. */
+    private static byte[] entradaAac() throws IOException {
+        ByteBuffer a = ByteBuffer.allocate(28);
+        a.putShort(6, (short) 1);
+        a.putShort(16, (short) 2).putShort(18, (short) 16).putInt(24, 48_000 << 16);
+        byte[] esds = {0, 0, 0, 0,
+                0x03, 0x19, 0, 1, 0,
+                0x04, 0x11, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                0x05, 0x02, 0x11, (byte) 0x90,
+                0x06, 0x01, 0x02};
+        return box("mp4a", a.array(), box("esds", esds));
+    }
+
+    private long pico(Path out, int pista, int... segundos) throws IOException {
+        long pico = 0;
+        for (int k = 0; k < segundos.length; k++) {
+            pico = Math.max(pico, (long) Math.ceil(Files.size(out.resolve(Fmp4Packager.segmento(pista, k))) * 8.0 / segundos[k]));
+        }
+        return pico;
+    }
+
+    private static int count(byte[] data, String needle) {
+        int n = 0;
+        for (int i = indexOf(data, needle); i >= 0; i = indexOf(data, i + 1, needle)) n++;
+        return n;
+    }
+
+    private static byte[] trak(int id, String handler, byte[] cabecera, byte[] entrada, byte[] stts, byte[] stss,
+                               byte[] stsc, byte[] stsz, long[] chunks) throws IOException {
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        tkhd.putInt(0).putInt(0).putInt(0).putInt(id);
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.position(12);
+        mdhd.putInt(1000).putInt(10_000);
+        ByteBuffer hdlr = ByteBuffer.allocate(25);
+        hdlr.position(8);
+        hdlr.put(ascii(handler));
+        ByteBuffer stsd = ByteBuffer.allocate(8 + entrada.length).putInt(0).putInt(1).put(entrada);
+        ByteBuffer stco = ByteBuffer.allocate(8 + chunks.length * 4).putInt(0).putInt(chunks.length);
+        for (long c : chunks) stco.putInt((int) c);
+        List<byte[]> tablas = new java.util.ArrayList<>(List.of(box("stsd", stsd.array()), stts));
+        if (stss != null) tablas.add(stss);
+        tablas.add(box("stsc", stsc));
+        tablas.add(box("stsz", stsz));
+        tablas.add(box("stco", stco.array()));
+        byte[] edts = handler.equals("vide") ? box("edts", box("elst", ints(0, 1, 10_000, 2000, 0x00010000))) : new byte[0];
+        return box("trak", box("tkhd", tkhd.array()), edts,
+                box("mdia", box("mdhd", mdhd.array()), box("hdlr", hdlr.array()),
+                        box("minf", cabecera, box("dinf", box("dref", ints(0, 0))),
+                                box("stbl", tablas.toArray(new byte[0][])))));
+    }
+
+    private static byte[] tabla(int muestras, int delta) throws IOException {
+        return box("stts", ints(0, 1, muestras, delta));
+    }
+
+    private static byte[] ints(int... v) {
+        ByteBuffer b = ByteBuffer.allocate(v.length * 4);
+        for (int i : v) b.putInt(i);
+        return b.array();
+    }
+
+    private static int indexOf(byte[] data, String needle) {
+        return indexOf(data, 0, needle);
+    }
+
+    private static int indexOf(byte[] data, int from, String needle) {
+        byte[] n = ascii(needle);
+        outer:
+        for (int i = from; i <= data.length - n.length; i++) {
+            for (int j = 0; j < n.length; j++) {
+                if (data[i + j] != n[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] box(String type, byte[]... payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] p : payload) body.write(p);
+        return ByteBuffer.allocate(8 + body.size()).putInt(8 + body.size()).put(ascii(type))
+                .put(body.toByteArray()).array();
+    }
+}
@@ -0,0 +1,68 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.EsiMediaG03.services.InteraccionesMigration;
+import com.EsiMediaG03.services.InteraccionesService;
+
+@ExtendWith(MockitoExtension.class)
+class InteraccionesMigrationTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Mock
+    InteraccionesService interacciones;
+
+    @Test
+    @DisplayName("Pasada sin errores: migra cada contenido pendiente y deja de consultar el legado")
+    void migra_y_desactivaLegado() {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos")))
+                .thenReturn(Stream.of(new Document("_id", "c1"), new Document("_id", "c2")));
+        InteraccionesMigration m = new InteraccionesMigration(mongoTemplate, interacciones, true);
+
+        assertEquals(2, m.migrar());
+
+        verify(interacciones, times(2)).importar(any(Document.class));
+        verify(interacciones).desactivarLegado();
+        assertEquals(true, m.estadisticas().get("completada"));
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(q.capture(), eq(Document.class), eq("contenidos"));
+        // Sólo viajan los campos antiguos, no el contenido entero
+        assertEquals(3, q.getValue().getFieldsObject().size());
+    }
+
+    @Test
+    @DisplayName("Si falla un contenido se sigue con el resto, pero el legado sigue activo")
+    void fallo_parcial() {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos")))
+                .thenReturn(Stream.of(new Document("_id", "c1"), new Document("_id", "c2")));
+        doThrow(new IllegalStateException("mongo caído"))
+                .when(interacciones).importar(argThat(d -> "c1".equals(d.get("_id"))));
+        InteraccionesMigration m = new InteraccionesMigration(mongoTemplate, interacciones, true);
+
+        assertEquals(1, m.migrar());
+
+        verify(interacciones, never()).desactivarLegado();
+        assertEquals(1L, m.estadisticas().get("errores"));
+    }
+}
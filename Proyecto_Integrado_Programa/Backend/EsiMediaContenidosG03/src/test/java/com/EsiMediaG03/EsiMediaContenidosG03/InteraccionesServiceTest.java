@@ -0,0 +1,370 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Favorito;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+@ExtendWith(MockitoExtension.class)
+class InteraccionesServiceTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Test
+    @DisplayName("registrarReproductor: upsert por (contenido, email) y contador sólo la primera vez")
+    void reproductor_cuentaUnaVez() {
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(Reproductor.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, new BsonString("c1:a@esi.com")))
+                .thenReturn(UpdateResult.acknowledged(1, 0L, null));
+        InteraccionesService s = new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000);
+
+        assertTrue(s.registrarReproductor("c1", "A@esi.com"));
+        assertFalse(s.registrarReproductor("c1", "a@esi.com"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).upsert(q.capture(), any(Update.class), eq(Reproductor.class));
+        assertEquals("c1:a@esi.com", q.getAllValues().get(0).getQueryObject().get("_id"));
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(Contenido.class));
+    }
+
+    @Test
+    @DisplayName("Volcado en bloque: el contador de cada contenido sube sólo por los upserts nuevos")
+    void reproductores_bloque() {
+        BulkOperations ops = mock(BulkOperations.class);
+        BulkOperations contadores = mock(BulkOperations.class);
+        BulkWriteResult res = mock(BulkWriteResult.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Reproductor.class)).thenReturn(ops);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(contadores);
+        when(ops.execute()).thenReturn(res);
+        // Sólo el último upsert (c2) era nuevo
+        when(res.getUpserts()).thenReturn(List.of(new BulkWriteUpsert(2, new BsonString("c2:c@esi.com"))));
+        Map<String, Set<String>> porContenido = new LinkedHashMap<>();
+        porContenido.put("c1", new LinkedHashSet<>(List.of("a@esi.com", "b@esi.com")));
+        porContenido.put("c2", Set.of("c@esi.com"));
+
+        assertEquals(3, new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).registrarReproductores(porContenido));
+
+        verify(ops, times(3)).upsert(any(Query.class), any(Update.class));
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(contadores).updateOne(any(Query.class), u.capture());
+        assertEquals(new Document("reproductoresCount", 1L), u.getValue().getUpdateObject().get("$inc"));
+    }
+
+    @Test
+    @DisplayName("valorar: la clave duplicada significa que ya había valorado")
+    void valorar_duplicado() {
+        when(mongoTemplate.insert(any(Valoracion.class)))
+                .thenAnswer(inv -> inv.getArgument(0))
+                .thenThrow(new DuplicateKeyException("E11000"));
+        InteraccionesService s = new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000);
+
+        assertTrue(s.valorar("c1", "u@esi.com", 4.0));
+        assertFalse(s.valorar("c1", "u@esi.com", 2.0));
+        verify(mongoTemplate, never()).exists(any(Query.class), eq(Contenido.class));
+        // Se guarda pendiente de sumar y reclamada por la petición que la inserta
+        ArgumentCaptor<Valoracion> v = ArgumentCaptor.forClass(Valoracion.class);
+        verify(mongoTemplate, times(2)).insert(v.capture());
+        assertEquals(Boolean.TRUE, v.getAllValues().get(0).getPendiente());
+        assertTrue(v.getAllValues().get(0).getReclamadaHasta().isAfter(LocalDateTime.now().plusSeconds(20)));
+    }
+
+    @Test
+    @DisplayName("Con legado activo se consultan también los campos embebidos; al desactivarlo, no")
+    void legado_fallback() {
+        when(mongoTemplate.exists(any(Query.class), eq(Reproductor.class))).thenReturn(false);
+        when(mongoTemplate.exists(any(Query.class), eq(Contenido.class))).thenReturn(true);
+        InteraccionesService s = new InteraccionesService(mongoTemplate, true, 3.5, 10, 30_000);
+
+        assertTrue(s.haReproducido("c1", "u@esi.com"));
+        assertFalse(s.valorar("c1", "u.x@esi.com", 3.0));
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).exists(q.capture(), eq(Contenido.class));
+        assertTrue(q.getAllValues().get(1).getQueryObject().containsKey("ratings.u%2Ex@esi%2Ecom"));
+
+        s.desactivarLegado();
+        assertFalse(s.haReproducido("c1", "u@esi.com"));
+        verify(mongoTemplate, times(2)).exists(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    @DisplayName("claveHistograma: una casilla por media estrella")
+    void claveHistograma() {
+        assertEquals("0_5", InteraccionesService.claveHistograma(0.5));
+        assertEquals("4_0", InteraccionesService.claveHistograma(4.0));
+        assertEquals("4_5", InteraccionesService.claveHistograma(4.5));
+        assertEquals("5_0", InteraccionesService.claveHistograma(5.0));
+    }
+
+    @Test
+    @DisplayName("acumularValoracion: un único findAndModify con suma, casilla del histograma, media, puntuación bayesiana y marca de aplicada")
+    void acumular_pipeline() {
+        new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).acumularValoracion("c1", "u@esi.com", 4.5);
+
+        ArgumentCaptor<UpdateDefinition> u = ArgumentCaptor.forClass(UpdateDefinition.class);
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(q.capture(), u.capture(), any(FindAndModifyOptions.class), eq(Contenido.class));
+        List<Document> etapas = PipelineSimulado.etapas(u.getValue());
+        List<String> campos = etapas.stream().map(e -> ((Document) e.get("$set")).keySet().iterator().next()).toList();
+        // Cada etapa lee el resultado de la anterior: la media y la bayesiana usan la suma y el recuento ya incrementados
+        assertEquals(List.of("ratingSum", "ratingHistograma.4_5", "ratingCount", "ratingAvg", "ratingBayes", "ratingAplicando"),
+                campos);
+        // (peso * media + suma) / (peso + n)
+        Document bayes = (Document) ((Document) etapas.get(4).get("$set")).get("ratingBayes");
+        assertEquals(List.of(35.0, "$ratingSum"), ((Document) bayes.getList("$divide", Object.class).get(0)).get("$add"));
+        // Sólo se aplica si esta valoración no se sumó ya
+        assertEquals(new Document("$ne", "c1:u@esi.com"), q.getValue().getQueryObject().get("ratingAplicando"));
+        assertTrue(q.getValue().getFieldsObject().containsKey("ratingHistograma"));
+    }
+
+    @Test
+    @DisplayName("Pipeline de acumularValoracion: sobre un contenido nuevo la primera valoración es la media")
+    void acumular_semantica_nuevo() {
+        Document doc = PipelineSimulado.aplicar(pipelineAcumular(4.5), new Document("_id", "c1"));
+
+        assertEquals(4.5, doc.get("ratingSum"));
+        assertEquals(1L, ((Number) doc.get("ratingCount")).longValue());
+        assertEquals(4.5, (double) doc.get("ratingAvg"), 1e-9);
+        assertEquals((35.0 + 4.5) / 11, (double) doc.get("ratingBayes"), 1e-9);
+        assertEquals(1L, ((Document) doc.get("ratingHistograma")).get("4_5"));
+        assertEquals(List.of("c1:u@esi.com"), doc.get("ratingAplicando"));
+    }
+
+    @Test
+    @DisplayName("Pipeline de acumularValoracion: sin ratingSum, a null o pisado a 0 se reconstruye desde la media")
+    void acumular_semantica_sumaLegado() {
+        List<Document> legados = List.of(
+                new Document("_id", "c1").append("ratingAvg", 4.0).append("ratingCount", 4),
+                new Document("_id", "c1").append("ratingAvg", 4.0).append("ratingCount", 4).append("ratingSum", null),
+                new Document("_id", "c1").append("ratingAvg", 4.0).append("ratingCount", 4).append("ratingSum", 0.0));
+        for (Document legado : legados) {
+            Document doc = PipelineSimulado.aplicar(pipelineAcumular(5.0), legado);
+
+            assertEquals(21.0, ((Number) doc.get("ratingSum")).doubleValue(), 1e-9);
+            assertEquals(5L, ((Number) doc.get("ratingCount")).longValue());
+            assertEquals(4.2, (double) doc.get("ratingAvg"), 1e-9);
+            assertEquals((35.0 + 21.0) / 15, (double) doc.get("ratingBayes"), 1e-9);
+        }
+        // Con una suma válida se usa tal cual
+        Document doc = PipelineSimulado.aplicar(pipelineAcumular(1.0),
+                new Document("_id", "c1").append("ratingAvg", 3.0).append("ratingCount", 2).append("ratingSum", 6.0)
+                        .append("ratingHistograma", new Document("1_0", 3L)).append("ratingAplicando", List.of("c1:otro@esi.com")));
+        assertEquals(7.0, ((Number) doc.get("ratingSum")).doubleValue(), 1e-9);
+        assertEquals(7.0 / 3, (double) doc.get("ratingAvg"), 1e-9);
+        assertEquals(4L, ((Document) doc.get("ratingHistograma")).get("1_0"));
+        assertEquals(List.of("c1:otro@esi.com", "c1:u@esi.com"), doc.get("ratingAplicando"));
+    }
+
+    @Test
+    @DisplayName("acumularValoracion ya aplicada: no vuelve a sumar, desmarca la valoración y retira la marca")
+    void acumular_yaAplicada() {
+        Contenido actual = new Contenido();
+        actual.setRatingCount(3);
+        when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(actual);
+
+        assertEquals(actual, new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).acumularValoracion("c1", "u@esi.com", 4.5));
+
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), u.capture(), eq(Valoracion.class));
+        assertEquals(new Document("pendiente", 1).append("reclamadaHasta", 1), u.getValue().getUpdateObject().get("$unset"));
+        verify(mongoTemplate).updateFirst(any(Query.class), u.capture(), eq(Contenido.class));
+        assertEquals(new Document("ratingAplicando", "c1:u@esi.com"), u.getValue().getUpdateObject().get("$pull"));
+    }
+
+    @Test
+    @DisplayName("acumularValoracion sobre un contenido inexistente: null y la valoración sigue pendiente")
+    void acumular_contenidoInexistente() {
+        assertNull(new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).acumularValoracion("c1", "u@esi.com", 4.5));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Valoracion.class));
+    }
+
+    @Test
+    @DisplayName("completarPendientes: reclama y suma las valoraciones pendientes cuya reclamación caducó")
+    void completar_pendientes() {
+        Valoracion p = new Valoracion();
+        p.setId("c1:u@esi.com");
+        when(mongoTemplate.find(any(Query.class), eq(Valoracion.class))).thenReturn(List.of(p));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Valoracion.class)))
+                .thenReturn(new Valoracion("c1", "u@esi.com", 2.0));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Contenido.class))).thenReturn(new Contenido());
+
+        assertEquals(1, new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).completarPendientes());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(q.capture(), eq(Valoracion.class));
+        assertEquals(true, q.getValue().getQueryObject().get("pendiente"));
+        assertTrue(q.getValue().getQueryObject().containsKey("reclamadaHasta"));
+    }
+
+    @Test
+    @DisplayName("reclamarPendiente: sólo si sigue pendiente y nadie la tiene reclamada")
+    void reclamar_pendiente() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Valoracion.class)))
+                .thenReturn(new Valoracion("c1", "u@esi.com", 3.5), (Valoracion) null);
+        InteraccionesService s = new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000);
+
+        assertEquals(3.5, s.reclamarPendiente("c1", "U@esi.com"));
+        assertNull(s.reclamarPendiente("c1", "U@esi.com"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).findAndModify(q.capture(), u.capture(), eq(Valoracion.class));
+        Document filtro = q.getValue().getQueryObject();
+        assertEquals("c1:u@esi.com", filtro.get("_id"));
+        assertEquals(true, filtro.get("pendiente"));
+        assertEquals(2, filtro.getList("$or", Document.class).size());
+        assertTrue(((Document) u.getValue().getUpdateObject().get("$set")).containsKey("reclamadaHasta"));
+    }
+
+    @Test
+    @DisplayName("rellenarSumas: ratingSum = ratingAvg * ratingCount donde falta o vale 0")
+    void rellenar_sumas() {
+        new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).rellenarSumas();
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> u = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateMulti(q.capture(), u.capture(), eq(Contenido.class));
+        assertEquals(new Document("$not", new Document("$gt", 0)), q.getValue().getQueryObject().get("ratingSum"));
+        Document doc = PipelineSimulado.aplicar(u.getValue(),
+                new Document("ratingAvg", 3.5).append("ratingCount", 4).append("ratingSum", 0.0));
+        assertEquals(14.0, ((Number) doc.get("ratingSum")).doubleValue(), 1e-9);
+    }
+
+    private UpdateDefinition pipelineAcumular(double score) {
+        MongoTemplate m = mock(MongoTemplate.class);
+        new InteraccionesService(m, false, 3.5, 10, 30_000).acumularValoracion("c1", "u@esi.com", score);
+        ArgumentCaptor<UpdateDefinition> u = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(m).findAndModify(any(Query.class), u.capture(), any(FindAndModifyOptions.class), eq(Contenido.class));
+        return u.getValue();
+    }
+
+    @Test
+    @DisplayName("reconstruirHistogramas: recuenta desde valoraciones y sólo escribe si ratingCount no ha cambiado")
+    void reconstruir_histogramas() {
+        Contenido c = new Contenido();
+        c.setId("c1");
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(c));
+        @SuppressWarnings("unchecked")
+        AggregationResults<Document> res = mock(AggregationResults.class);
+        when(res.getMappedResults()).thenReturn(List.of(
+                new Document("_id", new Document("contenidoId", "c1").append("score", 4.5)).append("n", 2),
+                new Document("_id", new Document("contenidoId", "c1").append("score", 1.0)).append("n", 1)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Valoracion.class), eq(Document.class))).thenReturn(res);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Contenido.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        assertEquals(1, new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).reconstruirHistogramas());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(q.capture(), u.capture(), eq(Contenido.class));
+        assertEquals(3L, q.getValue().getQueryObject().get("ratingCount"));
+        assertEquals(Map.of("4_5", 2L, "1_0", 1L),
+                ((Document) u.getValue().getUpdateObject().get("$set")).get("ratingHistograma"));
+    }
+
+    @Test
+    @DisplayName("importar: copia los datos embebidos, fija contadores y elimina los campos antiguos")
+    void importar_legado() {
+        BulkOperations ops = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), any(Class.class))).thenReturn(ops);
+        when(mongoTemplate.count(any(Query.class), eq(Reproductor.class))).thenReturn(2L);
+        ObjectId id = new ObjectId();
+        Document legado = new Document("_id", id)
+                .append("reproductores", List.of("a@esi.com", "b@esi.com"))
+                .append("ratings", new Document("a@esi%2Ecom", 4.5))
+                .append("favoritosDeUsuarios", List.of("a@esi.com"));
+
+        new InteraccionesService(mongoTemplate, true, 3.5, 10, 30_000).importar(legado);
+
+        verify(ops, times(4)).upsert(any(Query.class), any(Update.class));
+        verify(ops, times(3)).execute();
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(q.capture(), u.capture(), eq("contenidos"));
+        assertEquals(id, q.getValue().getQueryObject().get("_id"));
+        Document update = u.getValue().getUpdateObject();
+        assertEquals(2L, ((Document) update.get("$set")).get("reproductoresCount"));
+        assertEquals(Set.of("reproductores", "ratings", "favoritosDeUsuarios"),
+                ((Document) update.get("$unset")).keySet());
+    }
+
+    @Test
+    @DisplayName("favoritosDe: sólo contenidos que siguen existiendo, ordenados por fechaEstado")
+    void favoritos_existentesPorFechaEstado() {
+        when(mongoTemplate.find(any(Query.class), eq(Favorito.class)))
+                .thenReturn(List.of(new Favorito("c1", "a@esi.com"), new Favorito("borrado", "a@esi.com"), new Favorito("c2", "a@esi.com")));
+        Contenido c1 = new Contenido();
+        c1.setId("c1");
+        Contenido c2 = new Contenido();
+        c2.setId("c2");
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(c2, c1));
+
+        List<String> ids = new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).favoritosDe("A@esi.com");
+
+        assertEquals(List.of("c2", "c1"), ids);
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+        assertEquals(List.of("c1", "borrado", "c2"),
+                List.copyOf((Collection<?>) ((Document) q.getValue().getQueryObject().get("_id")).get("$in")));
+        assertEquals(new Document("fechaEstado", -1), q.getValue().getSortObject());
+    }
+
+    @Test
+    @DisplayName("borrarContenido: elimina reproductores, valoraciones y favoritos por contenidoId")
+    void borrarContenido_limpiaColecciones() {
+        when(mongoTemplate.remove(any(Query.class), any(Class.class))).thenReturn(DeleteResult.acknowledged(2));
+
+        assertEquals(6L, new InteraccionesService(mongoTemplate, false, 3.5, 10, 30_000).borrarContenido("c1"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        for (Class<?> tipo : List.of(Reproductor.class, Valoracion.class, Favorito.class)) {
+            verify(mongoTemplate).remove(q.capture(), eq(tipo));
+            assertEquals(new Document("contenidoId", "c1"), q.getValue().getQueryObject());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.EsiMediaG03.dto.ByteRange;
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+import com.EsiMediaG03.services.FileChannelPool;
+import com.EsiMediaG03.services.HotSegmentCache;
+import com.EsiMediaG03.services.LocalMediaWriter;
+import com.EsiMediaG03.services.MediaMetadataCache;
+import com.EsiMediaG03.services.TransferListener;
+
+class LocalMediaWriterTest {
+
+    private final MediaMetadataCache metadata = new MediaMetadataCache(16, false);
+    private final HotSegmentCache hotSegments = new HotSegmentCache(metadata, true, 1024, 16, 5);
+    private final FileChannelPool channels = new FileChannelPool(metadata, true, 4, 60_000);
+    private final LocalMediaWriter writer = new LocalMediaWriter(hotSegments, channels);
+    private Path tempFile;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        tempFile = Files.createTempFile("media-writer-", ".bin");
+        Files.write(tempFile, "abcdefghijklmnopqrstuvwxyz".getBytes());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channels.close();
+        Files.deleteIfExists(tempFile);
+    }
+
+    @Test
+    @DisplayName("write(): copia exactamente el rango pedido desde el offset")
+    void write_rango_intermedio() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long n = writer.write(new FileRegion(tempFile, 10, 5), out);
+
+        assertEquals(5, n);
+        assertArrayEquals("klmno".getBytes(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("write(): rango más allá del final del fichero -> EOFException")
+    void write_rango_fuera_de_fichero() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(EOFException.class, () -> writer.write(new FileRegion(tempFile, 20, 10), out));
+    }
+
+    @Test
+    @DisplayName("write(multipart): partes con cabeceras y longitud calculada de antemano")
+    void write_multipart() throws Exception {
+        MultipartFileRegions body = new MultipartFileRegions(tempFile,
+                List.of(new ByteRange(0, 2), new ByteRange(23, 25)), 26, "video/mp4", "BND", TransferListener.NONE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.write(body, out);
+
+        String expected = "--BND\r\nContent-Type: video/mp4\r\nContent-Range: bytes 0-2/26\r\n\r\nabc\r\n"
+                + "--BND\r\nContent-Type: video/mp4\r\nContent-Range: bytes 23-25/26\r\n\r\nxyz\r\n"
+                + "--BND--\r\n";
+        assertEquals(expected, out.toString(StandardCharsets.US_ASCII));
+        assertEquals(out.size(), body.contentLength());
+    }
+
+    @Test
+    @DisplayName("Contenido popular: la cabecera se mapea y los rangos dentro se sirven desde memoria")
+    void write_desdeSegmentoMapeado() throws Exception {
+        StreamingTarget target = StreamingTarget.local(tempFile, 26, "video/mp4", mtime(tempFile), "\"e\"");
+        hotSegments.notePopularity(target, 2);
+        assertNull(hotSegments.slice(tempFile, 0, 4));
+
+        hotSegments.notePopularity(target, 50);
+        assertEquals(16, hotSegments.usedBytes());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new FileRegion(tempFile, 2, 6), out);
+        assertEquals("cdefgh", out.toString(StandardCharsets.US_ASCII));
+        assertEquals(1L, hotSegments.estadisticas().get("hits"));
+
+        out.reset();
+        writer.write(new FileRegion(tempFile, 14, 6), out);
+        assertEquals("opqrst", out.toString(StandardCharsets.US_ASCII));
+        assertEquals(1L, hotSegments.estadisticas().get("hits"));
+    }
+
+    @Test
+    @DisplayName("Caché llena: un contenido menos popular no desplaza a otro más popular")
+    void hotCache_respetaPopularidad() throws Exception {
+        Path otro = Files.createTempFile("media-writer-", ".bin");
+        try {
+            Files.write(otro, new byte[26]);
+            HotSegmentCache pequena = new HotSegmentCache(metadata, true, 16, 16, 1);
+            pequena.notePopularity(StreamingTarget.local(tempFile, 26, "video/mp4", mtime(tempFile), "\"a\""), 100);
+            pequena.notePopularity(StreamingTarget.local(otro, 26, "video/mp4", mtime(otro), "\"b\""), 5);
+            assertNull(pequena.slice(otro, 0, 1));
+
+            pequena.notePopularity(StreamingTarget.local(otro, 26, "video/mp4", mtime(otro), "\"b\""), 500);
+            assertNull(pequena.slice(tempFile, 0, 1));
+            assertNotNull(pequena.slice(otro, 0, 1));
+        } finally {
+            Files.deleteIfExists(otro);
+        }
+    }
+
+    @Test
+    @DisplayName("Fichero reemplazado: el segmento mapeado no se sirve y la invalidación lo retira")
+    void hotCache_ficheroReemplazado() throws Exception {
+        hotSegments.notePopularity(StreamingTarget.local(tempFile, 26, "video/mp4", mtime(tempFile), "\"e\""), 50);
+        assertNotNull(hotSegments.slice(tempFile, 0, 4));
+
+        Files.write(tempFile, "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123".getBytes());
+        Files.setLastModifiedTime(tempFile, FileTime.fromMillis(mtime(tempFile) + 5_000));
+        metadata.invalidate(tempFile);
+
+        assertEquals(0, hotSegments.usedBytes());
+        assertEquals(1L, hotSegments.estadisticas().get("invalidaciones"));
+        assertNull(hotSegments.slice(tempFile, 0, 4));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new FileRegion(tempFile, 0, 4), out);
+        assertEquals("ABCD", out.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    @DisplayName("Con el WatchService: modificar el fichero retira su segmento sin esperar a la siguiente petición")
+    void hotCache_eventoDelWatchService() throws Exception {
+        MediaMetadataCache vigilada = new MediaMetadataCache(16, true);
+        try {
+            HotSegmentCache cache = new HotSegmentCache(vigilada, true, 1024, 16, 1);
+            cache.notePopularity(StreamingTarget.local(tempFile, 26, "video/mp4", mtime(tempFile), "\"e\""), 50);
+            assertEquals(16, cache.usedBytes());
+
+            Files.write(tempFile, "0123".getBytes());
+            long limite = System.currentTimeMillis() + 10_000;
+            while (cache.usedBytes() > 0 && System.currentTimeMillis() < limite) Thread.sleep(20);
+            assertEquals(0, cache.usedBytes());
+        } finally {
+            vigilada.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Converter: escribe la región y expone su longitud")
+    void converter_escribe_region() throws Exception {
+        FileRegionHttpMessageConverter converter = new FileRegionHttpMessageConverter(writer);
+        MockHttpOutputMessage msg = new MockHttpOutputMessage();
+
+        converter.write(FileRegion.whole(tempFile, 26), MediaType.parseMediaType("video/mp4"), msg);
+
+        assertEquals(26, msg.getHeaders().getContentLength());
+        assertEquals("abcdefghijklmnopqrstuvwxyz", msg.getBodyAsString());
+    }
+
+    private static long mtime(Path p) throws Exception {
+        return Files.getLastModifiedTime(p).toMillis();
+    }
+}
@@ -0,0 +1,110 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.dto.MediaFileMetadata;
+import com.EsiMediaG03.services.MediaMetadataCache;
+
+class MediaMetadataCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private MediaMetadataCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) cache.close();
+    }
+
+    @Test
+    @DisplayName("Segunda consulta del mismo fichero es un hit y no vuelve a hacer stat")
+    void lookup_hitYMiss() throws Exception {
+        cache = new MediaMetadataCache(8, false);
+        Path f = Files.write(dir.resolve("a.mp3"), new byte[10]);
+
+        MediaFileMetadata m1 = cache.lookup(f);
+        MediaFileMetadata m2 = cache.lookup(f);
+
+        assertTrue(m1.readable());
+        assertEquals(10, m1.size());
+        assertEquals(m1, m2);
+        assertEquals(1L, cache.estadisticas().get("hits"));
+        assertEquals(1L, cache.estadisticas().get("misses"));
+    }
+
+    @Test
+    @DisplayName("Fichero inexistente -> metadatos no legibles")
+    void lookup_inexistente() {
+        cache = new MediaMetadataCache(8, false);
+        assertFalse(cache.lookup(dir.resolve("nope.mp4")).readable());
+    }
+
+    @Test
+    @DisplayName("LRU: al superar el máximo se expulsa la entrada menos usada")
+    void lookup_evictionLru() throws Exception {
+        cache = new MediaMetadataCache(2, false);
+        Path a = Files.write(dir.resolve("a.mp4"), new byte[1]);
+        Path b = Files.write(dir.resolve("b.mp4"), new byte[2]);
+        Path c = Files.write(dir.resolve("c.mp4"), new byte[3]);
+
+        cache.lookup(a);
+        cache.lookup(b);
+        cache.lookup(a);
+        cache.lookup(c);
+
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.estadisticas().get("evictions"));
+        cache.lookup(a);
+        assertEquals(2L, cache.estadisticas().get("hits"));
+    }
+
+    @Test
+    @DisplayName("WatchService: modificar el fichero invalida la entrada")
+    void watch_invalidaAlModificar() throws Exception {
+        cache = new MediaMetadataCache(8, true);
+        Path f = Files.write(dir.resolve("v.mp4"), new byte[4]);
+        assertEquals(4, cache.lookup(f).size());
+
+        Files.write(f, new byte[40]);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(40, cache.lookup(f).size());
+    }
+
+    @Test
+    @DisplayName("Cambios mientras se consulta: al terminar, la caché converge al último estado del fichero")
+    void watch_cambiosConcurrentes() throws Exception {
+        cache = new MediaMetadataCache(8, true);
+        Path f = Files.write(dir.resolve("w.mp4"), new byte[1]);
+        Thread escritor = new Thread(() -> {
+            try {
+                for (int i = 2; i <= 200; i++) Files.write(f, new byte[i]);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        escritor.start();
+        while (escritor.isAlive()) cache.lookup(f);
+        escritor.join();
+
+        // Una entrada obsoleta guardada tras su propia invalidación no volvería a corregirse
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (cache.lookup(f).size() != 200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(200, cache.lookup(f).size());
+    }
+}
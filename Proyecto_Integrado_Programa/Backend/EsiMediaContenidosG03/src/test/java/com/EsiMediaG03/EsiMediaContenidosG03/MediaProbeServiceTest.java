@@ -0,0 +1,327 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.dto.MediaProbe;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.MediaPackagingService;
+import com.EsiMediaG03.services.MediaProbeService;
+import com.EsiMediaG03.services.MediaProber;
+import com.EsiMediaG03.services.SeekIndexService;
+import com.mongodb.client.result.UpdateResult;
+
+@ExtendWith(MockitoExtension.class)
+class MediaProbeServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Test
+    @DisplayName("MP4: duración de mvhd, resolución de tkhd y códecs de stsd")
+    void mp4() throws IOException {
+        byte[] moov = box("moov",
+                mvhd(1000, 95_000),
+                trak("vide", 1920, 1080, "avc1"),
+                trak("soun", 0, 0, "mp4a"));
+        Path f = write("a.mp4", box("ftyp", ascii("isom"), new byte[4]), moov, box("mdat", new byte[2000]));
+
+        MediaProbe p = MediaProber.probe(f);
+
+        assertEquals("video/mp4", p.mimeType());
+        assertEquals(95_000L, p.duracionMs());
+        assertEquals(1920, p.ancho());
+        assertEquals(1080, p.alto());
+        assertEquals("avc1,mp4a", p.codec());
+        assertNotNull(p.bitrateKbps());
+    }
+
+    @Test
+    @DisplayName("WebM: DocType, TimecodeScale, Duration y pistas de Matroska")
+    void webm() throws IOException {
+        byte[] header = ebml(0x1A45DFA3, ebml(0x4282, ascii("webm")));
+        byte[] info = ebml(0x1549A966,
+                ebml(0x2AD7B1, new byte[] {0x0F, 0x42, 0x40}),
+                ebml(0x4489, ByteBuffer.allocate(8).putDouble(12_500).array()));
+        byte[] tracks = ebml(0x1654AE6B,
+                ebml(0xAE, ebml(0x83, new byte[] {1}), ebml(0x86, ascii("V_VP9")),
+                        ebml(0xE0, ebml(0xB0, new byte[] {0x05, 0x00}), ebml(0xBA, new byte[] {0x02, (byte) 0xD0}))),
+                ebml(0xAE, ebml(0x83, new byte[] {2}), ebml(0x86, ascii("A_OPUS"))));
+        byte[] cluster = ebml(0x1F43B675, new byte[64]);
+        Path f = write("b.webm", header, ebml(0x18538067, info, tracks, cluster));
+
+        MediaProbe p = MediaProber.probe(f);
+
+        assertEquals("video/webm", p.mimeType());
+        assertEquals(12_500L, p.duracionMs());
+        assertEquals(1280, p.ancho());
+        assertEquals(720, p.alto());
+        assertEquals("vp9,opus", p.codec());
+    }
+
+    @Test
+    @DisplayName("MP3 CBR tras etiqueta ID3: duración a partir del bitrate")
+    void mp3() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {'I', 'D', '3', 3, 0, 0, 0, 0, 0, 20});
+        out.write(new byte[20]);
+        byte[] frame = new byte[417];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        frame[3] = (byte) 0x44;
+        for (int i = 0; i < 100; i++) out.write(frame);
+        Path f = write("c.mp3", out.toByteArray());
+
+        MediaProbe p = MediaProber.probe(f);
+
+        assertEquals("audio/mpeg", p.mimeType());
+        assertEquals(128, p.bitrateKbps());
+        assertEquals(41_700L * 8 / 128, p.duracionMs());
+        assertEquals("mp3", p.codec());
+    }
+
+    @Test
+    @DisplayName("WAV: byteRate del chunk fmt y tamaño del chunk data")
+    void wav() throws IOException {
+        int byteRate = 44_100 * 2 * 2;
+        ByteBuffer b = ByteBuffer.allocate(44 + byteRate * 2).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(ascii("RIFF")).putInt(36 + byteRate * 2).put(ascii("WAVE"));
+        b.put(ascii("fmt ")).putInt(16).putShort((short) 1).putShort((short) 2).putInt(44_100)
+                .putInt(byteRate).putShort((short) 4).putShort((short) 16);
+        b.put(ascii("data")).putInt(byteRate * 2);
+        Path f = write("d.wav", b.array());
+
+        MediaProbe p = MediaProber.probe(f);
+
+        assertEquals("audio/wav", p.mimeType());
+        assertEquals(2000L, p.duracionMs());
+        assertEquals(1411, p.bitrateKbps());
+        assertEquals("pcm", p.codec());
+    }
+
+    @Test
+    @DisplayName("FLAC: sampleRate y total de muestras de STREAMINFO")
+    void flac() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(42);
+        b.put(ascii("fLaC")).put((byte) 0x80).put(new byte[] {0, 0, 34});
+        b.position(18);
+        long info = (48_000L << 44) | (1L << 41) | (15L << 36) | (48_000L * 90);
+        b.putLong(info);
+        Path f = write("e.flac", b.array());
+
+        MediaProbe p = MediaProber.probe(f);
+
+        assertEquals("audio/flac", p.mimeType());
+        assertEquals(90_000L, p.duracionMs());
+    }
+
+    @Test
+    @DisplayName("Fichero sin formato conocido -> null")
+    void desconocido() throws IOException {
+        assertNull(MediaProber.probe(write("f.bin", ascii("esto no es un fichero multimedia"))));
+    }
+
+    @Test
+    @DisplayName("sondear guarda los metadatos sólo si la ruta del contenido no ha cambiado")
+    void sondearActualizaContenido() throws IOException {
+        Path f = write("g.mp4", box("ftyp", ascii("isom"), new byte[4]),
+                box("moov", mvhd(600, 150 * 600), trak("vide", 3840, 2160, "hvc1")));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Contenido.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        MediaProbeService svc = new MediaProbeService(mongoTemplate, seekIndex(), new MediaPackagingService(false, dir.toString(), 6, 120), true, 1, 4, false, 1 << 20, 0);
+
+        MediaProbe p = svc.sondear("c1", "urlVideo", f.toString());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(q.capture(), u.capture(), eq(Contenido.class));
+        assertEquals(f.toString(), q.getValue().getQueryObject().get("urlVideo"));
+        org.bson.Document set = (org.bson.Document) u.getValue().getUpdateObject().get("$set");
+        assertEquals("4K", set.get("resolucion"));
+        assertEquals(3, set.get("duracionMinutos"));
+        assertEquals("video/mp4", set.get("mimeType"));
+        assertEquals("hvc1", p.codec());
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("Con faststart, el MP4 con moov al final se reescribe y la ruta cambia al fichero nuevo")
+    void sondearConFaststart() throws IOException {
+        Path f = write("h.mp4", box("ftyp", ascii("isom"), new byte[4]), box("mdat", new byte[512]),
+                box("moov", mvhd(1000, 4000), trak("vide", 1280, 720, "avc1")));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Contenido.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        MediaProbeService svc = new MediaProbeService(mongoTemplate, seekIndex(), new MediaPackagingService(false, dir.toString(), 6, 120), true, 1, 4, true, 1 << 20, 0);
+
+        svc.sondear("c2", "urlVideo", f.toString());
+
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), u.capture(), eq(Contenido.class));
+        org.bson.Document set = (org.bson.Document) u.getValue().getUpdateObject().get("$set");
+        Path nuevo = Path.of((String) set.get("urlVideo"));
+        assertEquals(dir, nuevo.getParent());
+        assertTrue(nuevo.getFileName().toString().matches("h\\.faststart-[0-9a-f]{8}\\.mp4"));
+        // Nadie más usaba el original: se borra; y no queda ningún temporal
+        assertEquals(false, Files.exists(f));
+        try (java.util.stream.Stream<Path> ficheros = Files.list(dir)) {
+            assertTrue(ficheros.noneMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+        }
+        assertEquals("video/mp4", MediaProber.probe(nuevo).mimeType());
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("Con faststart, el original se conserva si otro contenido sigue apuntando a él")
+    void sondearConFaststart_originalCompartido() throws IOException {
+        Path f = write("k.mp4", box("ftyp", ascii("isom"), new byte[4]), box("mdat", new byte[512]),
+                box("moov", mvhd(1000, 4000), trak("vide", 1280, 720, "avc1")));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Contenido.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.exists(any(Query.class), eq(Contenido.class))).thenReturn(true);
+        MediaProbeService svc = new MediaProbeService(mongoTemplate, seekIndex(), new MediaPackagingService(false, dir.toString(), 6, 120), true, 1, 4, true, 1 << 20, 0);
+
+        svc.sondear("c3", "urlVideo", f.toString());
+        svc.sondear("c4", "urlVideo", f.toString());
+
+        assertTrue(Files.exists(f));
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), u.capture(), eq(Contenido.class));
+        Object primero = ((org.bson.Document) u.getAllValues().get(0).getUpdateObject().get("$set")).get("urlVideo");
+        Object segundo = ((org.bson.Document) u.getAllValues().get(1).getUpdateObject().get("$set")).get("urlVideo");
+        assertNotEquals(primero, segundo);
+        assertTrue(Files.exists(Path.of((String) primero)));
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("Con faststart, el original se conserva si un audio lo referencia por urlAudio")
+    void sondearConFaststart_originalReferenciadoPorUrlAudio() throws IOException {
+        Path f = write("m.mp4", box("ftyp", ascii("isom"), new byte[4]), box("mdat", new byte[512]),
+                box("moov", mvhd(1000, 4000), trak("vide", 1280, 720, "avc1")));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Contenido.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        // Sólo un audio (urlAudio) sigue apuntando al original
+        when(mongoTemplate.exists(any(Query.class), eq(Contenido.class)))
+                .thenAnswer(inv -> inv.<Query>getArgument(0).getQueryObject().toJson().contains("urlAudio"));
+        MediaProbeService svc = new MediaProbeService(mongoTemplate, seekIndex(), new MediaPackagingService(false, dir.toString(), 6, 120), true, 1, 4, true, 1 << 20, 0);
+
+        svc.sondear("c5", "urlVideo", f.toString());
+
+        assertTrue(Files.exists(f));
+        svc.shutdown();
+    }
+
+    @Test
+    @DisplayName("Sólo se sondean rutas locales; las URLs http se ignoran")
+    void campoRutaLocal() {
+        Contenido v = new Contenido();
+        v.setTipo(Contenido.Tipo.VIDEO);
+        v.setUrlVideo("https://cdn/x.mp4");
+        assertNull(MediaProbeService.campoRutaLocal(v));
+        v.setUrlVideo("/media/x.mp4");
+        assertEquals("urlVideo", MediaProbeService.campoRutaLocal(v));
+
+        Contenido a = new Contenido();
+        a.setTipo(Contenido.Tipo.AUDIO);
+        a.setFicheroAudio("/media/x.mp3");
+        assertEquals("ficheroAudio", MediaProbeService.campoRutaLocal(a));
+    }
+
+    // ------------------------------------------------------------ helpers
+
+    private SeekIndexService seekIndex() throws IOException {
+        SeekIndexService s = new SeekIndexService(dir.resolve("seek").toString(), 8);
+        s.init();
+        return s;
+    }
+
+    private Path write(String name, byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.write(p);
+        Path f = dir.resolve(name);
+        Files.write(f, out.toByteArray());
+        return f;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] box(String type, byte[]... payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] p : payload) body.write(p);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(out);
+        d.writeInt(8 + body.size());
+        d.write(ascii(type));
+        d.write(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static byte[] mvhd(int timescale, int duration) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(100);
+        b.position(12);
+        b.putInt(timescale).putInt(duration);
+        return box("mvhd", b.array());
+    }
+
+    private static byte[] trak(String handler, int w, int h, String codec) throws IOException {
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        tkhd.position(76);
+        tkhd.putInt(w << 16).putInt(h << 16);
+        ByteBuffer hdlr = ByteBuffer.allocate(24);
+        hdlr.position(8);
+        hdlr.put(ascii(handler));
+        ByteBuffer stsd = ByteBuffer.allocate(24);
+        stsd.putInt(0).putInt(1).putInt(16).put(ascii(codec));
+        return box("trak", box("tkhd", tkhd.array()),
+                box("mdia", box("hdlr", hdlr.array()),
+                        box("minf", box("stbl", box("stsd", stsd.array())))));
+    }
+
+    private static byte[] ebml(int id, byte[]... payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] p : payload) body.write(p);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (id > 0xFFFFFF) out.write(id >>> 24);
+        if (id > 0xFFFF) out.write(id >>> 16);
+        if (id > 0xFF) out.write(id >>> 8);
+        out.write(id);
+        int n = body.size();
+        out.write(0x01);
+        for (int i = 6; i >= 0; i--) out.write((int) ((long) n >>> (8 * i)));
+        out.write(body.toByteArray());
+        return out.toByteArray();
+    }
+}
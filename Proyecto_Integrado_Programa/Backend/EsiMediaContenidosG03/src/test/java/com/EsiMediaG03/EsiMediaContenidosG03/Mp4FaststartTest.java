@@ -0,0 +1,122 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.services.Mp4Atoms;
+import com.EsiMediaG03.services.Mp4Faststart;
+
+class Mp4FaststartTest {
+
+    @TempDir
+    Path dir;
+
+    private static final byte[] CHUNK_A = "chunk-A-datos".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] CHUNK_B = "chunk-B-mas-datos".getBytes(StandardCharsets.ISO_8859_1);
+
+    @Test
+    @DisplayName("moov al final -> se mueve delante del mdat y stco apunta a los mismos bytes")
+    void reescribeStco() throws IOException {
+        Path origen = moovAlFinal(false);
+        Path destino = dir.resolve("out.mp4");
+
+        assertTrue(Mp4Faststart.reescribir(origen, destino, 1 << 20));
+
+        assertEquals(Files.size(origen), Files.size(destino));
+        try (FileChannel ch = FileChannel.open(destino, StandardOpenOption.READ)) {
+            assertFalse(Mp4Faststart.moovAlFinal(ch));
+            assertTrue(Mp4Atoms.findTopLevel(ch, "moov").offset() < Mp4Atoms.findTopLevel(ch, "mdat").offset());
+        }
+        assertChunks(destino, false);
+    }
+
+    @Test
+    @DisplayName("co64 también se corrige")
+    void reescribeCo64() throws IOException {
+        Path origen = moovAlFinal(true);
+        Path destino = dir.resolve("out64.mp4");
+
+        assertTrue(Mp4Faststart.reescribir(origen, destino, 1 << 20));
+        assertChunks(destino, true);
+    }
+
+    @Test
+    @DisplayName("moov ya al principio o demasiado grande -> no se reescribe")
+    void noReescribe() throws IOException {
+        Path origen = moovAlFinal(false);
+        Path destino = dir.resolve("out.mp4");
+        assertTrue(Mp4Faststart.reescribir(origen, destino, 1 << 20));
+
+        assertFalse(Mp4Faststart.reescribir(destino, dir.resolve("otra.mp4"), 1 << 20));
+        assertFalse(Mp4Faststart.reescribir(origen, dir.resolve("grande.mp4"), 16));
+        assertFalse(Files.exists(dir.resolve("otra.mp4")));
+    }
+
+    /** ftyp + mdat(A, B) + moov con un stco/co64 que apunta a los dos chunks. */
+    private Path moovAlFinal(boolean co64) throws IOException {
+        byte[] ftyp = box("ftyp", ascii("isom"), new byte[4]);
+        byte[] mdat = box("mdat", CHUNK_A, CHUNK_B);
+        long a = ftyp.length + 8L;
+        long b = a + CHUNK_A.length;
+        ByteBuffer tabla = ByteBuffer.allocate(8 + 2 * (co64 ? 8 : 4));
+        tabla.putInt(0).putInt(2);
+        if (co64) tabla.putLong(a).putLong(b);
+        else tabla.putInt((int) a).putInt((int) b);
+        byte[] moov = box("moov", box("mvhd", new byte[100]),
+                box("trak", box("mdia", box("minf", box("stbl", box(co64 ? "co64" : "stco", tabla.array()))))));
+        Path f = dir.resolve(co64 ? "in64.mp4" : "in.mp4");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ftyp);
+        out.write(mdat);
+        out.write(moov);
+        Files.write(f, out.toByteArray());
+        return f;
+    }
+
+    private static void assertChunks(Path f, boolean co64) throws IOException {
+        byte[] data = Files.readAllBytes(f);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int tabla = indexOf(data, ascii(co64 ? "co64" : "stco")) + 4;
+        long a = co64 ? buf.getLong(tabla + 8) : Integer.toUnsignedLong(buf.getInt(tabla + 8));
+        long b = co64 ? buf.getLong(tabla + 16) : Integer.toUnsignedLong(buf.getInt(tabla + 12));
+        assertArrayEquals(CHUNK_A, Arrays.copyOfRange(data, (int) a, (int) a + CHUNK_A.length));
+        assertArrayEquals(CHUNK_B, Arrays.copyOfRange(data, (int) b, (int) b + CHUNK_B.length));
+    }
+
+    private static int indexOf(byte[] data, byte[] needle) {
+        outer:
+        for (int i = 0; i <= data.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] box(String type, byte[]... payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] p : payload) body.write(p);
+        return ByteBuffer.allocate(8 + body.size()).putInt(8 + body.size()).put(ascii(type))
+                .put(body.toByteArray()).array();
+    }
+}
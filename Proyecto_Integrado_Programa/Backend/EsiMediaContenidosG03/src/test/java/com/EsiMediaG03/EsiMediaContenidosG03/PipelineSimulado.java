@@ -0,0 +1,121 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+/**
+ * Intérprete mínimo de los pipelines de actualización que genera el servicio
+ * ($set con $add, $multiply, $divide, $ifNull, $cond, $gt y $concatArrays),
+ * con la semántica de Mongo: las etapas se aplican en orden, cada una sobre el
+ * resultado de la anterior, y una referencia a un campo ausente vale null.
+ * Permite comprobar lo que calcula el pipeline sobre un documento concreto en
+ * lugar de reimplementarlo en cada test.
+ */
+final class PipelineSimulado {
+
+    private PipelineSimulado() {
+    }
+
+    static List<Document> etapas(UpdateDefinition update) {
+        return ((AggregationUpdate) update).toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+
+    /** Aplica el pipeline sobre el documento y lo devuelve modificado. */
+    static Document aplicar(UpdateDefinition update, Document doc) {
+        for (Document etapa : etapas(update)) {
+            Document set = (Document) etapa.get("$set");
+            if (set == null) throw new IllegalArgumentException("Etapa no soportada: " + etapa.toJson());
+            Document nuevos = new Document();
+            for (Map.Entry<String, Object> e : set.entrySet()) nuevos.put(e.getKey(), evaluar(e.getValue(), doc));
+            nuevos.forEach((campo, valor) -> poner(doc, campo, valor));
+        }
+        return doc;
+    }
+
+    static Object evaluar(Object expr, Document doc) {
+        if (expr instanceof String s && s.startsWith("$")) return leer(doc, s.substring(1));
+        if (expr instanceof List<?> l) {
+            List<Object> r = new ArrayList<>();
+            for (Object o : l) r.add(evaluar(o, doc));
+            return r;
+        }
+        if (!(expr instanceof Document d)) return expr;
+        String op = d.keySet().iterator().next();
+        List<?> args = d.get(op) instanceof List<?> l ? l : List.of(d.get(op));
+        switch (op) {
+            case "$ifNull": {
+                Object v = evaluar(args.get(0), doc);
+                return v != null ? v : evaluar(args.get(1), doc);
+            }
+            case "$cond":
+                return Boolean.TRUE.equals(evaluar(args.get(0), doc)) ? evaluar(args.get(1), doc) : evaluar(args.get(2), doc);
+            case "$gt": {
+                Object a = evaluar(args.get(0), doc);
+                Object b = evaluar(args.get(1), doc);
+                // Orden BSON: null queda por debajo de cualquier número
+                if (a == null) return false;
+                if (b == null) return true;
+                return ((Number) a).doubleValue() > ((Number) b).doubleValue();
+            }
+            case "$add":
+            case "$multiply": {
+                boolean suma = "$add".equals(op);
+                boolean enteros = true;
+                double d2 = suma ? 0 : 1;
+                for (Object a : args) {
+                    Object v = evaluar(a, doc);
+                    if (v == null) return null;
+                    enteros &= v instanceof Integer || v instanceof Long;
+                    d2 = suma ? d2 + ((Number) v).doubleValue() : d2 * ((Number) v).doubleValue();
+                }
+                return enteros ? (Object) (long) d2 : (Object) d2;
+            }
+            case "$divide": {
+                Object a = evaluar(args.get(0), doc);
+                Object b = evaluar(args.get(1), doc);
+                if (a == null || b == null) return null;
+                return ((Number) a).doubleValue() / ((Number) b).doubleValue();
+            }
+            case "$concatArrays": {
+                List<Object> r = new ArrayList<>();
+                for (Object a : args) {
+                    Object v = evaluar(a, doc);
+                    if (v == null) return null;
+                    r.addAll((List<?>) v);
+                }
+                return r;
+            }
+            default:
+                throw new IllegalArgumentException("Operador no soportado: " + op);
+        }
+    }
+
+    private static Object leer(Document doc, String ruta) {
+        Object actual = doc;
+        for (String parte : ruta.split("\\.")) {
+            if (!(actual instanceof Document d)) return null;
+            actual = d.get(parte);
+        }
+        return actual;
+    }
+
+    private static void poner(Document doc, String ruta, Object valor) {
+        String[] partes = ruta.split("\\.");
+        Document actual = doc;
+        for (int i = 0; i < partes.length - 1; i++) {
+            Object hijo = actual.get(partes[i]);
+            if (!(hijo instanceof Document)) {
+                hijo = new Document();
+                actual.put(partes[i], hijo);
+            }
+            actual = (Document) hijo;
+        }
+        actual.put(partes[partes.length - 1], valor);
+    }
+}
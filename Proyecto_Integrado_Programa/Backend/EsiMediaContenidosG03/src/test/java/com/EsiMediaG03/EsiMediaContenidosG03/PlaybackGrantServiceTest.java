@@ -0,0 +1,69 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.services.PlaybackGrantService;
+
+class PlaybackGrantServiceTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final PlaybackGrantService grants = new PlaybackGrantService("secreto", 10_000, now::get);
+    private final StreamingTarget local =
+            StreamingTarget.local(Path.of("/media/v.mp4"), 1234, "video/mp4", 42L, "\"c1-4d2-2a\"");
+
+    @Test
+    @DisplayName("Ida y vuelta: el permiso reproduce el target local y externo")
+    void roundTrip() {
+        assertEquals(local, grants.verificar(grants.emitir("c1", local, "s"), "c1", "s"));
+
+        StreamingTarget ext = StreamingTarget.external("https://youtu.be/x", "text/html");
+        assertEquals(ext, grants.verificar(grants.emitir("c2", ext, "s"), "c2", "s"));
+    }
+
+    @Test
+    @DisplayName("Firma manipulada, otro contenido u otra clave -> rechazado")
+    void manipulado_rechazado() {
+        String token = grants.emitir("c1", local, "s");
+        String[] parts = token.split("\\.");
+        String alterado = parts[0].substring(0, parts[0].length() - 2) + "AA." + parts[1];
+
+        assertNull(grants.verificar(alterado, "c1", "s"));
+        assertNull(grants.verificar(token, "c2", "s"));
+        assertNull(grants.verificar("basura", "c1", "s"));
+        assertNull(new PlaybackGrantService("otro", 10_000, now::get).verificar(token, "c1", "s"));
+    }
+
+    @Test
+    @DisplayName("Caduca con el TTL y con disponibleHasta")
+    void caducidad() {
+        String token = grants.emitir("c1", local, "s");
+        now.addAndGet(10_000);
+        assertNull(grants.verificar(token, "c1", "s"));
+
+        grants.limitarVigencia("c1", now.get() + 500);
+        String corto = grants.emitir("c1", local, "s");
+        assertNotNull(grants.verificar(corto, "c1", "s"));
+        now.addAndGet(500);
+        assertNull(grants.verificar(corto, "c1", "s"));
+    }
+
+    @Test
+    @DisplayName("Revocar invalida lo emitido antes pero no lo posterior")
+    void revocacion() {
+        String viejo = grants.emitir("c1", local, "s");
+        grants.revocar("c1");
+        now.incrementAndGet();
+        String nuevo = grants.emitir("c1", local, "s");
+
+        assertNull(grants.verificar(viejo, "c1", "s"));
+        assertNotNull(grants.verificar(nuevo, "c1", "s"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.services.PlaybackSessionTracker;
+
+class PlaybackSessionTrackerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final PlaybackSessionTracker tracker = new PlaybackSessionTracker(10_000, 100, now::get);
+
+    @Test
+    @DisplayName("Los rangos de una misma sesión sólo cuentan la primera vez")
+    void mismaSesion_cuentaUnaVez() {
+        assertFalse(tracker.yaContada("c1", "u:a@esi.com"));
+        for (int i = 0; i < 20; i++) {
+            now.addAndGet(1_000);
+            assertTrue(tracker.yaContada("c1", "u:a@esi.com"));
+        }
+        assertEquals(1, tracker.size());
+    }
+
+    @Test
+    @DisplayName("Otro contenido u otro cliente abren sesión nueva")
+    void claveDistinta_sesionNueva() {
+        assertFalse(tracker.yaContada("c1", "u:a@esi.com"));
+        assertFalse(tracker.yaContada("c2", "u:a@esi.com"));
+        assertFalse(tracker.yaContada("c1", "u:b@esi.com"));
+    }
+
+    @Test
+    @DisplayName("Tras la ventana de inactividad se cuenta de nuevo")
+    void inactividad_caduca() {
+        assertFalse(tracker.yaContada("c1", "u:a@esi.com"));
+        now.addAndGet(10_001);
+        assertFalse(tracker.yaContada("c1", "u:a@esi.com"));
+    }
+
+    @Test
+    @DisplayName("Sin cliente identificable no se deduplica")
+    void sinCliente_noDeduplica() {
+        assertFalse(tracker.yaContada("c1", null));
+        assertFalse(tracker.yaContada("c1", null));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    @DisplayName("Por encima de max-sesiones se desalojan las más antiguas y el mapa queda acotado")
+    void excesoSesiones_desalojaAntiguas() {
+        for (int i = 0; i < 500; i++) {
+            now.incrementAndGet();
+            assertFalse(tracker.yaContada("c" + i, "u:a@esi.com"));
+            assertTrue(tracker.size() <= 100, "tamaño " + tracker.size() + " tras " + i);
+        }
+        assertEquals(500L, ((Number) tracker.estadisticas().get("desalojadas")).longValue() + tracker.size());
+        assertTrue(tracker.yaContada("c499", "u:a@esi.com"));
+        assertFalse(tracker.yaContada("c0", "u:a@esi.com"));
+    }
+
+    @Test
+    @DisplayName("Al superar el límite no se barre en cada petición")
+    void excesoSesiones_barridoAmortizado() {
+        for (int i = 0; i < 101; i++) {
+            now.incrementAndGet();
+            tracker.yaContada("c" + i, "u:a@esi.com");
+        }
+        long desalojadas = ((Number) tracker.estadisticas().get("desalojadas")).longValue();
+        assertEquals(90, tracker.size());
+        assertEquals(11, desalojadas);
+        for (int i = 101; i < 111; i++) {
+            now.incrementAndGet();
+            tracker.yaContada("c" + i, "u:a@esi.com");
+        }
+        assertEquals(100, tracker.size());
+        assertEquals(desalojadas, ((Number) tracker.estadisticas().get("desalojadas")).longValue());
+    }
+}
@@ -0,0 +1,123 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ListaPublica;
+import com.EsiMediaG03.services.PlaylistPrefetcher;
+
+@ExtendWith(MockitoExtension.class)
+class PlaylistPrefetcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    ListaPublicaDAO listaPublicaDAO;
+
+    @Mock
+    ContenidoDAO contenidoDAO;
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private PlaylistPrefetcher prefetcher;
+    private Path actual;
+    private Path siguiente;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        actual = Files.write(dir.resolve("a.mp4"), new byte[100]);
+        siguiente = Files.write(dir.resolve("b.mp4"), new byte[5000]);
+        ListaPublica lista = new ListaPublica();
+        lista.setContenidosIds(List.of("a", "b"));
+        Contenido b = new Contenido();
+        b.setId("b");
+        b.setTipo(Contenido.Tipo.VIDEO);
+        b.setUrlVideo(siguiente.toString());
+        lenient().when(listaPublicaDAO.findById("L")).thenReturn(Optional.of(lista));
+        lenient().when(contenidoDAO.findById("b")).thenReturn(Optional.of(b));
+        prefetcher = new PlaylistPrefetcher(listaPublicaDAO, contenidoDAO, true, 4096, 0.9, 60_000, 4, now::get);
+    }
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.shutdown();
+    }
+
+    @Test
+    @DisplayName("Cerca del final de un elemento se lee la cabecera del siguiente y su arranque cuenta como hit")
+    void precalientaSiguienteYMideHit() throws Exception {
+        prefetcher.progreso("L", "a", actual, 0, 50, 100);
+        prefetcher.progreso("L", "a", actual, 50, 95, 100);
+        prefetcher.progreso("L", "a", actual, 95, 100, 100);
+        assertTrue(prefetcher.esperar(5_000));
+
+        verify(listaPublicaDAO, times(1)).findById("L");
+        assertEquals(1L, prefetcher.estadisticas().get("encolados"));
+        assertEquals(4096L, prefetcher.estadisticas().get("bytesLeidos"));
+
+        prefetcher.progreso("L", "b", siguiente, 0, 1000, 5000);
+        assertEquals(1L, prefetcher.estadisticas().get("hits"));
+        assertEquals(1.0, prefetcher.estadisticas().get("hitRate"));
+    }
+
+    @Test
+    @DisplayName("Marca caducada o sin lista: no hay hit ni lectura")
+    void caducadoYSinLista() throws Exception {
+        prefetcher.progreso("L", "a", actual, 90, 100, 100);
+        assertTrue(prefetcher.esperar(5_000));
+        now.addAndGet(120_000);
+
+        prefetcher.progreso(null, "b", siguiente, 0, 5000, 5000);
+
+        assertEquals(0L, prefetcher.estadisticas().get("hits"));
+        assertEquals(1L, prefetcher.estadisticas().get("caducados"));
+        verify(listaPublicaDAO, times(1)).findById("L");
+    }
+
+    @Test
+    @DisplayName("Último elemento de la lista o contenido que no está en ella: nada que precalentar")
+    void sinSiguiente() throws Exception {
+        prefetcher.progreso("L", "b", siguiente, 4900, 5000, 5000);
+        prefetcher.progreso("L", "x", actual, 90, 100, 100);
+        assertTrue(prefetcher.esperar(5_000));
+
+        assertEquals(0L, prefetcher.estadisticas().get("bytesLeidos"));
+        verify(contenidoDAO, never()).findById("b");
+    }
+
+    @Test
+    @DisplayName("Muchos X-Lista-Id distintos no hacen crecer sin límite las marcas de disparo")
+    void listasDistintas_marcasAcotadas() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            now.incrementAndGet();
+            prefetcher.progreso("X" + i, "a", actual, 90, 100, 100);
+            if (i % 4 == 3) assertTrue(prefetcher.esperar(5_000));
+        }
+        assertTrue(prefetcher.esperar(5_000));
+
+        int marcas = (Integer) prefetcher.estadisticas().get("marcas");
+        assertTrue(marcas <= 1024, "marcas " + marcas);
+        assertTrue((Long) prefetcher.estadisticas().get("desalojados") > 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpRange;
+
+import com.EsiMediaG03.dto.ByteRange;
+import com.EsiMediaG03.services.RangePolicy;
+
+class RangePolicyTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private final RangePolicy policy = new RangePolicy(2 * MB, MB, 32 * MB, 4, 100, 3);
+
+    @Test
+    @DisplayName("Rango acotado: se sirve completo aunque supere el máximo adaptativo")
+    void rangoAcotado_completo() {
+        assertEquals(100 * MB, policy.responseLength("c|1", 100 * MB, false));
+    }
+
+    @Test
+    @DisplayName("Rango abierto sin historial: primer tramo = chunk inicial")
+    void rangoAbierto_primeraPeticion() {
+        assertEquals(2 * MB, policy.responseLength("c|1", 500 * MB, true));
+        assertEquals(10, policy.responseLength("c|1", 10, true));
+    }
+
+    @Test
+    @DisplayName("Rango abierto: crece con el throughput observado y respeta el máximo")
+    void rangoAbierto_creceConThroughput() {
+        // 4 MB en 1 s -> 4 MB/s * 4 s = 16 MB
+        policy.recordTransfer("c|1", 4 * MB, 1_000_000_000L);
+        assertEquals(16 * MB, policy.responseLength("c|1", 500 * MB, true));
+
+        RangePolicy rapida = new RangePolicy(2 * MB, MB, 32 * MB, 4, 100, 3);
+        rapida.recordTransfer("c|2", 100 * MB, 1_000_000_000L);
+        assertEquals(32 * MB, rapida.responseLength("c|2", 500 * MB, true));
+    }
+
+    @Test
+    @DisplayName("Conexión lenta: nunca baja del mínimo configurado")
+    void rangoAbierto_minimo() {
+        policy.recordTransfer("c|1", 128 * 1024L, 10_000_000_000L);
+        assertEquals(MB, policy.responseLength("c|1", 500 * MB, true));
+    }
+
+    @Test
+    @DisplayName("Multi-rango: ordena, fusiona solapados y descarta no satisfacibles")
+    void merge_fusionaSolapados() {
+        List<ByteRange> parts = policy.merge(HttpRange.parseRanges("bytes=5000-5999,0-99,50-199,99999-"), 10_000);
+
+        assertEquals(List.of(new ByteRange(0, 199), new ByteRange(5000, 5999)), parts);
+    }
+
+    @Test
+    @DisplayName("Multi-rango: por encima del máximo de partes se sirve un único rango envolvente")
+    void merge_superaMaximoPartes() {
+        List<ByteRange> parts = policy.merge(
+                HttpRange.parseRanges("bytes=0-9,1000-1009,2000-2009,3000-3009"), 10_000);
+
+        assertEquals(List.of(new ByteRange(0, 3009)), parts);
+    }
+
+    @Test
+    void limitesInvalidos_lanza() {
+        assertThrows(IllegalArgumentException.class, () -> new RangePolicy(MB, 2 * MB, MB, 4, 10, 3));
+    }
+}
@@ -0,0 +1,149 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.ReproduccionesWriteBehind;
+
+@ExtendWith(MockitoExtension.class)
+class ReproduccionesWriteBehindTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Mock
+    BulkOperations bulk;
+
+    @Mock
+    InteraccionesService interacciones;
+
+    private ReproduccionesWriteBehind buffer(boolean reintentar) {
+        // sin start(): los volcados se disparan a mano en el test
+        return new ReproduccionesWriteBehind(mongoTemplate, interacciones, "write-behind", 60_000, 1000, reintentar);
+    }
+
+    @Test
+    @DisplayName("flush(): agrega incrementos por contenido en un bulkWrite y delega los reproductores agrupados")
+    void flush_agrega() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        ReproduccionesWriteBehind wb = buffer(true);
+
+        for (int i = 0; i < 25; i++) wb.registrarReproduccion("c1");
+        wb.registrarReproduccion("c2");
+        wb.registrarReproductor("c1", "a@esi.com");
+        wb.registrarReproductor("c1", "a@esi.com");
+        wb.registrarReproductor("c1", "b@esi.com");
+
+        when(interacciones.registrarReproductores(Map.of("c1", Set.of("a@esi.com", "b@esi.com")))).thenReturn(2);
+
+        assertEquals(4, wb.flush());
+        verify(bulk, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(bulk, times(1)).execute();
+        assertEquals(0, wb.flush());
+    }
+
+    @Test
+    @DisplayName("Fallo de Mongo con reintento: el lote vuelve al buffer")
+    void flush_fallo_reencola() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(bulk.execute()).thenThrow(new IllegalStateException("mongo caído"))
+                .thenReturn(null);
+        ReproduccionesWriteBehind wb = buffer(true);
+        wb.registrarReproduccion("c1");
+
+        assertThrows(IllegalStateException.class, wb::flush);
+        assertEquals(1, wb.estadisticas().get("pendientes"));
+        assertEquals(1, wb.flush());
+    }
+
+    @Test
+    @DisplayName("Fallo de Mongo sin reintento: el lote se descarta")
+    void flush_fallo_descarta() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(bulk.execute()).thenThrow(new IllegalStateException("mongo caído"));
+        ReproduccionesWriteBehind wb = buffer(false);
+        wb.registrarReproduccion("c1");
+
+        assertThrows(IllegalStateException.class, wb::flush);
+        assertEquals(0, wb.estadisticas().get("pendientes"));
+    }
+
+    @Test
+    @DisplayName("Fallo sólo al volcar reproductores: se reencolan ellos, no los incrementos ya aplicados")
+    void flush_falloReproductores_reencolaSoloEllos() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+        when(interacciones.registrarReproductores(any())).thenThrow(new IllegalStateException("mongo caído"))
+                .thenReturn(1);
+        ReproduccionesWriteBehind wb = buffer(true);
+        wb.registrarReproduccion("c1");
+        wb.registrarReproductor("c1", "a@esi.com");
+
+        assertThrows(IllegalStateException.class, wb::flush);
+        assertEquals(1, wb.estadisticas().get("pendientes"));
+        assertEquals(1, wb.flush());
+        verify(bulk, times(1)).execute();
+    }
+
+    @Test
+    @DisplayName("reproductorPendiente: visible en el buffer y durante el volcado; después sólo en Mongo")
+    void reproductorPendiente_hastaQueEstaEnMongo() {
+        ReproduccionesWriteBehind wb = buffer(true);
+        wb.registrarReproductor("c1", "a@esi.com");
+        assertTrue(wb.reproductorPendiente("c1", "a@esi.com"));
+        assertFalse(wb.reproductorPendiente("c1", "b@esi.com"));
+        assertFalse(wb.reproductorPendiente("c2", "a@esi.com"));
+
+        boolean[] visibleDuranteElVolcado = {false};
+        when(interacciones.registrarReproductores(any())).thenAnswer(inv -> {
+            visibleDuranteElVolcado[0] = wb.reproductorPendiente("c1", "a@esi.com");
+            return 1;
+        });
+        wb.flush();
+
+        assertTrue(visibleDuranteElVolcado[0]);
+        assertFalse(wb.reproductorPendiente("c1", "a@esi.com"));
+    }
+
+    @Test
+    @DisplayName("Apagado: vuelca lo pendiente")
+    void shutdown_vuelca() {
+        when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Contenido.class))).thenReturn(bulk);
+        ReproduccionesWriteBehind wb = buffer(true);
+        wb.registrarReproduccion("c1");
+
+        wb.shutdown();
+
+        verify(bulk).execute();
+    }
+
+    @Test
+    @DisplayName("modo=sync: el buffer queda deshabilitado")
+    void modoSync_deshabilitado() {
+        ReproduccionesWriteBehind wb = new ReproduccionesWriteBehind(mongoTemplate, interacciones, "sync", 1000, 10, true);
+        wb.start();
+        assertEquals(false, wb.isEnabled());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Contenido.class));
+    }
+}
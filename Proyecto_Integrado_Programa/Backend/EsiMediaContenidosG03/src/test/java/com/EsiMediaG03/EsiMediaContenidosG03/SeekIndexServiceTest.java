@@ -0,0 +1,147 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.EsiMediaG03.dto.SeekIndex;
+import com.EsiMediaG03.services.SeekIndexBuilder;
+import com.EsiMediaG03.services.SeekIndexService;
+
+class SeekIndexServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private SeekIndexService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service = new SeekIndexService(dir.resolve("seek").toString(), 4);
+        service.init();
+    }
+
+    @Test
+    @DisplayName("MP4: una entrada por keyframe de stss con el offset exacto de la muestra")
+    void mp4Keyframes() throws IOException {
+        // 6 muestras de 100 bytes, 2 por chunk, 1 s cada una; keyframes en 1, 3 y 5
+        long base = 1000;
+        ByteBuffer stts = ByteBuffer.allocate(16).putInt(0).putInt(1).putInt(6).putInt(1000);
+        ByteBuffer stss = ByteBuffer.allocate(20).putInt(0).putInt(3).putInt(1).putInt(3).putInt(5);
+        ByteBuffer stsc = ByteBuffer.allocate(20).putInt(0).putInt(1).putInt(1).putInt(2).putInt(1);
+        ByteBuffer stsz = ByteBuffer.allocate(12).putInt(0).putInt(100).putInt(6);
+        ByteBuffer stco = ByteBuffer.allocate(20).putInt(0).putInt(3)
+                .putInt((int) base).putInt((int) base + 200).putInt((int) base + 400);
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.position(12);
+        mdhd.putInt(1000);
+        ByteBuffer hdlr = ByteBuffer.allocate(24);
+        hdlr.position(8);
+        hdlr.put(ascii("vide"));
+        byte[] moov = box("moov", box("trak", box("mdia", box("mdhd", mdhd.array()), box("hdlr", hdlr.array()),
+                box("minf", box("stbl", box("stts", stts.array()), box("stss", stss.array()),
+                        box("stsc", stsc.array()), box("stsz", stsz.array()), box("stco", stco.array()))))));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(box("ftyp", ascii("isom"), new byte[4]));
+        out.write(moov);
+        Path f = dir.resolve("v.mp4");
+        Files.write(f, out.toByteArray());
+
+        SeekIndex idx = SeekIndexBuilder.construir(f);
+
+        assertArrayEquals(new long[] {0, 2000, 4000}, idx.tiemposMs());
+        assertArrayEquals(new long[] {base, base + 200, base + 400}, idx.offsets());
+        assertEquals(base + 200, idx.offsetFor(3500));
+    }
+
+    @Test
+    @DisplayName("MP3: offsets en inicios de frame, como mucho uno cada 500 ms")
+    void mp3Frames() throws IOException {
+        byte[] frame = new byte[417];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x90;
+        frame[3] = (byte) 0x44;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 200; i++) out.write(frame);
+        Path f = dir.resolve("a.mp3");
+        Files.write(f, out.toByteArray());
+
+        SeekIndex idx = SeekIndexBuilder.construir(f);
+
+        // 1152 muestras a 44.1 kHz = 26,12 ms por frame
+        long offset = idx.offsetFor(2000);
+        assertEquals(0, offset % 417);
+        assertTrue(offset / 417 * 1152 * 1000 / 44100 <= 2000);
+        assertTrue(offset / 417 * 1152 * 1000 / 44100 > 1400);
+    }
+
+    @Test
+    @DisplayName("WAV: offset lineal alineado a blockAlign tras la cabecera")
+    void wavLineal() throws IOException {
+        Path f = dir.resolve("s.wav");
+        Files.write(f, wav(44_100 * 4 * 3));
+
+        SeekIndex idx = SeekIndexBuilder.construir(f);
+
+        assertEquals(44 + 44_100 * 4 + 4 * 4410, idx.offsetFor(1100));
+        assertEquals(0, (idx.offsetFor(1234) - 44) % 4);
+    }
+
+    @Test
+    @DisplayName("El índice se guarda en disco y se invalida si cambia el fichero")
+    void persisteEInvalida() throws IOException {
+        Path f = dir.resolve("p.wav");
+        Files.write(f, wav(44_100 * 4));
+        SeekIndex idx = service.construir("abc123", f);
+        long size = Files.size(f);
+        long mtime = Files.getLastModifiedTime(f).toMillis();
+
+        SeekIndexService otra = new SeekIndexService(dir.resolve("seek").toString(), 4);
+        SeekIndex leido = otra.buscar("abc123", size, mtime);
+        assertNotNull(leido);
+        assertEquals(idx, leido);
+
+        Files.setLastModifiedTime(f, FileTime.fromMillis(mtime + 5000));
+        assertNull(otra.buscar("abc123", size, mtime + 5000));
+
+        otra.borrar("abc123");
+        assertNull(service.buscar("../x", size, mtime));
+        assertTrue(Files.notExists(dir.resolve("seek").resolve("abc123.seek")));
+    }
+
+    private static byte[] wav(int dataBytes) {
+        ByteBuffer b = ByteBuffer.allocate(44 + dataBytes).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(ascii("RIFF")).putInt(36 + dataBytes).put(ascii("WAVE"));
+        b.put(ascii("fmt ")).putInt(16).putShort((short) 1).putShort((short) 2).putInt(44_100)
+                .putInt(44_100 * 4).putShort((short) 4).putShort((short) 16);
+        b.put(ascii("data")).putInt(dataBytes);
+        return b.array();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] box(String type, byte[]... payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] p : payload) body.write(p);
+        return ByteBuffer.allocate(8 + body.size()).putInt(8 + body.size()).put(ascii(type))
+                .put(body.toByteArray()).array();
+    }
+}
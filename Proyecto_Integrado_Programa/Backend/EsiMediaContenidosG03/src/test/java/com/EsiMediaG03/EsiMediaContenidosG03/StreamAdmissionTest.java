@@ -0,0 +1,115 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.EsiMediaG03.exceptions.AdmisionStreamException;
+import com.EsiMediaG03.http.StreamAdmissionInterceptor;
+import com.EsiMediaG03.services.StreamAdmission;
+
+class StreamAdmissionTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    private StreamAdmission admision(int nodo, long maxWaitMs) {
+        return new StreamAdmission(true, 2, 4, nodo, 60_000, maxWaitMs, 8, 3, now::get);
+    }
+
+    @Test
+    @DisplayName("Cuota por usuario: el tercer stream de un no VIP es 429 y un VIP llega a cuatro")
+    void cuotaPorUsuario() {
+        StreamAdmission a = admision(100, 0);
+        StreamAdmission.Ticket t1 = a.adquirir("u:ana", false);
+        a.adquirir("u:ana", false);
+
+        AdmisionStreamException e = assertThrows(AdmisionStreamException.class, () -> a.adquirir("u:ana", false));
+        assertTrue(e.isPorUsuario());
+        assertEquals(3, e.getRetryAfterSegundos());
+
+        for (int i = 0; i < 4; i++) a.adquirir("u:vip", true);
+        assertThrows(AdmisionStreamException.class, () -> a.adquirir("u:vip", true));
+
+        t1.liberar();
+        t1.liberar();
+        assertNotNull(a.adquirir("u:ana", false));
+        assertEquals(2L, a.estadisticas().get("rechazadosUsuario"));
+    }
+
+    @Test
+    @DisplayName("Cupo del nodo: espera en cola hasta que se libera un stream o responde 503")
+    void cupoDelNodo() throws Exception {
+        StreamAdmission a = admision(1, 2_000);
+        StreamAdmission.Ticket ocupado = a.adquirir("u:a", false);
+
+        CompletableFuture<StreamAdmission.Ticket> enCola = CompletableFuture.supplyAsync(() -> a.adquirir("u:b", false));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while ((int) a.estadisticas().get("enCola") == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        ocupado.liberar();
+        assertNotNull(enCola.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, a.estadisticas().get("encolados"));
+
+        StreamAdmission sinEspera = admision(1, 0);
+        sinEspera.adquirir(null, false);
+        AdmisionStreamException e = assertThrows(AdmisionStreamException.class, () -> sinEspera.adquirir(null, false));
+        assertFalse(e.isPorUsuario());
+        assertEquals(1L, sinEspera.estadisticas().get("rechazadosNodo"));
+    }
+
+    @Test
+    @DisplayName("Las concesiones no liberadas caducan y dejan de contar")
+    void concesionesCaducan() {
+        StreamAdmission a = admision(100, 0);
+        a.adquirir("u:ana", false);
+        a.adquirir("u:ana", false);
+
+        now.addAndGet(60_001);
+
+        assertNotNull(a.adquirir("u:ana", false));
+        assertEquals(1, a.activos());
+        assertEquals(2L, a.estadisticas().get("caducados"));
+    }
+
+    @Test
+    @DisplayName("Interceptor: 429 con Retry-After, libera al completar y no cuenta las peticiones meta")
+    void interceptor() throws Exception {
+        StreamAdmission a = admision(100, 0);
+        StreamAdmissionInterceptor interceptor = new StreamAdmissionInterceptor(a);
+
+        MockHttpServletRequest meta = peticion();
+        meta.setParameter("meta", "true");
+        assertTrue(interceptor.preHandle(meta, new MockHttpServletResponse(), null));
+        assertEquals(0, a.activos());
+
+        MockHttpServletRequest r1 = peticion();
+        MockHttpServletRequest r2 = peticion();
+        assertTrue(interceptor.preHandle(r1, new MockHttpServletResponse(), null));
+        assertTrue(interceptor.preHandle(r1, new MockHttpServletResponse(), null));
+        assertTrue(interceptor.preHandle(r2, new MockHttpServletResponse(), null));
+        assertEquals(2, a.activos());
+
+        MockHttpServletResponse rechazo = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(peticion(), rechazo, null));
+        assertEquals(429, rechazo.getStatus());
+        assertEquals("3", rechazo.getHeader("Retry-After"));
+
+        interceptor.afterCompletion(r1, new MockHttpServletResponse(), null, null);
+        assertEquals(1, a.activos());
+    }
+
+    private static MockHttpServletRequest peticion() {
+        MockHttpServletRequest r = new MockHttpServletRequest("GET", "/Contenidos/ReproducirContenido/c1");
+        r.addHeader("X-User-Email", "ana@x.com");
+        return r;
+    }
+}
@@ -0,0 +1,262 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.EsiMediaG03.dao.SubidaDAO;
+import com.EsiMediaG03.dto.CrearSubidaRequest;
+import com.EsiMediaG03.exceptions.SubidaException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Subida;
+import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.SubidaService;
+
+@ExtendWith(MockitoExtension.class)
+class SubidaServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    SubidaDAO subidaDAO;
+
+    @Mock
+    ContenidoService contenidoService;
+
+    private final Map<String, Subida> store = new HashMap<>();
+    private final byte[] video = mp4(10_000);
+
+    @BeforeEach
+    void daoEnMemoria() {
+        lenient().when(subidaDAO.save(any(Subida.class))).thenAnswer(inv -> {
+            Subida s = inv.getArgument(0);
+            if (s.getId() == null) s.setId("s" + (store.size() + 1));
+            store.put(s.getId(), s);
+            return s;
+        });
+        lenient().when(subidaDAO.findById(anyString())).thenAnswer(inv -> Optional.ofNullable(store.get(inv.getArgument(0))));
+    }
+
+    private SubidaService newService() throws Exception {
+        SubidaService svc = new SubidaService(subidaDAO, contenidoService,
+                dir.resolve("up").toString(), dir.resolve("media").toString(), 1 << 20, 4096, 24);
+        svc.init();
+        return svc;
+    }
+
+    private CrearSubidaRequest request(String sha) {
+        Contenido c = new Contenido();
+        c.setTipo(Contenido.Tipo.VIDEO);
+        c.setTitulo("Clip");
+        c.setTags(List.of("t"));
+        c.setDuracionMinutos(1);
+        CrearSubidaRequest r = new CrearSubidaRequest();
+        r.nombreFichero = "clip.mp4";
+        r.tamanoBytes = (long) video.length;
+        r.sha256 = sha;
+        r.contenido = c;
+        return r;
+    }
+
+    private static ReadableByteChannel body(byte[] data, int from, int to) {
+        return Channels.newChannel(new ByteArrayInputStream(Arrays.copyOfRange(data, from, to)));
+    }
+
+    private void enviarTodo(SubidaService svc, String id, int desde) throws Exception {
+        for (int off = desde; off < video.length; off += 4096) {
+            int end = Math.min(video.length, off + 4096);
+            svc.escribirFragmento(id, "a@esi.com", off, end - off, null, body(video, off, end));
+        }
+    }
+
+    @Test
+    @DisplayName("Fragmentos en orden -> Contenido con ruta, tamaño, MIME y SHA-256")
+    void subidaCompleta() throws Exception {
+        when(contenidoService.anadirContenido(any())).thenAnswer(inv -> inv.getArgument(0));
+        SubidaService svc = newService();
+        String sha = hex(video);
+        Subida s = svc.crear(request(sha), "a@esi.com", Contenido.Tipo.VIDEO);
+
+        enviarTodo(svc, s.getId(), 0);
+        Contenido c = svc.finalizar(s.getId(), "a@esi.com");
+
+        assertEquals(video.length, c.getTamanoBytes());
+        assertEquals("video/mp4", c.getMimeType());
+        assertEquals(sha, c.getChecksumSha256());
+        assertArrayEquals(video, Files.readAllBytes(Path.of(c.getUrlVideo())));
+        assertEquals(Subida.Estado.COMPLETADA, store.get(s.getId()).getEstado());
+    }
+
+    @Test
+    @DisplayName("Fragmento fuera de orden -> conflicto con el offset actual")
+    void fueraDeOrden() throws Exception {
+        SubidaService svc = newService();
+        Subida s = svc.crear(request(null), "a@esi.com", Contenido.Tipo.VIDEO);
+
+        SubidaException e = assertThrows(SubidaException.class,
+                () -> svc.escribirFragmento(s.getId(), "a@esi.com", 4096, 10, null, body(video, 4096, 4106)));
+        assertTrue(e.isConflicto());
+        assertEquals(0, e.getOffsetActual());
+    }
+
+    @Test
+    @DisplayName("Fragmento cortado a medias se descarta y se puede reenviar")
+    void fragmentoIncompleto() throws Exception {
+        when(contenidoService.anadirContenido(any())).thenAnswer(inv -> inv.getArgument(0));
+        SubidaService svc = newService();
+        Subida s = svc.crear(request(hex(video)), "a@esi.com", Contenido.Tipo.VIDEO);
+
+        assertThrows(SubidaException.class,
+                () -> svc.escribirFragmento(s.getId(), "a@esi.com", 0, 4096, null, body(video, 0, 1000)));
+        assertEquals(0, svc.estado(s.getId(), "a@esi.com").getRecibidos());
+
+        enviarTodo(svc, s.getId(), 0);
+        assertEquals(hex(video), svc.finalizar(s.getId(), "a@esi.com").getChecksumSha256());
+    }
+
+    @Test
+    @DisplayName("Fragmento con bytes de más o total distinto al de la sesión -> rechazado sin avanzar")
+    void fragmentoSobranteOTotalDistinto() throws Exception {
+        SubidaService svc = newService();
+        Subida s = svc.crear(request(null), "a@esi.com", Contenido.Tipo.VIDEO);
+
+        SubidaException sobra = assertThrows(SubidaException.class,
+                () -> svc.escribirFragmento(s.getId(), "a@esi.com", 0, 1000, null, body(video, 0, 1001)));
+        SubidaException total = assertThrows(SubidaException.class,
+                () -> svc.escribirFragmento(s.getId(), "a@esi.com", 0, 1000, (long) video.length + 1, body(video, 0, 1000)));
+
+        assertEquals("Fragmento más largo de lo declarado: se esperaban 1000 bytes.", sobra.getMessage());
+        assertTrue(total.getMessage().contains("no coincide"));
+        assertEquals(0, svc.estado(s.getId(), "a@esi.com").getRecibidos());
+        assertEquals(0, Files.size(dir.resolve("up").resolve(s.getId() + ".part")));
+    }
+
+    @Test
+    @DisplayName("Contenido eliminado: se borra el fichero subido, pero nunca uno fuera de media-dir")
+    void contenidoEliminadoBorraElFichero() throws Exception {
+        when(contenidoService.anadirContenido(any())).thenAnswer(inv -> inv.getArgument(0));
+        SubidaService svc = newService();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<java.util.function.Consumer<Path>> oyente = ArgumentCaptor.forClass(java.util.function.Consumer.class);
+        verify(contenidoService, atLeastOnce()).onFicheroHuerfano(oyente.capture());
+        Subida s = svc.crear(request(hex(video)), "a@esi.com", Contenido.Tipo.VIDEO);
+        enviarTodo(svc, s.getId(), 0);
+        Path publicado = Path.of(svc.finalizar(s.getId(), "a@esi.com").getUrlVideo());
+        Path ajeno = Files.write(dir.resolve("ajeno.mp4"), video);
+
+        oyente.getValue().accept(publicado);
+        oyente.getValue().accept(ajeno);
+
+        assertFalse(Files.exists(publicado));
+        assertTrue(Files.exists(ajeno));
+    }
+
+    @Test
+    @DisplayName("Reanudación tras reinicio: el SHA-256 se recalcula con lo ya recibido")
+    void reanudarTrasReinicio() throws Exception {
+        when(contenidoService.anadirContenido(any())).thenAnswer(inv -> inv.getArgument(0));
+        SubidaService primero = newService();
+        Subida s = primero.crear(request(hex(video)), "a@esi.com", Contenido.Tipo.VIDEO);
+        primero.escribirFragmento(s.getId(), "a@esi.com", 0, 4096, null, body(video, 0, 4096));
+
+        SubidaService tras = newService();
+        long offset = tras.estado(s.getId(), "a@esi.com").getRecibidos();
+        enviarTodo(tras, s.getId(), (int) offset);
+
+        assertEquals(hex(video), tras.finalizar(s.getId(), "a@esi.com").getChecksumSha256());
+    }
+
+    @Test
+    @DisplayName("Checksum distinto al declarado -> se descarta la subida")
+    void checksumIncorrecto() throws Exception {
+        SubidaService svc = newService();
+        Subida s = svc.crear(request("00"), "a@esi.com", Contenido.Tipo.VIDEO);
+        enviarTodo(svc, s.getId(), 0);
+
+        assertThrows(SubidaException.class, () -> svc.finalizar(s.getId(), "a@esi.com"));
+        assertFalse(Files.exists(dir.resolve("up").resolve(s.getId() + ".part")));
+    }
+
+    @Test
+    @DisplayName("Finalizar reintentado tras fallar el alta: el SHA-256 sigue siendo el de todo el fichero")
+    void finalizarReintentado() throws Exception {
+        when(contenidoService.anadirContenido(any()))
+                .thenThrow(new IllegalStateException("Mongo caído"))
+                .thenAnswer(inv -> inv.getArgument(0));
+        SubidaService svc = newService();
+        Subida s = svc.crear(request(hex(video)), "a@esi.com", Contenido.Tipo.VIDEO);
+        enviarTodo(svc, s.getId(), 0);
+
+        assertThrows(IllegalStateException.class, () -> svc.finalizar(s.getId(), "a@esi.com"));
+        assertEquals(hex(video), svc.finalizar(s.getId(), "a@esi.com").getChecksumSha256());
+    }
+
+    @Test
+    @DisplayName("Limpieza: descarta sesiones abiertas caducadas y ficheros parciales huérfanos")
+    void purgarCaducadas() throws Exception {
+        SubidaService svc = newService();
+        Subida s = svc.crear(request(null), "a@esi.com", Contenido.Tipo.VIDEO);
+        svc.escribirFragmento(s.getId(), "a@esi.com", 0, 4096, null, body(video, 0, 4096));
+        when(subidaDAO.findByEstadoAndActualizadaBefore(eq(Subida.Estado.ABIERTA), any(LocalDateTime.class)))
+                .thenReturn(List.of(s));
+        Path huerfana = dir.resolve("up").resolve("huerfana.part");
+        Files.write(huerfana, new byte[10]);
+        Files.setLastModifiedTime(huerfana, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        Path reciente = dir.resolve("up").resolve("reciente.part");
+        Files.write(reciente, new byte[10]);
+
+        assertEquals(1, svc.purgarCaducadas());
+
+        assertFalse(Files.exists(dir.resolve("up").resolve(s.getId() + ".part")));
+        verify(subidaDAO).deleteById(s.getId());
+        assertFalse(Files.exists(huerfana));
+        assertTrue(Files.exists(reciente));
+        svc.shutdown();
+    }
+
+    private static byte[] mp4(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) b[i] = (byte) (i * 7);
+        byte[] head = {0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+        System.arraycopy(head, 0, b, 0, head.length);
+        return b;
+    }
+
+    private static String hex(byte[] data) throws Exception {
+        return java.util.HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
@@ -1,19 +1,20 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import static org.mockito.Mockito.lenient;
@@ -23,6 +24,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
@@ -32,6 +34,8 @@ import com.EsiMediaG03.exceptions.ContenidoValidationException;
 import com.EsiMediaG03.http.ContenidoController;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.ReproduccionesWriteBehind;
 
 @ExtendWith(MockitoExtension.class)
 class TDDValoracionContenidoTest {
@@ -39,6 +43,8 @@ class TDDValoracionContenidoTest {
 
     @Mock ContenidoDAO contenidoDAO;
     @Mock MongoTemplate mongoTemplate;
+    @Mock InteraccionesService interacciones;
+    @Mock ReproduccionesWriteBehind reproduccionesWriteBehind;
     @InjectMocks ContenidoService serviceUnderTest;
 
     @Mock ContenidoService contenidoServiceMock;
@@ -55,11 +61,6 @@ class TDDValoracionContenidoTest {
             idField.set(contenido, "C1");
         } catch (Exception ignored) {}
 
-        
-        contenido.setReproductores(new HashSet<>(List.of("user@esi.com")));
-
-    
-        contenido.setRatings(new HashMap<>()); 
         contenido.setRatingAvg(0.0);
         contenido.setRatingCount(0);
     }
@@ -72,33 +73,66 @@ class TDDValoracionContenidoTest {
         void initServiceStubs() {
         
             lenient().when(contenidoDAO.findById("C1")).thenReturn(Optional.of(contenido));
+            lenient().when(interacciones.haReproducido("C1", "user@esi.com")).thenReturn(true);
+            lenient().when(interacciones.valorar(eq("C1"), eq("user@esi.com"), anyDouble())).thenReturn(true, false);
+            lenient().when(interacciones.reclamarPendiente("C1", "user@esi.com")).thenReturn(null);
+            // El agregado lo recalcula Mongo; aquí se simula sobre el contenido de prueba
+            lenient().when(interacciones.acumularValoracion(eq("C1"), eq("user@esi.com"), anyDouble())).thenAnswer(inv -> {
+                double score = inv.getArgument(2);
+                double suma = contenido.getRatingSum() == null ? 0 : contenido.getRatingSum();
+                contenido.setRatingSum(suma + score);
+                contenido.setRatingCount(contenido.getRatingCount() + 1);
+                contenido.setRatingAvg(contenido.getRatingSum() / contenido.getRatingCount());
+                return contenido;
+            });
         }
 
         @Test
         @DisplayName("Primera valoración (4.5) -> count=1 y avg=4.5")
         void primerVoto_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
             Map<String,Object> res = serviceUnderTest.rateContenido("C1", "user@esi.com", 4.5);
             assertEquals(1, res.get("count"));
             assertEquals(4.5, (double)res.get("avg"), 1e-9);
-            verify(contenidoDAO, times(1)).save(any());
+            // Sin lectura-modificación-escritura del documento completo
+            verify(contenidoDAO, never()).findById(any());
+            verify(contenidoDAO, never()).save(any());
+        }
+
+        @Test
+        @DisplayName("Reproductor aún en el buffer write-behind: puede valorar sin esperar al volcado")
+        void reproductorSinVolcar_puedeValorar() {
+            when(reproduccionesWriteBehind.reproductorPendiente("C1", "otro@esi.com")).thenReturn(true);
+            when(interacciones.valorar("C1", "otro@esi.com", 4.0)).thenReturn(true);
+            when(interacciones.acumularValoracion("C1", "otro@esi.com", 4.0)).thenReturn(contenido);
+
+            serviceUnderTest.rateContenido("C1", "otro@esi.com", 4.0);
+
+            verify(interacciones, never()).haReproducido("C1", "otro@esi.com");
+            verify(interacciones).acumularValoracion("C1", "otro@esi.com", 4.0);
         }
 
         @Test
         @DisplayName("Duplicado: el mismo usuario no puede volver a valorar")
         void votoDuplicado_noPermitido() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
-        
             serviceUnderTest.rateContenido("C1", "user@esi.com", 3.0);
 
-            
             assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "user@esi.com", 5.0));
 
-    
-            verify(contenidoDAO, times(1)).save(any());
+            verify(interacciones, times(1)).acumularValoracion(eq("C1"), eq("user@esi.com"), anyDouble());
+        }
+
+        @Test
+        @DisplayName("Reintento tras fallar la suma: completa la valoración guardada con su puntuación original")
+        void reintento_completaPendiente() {
+            when(interacciones.valorar(eq("C1"), eq("user@esi.com"), anyDouble())).thenReturn(false);
+            when(interacciones.reclamarPendiente("C1", "user@esi.com")).thenReturn(4.5);
+
+            Map<String,Object> res = serviceUnderTest.rateContenido("C1", "user@esi.com", 1.0);
+
+            assertEquals(1, res.get("count"));
+            assertEquals(4.5, (double) res.get("avg"), 1e-9);
+            verify(interacciones).acumularValoracion("C1", "user@esi.com", 4.5);
         }
 
         @Test
@@ -120,21 +154,39 @@ class TDDValoracionContenidoTest {
         @Test
         @DisplayName("Usuario no reprodujo -> ContenidoException")
         void noReprodujo_forbidden() {
-            assertThrows(ContenidoException.class,
+            when(mongoTemplate.exists(any(Query.class), eq(Contenido.class))).thenReturn(true);
+            ContenidoException ex = assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "otro@esi.com", 4.0));
-            verify(contenidoDAO, never()).save(any());
+            assertTrue(ex.getMessage().contains("reproducir"));
+            verify(interacciones, never()).valorar(any(), any(), anyDouble());
         }
 
         @Test
         @DisplayName("Resumen -> devuelve count y avg")
         void resumen_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
             serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
             Map<String,Object> res = serviceUnderTest.ratingResumen("C1");
             assertEquals(1, res.get("count"));
             assertEquals(4.0, (double)res.get("avg"), 1e-9);
         }
+
+        @Test
+        @DisplayName("Resumen -> histograma de medias estrellas con las casillas vacías a 0 y puntuación bayesiana")
+        void resumen_histograma() {
+            contenido.setRatingCount(3);
+            contenido.setRatingAvg(4.0);
+            contenido.setRatingBayes(3.65);
+            contenido.setRatingHistograma(Map.of("4_5", 2L, "3_0", 1L));
+
+            Map<String,Object> res = serviceUnderTest.ratingResumen("C1");
+
+            Map<?, ?> hist = (Map<?, ?>) res.get("histograma");
+            assertEquals(10, hist.size());
+            assertEquals(2L, hist.get("4.5"));
+            assertEquals(1L, hist.get("3.0"));
+            assertEquals(0L, hist.get("0.5"));
+            assertEquals(3.65, (double) res.get("bayes"), 1e-9);
+        }
     }
 
     @Nested
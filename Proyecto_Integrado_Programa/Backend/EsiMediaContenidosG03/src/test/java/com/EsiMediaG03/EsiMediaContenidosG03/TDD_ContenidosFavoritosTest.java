@@ -4,12 +4,12 @@ import com.EsiMediaG03.dao.ListaPublicaDAO;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.model.ListaPublica;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.InteraccionesService;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.security.access.AccessDeniedException;
 
 import java.util.List;
@@ -27,6 +27,9 @@ class TDD_ContenidosFavoritosTest {
     @Mock
     ListaPublicaDAO listaPublicaDAO;
 
+    @Mock
+    InteraccionesService interacciones;
+
     @InjectMocks
     ContenidoService service;
 
@@ -46,7 +49,8 @@ class TDD_ContenidosFavoritosTest {
 
         service.addFavorito("CNT-123", EMAIL_USUARIO, ROLE_USUARIO);
 
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, times(1)).addFavorito("CNT-123", EMAIL_USUARIO);
+        verify(mongoTemplate).findById("CNT-123", Contenido.class);
         verifyNoMoreInteractions(mongoTemplate);
     }
 
@@ -60,7 +64,7 @@ class TDD_ContenidosFavoritosTest {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-PRIV", EMAIL_USUARIO, ROLE_USUARIO));
 
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verifyNoInteractions(interacciones);
     }
 
     @Test
@@ -68,7 +72,7 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_gestor() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-999", EMAIL_GESTOR, ROLE_GESTOR));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verifyNoInteractions(interacciones);
         verifyNoInteractions(listaPublicaDAO);
     }
 
@@ -77,24 +81,21 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_admin() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-777", EMAIL_ADMIN, ROLE_ADMIN));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verifyNoInteractions(interacciones);
         verifyNoInteractions(listaPublicaDAO);
     }
 
     @Test
-    @DisplayName("removeFavorito -> idempotente ($pull); no falla si no estaba")
+    @DisplayName("removeFavorito -> idempotente; no falla si no estaba")
     void removeFavorito_ok() {
         service.removeFavorito("CNT-XYZ", EMAIL_USUARIO);
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(interacciones, times(1)).removeFavorito("CNT-XYZ", EMAIL_USUARIO);
     }
 
     @Test
     @DisplayName("listFavoritosIds -> devuelve IDs en el orden obtenido")
     void listFavoritos_returnsIds() {
-        Contenido cA = mock(Contenido.class); when(cA.getId()).thenReturn("C3");
-        Contenido cB = mock(Contenido.class); when(cB.getId()).thenReturn("C2");
-        Contenido cC = mock(Contenido.class); when(cC.getId()).thenReturn("C1");
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(cA, cB, cC));
+        when(interacciones.favoritosDe(EMAIL_USUARIO)).thenReturn(List.of("C3", "C2", "C1"));
 
         List<String> ids = service.listFavoritosIds(EMAIL_USUARIO);
 
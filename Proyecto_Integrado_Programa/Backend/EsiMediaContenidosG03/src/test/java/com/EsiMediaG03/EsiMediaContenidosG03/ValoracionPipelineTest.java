@@ -0,0 +1,251 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.exceptions.ContenidoException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.Reproductor;
+import com.EsiMediaG03.model.Valoracion;
+import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.InteraccionesService;
+import com.EsiMediaG03.services.ReproduccionesWriteBehind;
+import com.mongodb.client.result.UpdateResult;
+
+/**
+ * Lógica del flujo de valoración (marca, suma, desmarcado y recuperación) frente a
+ * fallos entre escrituras. El MongoTemplate simulado imita las garantías en las que
+ * se apoya el servicio: _id único en valoraciones y cada findAndModify aplicado de
+ * forma atómica sobre el documento, evaluando el pipeline que genera el servicio
+ * (PipelineSimulado) en lugar de una reimplementación. Falla una vez en cada punto
+ * entre las escrituras (antes de sumar, tras sumar sin respuesta, al desmarcar la
+ * valoración y al retirar la marca), los clientes reintentan y al final pasa la
+ * recuperación de pendientes del arranque. Con inserción y suma sin marca, un fallo
+ * entre ambas dejaba votos sin contar o contados dos veces.
+ *
+ * Las peticiones se lanzan en paralelo para intercalar reintentos y reclamaciones,
+ * pero no es una prueba de carga ni de concurrencia del servidor: la atomicidad la
+ * pone el simulador, no un mongod real, y no mide rendimiento.
+ */
+@ExtendWith(MockitoExtension.class)
+class ValoracionPipelineTest {
+
+    private static final int USUARIOS = 400;
+    private static final int INTENTOS_POR_USUARIO = 3;
+    private static final int HILOS = 32;
+    private static final int MAX_REINTENTOS = 10;
+    private static final long RECLAMACION_MS = 1000;
+
+    /** Punto en el que falla, una sola vez, la primera petición de cada usuario (u % 5). */
+    private enum Fallo { NINGUNO, ANTES_DE_SUMAR, TRAS_SUMAR, AL_DESMARCAR, AL_RETIRAR_MARCA }
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock ContenidoDAO contenidoDAO;
+    @Mock InteraccionesService interacciones;
+    @Mock ReproduccionesWriteBehind reproduccionesWriteBehind;
+    @InjectMocks ContenidoService service;
+    private InteraccionesService real;
+
+    private final Map<String, Valoracion> valoraciones = new ConcurrentHashMap<>();
+    // Contenido anterior a ratingSum: dos valoraciones con media 4.0
+    private final Document documento = new Document("_id", "C1").append("ratingAvg", 4.0).append("ratingCount", 2);
+    private final Set<String> fallados = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger aplicados = new AtomicInteger();
+
+    @BeforeEach
+    void servidorSimulado() {
+        when(mongoTemplate.exists(any(Query.class), eq(Reproductor.class))).thenReturn(true);
+        when(mongoTemplate.insert(any(Valoracion.class))).thenAnswer(inv -> {
+            Valoracion v = inv.getArgument(0);
+            if (valoraciones.putIfAbsent(v.getId(), v) != null) throw new DuplicateKeyException("E11000 " + v.getId());
+            return v;
+        });
+        // Reclamación atómica: sólo si sigue pendiente y la reclamación anterior caducó
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Valoracion.class))).thenAnswer(inv -> {
+            Valoracion v = valoraciones.get(inv.<Query>getArgument(0).getQueryObject().getString("_id"));
+            if (v == null) return null;
+            synchronized (v) {
+                if (!Boolean.TRUE.equals(v.getPendiente()) || v.getReclamadaHasta().isAfter(LocalDateTime.now())) return null;
+                v.setReclamadaHasta((LocalDateTime) ((Document) inv.<Update>getArgument(1).getUpdateObject().get("$set"))
+                        .get("reclamadaHasta"));
+                return v;
+            }
+        });
+        when(mongoTemplate.find(any(Query.class), eq(Valoracion.class))).thenAnswer(inv -> valoraciones.values().stream()
+                .filter(v -> Boolean.TRUE.equals(v.getPendiente()) && v.getReclamadaHasta().isBefore(LocalDateTime.now()))
+                .toList());
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(Contenido.class)))
+                .thenAnswer(inv -> aplicar(inv.getArgument(0), inv.getArgument(1)));
+        when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenAnswer(inv -> {
+            synchronized (documento) {
+                return aContenido(documento);
+            }
+        });
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Valoracion.class)))
+                .thenAnswer(inv -> {
+                    String voto = inv.<Query>getArgument(0).getQueryObject().getString("_id");
+                    fallarUnaVez(voto, Fallo.AL_DESMARCAR);
+                    Valoracion v = valoraciones.get(voto);
+                    synchronized (v) {
+                        v.setPendiente(null);
+                        v.setReclamadaHasta(null);
+                    }
+                    return UpdateResult.acknowledged(1, 1L, null);
+                });
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Contenido.class)))
+                .thenAnswer(inv -> {
+                    Object voto = ((Document) inv.<Update>getArgument(1).getUpdateObject().get("$pull")).get("ratingAplicando");
+                    fallarUnaVez((String) voto, Fallo.AL_RETIRAR_MARCA);
+                    synchronized (documento) {
+                        documento.getList("ratingAplicando", Object.class).remove(voto);
+                    }
+                    return UpdateResult.acknowledged(1, 1L, null);
+                });
+
+        real = new InteraccionesService(mongoTemplate, false, 3.5, 10, RECLAMACION_MS);
+        when(interacciones.haReproducido(anyString(), anyString())).thenAnswer(delegatesTo(real));
+        when(interacciones.valorar(anyString(), anyString(), anyDouble())).thenAnswer(delegatesTo(real));
+        when(interacciones.reclamarPendiente(anyString(), anyString())).thenAnswer(delegatesTo(real));
+        when(interacciones.acumularValoracion(anyString(), anyString(), anyDouble())).thenAnswer(delegatesTo(real));
+    }
+
+    private static Fallo falloDe(String voto) {
+        int u = Integer.parseInt(voto.substring(voto.indexOf(":u") + 2, voto.indexOf('@')));
+        return Fallo.values()[u % Fallo.values().length];
+    }
+
+    private void fallarUnaVez(String voto, Fallo punto) {
+        if (falloDe(voto) == punto && fallados.add(voto)) throw new DataAccessResourceFailureException("caída simulada");
+    }
+
+    /** findAndModify atómico: filtra por la marca de la valoración y evalúa el pipeline sobre el documento. */
+    private Contenido aplicar(Query query, UpdateDefinition update) {
+        String voto = ((Document) query.getQueryObject().get("ratingAplicando")).getString("$ne");
+        fallarUnaVez(voto, Fallo.ANTES_DE_SUMAR);
+        synchronized (documento) {
+            List<?> aplicando = documento.getList("ratingAplicando", Object.class);
+            if (aplicando != null && aplicando.contains(voto)) return null;
+            PipelineSimulado.aplicar(update, documento);
+            documento.put("ratingAplicando", new ArrayList<>(documento.getList("ratingAplicando", Object.class)));
+            aplicados.incrementAndGet();
+            Contenido c = aContenido(documento);
+            fallarUnaVez(voto, Fallo.TRAS_SUMAR);
+            return c;
+        }
+    }
+
+    private static Contenido aContenido(Document d) {
+        Contenido c = new Contenido();
+        c.setRatingCount(((Number) d.get("ratingCount")).intValue());
+        c.setRatingAvg(((Number) d.get("ratingAvg")).doubleValue());
+        c.setRatingSum(d.get("ratingSum") == null ? null : ((Number) d.get("ratingSum")).doubleValue());
+        return c;
+    }
+
+    @Test
+    @DisplayName("Fallos entre escrituras y reintentos: ninguna valoración se pierde ni cuenta dos veces")
+    void sinValoracionesPerdidas() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(HILOS);
+        CountDownLatch salida = new CountDownLatch(1);
+        LongAdder aceptadas = new LongAdder();
+        LongAdder rechazadas = new LongAdder();
+        Set<String> conExito = ConcurrentHashMap.newKeySet();
+        try {
+            List<Future<?>> tareas = new ArrayList<>();
+            for (int u = 0; u < USUARIOS; u++) {
+                for (int intento = 0; intento < INTENTOS_POR_USUARIO; intento++) {
+                    String email = "u" + u + "@esi.com";
+                    double score = 0.5 * (1 + (u + intento) % 10);
+                    tareas.add(pool.submit(() -> {
+                        salida.await();
+                        for (int r = 0; r < MAX_REINTENTOS; r++) {
+                            try {
+                                service.rateContenido("C1", email, score);
+                                aceptadas.increment();
+                                conExito.add(email);
+                                return null;
+                            } catch (ContenidoException e) {
+                                rechazadas.increment();
+                                return null;
+                            } catch (DataAccessResourceFailureException e) {
+                                // el cliente reintenta
+                            }
+                        }
+                        throw new AssertionError("Sin respuesta tras " + MAX_REINTENTOS + " intentos: " + email);
+                    }));
+                }
+            }
+            salida.countDown();
+            for (Future<?> f : tareas) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Todas las peticiones terminan. Un reintento mientras otra petición tiene
+        // reclamada la valoración recibe "ya valorado"; las que queden pendientes
+        // las completa la pasada de arranque cuando caduca la reclamación.
+        assertEquals((long) USUARIOS * INTENTOS_POR_USUARIO, aceptadas.sum() + rechazadas.sum());
+        assertTrue(conExito.size() >= USUARIOS - USUARIOS / Fallo.values().length * 3);
+        Thread.sleep(RECLAMACION_MS + 50);
+        real.completarPendientes();
+        assertEquals(USUARIOS, valoraciones.size());
+        assertTrue(valoraciones.values().stream().allMatch(v -> v.getPendiente() == null));
+        // Cada valoración se sumó exactamente una vez, sobre la suma reconstruida del legado (2 x 4.0)
+        assertEquals(USUARIOS, aplicados.get());
+        assertEquals(USUARIOS + 2L, ((Number) documento.get("ratingCount")).longValue());
+        double esperada = 8.0 + valoraciones.values().stream().mapToDouble(Valoracion::getScore).sum();
+        assertEquals(esperada, ((Number) documento.get("ratingSum")).doubleValue(), 1e-6);
+        assertEquals(esperada / (USUARIOS + 2), ((Number) documento.get("ratingAvg")).doubleValue(), 1e-9);
+        assertEquals((35.0 + esperada) / (10 + USUARIOS + 2), ((Number) documento.get("ratingBayes")).doubleValue(), 1e-9);
+        // Histograma de medias estrellas: una entrada por valoración guardada, en su casilla
+        Map<String, Long> esperado = new HashMap<>();
+        valoraciones.values().forEach(v -> esperado.merge(InteraccionesService.claveHistograma(v.getScore()), 1L, Long::sum));
+        assertEquals(new Document(esperado), documento.get("ratingHistograma"));
+        // Sólo quedan las marcas cuya retirada falló (no afectan al agregado)
+        Set<Object> marcas = new HashSet<>(documento.getList("ratingAplicando", Object.class));
+        assertTrue(marcas.stream().allMatch(v -> falloDe((String) v) == Fallo.AL_RETIRAR_MARCA));
+        assertTrue(valoraciones.values().stream().allMatch(v -> "C1".equals(v.getContenidoId())));
+        verify(contenidoDAO, never()).save(any());
+    }
+}